@@ -0,0 +1,153 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.policymanager.PolicyManager.events.DecisionBatch;
+import edu.cmu.policymanager.PolicyManager.events.DecisionEventBus;
+import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
+import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Tests that the DecisionEventBus adds up decisions per app, permission and purpose, and
+ * delivers each window's decisions once.
+ * */
+@RunWith(AndroidJUnit4.class)
+public class DecisionEventBusTests {
+    public static final String YELP = "com.android.yelp",
+                               FACEBOOK = "com.facebook.katana";
+
+    private static final long WINDOW_MILLIS = 100;
+
+    private DecisionEventBus bus;
+    private final List<List<DecisionBatch>> deliveries = new ArrayList<List<DecisionBatch>>();
+
+    private final DecisionEventBus.Subscriber subscriber = new DecisionEventBus.Subscriber() {
+        @Override
+        public void onDecisions(List<DecisionBatch> batches) {
+            synchronized(deliveries) { deliveries.add(batches); }
+        }
+    };
+
+    @Before
+    public void setup() {
+        bus = new DecisionEventBus(WINDOW_MILLIS);
+        deliveries.clear();
+    }
+
+    @Test
+    public void testDecisionEventBus_batchesAccessesInAWindow() {
+        bus.subscribe(subscriber);
+
+        for(int i = 0; i < 300; i++) {
+            bus.post(YELP,
+                     DangerousPermissions.FINE_LOCATION,
+                     Purposes.SEARCH_NEARBY_PLACES,
+                     "User Settings",
+                     i % 3 != 0);
+        }
+
+        bus.post(FACEBOOK,
+                 DangerousPermissions.CAMERA,
+                 Purposes.SEARCH_NEARBY_PLACES,
+                 "Quick Settings",
+                 false);
+
+        TestUtils.pause(WINDOW_MILLIS * 5);
+
+        synchronized(deliveries) {
+            assertEquals(1, deliveries.size());
+
+            List<DecisionBatch> batches = deliveries.get(0);
+            assertEquals(2, batches.size());
+
+            DecisionBatch yelp = batches.get(0);
+            assertEquals(YELP, yelp.packageName);
+            assertEquals(300, yelp.getCount());
+            assertEquals(200, yelp.getAllowedCount());
+            assertEquals(100, yelp.getDeniedCount());
+            assertTrue(yelp.latestWasAllowed());
+            assertEquals("User Settings", yelp.getLatestSource());
+
+            DecisionBatch facebook = batches.get(1);
+            assertEquals(FACEBOOK, facebook.packageName);
+            assertEquals(1, facebook.getDeniedCount());
+            assertFalse(facebook.latestWasAllowed());
+        }
+
+        assertEquals(301, bus.getPostedCount());
+        assertEquals(1, bus.getDeliveredCount());
+    }
+
+    @Test
+    public void testDecisionEventBus_nextWindowStartsAfterDelivery() {
+        bus.subscribe(subscriber);
+
+        bus.post(YELP, DangerousPermissions.CAMERA, Purposes.SEARCH_NEARBY_PLACES, "Work", false);
+        TestUtils.pause(WINDOW_MILLIS * 5);
+
+        bus.post(YELP, DangerousPermissions.CAMERA, Purposes.SEARCH_NEARBY_PLACES, "Work", false);
+        TestUtils.pause(WINDOW_MILLIS * 5);
+
+        synchronized(deliveries) {
+            assertEquals(2, deliveries.size());
+            assertEquals(1, deliveries.get(1).get(0).getCount());
+        }
+    }
+
+    @Test
+    public void testDecisionEventBus_flushDeliversRightAway() {
+        bus.subscribe(subscriber);
+
+        bus.post(YELP, DangerousPermissions.CAMERA, Purposes.SEARCH_NEARBY_PLACES, "Work", true);
+        bus.flush();
+
+        synchronized(deliveries) { assertEquals(1, deliveries.size()); }
+
+        TestUtils.pause(WINDOW_MILLIS * 5);
+
+        synchronized(deliveries) { assertEquals(1, deliveries.size()); }
+    }
+
+    @Test
+    public void testDecisionEventBus_dropsDecisionsWithoutSubscribers() {
+        bus.post(YELP, DangerousPermissions.CAMERA, Purposes.SEARCH_NEARBY_PLACES, "Work", true);
+        bus.subscribe(subscriber);
+        bus.flush();
+
+        synchronized(deliveries) { assertTrue(deliveries.isEmpty()); }
+        assertEquals(0, bus.getPostedCount());
+    }
+
+    @Test
+    public void testDecisionEventBus_busesShareOneThread() {
+        for(int i = 0; i < 20; i++) {
+            DecisionEventBus other = new DecisionEventBus(WINDOW_MILLIS);
+            other.subscribe(subscriber);
+            other.post(YELP, DangerousPermissions.CAMERA, Purposes.SEARCH_NEARBY_PLACES, "Work",
+                       true);
+        }
+
+        TestUtils.pause(WINDOW_MILLIS * 5);
+
+        int threads = 0;
+
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(thread.getName().equals("DecisionEventBus")) { threads++; }
+        }
+
+        assertEquals(1, threads);
+
+        synchronized(deliveries) { assertEquals(20, deliveries.size()); }
+    }
+}
@@ -0,0 +1,94 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.Manifest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
+import edu.cmu.policymanager.peandroid.DecisionResponder;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DecisionResponderTests {
+    public static final String YELP = "com.android.yelp";
+
+    @Test
+    public void testResponder_firstDecisionWins() {
+        DecisionResponder responder = new DecisionResponder(null);
+
+        assertFalse(responder.isComplete());
+        assertEquals(-1L, responder.getLatencyNanos());
+
+        assertTrue(responder.deny());
+        assertFalse(responder.allow());
+
+        assertTrue(responder.isComplete());
+        assertFalse(responder.wasAllowed());
+        assertTrue(responder.getCompletionTimeMillis() > 0);
+        assertTrue(responder.getLatencyNanos() >= 0);
+    }
+
+    @Test
+    public void testResponder_concurrentDecisionsCompleteOnce() throws InterruptedException {
+        final DecisionResponder responder = new DecisionResponder(null);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger decided = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+
+        for(int i = 0; i < threads.length; i++) {
+            final boolean allow = (i % 2 == 0);
+
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch(InterruptedException ie) {
+                        return;
+                    }
+
+                    if(allow ? responder.allow() : responder.deny()) {
+                        decided.incrementAndGet();
+                    }
+                }
+            };
+
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for(Thread thread : threads) { thread.join(); }
+
+        assertEquals(1, decided.get());
+        assertTrue(responder.isComplete());
+    }
+
+    @Test
+    public void testResponder_copiedRequestSharesResponder() {
+        PermissionRequest request = PermissionRequest.builder()
+                                                     .setPackageName(YELP)
+                                                     .setPermission(Manifest.permission.CAMERA)
+                                                     .build();
+
+        PermissionRequest copy = PermissionRequest.builder()
+                                                  .setPackageName(request.packageName)
+                                                  .setPermission(Manifest.permission.CAMERA)
+                                                  .setResponder(request.responder)
+                                                  .build();
+
+        assertSame(request.responder, copy.responder);
+
+        copy.responder.allow();
+
+        assertTrue(request.responder.wasAllowed());
+    }
+}
@@ -0,0 +1,102 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.Manifest;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.PolicyManager.enforcement.EnforcementStatus;
+import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyEnforcement;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyEnforcementDecorator;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyProfileCheck;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyStub;
+import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck;
+import edu.cmu.policymanager.PolicyManager.enforcement.UserSettingCheck;
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Tests that enforcing a chain records the stages that ran and the status it ended with.
+ * */
+@RunWith(AndroidJUnit4.class)
+public class EnforcementMetricsTests {
+    public static final String YELP = "com.android.yelp";
+    private static DataRepository repository;
+
+    @BeforeClass
+    public static void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        DataRepository.init(context, DataRepository.StorageType.IN_MEMORY);
+        repository = DataRepository.fromMemory();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        repository.syncUninstallApp(YELP);
+        TestUtils.pause(100);
+    }
+
+    @Before
+    public void resetMetrics() { EnforcementMetrics.reset(); }
+
+    @Test
+    public void testEnforcementMetrics_recordsStagesThatRan() {
+        QuickSettingCheck.setQuickSetting(Manifest.permission.CAMERA, false);
+
+        try {
+            PermissionRequest request = PermissionRequest.builder()
+                                                         .setPackageName(YELP)
+                                                         .setPermission(Manifest.permission.CAMERA)
+                                                         .build();
+
+            PolicyEnforcement chain = new PolicyProfileCheck(
+                    new QuickSettingCheck(
+                            new UserSettingCheck(
+                                    new PolicyStub(request)
+                            )
+                    )
+            );
+
+            assertEquals(EnforcementStatus.Code.QUICKSETTING_DISABLED,
+                         PolicyEnforcementDecorator.enforce(chain));
+        } finally {
+            QuickSettingCheck.setQuickSetting(Manifest.permission.CAMERA, true);
+        }
+
+        assertEquals(1, EnforcementMetrics.getCount(EnforcementStatus.Code.QUICKSETTING_DISABLED));
+        assertEquals(1, count(EnforcementMetrics.Stage.ENFORCEMENT_CHAIN));
+        assertEquals(1, count(EnforcementMetrics.Stage.POLICY_PROFILE));
+        assertEquals(1, count(EnforcementMetrics.Stage.QUICK_SETTING));
+        assertEquals(0, count(EnforcementMetrics.Stage.USER_SETTING));
+
+        /* Both are rounded up to the top of their bucket, so the stage is never longer. */
+        assertTrue(EnforcementMetrics.getHistogram(EnforcementMetrics.Stage.QUICK_SETTING)
+                                     .getMax() <=
+                   EnforcementMetrics.getHistogram(EnforcementMetrics.Stage.ENFORCEMENT_CHAIN)
+                                     .getMax());
+    }
+
+    @Test
+    public void testEnforcementMetrics_dumpListsEveryStage() {
+        String dump = EnforcementMetrics.dump();
+
+        for(EnforcementMetrics.Stage stage : EnforcementMetrics.Stage.values()) {
+            assertTrue(dump.contains(stage.name().toLowerCase()));
+        }
+    }
+
+    private static long count(EnforcementMetrics.Stage stage) {
+        return EnforcementMetrics.getHistogram(stage).getCount();
+    }
+}
@@ -0,0 +1,239 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.Manifest;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.db.dao.PolicyProfileSettingDAO;
+import edu.cmu.policymanager.PolicyManager.PolicyManager;
+import edu.cmu.policymanager.PolicyManager.enforcement.EnforcementPlan;
+import edu.cmu.policymanager.PolicyManager.enforcement.EnforcementStatus;
+import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyEnforcement;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyStub;
+import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck;
+import edu.cmu.policymanager.PolicyManager.enforcement.UserSettingCheck;
+import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
+import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
+import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
+import edu.cmu.policymanager.PolicyManager.replay.RecordedRequest;
+import edu.cmu.policymanager.PolicyManager.replay.ReplayDriver;
+import edu.cmu.policymanager.PolicyManager.replay.ReplayReport;
+import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Tests that the enforcement checks decide from one EnforcementPlan per request, and replays
+ * a mix of requests through the per-check database lookups and through the enforcement
+ * pipeline, which decides from the plan, to compare the decisions and the database queries
+ * each makes. The time each takes is logged.
+ * */
+@RunWith(AndroidJUnit4.class)
+public class EnforcementPlanTests {
+    public static final String YELP = "com.android.yelp";
+
+    private static final String TAG = "EnforcementPlanTests";
+    private static final int REPLAY_ROUNDS = 200;
+
+    private static DataRepository repository;
+    private static UserPolicy allowPolicy, askPolicy, researchPolicy, gamePolicy;
+    private static PermissionRequest allowRequest, askRequest, undecidedRequest;
+
+    @BeforeClass
+    public static void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        DataRepository.init(context, DataRepository.StorageType.IN_MEMORY);
+        repository = DataRepository.fromMemory();
+        repository.syncLogInstallInfo(YELP, ODPFactory.createODPFromManifest());
+
+        allowPolicy = UserPolicy.createAppPolicy(YELP,
+                                                 DangerousPermissions.FINE_LOCATION,
+                                                 Purposes.SEARCH_NEARBY_PLACES,
+                                                 ThirdPartyLibraries.FLURRY);
+
+        askPolicy = UserPolicy.createAppPolicy(YELP,
+                                               DangerousPermissions.FINE_LOCATION,
+                                               Purposes.SECURING_DEVICE,
+                                               ThirdPartyLibraries.FLURRY);
+
+        /* What a micro PAL module asks for: the purposes of "Research: " and "Game: ". */
+        researchPolicy = UserPolicy.createAppPolicy(YELP,
+                                                    DangerousPermissions.FINE_LOCATION,
+                                                    Purposes.CONDUCTING_RESEARCH,
+                                                    ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE);
+
+        gamePolicy = UserPolicy.createAppPolicy(YELP,
+                                                DangerousPermissions.FINE_LOCATION,
+                                                Purposes.PLAYING_GAMES,
+                                                ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE);
+
+        allowPolicy.allow();
+        askPolicy.ask();
+        researchPolicy.allow();
+        gamePolicy.deny();
+
+        PolicyManager.getInstance().syncAdd(allowPolicy);
+        PolicyManager.getInstance().syncAdd(askPolicy);
+        PolicyManager.getInstance().syncAdd(researchPolicy);
+        PolicyManager.getInstance().syncAdd(gamePolicy);
+
+        allowRequest = requestFor(Purposes.SEARCH_NEARBY_PLACES.name);
+        askRequest = requestFor(Purposes.SECURING_DEVICE.name);
+        undecidedRequest = requestFor(Purposes.DISPLAY_ADVERTISEMENT.name);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        repository.syncRemoveAppPolicy(allowPolicy);
+        repository.syncRemoveAppPolicy(askPolicy);
+        repository.syncRemoveAppPolicy(researchPolicy);
+        repository.syncRemoveAppPolicy(gamePolicy);
+        repository.syncUninstallApp(YELP);
+        TestUtils.pause(100);
+    }
+
+    private static PermissionRequest requestFor(CharSequence purpose) {
+        return PermissionRequest.builder()
+                                .setPackageName(YELP)
+                                .setPermission(Manifest.permission.ACCESS_FINE_LOCATION)
+                                .setPurpose(purpose)
+                                .setLibrary(ThirdPartyLibraries.FLURRY)
+                                .build();
+    }
+
+    @Test
+    public void testEnforcementPlan_settingsAreReadOnce() {
+        EnforcementPlan plan = EnforcementPlan.forRequest(allowRequest);
+
+        assertTrue(plan.userHasDecided());
+        assertSame(plan.getEnforcedPolicy(), plan.getEnforcedPolicy());
+        assertTrue(plan.getEnforcedPolicy().isAllowed());
+    }
+
+    @Test
+    public void testEnforcementPlan_userSettingIsDecidedFromThePlan() {
+        PolicyEnforcement userSetting = new UserSettingCheck(new PolicyStub(allowRequest));
+
+        assertEquals(EnforcementStatus.Code.USERSETTING_ALLOWED, userSetting.isAllowed());
+        assertTrue(userSetting.getEnforcementPlan().hasReadSettings());
+        assertTrue(userSetting.getEnforcementPlan().userHasDecided());
+    }
+
+    @Test
+    public void testEnforcementPlan_quickSettingDoesNotReadSettings() {
+        QuickSettingCheck.setQuickSetting(Manifest.permission.ACCESS_FINE_LOCATION, false);
+
+        try {
+            PolicyEnforcement quickSetting = new QuickSettingCheck(new PolicyStub(askRequest));
+
+            assertEquals(EnforcementStatus.Code.QUICKSETTING_DISABLED, quickSetting.isAllowed());
+            assertFalse(quickSetting.getEnforcementPlan().hasReadSettings());
+        } finally {
+            QuickSettingCheck.setQuickSetting(Manifest.permission.ACCESS_FINE_LOCATION, true);
+        }
+    }
+
+    @Test
+    public void testEnforcementPlan_undecidedRequestHasNoExactSetting() {
+        EnforcementPlan askPlan = EnforcementPlan.forRequest(askRequest),
+                        undecidedPlan = EnforcementPlan.forRequest(undecidedRequest);
+
+        assertTrue(askPlan.userHasDecided());
+        assertFalse(undecidedPlan.userHasDecided());
+    }
+
+    @Test
+    public void testEnforcementPlan_replayMatchesLookupsWithFewerQueries()
+            throws InterruptedException {
+        String[] purposes = { "Research: ", "Game: ", "Ads: " };
+        List<RecordedRequest> recording = new ArrayList<RecordedRequest>();
+
+        for(int i = 0; i < REPLAY_ROUNDS * purposes.length; i++) {
+            recording.add(RecordedRequest.builder(RecordedRequest.Kind.PRIVATE_DATA)
+                                         .setSequence(i)
+                                         .setTimestampMillis(i)
+                                         .setPackageName(YELP)
+                                         .setPermission(Manifest.permission.ACCESS_FINE_LOCATION)
+                                         .setPurpose(purposes[i % purposes.length])
+                                         .setPalModule("edu.cmu.policymanager.test.pal")
+                                         .setPalDescription("Testing the enforcement plan")
+                                         .build());
+        }
+
+        /* Warm the decision cache, so both paths start from the same state. */
+        decideWithLookups(recording);
+
+        long queriesBefore = PolicyProfileSettingDAO.getExactPolicyQueryCount(),
+             start = System.nanoTime();
+        List<RecordedRequest> decided = decideWithLookups(recording);
+        long lookupNanos = (System.nanoTime() - start) / decided.size(),
+             lookupQueries = PolicyProfileSettingDAO.getExactPolicyQueryCount() - queriesBefore;
+
+        ReplayDriver.flatOut(1).replay(decided);
+
+        queriesBefore = PolicyProfileSettingDAO.getExactPolicyQueryCount();
+        ReplayReport report = ReplayDriver.flatOut(1).replay(decided);
+        long planQueries = PolicyProfileSettingDAO.getExactPolicyQueryCount() - queriesBefore;
+
+        Log.i(TAG, "Replayed " + decided.size() + " requests. Lookups: " + lookupQueries +
+                   " queries, " + lookupNanos + " ns/request. Pipeline: " + planQueries +
+                   " queries, " + report.getLatency().getValueAtPercentile(50) +
+                   " ns/request (median), " + report.getLatency().getValueAtPercentile(99) +
+                   " ns (p99).");
+
+        assertTrue(report.getDivergences().toString(), report.decisionsMatch());
+        assertEquals(REPLAY_ROUNDS * 2, report.getMatchedCount());
+        assertEquals(REPLAY_ROUNDS, report.getUnrecordedCount());
+        assertEquals(decided.size(), lookupQueries);
+        assertTrue("Pipeline made " + planQueries + " queries, lookups " + lookupQueries,
+                   planQueries < lookupQueries);
+    }
+
+    /*
+     * Decides the requests the way the checks did before they shared a plan, with the default
+     * profile active: query the exact policy, then the policy in effect if the user decided.
+     * Requests the user has not decided are left without a decision.
+     */
+    private static List<RecordedRequest> decideWithLookups(List<RecordedRequest> requests) {
+        List<RecordedRequest> decided = new ArrayList<RecordedRequest>(requests.size());
+
+        for(RecordedRequest request : requests) {
+            PermissionRequest permissionRequest =
+                    PermissionRequest.builder()
+                                     .setPackageName(request.packageName)
+                                     .setPermission(request.permission)
+                                     .setPurpose(Purposes.convertFromMicroPal(request.purpose))
+                                     .setLibrary(ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE)
+                                     .build();
+            UserPolicy policy = UserPolicy.fromPermissionRequest(permissionRequest);
+            RecordedRequest.Decision decision = RecordedRequest.Decision.NONE;
+
+            if(PolicyManager.getInstance().syncGetExactPolicy(policy) != null) {
+                decision = PolicyManager.getInstance().syncRequestEnforcedPolicy(policy)
+                                                      .isAllowed() ?
+                        RecordedRequest.Decision.ALLOWED :
+                        RecordedRequest.Decision.DENIED;
+            }
+
+            decided.add(request.withDecision(decision));
+        }
+
+        return decided;
+    }
+}
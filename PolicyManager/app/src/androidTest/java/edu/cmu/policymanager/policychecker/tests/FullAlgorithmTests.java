@@ -121,7 +121,7 @@ public class FullAlgorithmTests {
     @Test
     public void testQuickSettings_microphoneIsDisabledAndBlocksPermissionRequest() {
         policyManager.syncActivatePolicyProfile(PolicyProfile.ORGANIZATIONAL);
-        QuickSettingCheck.quickSettings.put(Manifest.permission.RECORD_AUDIO, false);
+        QuickSettingCheck.setQuickSetting(Manifest.permission.RECORD_AUDIO, false);
 
         List<StackTraceElement[]> stacktraces =
                 StackTraceFactory.createInternalUseMicrophoneStacktrace();
@@ -152,7 +152,7 @@ public class FullAlgorithmTests {
     @Test
     public void testWholeInspectionChain_requestPropagatesToUserSettingCheckThenAllowsIt() {
         policyManager.syncActivatePolicyProfile(PolicyProfile.ORGANIZATIONAL);
-        QuickSettingCheck.quickSettings.put(Manifest.permission.RECORD_AUDIO, true);
+        QuickSettingCheck.setQuickSetting(Manifest.permission.RECORD_AUDIO, true);
 
         List<StackTraceElement[]> stacktraces =
                 StackTraceFactory.createInternalUseMicrophoneStacktrace();
@@ -0,0 +1,151 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.json.JSONException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.InstallPipeline;
+import edu.cmu.policymanager.DataRepository.RepositoryExecutors;
+import edu.cmu.policymanager.DataRepository.db.model.OffDevicePolicyDBModel;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+import edu.cmu.policymanager.PolicyManager.policies.OffDevicePolicy;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Tests that installs are expanded without duplicate settings, that an install of a package
+ * already in flight joins it, that a burst of installs all get written, and that the policy
+ * an install is expanded from replaces the one stored for the package.
+ * */
+@RunWith(AndroidJUnit4.class)
+public class InstallPipelineTests {
+    public static final String APP = "edu.cmu.policymanager.test.install",
+                               BURST_APP = "edu.cmu.policymanager.test.burst",
+                               STORED_APP = "edu.cmu.policymanager.test.stored";
+
+    private static final int BURST_SIZE = 200;
+
+    private static DataRepository repository;
+    private static InstallPipeline pipeline;
+
+    @BeforeClass
+    public static void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        DataRepository.init(context, DataRepository.StorageType.IN_MEMORY);
+        repository = DataRepository.fromMemory();
+        pipeline = repository.getInstallPipeline();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        repository.syncUninstallApp(APP);
+        repository.syncUninstallApp(STORED_APP);
+
+        for(int i = 0; i < BURST_SIZE; i++) { repository.syncUninstallApp(BURST_APP + i); }
+
+        TestUtils.pause(100);
+    }
+
+    @Test
+    public void testInstallPipeline_expandDropsDuplicateSettings() throws JSONException {
+        OffDevicePolicy odp = new OffDevicePolicy(ODPFactory.createODPString());
+        List<PolicyProfileSetting> settings = InstallPipeline.expandSettings(APP, odp);
+        Set<String> keys = new HashSet<String>();
+
+        for(PolicyProfileSetting setting : settings) {
+            assertEquals(PolicyProfile.DEFAULT, setting.profileName);
+            assertEquals(APP, setting.app);
+            assertTrue(keys.add(setting.permission + "|" +
+                                setting.purpose + "|" +
+                                setting.thirdPartyLibrary));
+        }
+
+        assertEquals(7, settings.size());
+    }
+
+    @Test
+    public void testInstallPipeline_installInFlightIsJoined() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        long joined = pipeline.getJoinedCount();
+
+        CompletableFuture<DataRepository.InstallInfo> first =
+                pipeline.submit(APP, new Function<String, String>() {
+            @Override
+            public String apply(String storedODP) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return ODPFactory.createODPString();
+            }
+        });
+
+        CompletableFuture<DataRepository.InstallInfo> second =
+                pipeline.submit(APP, ODPFactory.createODPString());
+
+        release.countDown();
+
+        assertSame(first, second);
+        assertEquals(joined + 1, pipeline.getJoinedCount());
+        assertEquals(APP, first.join().packageName);
+        assertEquals(7, repository.getAllPoliciesForApp(APP).size());
+    }
+
+    @Test
+    public void testInstallPipeline_burstOfInstallsIsWritten() {
+        List<CompletableFuture<DataRepository.InstallInfo>> installs =
+                new ArrayList<CompletableFuture<DataRepository.InstallInfo>>(BURST_SIZE);
+
+        for(int i = 0; i < BURST_SIZE; i++) {
+            installs.add(pipeline.submit(BURST_APP + i, ODPFactory.createODPFromManifest()));
+        }
+
+        for(CompletableFuture<DataRepository.InstallInfo> install : installs) { install.join(); }
+
+        for(int i = 0; i < BURST_SIZE; i++) {
+            assertEquals(6, repository.getAllPoliciesForApp(BURST_APP + i).size());
+        }
+
+        assertEquals(0, pipeline.getInFlightCount());
+        assertTrue(RepositoryExecutors.getMaxQueueDepth(RepositoryExecutors.Pool.INSTALL) <= 64);
+    }
+
+    @Test
+    public void testInstallPipeline_installedPolicyReplacesTheStoredOne() {
+        OffDevicePolicyDBModel stored = new OffDevicePolicyDBModel();
+        stored.packageName = STORED_APP;
+        stored.odp = ODPFactory.createODPString();
+
+        List<OffDevicePolicyDBModel> policies = new ArrayList<OffDevicePolicyDBModel>();
+        policies.add(stored);
+        repository.addODPs(policies);
+
+        pipeline.submit(STORED_APP, ODPFactory.createODPFromManifest()).join();
+
+        assertEquals(ODPFactory.createODPFromManifest(),
+                     repository.syncGetODPForPackage(STORED_APP));
+        assertEquals(6, repository.getAllPoliciesForApp(STORED_APP).size());
+    }
+}
@@ -0,0 +1,72 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.json.JSONException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.PolicyManager.policies.OffDevicePolicy;
+import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class OdpCacheTests {
+    public static final String APP = "edu.cmu.chimpslab.stacktracetest";
+
+    private static DataRepository repository;
+
+    @BeforeClass
+    public static void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        DataRepository.init(context, DataRepository.StorageType.IN_MEMORY);
+        repository = DataRepository.fromMemory();
+        repository.syncLogInstallInfo(APP, ODPFactory.createODPFromManifest());
+    }
+
+    @AfterClass
+    public static void teardown() {
+        repository.syncUninstallApp(APP);
+        TestUtils.pause(100);
+    }
+
+    @Test
+    public void testOdpCache_policyIsParsedOnce() throws JSONException {
+        OffDevicePolicy first = repository.syncGetParsedODPForPackage(APP),
+                        second = repository.syncGetParsedODPForPackage(APP);
+
+        assertSame(first, second);
+        assertEquals(3, first.SUBPOLICIES.size());
+    }
+
+    @Test
+    public void testOdpCache_subPoliciesAreIndexedByPermission() throws JSONException {
+        OffDevicePolicy odp = repository.syncGetParsedODPForPackage(APP);
+        CharSequence recordAudio = DangerousPermissions.RECORD_AUDIO.androidPermission;
+
+        assertEquals(1, odp.getSubPoliciesFor(recordAudio).size());
+        assertEquals(1, odp.getSubPoliciesFor(recordAudio.toString().toUpperCase()).size());
+        assertEquals(3, odp.getSubPoliciesForClass("*").size());
+        assertTrue(odp.getSubPoliciesFor(DangerousPermissions.CAMERA.androidPermission)
+                      .isEmpty());
+    }
+
+    @Test
+    public void testOdpCache_appUpdateDropsParsedPolicy() throws JSONException {
+        OffDevicePolicy before = repository.syncGetParsedODPForPackage(APP);
+
+        DataRepository.onAppUpdated(APP);
+
+        assertNotSame(before, repository.syncGetParsedODPForPackage(APP));
+    }
+}
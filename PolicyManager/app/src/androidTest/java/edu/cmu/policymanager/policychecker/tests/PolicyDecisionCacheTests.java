@@ -0,0 +1,87 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.memory.PolicyDecisionCache;
+import edu.cmu.policymanager.PolicyManager.PolicyManager;
+import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
+import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
+import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
+import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PolicyDecisionCacheTests {
+    public static final String YELP = "com.android.yelp";
+
+    private static UserPolicy appSetting;
+    private static DataRepository repository;
+
+    @BeforeClass
+    public static void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        DataRepository.init(context, DataRepository.StorageType.IN_MEMORY);
+        repository = DataRepository.fromMemory();
+        repository.syncLogInstallInfo(YELP, ODPFactory.createODPString());
+
+        appSetting = UserPolicy.createAppPolicy(
+                YELP,
+                DangerousPermissions.READ_CONTACTS,
+                Purposes.CONDUCTING_RESEARCH,
+                ThirdPartyLibraries.CHARTBOOST
+        );
+
+        PolicyManager.getInstance().syncAdd(appSetting);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        repository.syncUninstallApp(YELP);
+        TestUtils.pause(100);
+    }
+
+    @Test
+    public void testDecisionCache_repeatedLookupIsServedFromCache() {
+        PolicyDecisionCache cache = repository.getDecisionCache();
+        repository.getUserPolicyAction(appSetting);
+
+        long hits = cache.getHitCount(),
+             misses = cache.getMissCount();
+
+        repository.getUserPolicyAction(appSetting);
+        repository.getUserPolicyAction(appSetting);
+
+        assertEquals(hits + 2, cache.getHitCount());
+        assertEquals(misses, cache.getMissCount());
+    }
+
+    @Test
+    public void testDecisionCache_updatingPolicyInvalidatesCachedDecision() {
+        PolicyDecisionCache cache = repository.getDecisionCache();
+
+        TestUtils.pause(10);
+        appSetting.allow();
+        PolicyManager.getInstance().syncUpdate(appSetting);
+        assertTrue(repository.getUserPolicyAction(appSetting).isAllowed());
+
+        long misses = cache.getMissCount();
+
+        TestUtils.pause(10);
+        appSetting.deny();
+        PolicyManager.getInstance().syncUpdate(appSetting);
+
+        assertTrue(repository.getUserPolicyAction(appSetting).isDenied());
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+}
@@ -10,6 +10,17 @@ import org.junit.runners.Suite;
         QuickSettingsTest.class,
         UserSettingsTest.class,
         AskLogicTests.class,
-        FullAlgorithmTests.class
+        FullAlgorithmTests.class,
+        PolicyDecisionCacheTests.class,
+        OdpCacheTests.class,
+        DecisionResponderTests.class,
+        PromptSchedulerTests.class,
+        EnforcementPlanTests.class,
+        EnforcementMetricsTests.class,
+        DecisionEventBusTests.class,
+        RepositoryExecutorsTests.class,
+        RepositoryReadinessTests.class,
+        InstallPipelineTests.class,
+        ProfileSyncTests.class
 })
 public class PolicyEnforcementTestSuite { }
\ No newline at end of file
@@ -13,6 +13,7 @@ import org.junit.runner.RunWith;
 
 import edu.cmu.policymanager.DataRepository.DataRepository;
 import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+import edu.cmu.policymanager.DataRepository.memory.ProfileStack;
 import edu.cmu.policymanager.PolicyManager.PolicyManager;
 import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
 import edu.cmu.policymanager.PolicyManager.enforcement.EnforcementStatus;
@@ -117,4 +118,46 @@ public class PolicyProfileTests {
         assertEquals(EnforcementStatus.Code.SUCCESS, policyProfile.isAllowed());
         assertFalse(policyProfile.didTerminate());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testProfile_quickSettingSwitchesItsLayer() {
+        policyManager.syncActivatePolicyProfile(PolicyProfile.DEFAULT);
+        policyManager.setProfileLayerEnabled(ORGANIZATIONAL_PROFILE, true).join();
+
+        assertTrue(policyManager.getProfileStack().isEnabled(ORGANIZATIONAL_PROFILE));
+        assertEquals(ORGANIZATIONAL_PROFILE, policyManager.getActivePolicyProfile().toString());
+
+        PolicyEnforcement enabled = new PolicyProfileCheck(new PolicyStub(enforceableRequest));
+        assertEquals(EnforcementStatus.Code.POLICYPROFILE_DENIED, enabled.isAllowed());
+
+        policyManager.setProfileLayerEnabled(ORGANIZATIONAL_PROFILE, false).join();
+
+        assertEquals(1, policyManager.getProfileStack().getLayers().size());
+        assertEquals(PolicyProfile.DEFAULT, policyManager.getActivePolicyProfile().toString());
+
+        PolicyEnforcement disabled = new PolicyProfileCheck(new PolicyStub(enforceableRequest));
+        assertEquals(EnforcementStatus.Code.SUCCESS, disabled.isAllowed());
+    }
+
+    @Test
+    public void testProfile_userDefaultDenyHoldsUnderDenyOverrides() {
+        UserPolicy userDenies =
+                UserPolicy.createAppPolicy(unenforceableRequest.packageName,
+                                           unenforceableRequest.permission,
+                                           unenforceableRequest.purpose,
+                                           unenforceableRequest.thirdPartyLibrary);
+
+        userDenies.deny();
+        policyManager.syncUpdate(userDenies);
+
+        policyManager.setProfileStack(ProfileStack.layered(
+                ProfileStack.CombiningRule.DENY_OVERRIDES, ORGANIZATIONAL_PROFILE)).join();
+
+        UserPolicy enforced = repository.getUserPolicyAction(userDenies);
+
+        assertTrue(enforced.isDenied());
+        assertEquals(PolicyProfile.DEFAULT, enforced.profile);
+
+        policyManager.syncActivatePolicyProfile(PolicyProfile.DEFAULT);
+    }
+}
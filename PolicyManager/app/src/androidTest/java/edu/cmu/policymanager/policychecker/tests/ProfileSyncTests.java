@@ -0,0 +1,197 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.ProfileSync;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+import edu.cmu.policymanager.DataRepository.network.ProfileChanges;
+import edu.cmu.policymanager.DataRepository.network.ProfileSource;
+import edu.cmu.policymanager.DataRepository.network.ProfileStream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Tests that syncing a profile writes only the rules that changed, that an unchanged profile
+ * writes nothing, and that a delta for a version that is not installed is replaced by the
+ * whole profile.
+ * */
+@RunWith(AndroidJUnit4.class)
+public class ProfileSyncTests {
+    public static final String PROFILE = "Synced Test Profile";
+
+    private static final int RULES = 1000;
+
+    private static DataRepository repository;
+    private static ProfileSync sync;
+    private static ProfileSource bundled;
+
+    private VersionedSource mSource;
+
+    @BeforeClass
+    public static void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        DataRepository.init(context, DataRepository.StorageType.IN_MEMORY);
+        repository = DataRepository.fromMemory();
+        sync = repository.getProfileSync();
+        bundled = sync.getSource();
+    }
+
+    @AfterClass
+    public static void teardown() throws IOException {
+        VersionedSource empty = new VersionedSource();
+        empty.publish(new ArrayList<PolicyProfileSetting>());
+        repository.setProfileSource(empty);
+        sync.sync(PROFILE);
+
+        repository.setProfileSource(bundled);
+    }
+
+    @Before
+    public void install() throws IOException {
+        mSource = new VersionedSource();
+        mSource.publish(rules(RULES, 0));
+        repository.setProfileSource(mSource);
+        sync.sync(PROFILE);
+    }
+
+    @Test
+    public void testProfileSync_deltaOnlyTouchesChangedRules() throws IOException {
+        Map<String, Long> before = idsByKey();
+        long deltas = sync.getDeltaCount();
+
+        List<PolicyProfileSetting> next = rules(RULES - 5, 0);
+        next.addAll(rules(5, RULES));
+        next.get(0).policyAction = "DENY".equals(next.get(0).policyAction) ? "ALLOW" : "DENY";
+        mSource.publish(next);
+
+        ProfileChanges changes = sync.sync(PROFILE);
+        Map<String, Long> after = idsByKey();
+
+        assertEquals(deltas + 1, sync.getDeltaCount());
+        assertEquals(5, changes.inserted.size());
+        assertEquals(1, changes.updated.size());
+        assertEquals(5, changes.removed.size());
+        assertEquals(RULES, after.size());
+
+        int kept = 0;
+
+        for(Map.Entry<String, Long> rule : after.entrySet()) {
+            if(rule.getValue().equals(before.get(rule.getKey()))) { kept++; }
+        }
+
+        assertEquals(RULES - 5, kept);
+    }
+
+    @Test
+    public void testProfileSync_unchangedProfileWritesNothing() throws IOException {
+        long notModified = sync.getNotModifiedCount();
+
+        assertTrue(sync.sync(PROFILE).isEmpty());
+        assertEquals(notModified + 1, sync.getNotModifiedCount());
+        assertEquals(RULES, idsByKey().size());
+    }
+
+    @Test
+    public void testProfileSync_staleDeltaFetchesTheWholeProfile() throws IOException {
+        long stale = sync.getStaleDeltaCount(), full = sync.getFullCount();
+
+        mSource.publish(rules(RULES, 0));
+        mSource.publish(rules(RULES / 2, 0));
+        mSource.sendDeltasFrom(1);
+
+        ProfileChanges changes = sync.sync(PROFILE);
+
+        assertEquals(stale + 1, sync.getStaleDeltaCount());
+        assertEquals(full + 1, sync.getFullCount());
+        assertEquals(RULES / 2, changes.removed.size());
+        assertEquals(RULES / 2, idsByKey().size());
+    }
+
+    private static Map<String, Long> idsByKey() {
+        Map<String, Long> ids = new HashMap<String, Long>();
+
+        for(PolicyProfileSetting setting : repository.requestProfileSettings(PROFILE)) {
+            assertNotNull(setting.policyAction);
+            ids.put(ProfileStream.keyOf(setting), setting.id);
+        }
+
+        return ids;
+    }
+
+    private static List<PolicyProfileSetting> rules(int count, int first) {
+        String[] permissions = { "android.permission.ACCESS_FINE_LOCATION",
+                                 "android.permission.CAMERA" };
+        List<PolicyProfileSetting> rules = new ArrayList<PolicyProfileSetting>(count);
+
+        for(int i = first; i < first + count; i++) {
+            PolicyProfileSetting setting = new PolicyProfileSetting();
+            setting.profileName = PROFILE;
+            setting.app = "edu.cmu.policymanager.test.sync" + (i / 2);
+            setting.permission = permissions[i % 2];
+            setting.purpose = "Displaying Advertisement";
+            setting.thirdPartyLibrary = "Third Party Use";
+            setting.policyAction = i % 3 == 0 ? "DENY" : "ALLOW";
+            rules.add(setting);
+        }
+
+        return rules;
+    }
+
+    /*
+     * Stands in for a profile server: it keeps every version it is given and answers with a
+     * delta from the version the client has, or from a forced base version. Versions are
+     * numbered across sources, so a new source never has the version that is installed.
+     */
+    private static class VersionedSource implements ProfileSource {
+        private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+        private final List<ProfileStream.Document> mVersions =
+                new ArrayList<ProfileStream.Document>();
+        private int mForcedBase = -1;
+
+        synchronized void publish(List<PolicyProfileSetting> rules) {
+            mVersions.add(ProfileStream.Document.full(PROFILE,
+                                                      String.valueOf(VERSIONS.incrementAndGet()),
+                                                      rules));
+        }
+
+        synchronized void sendDeltasFrom(int version) { mForcedBase = version; }
+
+        @Override
+        public synchronized Fetch fetch(String profile, String etag) {
+            ProfileStream.Document current = mVersions.get(mVersions.size() - 1);
+            String tag = "\"" + current.version + "\"";
+
+            if(tag.equals(etag)) { return Fetch.notModified(etag); }
+
+            ProfileStream.Document base = null;
+
+            for(ProfileStream.Document version : mVersions) {
+                if(("\"" + version.version + "\"").equals(etag)) { base = version; }
+            }
+
+            if(etag != null && mForcedBase >= 0) { base = mVersions.get(mForcedBase); }
+
+            return Fetch.of(tag, base == null ? current : ProfileStream.diff(base, current));
+        }
+    }
+}
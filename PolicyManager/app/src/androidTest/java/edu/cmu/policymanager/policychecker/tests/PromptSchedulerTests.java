@@ -0,0 +1,102 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.Manifest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
+import edu.cmu.policymanager.application.PromptScheduler;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PromptSchedulerTests {
+    public static final String YELP = "com.android.yelp",
+                               FACEBOOK = "com.facebook.katana";
+
+    private List<PermissionRequest> shown;
+    private PromptScheduler scheduler;
+
+    @Before
+    public void setup() {
+        shown = new ArrayList<PermissionRequest>();
+        scheduler = new PromptScheduler(new PromptScheduler.Launcher() {
+            @Override
+            public void show(PermissionRequest request) { shown.add(request); }
+        });
+    }
+
+    @Test
+    public void testScheduler_identicalRequestsShareOnePrompt() {
+        List<PermissionRequest> requests = new ArrayList<PermissionRequest>();
+
+        for(int i = 0; i < 10; i++) {
+            PermissionRequest request = request(YELP, Manifest.permission.ACCESS_FINE_LOCATION);
+            requests.add(request);
+            scheduler.submit(request);
+        }
+
+        assertEquals(1, shown.size());
+        assertEquals(1, scheduler.getPendingCount());
+        assertEquals(10, scheduler.answer(shown.get(0), true));
+
+        for(PermissionRequest request : requests) {
+            assertTrue(request.responder.wasAllowed());
+        }
+
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testScheduler_distinctPromptsShowOneAtATime() {
+        PermissionRequest location = request(YELP, Manifest.permission.ACCESS_FINE_LOCATION),
+                          camera = request(YELP, Manifest.permission.CAMERA);
+
+        scheduler.submit(location);
+        scheduler.submit(camera);
+
+        assertEquals(1, shown.size());
+        assertSame(location, scheduler.getShowingRequest());
+
+        scheduler.answer(location, false);
+
+        assertEquals(2, shown.size());
+        assertSame(camera, scheduler.getShowingRequest());
+        assertTrue(location.responder.isComplete());
+        assertFalse(location.responder.wasAllowed());
+        assertFalse(camera.responder.isComplete());
+    }
+
+    @Test
+    public void testScheduler_higherPriorityPromptsGoFirst() {
+        PermissionRequest first = request(YELP, Manifest.permission.ACCESS_FINE_LOCATION),
+                          background = request(YELP, Manifest.permission.CAMERA),
+                          foreground = request(FACEBOOK, Manifest.permission.CAMERA);
+
+        scheduler.submit(first);
+        scheduler.submit(background, PromptScheduler.PRIORITY_NORMAL);
+        scheduler.submit(foreground, PromptScheduler.PRIORITY_FOREGROUND);
+
+        scheduler.answer(first, true);
+        assertSame(foreground, scheduler.getShowingRequest());
+
+        scheduler.answer(foreground, true);
+        assertSame(background, scheduler.getShowingRequest());
+    }
+
+    private static PermissionRequest request(String app, String permission) {
+        return PermissionRequest.builder()
+                                .setPackageName(app)
+                                .setPermission(permission)
+                                .build();
+    }
+}
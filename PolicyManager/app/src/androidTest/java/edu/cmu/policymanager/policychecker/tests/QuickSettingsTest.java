@@ -10,14 +10,18 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.concurrent.CountDownLatch;
+
 import edu.cmu.policymanager.DataRepository.DataRepository;
 import edu.cmu.policymanager.PolicyManager.enforcement.EnforcementStatus;
 import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
 import edu.cmu.policymanager.PolicyManager.enforcement.PolicyEnforcement;
 import edu.cmu.policymanager.PolicyManager.enforcement.PolicyStub;
 import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck;
+import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingState;
+import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
 
-import static edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck.quickSettings;
+import static edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck.setQuickSetting;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertFalse;
@@ -43,7 +47,7 @@ public class QuickSettingsTest {
 
     @Test
     public void testQuickSetting_allowsAccessOnEnable() {
-        quickSettings.put(Manifest.permission.RECORD_AUDIO, true);
+        setQuickSetting(Manifest.permission.RECORD_AUDIO, true);
 
         PermissionRequest request = PermissionRequest.builder()
                                                      .setPackageName(YELP)
@@ -60,7 +64,7 @@ public class QuickSettingsTest {
 
     @Test
     public void testQuickSetting_deniesOnDisable() {
-        quickSettings.put(Manifest.permission.CAMERA, false);
+        setQuickSetting(Manifest.permission.CAMERA, false);
 
         PermissionRequest request = PermissionRequest.builder()
                                                      .setPackageName(YELP)
@@ -73,5 +77,57 @@ public class QuickSettingsTest {
 
         assertEquals(EnforcementStatus.Code.QUICKSETTING_DISABLED, quickSetting.isAllowed());
         assertTrue(quickSetting.didTerminate());
+        assertTrue(request.responder.isComplete());
+        assertFalse(request.responder.wasAllowed());
+    }
+
+    @Test
+    public void testQuickSetting_concurrentTogglesAreNotLost() throws InterruptedException {
+        final String[] permissions = {
+                Manifest.permission.ACCESS_FINE_LOCATION,
+                Manifest.permission.ACCESS_COARSE_LOCATION,
+                Manifest.permission.RECORD_AUDIO,
+                Manifest.permission.CAMERA
+        };
+        final int toggles = 1000;
+        final CountDownLatch start = new CountDownLatch(1),
+                             done = new CountDownLatch(permissions.length);
+
+        long versionBefore = QuickSettingCheck.getQuickSettings().version;
+
+        for(final String permission : permissions) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+
+                        /* An odd number of toggles, so every switch ends up off. */
+                        for(int i = 0; i <= toggles; i++) {
+                            setQuickSetting(permission, i % 2 == 1);
+                        }
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        done.await();
+
+        QuickSettingState state = QuickSettingCheck.getQuickSettings();
+
+        try {
+            assertEquals(versionBefore + permissions.length * (toggles + 1), state.version);
+
+            for(String permission : permissions) {
+                assertTrue(state.isDisabled(DangerousPermissions.from(permission).ordinal));
+            }
+        } finally {
+            QuickSettingCheck.setQuickSettings(true, permissions);
+        }
     }
-}
\ No newline at end of file
+}
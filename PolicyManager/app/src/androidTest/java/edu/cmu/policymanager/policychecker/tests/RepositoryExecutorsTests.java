@@ -0,0 +1,137 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.cmu.policymanager.DataRepository.RepositoryExecutors;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Tests that writes run in order, that bulk work cannot hold up reads, that waiting on a
+ * pool from inside a task does not deadlock, and that scheduled work runs on its pool.
+ * */
+@RunWith(AndroidJUnit4.class)
+public class RepositoryExecutorsTests {
+    @Test
+    public void testRepositoryExecutors_writesRunInOrder() {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+
+        for(int i = 0; i < 200; i++) {
+            final int write = i;
+
+            RepositoryExecutors.writes().execute(new Runnable() {
+                @Override
+                public void run() { order.add(write); }
+            });
+        }
+
+        RepositoryExecutors.run(RepositoryExecutors.Pool.WRITE, new Runnable() {
+            @Override
+            public void run() {}
+        });
+
+        assertEquals(200, order.size());
+
+        for(int i = 0; i < order.size(); i++) { assertEquals(i, (int)order.get(i)); }
+    }
+
+    @Test
+    public void testRepositoryExecutors_busyBackgroundDoesNotBlockReads()
+            throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        for(int i = 0; i < 10; i++) {
+            RepositoryExecutors.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+
+        String result = RepositoryExecutors.call(RepositoryExecutors.Pool.READ,
+                                                 new Callable<String>() {
+            @Override
+            public String call() { return "read"; }
+        });
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        release.countDown();
+
+        assertEquals("read", result);
+        assertTrue("Read waited " + millis + " ms", millis < 1000);
+        assertTrue(RepositoryExecutors.getMaxQueueDepth(RepositoryExecutors.Pool.BACKGROUND) > 0);
+    }
+
+    @Test
+    public void testRepositoryExecutors_nestedCallsDoNotDeadlock() {
+        boolean ranOnWritePool = RepositoryExecutors.call(RepositoryExecutors.Pool.WRITE,
+                                                          new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return RepositoryExecutors.call(RepositoryExecutors.Pool.READ,
+                                                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return RepositoryExecutors.call(RepositoryExecutors.Pool.WRITE,
+                                                        new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() {
+                                return RepositoryExecutors.isRepositoryThread();
+                            }
+                        });
+                    }
+                });
+            }
+        });
+
+        assertTrue(ranOnWritePool);
+        assertFalse(RepositoryExecutors.isRepositoryThread());
+    }
+
+    @Test
+    public void testRepositoryExecutors_scheduledTasksRunOnTheirPool()
+            throws InterruptedException {
+        final CountDownLatch runs = new CountDownLatch(2);
+        final List<Boolean> onPool = Collections.synchronizedList(new ArrayList<Boolean>());
+
+        ScheduledFuture<?> schedule = RepositoryExecutors.scheduleWithFixedDelay(
+                RepositoryExecutors.Pool.WRITE,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        onPool.add(RepositoryExecutors.isRepositoryThread());
+                        runs.countDown();
+                    }
+                },
+                10, TimeUnit.MILLISECONDS
+        );
+
+        try {
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+        } finally {
+            schedule.cancel(false);
+        }
+
+        assertFalse(onPool.contains(false));
+    }
+}
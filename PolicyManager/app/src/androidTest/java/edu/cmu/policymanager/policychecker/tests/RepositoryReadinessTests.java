@@ -0,0 +1,71 @@
+package edu.cmu.policymanager.policychecker.tests;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.RepositoryReadiness;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Tests that the repository becomes ready after the application starts, that requests
+ * made once it is ready are run right away, and that every startup stage is timed.
+ * */
+@RunWith(AndroidJUnit4.class)
+public class RepositoryReadinessTests {
+    @Test
+    public void testRepositoryReadiness_readyAfterStartup() throws InterruptedException {
+        RepositoryReadiness readiness = DataRepository.getReadiness();
+
+        assertTrue(readiness.await(10, TimeUnit.SECONDS));
+        assertTrue(readiness.isReady());
+        assertTrue(readiness.future().isDone());
+        assertTrue(readiness.getTimeToReadyNanos() >= 0);
+    }
+
+    @Test
+    public void testRepositoryReadiness_requestsRunOnceReady() throws InterruptedException {
+        RepositoryReadiness readiness = DataRepository.getReadiness();
+        readiness.await(10, TimeUnit.SECONDS);
+
+        final CountDownLatch ran = new CountDownLatch(1);
+
+        assertTrue(readiness.enqueue(new Runnable() {
+            @Override
+            public void run() { ran.countDown(); }
+        }));
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRepositoryReadiness_stagesAreTimed() throws InterruptedException {
+        RepositoryReadiness readiness = DataRepository.getReadiness();
+        readiness.await(10, TimeUnit.SECONDS);
+
+        assertTrue(readiness.getStageNanos(RepositoryReadiness.Stage.OPEN_DATABASE) >= 0);
+        assertTrue(readiness.getStageNanos(RepositoryReadiness.Stage.COMPILE_POLICY_TABLE) >= 0);
+        assertTrue(readiness.dump().contains("compile_policy_table"));
+    }
+
+    @Test
+    public void testRepositoryReadiness_earlyRequestPolicyIsConfigurable() {
+        RepositoryReadiness.EarlyRequestPolicy policy =
+                RepositoryReadiness.getEarlyRequestPolicy();
+
+        try {
+            RepositoryReadiness.setEarlyRequestPolicy(RepositoryReadiness.EarlyRequestPolicy.ALLOW);
+            assertEquals(RepositoryReadiness.EarlyRequestPolicy.ALLOW,
+                         RepositoryReadiness.getEarlyRequestPolicy());
+            assertTrue(DataRepository.getReadiness().getEarlyDecision());
+        } finally {
+            RepositoryReadiness.setEarlyRequestPolicy(policy);
+        }
+    }
+}
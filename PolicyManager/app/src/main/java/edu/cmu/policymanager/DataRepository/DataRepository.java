@@ -9,24 +9,25 @@ import org.json.JSONException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+import edu.cmu.policymanager.DataRepository.db.AppDatabase;
 import edu.cmu.policymanager.DataRepository.db.AppDatabaseSingleton;
 import edu.cmu.policymanager.DataRepository.db.dao.AppInfoDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.AskPolicySettingDAO;
+import edu.cmu.policymanager.DataRepository.db.dao.DataAccessCountDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.MetadataDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.OffDevicePolicyDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.PermissionInfoDAO;
@@ -36,17 +37,29 @@ import edu.cmu.policymanager.DataRepository.db.dao.PurposeInfoDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.ThirdPartyLibDAO;
 import edu.cmu.policymanager.DataRepository.db.model.AppInfo;
 import edu.cmu.policymanager.DataRepository.db.model.AskPolicySetting;
+import edu.cmu.policymanager.DataRepository.db.model.DataAccessCount;
 import edu.cmu.policymanager.DataRepository.db.model.Metadata;
 import edu.cmu.policymanager.DataRepository.db.model.OffDevicePolicyDBModel;
 import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
 import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+import edu.cmu.policymanager.DataRepository.memory.AccessCounter;
+import edu.cmu.policymanager.DataRepository.memory.AskDecisionStore;
+import edu.cmu.policymanager.DataRepository.memory.CompiledPolicyTable;
+import edu.cmu.policymanager.DataRepository.memory.OdpCache;
 import edu.cmu.policymanager.DataRepository.memory.MemoryDataStore;
+import edu.cmu.policymanager.DataRepository.memory.PolicyDecisionCache;
+import edu.cmu.policymanager.DataRepository.memory.ProfileSnapshot;
+import edu.cmu.policymanager.DataRepository.memory.ProfileStack;
 import edu.cmu.policymanager.DataRepository.network.BrandeisBackend;
+import edu.cmu.policymanager.DataRepository.network.ProfileChanges;
+import edu.cmu.policymanager.DataRepository.network.ProfileSource;
+import edu.cmu.policymanager.DataRepository.network.ProfileStream;
 import edu.cmu.policymanager.PolicyManager.CriticalSystemApps;
 import edu.cmu.policymanager.PolicyManager.Util;
+import edu.cmu.policymanager.PolicyManager.enforcement.EnforcementPlan;
 import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck;
+import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingState;
 import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
-import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibrary;
 import edu.cmu.policymanager.PolicyManager.policies.OffDevicePolicy;
 import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
 import edu.cmu.policymanager.PolicyManager.purposes.Purpose;
@@ -54,7 +67,11 @@ import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
 import edu.cmu.policymanager.PolicyManager.sensitivedata.SensitiveData;
 import edu.cmu.policymanager.PolicyManager.sensitivedata.SensitiveDataGroup;
 import edu.cmu.policymanager.application.PolicyManagerApplication;
+import edu.cmu.policymanager.util.AndroidPackageSource;
 import edu.cmu.policymanager.util.FetchUtil;
+import edu.cmu.policymanager.util.PackageReconciler;
+import edu.cmu.policymanager.util.PackageScanner;
+import edu.cmu.policymanager.util.PackageSource;
 import edu.cmu.policymanager.validation.Precondition;
 import edu.cmu.policymanager.viewmodel.W4PData;
 import edu.cmu.policymanager.viewmodel.W4PGraph;
@@ -79,26 +96,69 @@ public class DataRepository {
     private static StorageType storageMode = StorageType.DISK;
 
     private static DataRepository repository;
+    private static volatile RepositoryReadiness readiness = new RepositoryReadiness();
 
     private static AppInfoDAO appDAO;
     private static PolicyProfileSettingDAO policyDAO;
     private static MetadataDAO metadataDAO;
-    private static BrandeisBackend backendServer;
     private static PolicyProfileDAO policyProfileDAO;
     private static AskPolicySettingDAO askPolicySettingDAO;
     private static OffDevicePolicyDAO offDevicePolicyDAO;
 
-    private List<String> profilesAdded;
+    private static final Map<StorageType, PolicyDecisionCache> decisionCaches =
+            new EnumMap<StorageType, PolicyDecisionCache>(StorageType.class);
 
-    private Context context;
+    private static final Map<StorageType, CompiledPolicyTable> policyTables =
+            new EnumMap<StorageType, CompiledPolicyTable>(StorageType.class);
+
+    private static final Map<StorageType, OdpCache> odpCaches =
+            new EnumMap<StorageType, OdpCache>(StorageType.class);
+
+    private static final Map<StorageType, AskDecisionStore> askDecisionStores =
+            new EnumMap<StorageType, AskDecisionStore>(StorageType.class);
+
+    private static final Map<StorageType, AccessCounter> accessCounters =
+            new EnumMap<StorageType, AccessCounter>(StorageType.class);
 
-    private static PolicyProfile activePolicyProfile;
+    /* Moves the in-memory data access counts to the database, on the write pool. */
+    private static final long ACCESS_COUNT_FLUSH_SECONDS = 30;
+    private static boolean accessCountFlushScheduled;
+
+    /* Metadata owner of the packages the reconciler skipped; not a valid package name. */
+    private static final String KEY_SKIPPED_PACKAGES = "policymanager:skippedPackages";
+    private static volatile PackageReconciler.Summary lastReconcileSummary;
+
+    /* Metadata owner prefix of the installed version of each profile. */
+    private static final String KEY_PROFILE_VERSION = "policymanager:profile:";
+    private static final String PROFILE_ETAG = "etag", PROFILE_VERSION = "version";
+
+    /* IN clauses stay below SQLite's limit of 999 bound variables. */
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    static {
+        for(StorageType type : StorageType.values()) {
+            decisionCaches.put(type, new PolicyDecisionCache());
+            policyTables.put(type, new CompiledPolicyTable());
+            odpCaches.put(type, new OdpCache());
+            askDecisionStores.put(type, new AskDecisionStore());
+            accessCounters.put(type, new AccessCounter());
+        }
+    }
+
+    private static PolicyDecisionCache decisionCache;
+    private static CompiledPolicyTable policyTable;
+    private static OdpCache odpCache;
+    private static AskDecisionStore askDecisions;
+
+    private Context context;
+    private final InstallPipeline installPipeline;
+    private final ProfileSync profileSync;
 
     private DataRepository(final Context context) {
         this.context = context;
         AppDatabaseSingleton.createDatabases(context);
-        backendServer = new BrandeisBackend();
-        profilesAdded = new ArrayList<String>(5);
+        installPipeline = new InstallPipeline(context);
+        profileSync = new ProfileSync(new BrandeisBackend(context));
     }
 
     private void setStorageType(final StorageType type) {
@@ -110,57 +170,145 @@ public class DataRepository {
         policyProfileDAO = AppDatabaseSingleton.getDB(type).policyProfileDAO();
         askPolicySettingDAO = AppDatabaseSingleton.getDB(type).askPolicySettingDAO();
         offDevicePolicyDAO = AppDatabaseSingleton.getDB(type).odpDAO();
+        decisionCache = decisionCaches.get(type);
+        policyTable = policyTables.get(type);
+        odpCache = odpCaches.get(type);
+        askDecisions = askDecisionStores.get(type);
     }
 
     /**
-     * Initialize the DataRepository
+     * Initialize the DataRepository and wait until it is ready. Meant for automated tests;
+     * the application uses initAsync.
      *
      * @param context the Context
      * @param storageType the storage mode you want to initalize the DataRepository with
      * */
     public static void init(final Context context,
                             final StorageType storageType) {
-        Thread dbInit = new Thread() {
-            public void run() {
-                repository = new DataRepository(context);
-                repository.setStorageType(storageType);
+        RepositoryReadiness ready = initAsync(context, storageType);
 
-                List<AppInfo> apps = AppDatabaseSingleton.getDB(storageType).appInfoDao().getAll();
+        try {
+            ready.future().get();
+        }
+        catch(InterruptedException | ExecutionException ie) {
+            Log.d("DataRepository", "Unable to init database - interrupted");
+            Log.d("DataRepository", String.valueOf(ie.getMessage()));
+        }
+    }
 
-                if(apps == null || apps.isEmpty()) {
-                    FetchUtil.getInstalledApps(context, false);
-                }
+    /**
+     * Start initializing the DataRepository. Returns right away: the repository can be
+     * used, but the database is opened and the policy table compiled in stages on the write
+     * pool, and the returned RepositoryReadiness completes when they are done. Writes made
+     * in the meantime run after initialization, since they share the write pool.
+     *
+     * @param context the Context
+     * @param storageType the storage mode you want to initalize the DataRepository with
+     * @return the readiness of this initialization
+     * */
+    public static RepositoryReadiness initAsync(final Context context,
+                                                final StorageType storageType) {
+        final RepositoryReadiness ready = new RepositoryReadiness();
 
-                List<UserPolicy> globalSettings =
-                        repository.getAllGlobalSettings(PolicyProfile.DEFAULT);
+        repository = new DataRepository(context);
+        repository.setStorageType(storageType);
+        readiness = ready;
 
-                if(globalSettings == null || globalSettings.isEmpty()) {
-                    installGlobalSettings();
+        RepositoryExecutors.writes().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runInitStages(context, storageType, ready);
+                    ready.markReady(null);
+                } catch(RuntimeException e) {
+                    Log.d("DataRepository", "Unable to init database: " + e);
+                    ready.markReady(e);
                 }
 
-                PolicyProfile profile = policyProfileDAO.getActiveProfile();
+                Log.d("DataRepository", ready.dump());
+            }
+        });
 
-                if(profile == null) {
-                    profile = new PolicyProfile();
-                    profile.profileName = PolicyProfile.DEFAULT;
-                    profile.isActive = true;
+        scheduleAccessCountFlush();
 
-                    policyProfileDAO.insert(profile);
-                }
+        return ready;
+    }
 
-                activePolicyProfile = profile;
-            }
-        };
+    /**
+     * @return the readiness of the most recent initialization
+     * */
+    public static RepositoryReadiness getReadiness() { return readiness; }
 
-        dbInit.start();
+    private static void runInitStages(Context context,
+                                      StorageType storageType,
+                                      RepositoryReadiness ready) {
+        AppDatabase db = AppDatabaseSingleton.getDB(storageType);
 
-        try {
-            dbInit.join();
+        long start = System.nanoTime();
+        db.getOpenHelper().getWritableDatabase();
+        ready.recordStageSince(RepositoryReadiness.Stage.OPEN_DATABASE, start);
+
+        start = System.nanoTime();
+        reconcileInstalledApps(context);
+        ready.recordStageSince(RepositoryReadiness.Stage.RECONCILE_INSTALLED_APPS, start);
+
+        start = System.nanoTime();
+        List<UserPolicy> globalSettings = repository.getAllGlobalSettings(PolicyProfile.DEFAULT);
+
+        if(globalSettings == null || globalSettings.isEmpty()) {
+            installGlobalSettings();
+            ready.recordStageSince(RepositoryReadiness.Stage.INSTALL_GLOBAL_SETTINGS, start);
         }
-        catch(InterruptedException ie) {
-            Log.d("DataRepository", "Unable to init database - interrupted");
-            Log.d("DataRepository", ie.getMessage());
+
+        start = System.nanoTime();
+        PolicyProfile profile = policyProfileDAO.getActiveProfile();
+
+        if(profile == null) {
+            profile = new PolicyProfile();
+            profile.profileName = PolicyProfile.DEFAULT;
+            profile.isActive = true;
+
+            policyProfileDAO.insert(profile);
         }
+
+        /* The table keeps the active profile when it is rebuilt, and compiles its snapshot. */
+        policyTable.activate(profile.profileName);
+        ready.recordStageSince(RepositoryReadiness.Stage.LOAD_ACTIVE_PROFILE, start);
+
+        /*
+         * Installs and profile syncs can already be writing settings, and mirroring them into
+         * the table. One that lands between reading the settings and compiling them would be
+         * lost, so the rebuild is redone until nothing changed the table in between.
+         */
+        start = System.nanoTime();
+        long generation;
+
+        do {
+            generation = policyTable.getGeneration();
+        } while(!policyTable.rebuild(policyDAO.getAllSettings(), generation));
+
+        decisionCache.clear();
+        odpCache.clear();
+        ready.recordStageSince(RepositoryReadiness.Stage.COMPILE_POLICY_TABLE, start);
+
+        start = System.nanoTime();
+        askDecisions.load(askPolicySettingDAO.getAllAskResponses());
+        ready.recordStageSince(RepositoryReadiness.Stage.LOAD_ASK_DECISIONS, start);
+
+        start = System.nanoTime();
+        accessCounters.get(storageType).load(db.dataAccessCountDAO().getAll());
+        ready.recordStageSince(RepositoryReadiness.Stage.LOAD_ACCESS_COUNTS, start);
+    }
+
+    private static synchronized void scheduleAccessCountFlush() {
+        if(accessCountFlushScheduled) { return; }
+
+        RepositoryExecutors.scheduleWithFixedDelay(RepositoryExecutors.Pool.WRITE, new Runnable() {
+            @Override
+            public void run() { writeAccessCounts(); }
+        }, ACCESS_COUNT_FLUSH_SECONDS, TimeUnit.SECONDS);
+
+        accessCountFlushScheduled = true;
     }
 
     private static void installGlobalSettings() {
@@ -188,7 +336,21 @@ public class DataRepository {
             settingArray[i] = settings.get(i);
         }
 
-        policyDAO.insert(settingArray);
+        insertSettings(settingArray);
+    }
+
+    /*
+     * Every insert into the policyprofilesetting table goes through here, so that the
+     * compiled policy table sees the same rows (and ids) as the database.
+     */
+    private static long[] insertSettings(PolicyProfileSetting... settings) {
+        long[] ids = policyDAO.insert(settings);
+
+        for(int i = 0; i < settings.length; i++) { settings[i].id = ids[i]; }
+
+        policyTable.putAll(Arrays.asList(settings));
+
+        return ids;
     }
 
     /**
@@ -241,9 +403,29 @@ public class DataRepository {
     }
 
     public static String activeProfileName() {
-        return activePolicyProfile.profileName;
+        return getActiveProfile().name;
     }
 
+    /**
+     * Get the snapshot of the active policy profile. Hold on to it to evaluate a request
+     * against one profile from start to end, even if another profile is activated meanwhile.
+     *
+     * @return the active profile's snapshot, or the default profile's before initialization
+     * */
+    public static ProfileSnapshot getActiveProfile() {
+        CompiledPolicyTable table = policyTable;
+        return table == null ? ProfileSnapshot.empty(PolicyProfile.DEFAULT) :
+                               table.getActiveProfile();
+    }
+
+    /**
+     * Get the cache of resolved policy decisions for the current storage mode. Mostly useful
+     * to check its hit and miss counters.
+     *
+     * @return the PolicyDecisionCache
+     * */
+    public PolicyDecisionCache getDecisionCache() { return decisionCache; }
+
     /**
      * Data structure that contains relevant data when an app is first installed:
      * package name and the off-device policy JSON string.
@@ -253,7 +435,7 @@ public class DataRepository {
         public OffDevicePolicy odp;
     }
 
-    private static InstallInfo install = new InstallInfo();
+    private static volatile InstallInfo install = new InstallInfo();
 
     /**
      * Installs the app synchronously (intended for automated unit tests).
@@ -265,81 +447,7 @@ public class DataRepository {
                                    String odp) {
         Precondition.checkEmptyCharSequence(packageName);
 
-        install.packageName = packageName.toString();
-        final Set<PolicyProfileSetting> appPermissionPurposes =
-                new HashSet<PolicyProfileSetting>();
-
-        try {
-            install.odp = new OffDevicePolicy(odp);
-
-            Map<String, PolicyProfileSetting> appPermissionGlobalSettings =
-                    new HashMap<String, PolicyProfileSetting>();
-
-            for (final OffDevicePolicy.SubPolicy policy : install.odp.SUBPOLICIES) {
-                PolicyProfileSetting setting = new PolicyProfileSetting();
-                setting.profileName = PolicyProfile.DEFAULT;
-                setting.app = packageName.toString();
-                setting.permission = policy.permission;
-                setting.purpose = policy.purpose;
-
-                ThirdPartyLibrary lib =
-                        ThirdPartyLibraries.getLibraryByOffendingClass(policy.className);
-
-                if (lib != null) {
-                    setting.thirdPartyLibrary = lib.qualifiedName;
-                } else {
-                    setting.thirdPartyLibrary = ThirdPartyLibraries.APP_INTERNAL_USE;
-                }
-
-                setting.policyAction = UserPolicy.Policy.ALLOW.name();
-
-                PolicyProfileSetting masterSetting = copyProfileSetting(setting);
-                masterSetting.purpose = PolicyManagerApplication.SYMBOL_ALL;
-
-                if(lib != null) {
-                    masterSetting.thirdPartyLibrary = ThirdPartyLibraries.THIRD_PARTY_USE;
-                } else {
-                    masterSetting.thirdPartyLibrary = ThirdPartyLibraries.APP_INTERNAL_USE;
-                }
-
-                if(!appPermissionGlobalSettings.containsKey(
-                        masterSetting.permission + masterSetting.purpose
-                )) {
-                    appPermissionPurposes.add(masterSetting);
-                    appPermissionGlobalSettings.put(masterSetting.permission, masterSetting);
-                }
-
-                appPermissionPurposes.add(setting);
-            }
-        } catch(JSONException jse) {
-            jse.printStackTrace();
-        }
-
-        if(!DataRepository.getInstance().isAppInstalled(packageName.toString())) {
-            FetchUtil.insertAppIntoDB(context, install.packageName);
-
-            OffDevicePolicyDBModel odpDB = new OffDevicePolicyDBModel();
-            odpDB.packageName = install.packageName;
-            odpDB.odp = odp;
-            offDevicePolicyDAO.insert(odpDB);
-
-            for (final PolicyProfileSetting setting : appPermissionPurposes) {
-                setting.profileName = PolicyProfile.DEFAULT;
-                policyDAO.insert(setting);
-            }
-        }
-    }
-
-    private PolicyProfileSetting copyProfileSetting(PolicyProfileSetting setting) {
-        PolicyProfileSetting copiedSetting = new PolicyProfileSetting();
-        copiedSetting.app = setting.app;
-        copiedSetting.permission = setting.permission;
-        copiedSetting.purpose = setting.purpose;
-        copiedSetting.thirdPartyLibrary = setting.thirdPartyLibrary;
-        copiedSetting.lastUpdated = setting.lastUpdated;
-        copiedSetting.policyAction = setting.policyAction;
-
-        return copiedSetting;
+        installPipeline.submit(packageName, odp).join();
     }
 
     /**
@@ -348,85 +456,90 @@ public class DataRepository {
      *
      * @param packageName the package name of the app being installed
      * @param odp the off-device policy JSON String
+     * @return a future that completes with the install once it is recorded
      * */
-    public CompletableFuture<Void> logInstallInfo(final CharSequence packageName,
-                                                  final String odp) {
-        return CompletableFuture.supplyAsync(new Supplier<Void>() {
-            @Override
-            public Void get() {
-                install.packageName = packageName.toString();
-                final Set<PolicyProfileSetting> appPermissionPurposes =
-                        new HashSet<PolicyProfileSetting>();
-
-                try {
-                    install.odp = new OffDevicePolicy(odp);
-
-                    Map<String, PolicyProfileSetting> appPermissionGlobalSettings =
-                            new HashMap<String, PolicyProfileSetting>();
+    public CompletableFuture<InstallInfo> logInstallInfo(final CharSequence packageName,
+                                                         final String odp) {
+        return installPipeline.submit(packageName, odp);
+    }
 
-                    for (final OffDevicePolicy.SubPolicy policy : install.odp.SUBPOLICIES) {
-                        PolicyProfileSetting setting = new PolicyProfileSetting();
-                        setting.profileName = PolicyProfile.DEFAULT;
-                        setting.app = packageName.toString();
-                        setting.permission = policy.permission;
-                        setting.purpose = policy.purpose;
+    /**
+     * @return the pipeline that records newly installed apps
+     * */
+    public InstallPipeline getInstallPipeline() { return installPipeline; }
 
-                        ThirdPartyLibrary lib =
-                                ThirdPartyLibraries.getLibraryByOffendingClass(policy.className);
+    /*
+     * Writes an install from the InstallPipeline in one transaction: the app, its off-device
+     * policy and its default settings. The policy the settings were expanded from replaces a
+     * different one stored for the package, unless it could not be parsed, so the two never
+     * disagree. Nothing is written if the app is already in the database. The in-memory
+     * tables and caches are only updated once the transaction has committed.
+     *
+     * @return true if the install was written
+     */
+    static boolean commitInstall(final InstallInfo info,
+                                 final AppInfo app,
+                                 final String odp,
+                                 final List<PolicyProfileSetting> settings) {
+        final StorageType type = storageMode;
+        final AppDatabase db = AppDatabaseSingleton.getDB(type);
+
+        return RepositoryExecutors.call(RepositoryExecutors.Pool.WRITE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                final boolean[] written = new boolean[2];
 
-                        if (lib != null) {
-                            setting.thirdPartyLibrary = lib.qualifiedName;
-                        } else {
-                            setting.thirdPartyLibrary = ThirdPartyLibraries.APP_INTERNAL_USE;
+                db.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(db.appInfoDao().getAppWithPackageName(info.packageName) != null) {
+                            return;
                         }
 
-                        setting.policyAction = UserPolicy.Policy.ALLOW.name();
+                        if(app != null) { db.appInfoDao().insert(app); }
 
-                        PolicyProfileSetting masterSetting = copyProfileSetting(setting);
-                        masterSetting.purpose = PolicyManagerApplication.SYMBOL_ALL;
+                        OffDevicePolicyDBModel stored = db.odpDAO().getPolicy(info.packageName);
 
-                        if(lib != null) {
-                            masterSetting.thirdPartyLibrary = ThirdPartyLibraries.THIRD_PARTY_USE;
-                        } else {
-                            masterSetting.thirdPartyLibrary = ThirdPartyLibraries.APP_INTERNAL_USE;
+                        if(stored == null) {
+                            OffDevicePolicyDBModel odpDB = new OffDevicePolicyDBModel();
+                            odpDB.packageName = info.packageName;
+                            odpDB.odp = odp;
+                            db.odpDAO().insert(odpDB);
+                            written[1] = true;
+                        } else if(info.odp != null && odp != null && !odp.equals(stored.odp)) {
+                            db.odpDAO().updatePolicy(info.packageName, odp);
+                            written[1] = true;
                         }
 
-                        if(!appPermissionGlobalSettings.containsKey(
-                                masterSetting.permission + masterSetting.purpose
-                        )) {
-                            appPermissionPurposes.add(masterSetting);
-                            appPermissionGlobalSettings.put(
-                                    masterSetting.permission, masterSetting
-                            );
-                        }
+                        long[] ids = db.policyProfileSettingDAO().insert(
+                                settings.toArray(new PolicyProfileSetting[settings.size()])
+                        );
 
-                        appPermissionPurposes.add(setting);
+                        for(int i = 0; i < ids.length; i++) { settings.get(i).id = ids[i]; }
+
+                        written[0] = true;
                     }
-                } catch(JSONException jse) {
-                    jse.printStackTrace();
-                }
+                });
 
-                if(!DataRepository.getInstance().isAppInstalled(packageName.toString())) {
-                    FetchUtil.insertAppIntoDB(context, install.packageName);
+                if(!written[0]) { return false; }
 
-                    if(offDevicePolicyDAO.getPolicy(packageName.toString()) == null) {
-                        OffDevicePolicyDBModel dbModel = new OffDevicePolicyDBModel();
-                        dbModel.packageName = install.packageName;
-                        dbModel.odp = odp;
-                        offDevicePolicyDAO.insert(dbModel);
-                    }
+                policyTables.get(type).putAll(settings);
 
-                    for (final PolicyProfileSetting setting : appPermissionPurposes) {
-                        setting.profileName = PolicyProfile.DEFAULT;
-                        policyDAO.insert(setting);
-                    }
-                }
+                decisionCaches.get(type).invalidateApp(info.packageName);
 
-                return null;
+                OdpCache cache = odpCaches.get(type);
+                cache.invalidate(info.packageName);
+
+                if(written[1]) { cache.put(cache.generation(), info.packageName, info.odp); }
+
+                install = info;
+                return true;
             }
         });
     }
 
+    static void setInstallInfo(InstallInfo info) { install = info; }
+
     /**
      * Adds an off-device policy JSON string to the DataRepository. This action is completed
      * in a separate thread.
@@ -438,14 +551,39 @@ public class DataRepository {
                        final String odpString) {
         Precondition.checkEmptyCharSequence(packageName);
 
-        (new Thread() {
+        RepositoryExecutors.writes().execute(new Runnable() {
+            @Override
             public void run() {
                 OffDevicePolicyDBModel odpDB = new OffDevicePolicyDBModel();
                 odpDB.packageName = packageName.toString();
                 odpDB.odp = odpString;
                 offDevicePolicyDAO.insert(odpDB);
+                odpCache.invalidate(packageName.toString());
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Adds a batch of off-device policies to the DataRepository in one transaction, and
+     * waits for it to be written. Used for bulk loads, such as the emulated Play store's.
+     *
+     * @param policies the off-device policies to add
+     * */
+    public void addODPs(final List<OffDevicePolicyDBModel> policies) {
+        Precondition.checkIfNull(policies, "Off-device policies are null");
+
+        if(policies.isEmpty()) { return; }
+
+        RepositoryExecutors.run(RepositoryExecutors.Pool.WRITE, new Runnable() {
+            @Override
+            public void run() {
+                offDevicePolicyDAO.insertAll(policies);
+
+                for(OffDevicePolicyDBModel policy : policies) {
+                    odpCache.invalidate(policy.packageName);
+                }
+            }
+        });
     }
 
     /**
@@ -466,7 +604,7 @@ public class DataRepository {
 
                 return null;
             }
-        });
+        }, RepositoryExecutors.reads());
     }
 
     /**
@@ -485,6 +623,72 @@ public class DataRepository {
         return null;
     }
 
+    /**
+     * Synchronously get the parsed off-device policy of an app. Policies are parsed once and
+     * cached until the app is reinstalled, updated or uninstalled, or a new policy is added.
+     *
+     * @param packageName the package name of the app
+     * @return the parsed policy, which is empty if the app has no off-device policy
+     * @throws JSONException if the stored policy is not valid JSON
+     * */
+    public OffDevicePolicy syncGetParsedODPForPackage(final CharSequence packageName)
+            throws JSONException {
+        Precondition.checkEmptyCharSequence(packageName);
+
+        String name = packageName.toString();
+        OffDevicePolicy odp = odpCache.get(name);
+
+        if(odp != null) { return odp; }
+
+        long generation = odpCache.generation();
+        odp = new OffDevicePolicy(syncGetODPForPackage(name));
+        odpCache.put(generation, name, odp);
+
+        return odp;
+    }
+
+    /**
+     * Asynchronously get the parsed off-device policy of an app.
+     *
+     * @param packageName the package name of the app
+     * @return CompletableFuture that will return the parsed policy, or null if the stored
+     * policy is not valid JSON
+     * */
+    public CompletableFuture<OffDevicePolicy> getParsedODPForPackage(
+            final CharSequence packageName) {
+        Precondition.checkEmptyCharSequence(packageName);
+
+        OffDevicePolicy cached = odpCache.get(packageName.toString());
+
+        if(cached != null) { return CompletableFuture.completedFuture(cached); }
+
+        return CompletableFuture.supplyAsync(new Supplier<OffDevicePolicy>() {
+            @Override
+            public OffDevicePolicy get() {
+                try {
+                    return syncGetParsedODPForPackage(packageName);
+                } catch(JSONException jse) {
+                    Log.d("DataRepository", "Invalid ODP for " + packageName);
+                    return null;
+                }
+            }
+        }, RepositoryExecutors.reads());
+    }
+
+    /**
+     * Drops the parsed off-device policy of an app that was updated, since the new version
+     * may come with a different policy.
+     *
+     * @param packageName the package name of the updated app
+     * */
+    public static void onAppUpdated(CharSequence packageName) {
+        Precondition.checkEmptyCharSequence(packageName);
+
+        for(OdpCache cache : odpCaches.values()) {
+            cache.invalidate(packageName.toString());
+        }
+    }
+
     /**
      * Get the InstallInfo that was logged at some point during the app install process.
      *
@@ -493,53 +697,170 @@ public class DataRepository {
     public static InstallInfo getInstallInfo() { return install; }
 
     /**
-     * Install a policy profile. This is a prototype and so it only will install the sample
-     * organizational profile CMU provided. This action is completed in a separate thread.
+     * Install a policy profile from the profile source, or bring an installed one up to
+     * date. Only the rules that changed are written. This action is completed in a
+     * separate thread.
      *
      * @param profileToInstall the profile to install
+     * @return a future that completes with the rules that changed
      * */
-    public void installProfile(final CharSequence profileToInstall) {
+    public CompletableFuture<ProfileChanges> installProfile(final CharSequence profileToInstall) {
         Precondition.checkEmptyCharSequence(profileToInstall);
+        return profileSync.submit(profileToInstall);
+    }
 
-        (new Thread() {
-            public void run() {
-                if(profileIsNotInstalled(profileToInstall.toString())) {
-                    profilesAdded.add(profileToInstall.toString());
-                    PolicyProfile profile = new PolicyProfile();
-                    profile.profileName = profileToInstall.toString();
-                    profile.isActive = false;
+    /**
+     * Synchronously install a policy profile from the profile source, or bring an installed
+     * one up to date. A profile that cannot be fetched is logged and left as it is.
+     *
+     * @param profileToInstall the profile to install
+     * */
+    public void syncInstallProfile(CharSequence profileToInstall) {
+        Precondition.checkEmptyCharSequence(profileToInstall);
 
-                    policyProfileDAO.insert(profile);
+        try {
+            profileSync.sync(profileToInstall);
+        } catch(IOException e) {
+            Log.e("DataRepository", "Unable to install profile " + profileToInstall, e);
+        }
+    }
 
-                    List<PolicyProfileSetting> profileSettings =
-                            backendServer.getSampleProfileSettings();
+    /**
+     * @return what installs and keeps policy profiles up to date
+     * */
+    public ProfileSync getProfileSync() { return profileSync; }
 
-                    for(PolicyProfileSetting setting : profileSettings) {
-                        policyDAO.insert(setting);
-                    }
-                }
+    /**
+     * Sync policy profiles from another source, such as a ProfileClient for a profile
+     * server, instead of the profiles bundled with the app.
+     *
+     * @param source where to sync profiles from
+     * */
+    public void setProfileSource(ProfileSource source) { profileSync.setSource(source); }
+
+    /*
+     * The entity tag of the installed version of a profile, or null if it is not installed.
+     */
+    static String profileETag(final String profile) {
+        return RepositoryExecutors.call(RepositoryExecutors.Pool.READ, new Callable<String>() {
+            @Override
+            public String call() {
+                if(policyProfileDAO.getProfile(profile) == null) { return null; }
+
+                Metadata stored = metadataDAO.getMetadataByOwner(KEY_PROFILE_VERSION + profile);
+
+                if(stored == null) { return null; }
+
+                return jsonToMetadata(stored.metadataJson).get(PROFILE_ETAG);
             }
-        }).start();
+        });
     }
 
-    public void syncInstallProfile(CharSequence profileToInstall) {
-        String profileString = profileToInstall.toString();
+    /*
+     * Writes a new version of a profile in one transaction, along with its version and entity
+     * tag: the profile is added if it is not installed, and only the rules that changed are
+     * inserted, updated or deleted. The compiled policy table is then updated in one go.
+     * Returns null, without writing anything, if the document is a delta whose base is not
+     * the installed version.
+     */
+    static ProfileChanges commitProfile(final ProfileStream.Document document,
+                                        final String etag) {
+        final StorageType type = storageMode;
+        final AppDatabase db = AppDatabaseSingleton.getDB(type);
+
+        return RepositoryExecutors.call(RepositoryExecutors.Pool.WRITE,
+                                        new Callable<ProfileChanges>() {
+            @Override
+            public ProfileChanges call() {
+                final ProfileChanges[] written = new ProfileChanges[1];
 
-        if(profileIsNotInstalled(profileString)) {
-            profilesAdded.add(profileString);
-            PolicyProfile profile = new PolicyProfile();
-            profile.profileName = profileString;
-            profile.isActive = false;
+                db.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        String owner = KEY_PROFILE_VERSION + document.profile;
+                        Metadata stored = db.metadataDao().getMetadataByOwner(owner);
+                        boolean installed =
+                                db.policyProfileDAO().getProfile(document.profile) != null;
 
-            policyProfileDAO.insert(profile);
+                        if(document.isDelta()) {
+                            String version = !installed || stored == null ? null :
+                                    jsonToMetadata(stored.metadataJson).get(PROFILE_VERSION);
 
-            List<PolicyProfileSetting> profileSettings =
-                    backendServer.getSampleProfileSettings();
+                            if(!document.base.equals(version)) { return; }
+                        }
+
+                        if(!installed) {
+                            PolicyProfile profile = new PolicyProfile();
+                            profile.profileName = document.profile;
+                            profile.isActive = false;
+
+                            db.policyProfileDAO().insert(profile);
+                        }
 
-            for(PolicyProfileSetting setting : profileSettings) {
-                policyDAO.insert(setting);
+                        PolicyProfileSettingDAO settings = db.policyProfileSettingDAO();
+                        ProfileChanges changes = ProfileChanges.between(
+                                settings.getAllProfileSettings(document.profile), document
+                        );
+
+                        List<Long> ids = new ArrayList<Long>(DELETE_BATCH_SIZE);
+
+                        for(PolicyProfileSetting setting : changes.removed) {
+                            ids.add(setting.id);
+
+                            if(ids.size() == DELETE_BATCH_SIZE) {
+                                settings.deleteSettings(ids);
+                                ids.clear();
+                            }
+                        }
+
+                        if(!ids.isEmpty()) { settings.deleteSettings(ids); }
+
+                        for(PolicyProfileSetting setting : changes.updated) {
+                            settings.updatePolicyAction(setting.id, setting.policyAction);
+                        }
+
+                        if(!changes.inserted.isEmpty()) {
+                            long[] inserted = settings.insert(changes.inserted.toArray(
+                                    new PolicyProfileSetting[changes.inserted.size()]
+                            ));
+
+                            for(int i = 0; i < inserted.length; i++) {
+                                changes.inserted.get(i).id = inserted[i];
+                            }
+                        }
+
+                        Map<String, String> version = new TreeMap<String, String>();
+                        version.put(PROFILE_VERSION, document.version);
+
+                        if(etag != null) { version.put(PROFILE_ETAG, etag); }
+
+                        if(stored == null) {
+                            Metadata metadata = new Metadata();
+                            metadata.dataOwner = owner;
+                            metadata.metadataJson = metadataToJson(version);
+
+                            db.metadataDao().insert(metadata);
+                        } else {
+                            db.metadataDao().updateMetada(owner, metadataToJson(version));
+                        }
+
+                        written[0] = changes;
+                    }
+                });
+
+                ProfileChanges changes = written[0];
+
+                if(changes != null && !changes.isEmpty()) {
+                    policyTables.get(type).applyProfileChanges(document.profile,
+                                                               changes.inserted,
+                                                               changes.updated,
+                                                               changes.removed);
+                    decisionCaches.get(type).clear();
+                }
+
+                return changes;
             }
-        }
+        });
     }
 
     /**
@@ -552,6 +873,14 @@ public class DataRepository {
                                    policyToRemove.permission.androidPermission.toString(),
                                    policyToRemove.purpose.name.toString(),
                                    policyToRemove.thirdPartyLibrary.qualifiedName);
+
+        policyTable.remove(policyToRemove.app,
+                           policyToRemove.permission.androidPermission.toString(),
+                           policyToRemove.purpose.name.toString(),
+                           policyToRemove.thirdPartyLibrary.qualifiedName);
+
+        decisionCache.invalidate(policyToRemove.app,
+                                 policyToRemove.permission.androidPermission.toString());
     }
 
     /**
@@ -574,17 +903,24 @@ public class DataRepository {
     }
 
     /**
-     * Get profile settings specifically for the sample organizational profile.
+     * Get profile settings specifically for the sample organizational profile, as the
+     * profile source has them, whether or not the profile is installed.
      *
-     * @return the list of UserPolicys the sample profile uses
+     * @return the list of UserPolicys the sample profile uses, or an empty list if the
+     * profile cannot be fetched
      * */
     public List<UserPolicy> previewProfileSettings() {
-        List<PolicyProfileSetting> profileSettings =
-                                backendServer.getSampleProfileSettings();
-
         List<UserPolicy> profilePolicies = new LinkedList<UserPolicy>();
+        ProfileSource.Fetch fetch;
+
+        try {
+            fetch = profileSync.getSource().fetch(PolicyProfile.ORGANIZATIONAL, null);
+        } catch(IOException e) {
+            Log.e("DataRepository", "Unable to preview " + PolicyProfile.ORGANIZATIONAL, e);
+            return profilePolicies;
+        }
 
-        for(PolicyProfileSetting setting : profileSettings) {
+        for(PolicyProfileSetting setting : fetch.document.put) {
             profilePolicies.add(convertPolicySettingToUserPolicy(setting));
         }
 
@@ -662,7 +998,8 @@ public class DataRepository {
 
                         return filteredApps;
                     }
-                }
+                },
+                RepositoryExecutors.reads()
         );
     }
 
@@ -686,7 +1023,8 @@ public class DataRepository {
 
                         return requestedApps;
                     }
-                }
+                },
+                RepositoryExecutors.reads()
         );
     }
 
@@ -698,70 +1036,116 @@ public class DataRepository {
     public void syncUninstallApp(final CharSequence packageName) {
         Precondition.checkEmptyCharSequence(packageName);
 
+        final String activeProfile = activeProfileName();
+
         policyDAO.deletePoliciesWithPackageName(
-                activePolicyProfile.profileName,
+                activeProfile,
                 packageName.toString()
         );
 
         appDAO.deleteWithPackageName(packageName.toString());
         policyDAO.deletePoliciesWithPackageName(
-                activePolicyProfile.profileName,
+                activeProfile,
                 packageName.toString()
         );
+
+        policyTable.removeApp(activeProfile, packageName.toString());
+        decisionCache.invalidateApp(packageName.toString());
+        odpCache.invalidate(packageName.toString());
+        removeAccessCounts(storageMode, packageName.toString());
     }
 
     public Map<String, String> getMetadataByOwner(final String owner) {
-        Map<String, String> metadata = null;
-
-        GetMetadataTask task = new GetMetadataTask(owner);
-        task.start();
-
         try {
-            task.join();
+            return RepositoryExecutors.call(RepositoryExecutors.Pool.READ,
+                                            new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() {
+                    Metadata m = metadataDAO.getMetadataByOwner(owner);
+                    return m == null ? null : jsonToMetadata(m.metadataJson);
+                }
+            });
         }
-        catch(InterruptedException e) {
+        catch(IllegalStateException e) {
             Log.d("DataRepository", "Thread interrupted - cant get metadata");
             Log.d("DataRepository", e.getMessage());
         }
 
-        return task.metadata;
+        return null;
     }
 
-    /*
-     * Future-based API call, really just meant for unit testing since
-     * I really don't have time for something better.
-     * */
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
-
     /**
-     * Sets the given profile name as the active policy profile.
+     * Sets the given profile name as the only active policy profile. Enforcement switches to
+     * the profile's precompiled snapshot in one step, before the policyprofile rows are
+     * updated, so no request sees a profile that is half activated. Decisions cached for each
+     * profile stay valid, since the cache is keyed by profile.
      *
      * @param profileName the profile to make active
      * */
     public void activateProfile(final CharSequence profileName) {
         Precondition.checkEmptyCharSequence(profileName);
 
-        Future<Void> task = executor.submit(new Callable<Void>() {
+        setProfileStack(ProfileStack.of(profileName.toString()));
+    }
+
+    /**
+     * Layers the given profiles on top of the default profile, and makes them active the
+     * same way activateProfile does. The highest enabled layer is stored as the active
+     * profile, so it is the one that is active again when the app restarts.
+     *
+     * @param stack the profiles to make active, in order of precedence
+     * */
+    public void setProfileStack(final ProfileStack stack) {
+        Precondition.checkIfNull(stack, "Profile stack is null");
+
+        RepositoryExecutors.run(RepositoryExecutors.Pool.WRITE, new Runnable() {
             @Override
-            public Void call() throws Exception {
-                PolicyProfile profile = policyProfileDAO.getProfile(profileName.toString());
+            public void run() {
+                String previous = activeProfileName();
 
-                if(profile != null) {
-                    policyProfileDAO.update(false, activePolicyProfile.profileName);
-                    policyProfileDAO.update(true, profileName.toString());
-                    activePolicyProfile = profile;
-                }
+                policyTable.activate(stack);
+                storeActiveProfile(previous);
+            }
+        });
+    }
 
-                return null;
+    /**
+     * Switch one layer of the active profile stack on or off. A profile that is not in the
+     * stack yet is put on top of it when it is switched on.
+     *
+     * @param profileName the profile of the layer
+     * @param enabled true to switch the layer on
+     * */
+    public void setProfileLayerEnabled(final CharSequence profileName, final boolean enabled) {
+        Precondition.checkEmptyCharSequence(profileName);
+
+        RepositoryExecutors.run(RepositoryExecutors.Pool.WRITE, new Runnable() {
+            @Override
+            public void run() {
+                String previous = activeProfileName();
+
+                policyTable.setLayerEnabled(profileName.toString(), enabled);
+                storeActiveProfile(previous);
             }
         });
+    }
 
-        try {
-            task.get();
-        }
-        catch(Exception e) {
-            e.printStackTrace();
-        }
+    /**
+     * @return the active stack of profiles, or an empty stack before initialization
+     * */
+    public static ProfileStack getProfileStack() {
+        CompiledPolicyTable table = policyTable;
+        return table == null ? ProfileStack.empty() : table.getProfileStack();
+    }
+
+    /* Run on the write pool, after the policy table's active stack has changed. */
+    private void storeActiveProfile(String previous) {
+        String active = activeProfileName();
+
+        if(active.equals(previous) || policyProfileDAO.getProfile(active) == null) { return; }
+
+        policyProfileDAO.update(false, previous);
+        policyProfileDAO.update(true, active);
     }
 
     public CompletableFuture<W4PGraph> requestAppGraph(final String packageName) {
@@ -772,7 +1156,7 @@ public class DataRepository {
                 W4PGraph appGraph = new W4PGraph(W4PData.createFromApp(app));
                 return appGraph;
             }
-        });
+        }, RepositoryExecutors.reads());
     }
 
     /**
@@ -800,7 +1184,8 @@ public class DataRepository {
 
                         return recentApps;
                     }
-                }
+                },
+                RepositoryExecutors.reads()
         );
     }
 
@@ -808,7 +1193,8 @@ public class DataRepository {
                             final Map<String, String> metadata) {
         final String jsonString = metadataToJson(metadata);
 
-        (new Thread() {
+        RepositoryExecutors.writes().execute(new Runnable() {
+            @Override
             public void run() {
                 Metadata data = new Metadata();
                 data.dataOwner = owner;
@@ -816,18 +1202,19 @@ public class DataRepository {
 
                 metadataDAO.insert(data);
             }
-        }).start();
+        });
     }
 
     public void updateMetadata(final String owner,
                                final Map<String, String> metadata) {
         final String jsonString = metadataToJson(metadata);
 
-        (new Thread() {
+        RepositoryExecutors.writes().execute(new Runnable() {
+            @Override
             public void run() {
                 metadataDAO.updateMetada(owner, jsonString);
             }
-        }).start();
+        });
     }
 
     //--------------------------------------------------
@@ -842,32 +1229,85 @@ public class DataRepository {
      * @return the UserPolicy with the action to take/enforce
      * */
     public UserPolicy getUserPolicyAction(UserPolicy policy) {
+        return getUserPolicyAction(policy, getActiveProfile());
+    }
+
+    /**
+     * Synchronously get the UserPolicy to enforce for the provided UserPolicy, as the given
+     * profile snapshot sees it.
+     *
+     * @param policy the policy to query an action for
+     * @param profile the snapshot of the active profile to resolve against
+     * @return the UserPolicy with the action to take/enforce
+     * */
+    public UserPolicy getUserPolicyAction(UserPolicy policy, ProfileSnapshot profile) {
         final PolicyProfileSetting setting = convertUserPolicyToPolicySetting(policy);
+        final String profileName = profile.key;
+        final QuickSettingState quickSettings = QuickSettingCheck.getQuickSettings();
+        final boolean cacheable = decisionCache.checkQuickSettingVersion(quickSettings.version);
 
-        PolicyProfileSetting result = policyDAO.getSetting(activePolicyProfile.profileName,
-                                                           setting.app,
-                                                           setting.permission,
-                                                           setting.purpose,
-                                                           setting.thirdPartyLibrary);
+        PolicyProfileSetting result = decisionCache.get(profileName,
+                                                        setting.app,
+                                                        setting.permission,
+                                                        setting.purpose,
+                                                        setting.thirdPartyLibrary);
 
         if(result == null) {
-            result = policyDAO.getSetting(PolicyProfile.DEFAULT,
-                                          setting.app,
-                                          setting.permission,
-                                          setting.purpose,
-                                          setting.thirdPartyLibrary);
+            long generation = decisionCache.generation();
+            result = resolvePolicySetting(profile, setting, quickSettings);
+
+            if(cacheable) {
+                decisionCache.put(generation,
+                                  profileName,
+                                  setting.app,
+                                  setting.permission,
+                                  setting.purpose,
+                                  setting.thirdPartyLibrary,
+                                  result);
+            }
+        }
+
+        return convertPolicySettingToUserPolicy(result);
+    }
+
+    private PolicyProfileSetting resolvePolicySetting(final ProfileSnapshot profile,
+                                                      final PolicyProfileSetting setting,
+                                                      final QuickSettingState quickSettings) {
+        String library = PolicyProfileSettingDAO.libraryOrDefault(setting.thirdPartyLibrary),
+               libraryCategory = PolicyProfileSettingDAO.categoryOf(library);
+
+        PolicyProfileSetting result = profile.resolve(setting.app,
+                                                      setting.permission,
+                                                      setting.purpose,
+                                                      library,
+                                                      libraryCategory);
+
+        final String deny = UserPolicy.Policy.DENY.name();
+
+        /* The default profile is the bottom layer; under deny-overrides its DENY counts too. */
+        if(result == null || (profile.rule == ProfileStack.CombiningRule.DENY_OVERRIDES &&
+                              !deny.equals(result.policyAction))) {
+            PolicyProfileSetting userDefault = policyTable.resolve(PolicyProfile.DEFAULT,
+                                                                   setting.app,
+                                                                   setting.permission,
+                                                                   setting.purpose,
+                                                                   library,
+                                                                   libraryCategory);
+
+            if(result == null || (userDefault != null && deny.equals(userDefault.policyAction))) {
+                result = userDefault;
+            }
         }
 
         boolean quickSettingsOverrideUserSetting =
                 result.profileName.equalsIgnoreCase(PolicyProfile.DEFAULT) &&
-                QuickSettingCheck.quickSettings.containsKey(result.permission) &&
-                QuickSettingCheck.quickSettings.get(result.permission) == false;
+                quickSettings.isDisabled(DangerousPermissions.ordinalOf(result.permission));
 
         if(quickSettingsOverrideUserSetting) {
             result.policyAction = UserPolicy.Policy.DENY.name();
         }
 
-        return convertPolicySettingToUserPolicy(result);
+        return result;
     }
 
     /**
@@ -880,20 +1320,24 @@ public class DataRepository {
     public List<UserPolicy> getAllGlobalSettings(final CharSequence profileName) {
         Precondition.checkEmptyCharSequence(profileName);
 
-        GlobalSettingRetrievalTask task = new GlobalSettingRetrievalTask(profileName.toString());
-
-        task.start();
+        List<PolicyProfileSetting> settings = new LinkedList<PolicyProfileSetting>();
 
         try {
-            task.join();
-        } catch(InterruptedException ie) {
+            settings = RepositoryExecutors.call(RepositoryExecutors.Pool.READ,
+                                                new Callable<List<PolicyProfileSetting>>() {
+                @Override
+                public List<PolicyProfileSetting> call() {
+                    return policyDAO.getAllGlobalPolicies(profileName.toString());
+                }
+            });
+        } catch(IllegalStateException ie) {
             Log.d("DataRepository", "Thread interrupted while getting user policy action");
             Log.d("DataRepository", ie.getMessage());
         }
 
         List<UserPolicy> globalSettings = new LinkedList<UserPolicy>();
 
-        for(PolicyProfileSetting setting : task.result) {
+        for(PolicyProfileSetting setting : settings) {
             globalSettings.add(convertPolicySettingToUserPolicy(setting));
         }
 
@@ -932,7 +1376,8 @@ public class DataRepository {
         PolicyProfileSetting setting = convertUserPolicyToPolicySetting(policy);
         setting.profileName = PolicyProfile.DEFAULT;
 
-        long[] ids = policyDAO.insert(setting);
+        long[] ids = insertSettings(setting);
+        decisionCache.invalidate(setting.app, setting.permission);
 
         Log.d("dbg", "Inserted with id " + ids[0]);
     }
@@ -955,6 +1400,16 @@ public class DataRepository {
                 setting.lastUpdated
         );
 
+        policyTable.update(PolicyProfile.DEFAULT,
+                           setting.app,
+                           setting.permission,
+                           setting.purpose,
+                           setting.thirdPartyLibrary,
+                           setting.policyAction,
+                           setting.lastUpdated);
+
+        decisionCache.invalidate(setting.app, setting.permission);
+
         if(updatedRows == 0) {
             PolicyProfileSetting searchResult = policyDAO.getExactPolicy(
                     setting.app,
@@ -991,19 +1446,24 @@ public class DataRepository {
     /**
      * Get the users response to the ask UI within a specified timeframe. If a user
      * had wanted to temporarily apply a policy, then that policy is only valid for a timeframe
-     * (specified by the PolicyManager). Synchronous.
+     * (specified by the PolicyManager). Answered from memory, without querying the database.
      *
      * @param policy the policy to get a response for
      * @param timeframe the duration which a temporary policy is valid for
      * */
     public UserPolicy getUserResponseToAskPromptWithinTime(UserPolicy policy,
                                                            long timeframe) {
-        AskPolicySetting setting = askPolicySettingDAO.getLastUserDecisionInTimeframe(
+        askDecisions.setTimeframe(timeframe);
+
+        String library = policy.thirdPartyLibrary.qualifiedName;
+
+        AskPolicySetting setting = askDecisions.get(
                 policy.app,
                 policy.permission.androidPermission.toString(),
                 policy.purpose.name.toString(),
-                policy.thirdPartyLibrary.qualifiedName,
-                timeframe
+                library,
+                ThirdPartyLibraries.getLibraryCategory(library),
+                System.currentTimeMillis()
         );
 
         if(setting == null) { return null; }
@@ -1020,76 +1480,283 @@ public class DataRepository {
     }
 
     /**
-     * Logs the user's temporary policy decision that they selected in a ask/runtime UI prompt.
+     * Sets how long answers to ASK prompts are valid for, in every storage mode.
+     *
+     * @param timeframe the duration which a temporary policy is valid for
+     * */
+    public static void setAskResponseTimeframe(long timeframe) {
+        for(AskDecisionStore store : askDecisionStores.values()) {
+            store.setTimeframe(timeframe);
+        }
+    }
+
+    /**
+     * Reads the policy settings the policy enforcement chain needs for a request in one pass.
+     * The policy in effect comes from the decision cache, whether the user has a setting for
+     * exactly this request comes from the compiled policy table, and the last answer to an ASK
+     * prompt comes from the ask decision store, so none of it queries the database.
      * Synchronous.
      *
+     * @param policy the (app, permission, purpose, library) of the request
+     * @param askTimeframe the duration an answer to an ASK prompt is valid for
+     * @return the settings the enforcement chain decides from
+     * */
+    public EnforcementPlan.Settings readEnforcementSettings(UserPolicy policy,
+                                                           long askTimeframe) {
+        return readEnforcementSettings(policy, askTimeframe, getActiveProfile());
+    }
+
+    /**
+     * Read the settings the enforcement chain needs for a request, as the given profile
+     * snapshot sees them. Synchronous.
+     *
+     * @param policy the (app, permission, purpose, library) of the request
+     * @param askTimeframe the duration an answer to an ASK prompt is valid for
+     * @param profile the snapshot of the active profile the request is enforced under
+     * @return the settings the enforcement chain decides from
+     * */
+    public EnforcementPlan.Settings readEnforcementSettings(UserPolicy policy,
+                                                           long askTimeframe,
+                                                           ProfileSnapshot profile) {
+        PolicyProfileSetting setting = convertUserPolicyToPolicySetting(policy);
+
+        boolean userHasDecided = policyTable.findExact(PolicyProfile.DEFAULT,
+                                                       setting.app,
+                                                       setting.permission,
+                                                       setting.purpose,
+                                                       setting.thirdPartyLibrary) != null;
+
+        UserPolicy enforcedPolicy = getUserPolicyAction(policy, profile);
+
+        if(enforcedPolicy.isAsk()) {
+            UserPolicy askResult = getUserResponseToAskPromptWithinTime(enforcedPolicy,
+                                                                        askTimeframe);
+
+            if(askResult != null) { enforcedPolicy = askResult; }
+        }
+
+        return new EnforcementPlan.Settings(enforcedPolicy, userHasDecided);
+    }
+
+    /**
+     * Logs the user's temporary policy decision that they selected in a ask/runtime UI prompt.
+     * The decision is enforced as soon as this returns, and written to the database in the
+     * background.
+     *
      * @param policy the policy to temporarily remember
      * */
     public void logUserResponseToAskPrompt(UserPolicy policy) {
-        long now = System.currentTimeMillis();
-
-        String library =
+        final AskPolicySetting userResponse = new AskPolicySetting();
+        userResponse.app = policy.app;
+        userResponse.permission = policy.permission.androidPermission.toString();
+        userResponse.purpose = policy.purpose.name.toString();
+        userResponse.library =
                 policy.thirdPartyLibrary == null ? ThirdPartyLibraries.APP_INTERNAL_USE :
                                                    policy.thirdPartyLibrary.qualifiedName;
+        userResponse.timeThisPolicyWasSet = System.currentTimeMillis();
 
-        AskPolicySetting setting = askPolicySettingDAO.settingExists(
-                policy.app,
-                policy.permission.androidPermission.toString(),
-                policy.purpose.name.toString(),
-                library
-        );
+        if(policy.isAllowed()) {
+            userResponse.policy = UserPolicy.Policy.ALLOW.name();
+        } else if(policy.isDenied()) {
+            userResponse.policy = UserPolicy.Policy.DENY.name();
+        }
 
-        if(setting != null) {
-            setting.timeThisPolicyWasSet = now;
+        askDecisions.put(userResponse);
 
-            if(policy.isAllowed()) {
-                setting.policy = UserPolicy.Policy.ALLOW.name();
-            } else if(policy.isDenied()) {
-                setting.policy = UserPolicy.Policy.DENY.name();
-            }
+        final AskPolicySettingDAO dao = askPolicySettingDAO;
 
-            askPolicySettingDAO.update(setting);
-        } else {
-            AskPolicySetting userResponse = new AskPolicySetting();
-            userResponse.app = policy.app;
-            userResponse.permission = policy.permission.androidPermission.toString();
-            userResponse.purpose = policy.purpose.name.toString();
-            userResponse.library = library;
-            userResponse.timeThisPolicyWasSet = now;
-
-            if(policy.isAllowed()) {
-                userResponse.policy = UserPolicy.Policy.ALLOW.name();
-            } else if(policy.isDenied()) {
-                userResponse.policy = UserPolicy.Policy.DENY.name();
+        RepositoryExecutors.writes().execute(new Runnable() {
+            @Override
+            public void run() {
+                AskPolicySetting setting = dao.settingExists(userResponse.app,
+                                                             userResponse.permission,
+                                                             userResponse.purpose,
+                                                             userResponse.library);
+
+                if(setting != null) {
+                    setting.timeThisPolicyWasSet = userResponse.timeThisPolicyWasSet;
+
+                    if(userResponse.policy != null) { setting.policy = userResponse.policy; }
+
+                    dao.update(setting);
+                } else {
+                    dao.insert(userResponse);
+                }
             }
+        });
+    }
+
+    /**
+     * Count an access to sensitive data. Only increments a counter in memory, so it is cheap
+     * enough to call on every permission request; the counts are written to the database
+     * every 30 seconds in one transaction.
+     *
+     * @param packageName the app that accessed the data
+     * @param permission the permission that was used
+     * @param purpose the purpose of the access, which may be null
+     * */
+    public static void recordDataAccess(CharSequence packageName,
+                                        SensitiveData permission,
+                                        Purpose purpose) {
+        Precondition.checkEmptyCharSequence(packageName);
+        Precondition.checkIfNull(permission, "Permission is null");
 
-            askPolicySettingDAO.insert(userResponse);
+        accessCounters.get(storageMode).increment(packageName.toString(),
+                                                  permission.androidPermission.toString(),
+                                                  purposeName(purpose));
+    }
+
+    /**
+     * @param packageName an app
+     * @param permission a permission
+     * @param purpose a purpose, or null for accesses without one
+     * @return how many times the app has accessed the permission for the purpose
+     * */
+    public long getDataAccessCount(CharSequence packageName,
+                                   SensitiveData permission,
+                                   Purpose purpose) {
+        Precondition.checkEmptyCharSequence(packageName);
+        Precondition.checkIfNull(permission, "Permission is null");
+
+        return accessCounters.get(storageMode).getCount(packageName.toString(),
+                                                        permission.androidPermission.toString(),
+                                                        purposeName(purpose));
+    }
+
+    /**
+     * @param packageName an app
+     * @return the access counts for every permission and purpose the app has accessed
+     * */
+    public List<DataAccessCount> getDataAccessCountsForApp(CharSequence packageName) {
+        Precondition.checkEmptyCharSequence(packageName);
+
+        return accessCounters.get(storageMode).getCountsForApp(packageName.toString());
+    }
+
+    /**
+     * @param permission a permission
+     * @return the access counts of every app and purpose that accessed the permission
+     * */
+    public List<DataAccessCount> getDataAccessCountsForPermission(SensitiveData permission) {
+        Precondition.checkIfNull(permission, "Permission is null");
+
+        return accessCounters.get(storageMode)
+                             .getCountsForPermission(permission.androidPermission.toString());
+    }
+
+    /**
+     * Write the data access counts to the database now instead of waiting for the next
+     * periodic flush. Synchronous.
+     * */
+    public void flushDataAccessCounts() {
+        try {
+            RepositoryExecutors.run(RepositoryExecutors.Pool.WRITE, new Runnable() {
+                @Override
+                public void run() { writeAccessCounts(); }
+            });
+        } catch(RuntimeException e) {
+            Log.d("DataRepository", "Unable to flush data access counts: " + e.getMessage());
+        }
+    }
+
+    /* Runs on the write pool only, so flushes never overlap. */
+    private static void writeAccessCounts() {
+        for(StorageType type : StorageType.values()) {
+            AppDatabase db = AppDatabaseSingleton.getDB(type);
+
+            if(db == null) { continue; }
+
+            AccessCounter.Flush flush = accessCounters.get(type).takePending();
+
+            if(flush.isEmpty()) { continue; }
+
+            try {
+                db.dataAccessCountDAO().addCounts(flush.rows);
+                flush.commit();
+            } catch(RuntimeException e) {
+                Log.d("DataRepository", "Unable to write data access counts: " + e.getMessage());
+            }
         }
     }
 
+    private static void removeAccessCounts(final StorageType type, final String packageName) {
+        RepositoryExecutors.writes().execute(new Runnable() {
+            @Override
+            public void run() {
+                AppDatabase db = AppDatabaseSingleton.getDB(type);
+
+                accessCounters.get(type).removeApp(packageName);
+
+                if(db != null) { db.dataAccessCountDAO().deleteCountsForApp(packageName); }
+            }
+        });
+    }
+
+    private static String purposeName(Purpose purpose) {
+        return purpose == null ? "" : purpose.name.toString();
+    }
+
     //----------------------------------------------
     //--------------- Util Requests ----------------
     //----------------------------------------------
 
+    /**
+     * Bring the apps in the database up to date with the installed packages. New and
+     * changed packages are scanned, and apps that are gone are removed, all in one
+     * transaction. Packages are scanned on the calling thread and the background pool, and
+     * only that transaction runs on the write pool. The caller waits for both.
+     *
+     * @param context the Context
+     * @return what was done
+     * */
+    public static PackageReconciler.Summary reconcileInstalledApps(final Context context) {
+        Precondition.checkIfNull(context, "Context is null");
+
+        PackageReconciler.Summary summary =
+                new PackageReconciler(new AndroidPackageSource(context),
+                                      FetchUtil.scanRules(),
+                                      RepositoryExecutors.background(),
+                                      PackageScanner.defaultWorkers())
+                        .reconcile(new ReconcileStore(StorageType.DISK));
+
+        lastReconcileSummary = summary;
+        Log.i("DataRepository", "Reconciled " + summary);
+
+        return summary;
+    }
+
+    /**
+     * @return what the last reconcileInstalledApps did, or null if it has not run
+     * */
+    public static PackageReconciler.Summary getLastReconcileSummary() {
+        return lastReconcileSummary;
+    }
+
     public static void removeAppPackageFromRepository(final String packageName) {
-        (new Thread() {
+        RepositoryExecutors.writes().execute(new Runnable() {
+            @Override
             public void run() {
                 AppInfo toRemoveAppInfo = appDAO.getAppWithPackageName(packageName);
 
                 if(toRemoveAppInfo != null) {
                     appDAO.delete(toRemoveAppInfo);
                     policyDAO.deletePoliciesWithPackageName(PolicyProfile.DEFAULT, packageName);
+                    policyTable.removeApp(PolicyProfile.DEFAULT, packageName);
                     metadataDAO.deleteDataOwnedBy(packageName);
+                    decisionCache.invalidateApp(packageName);
                 }
+
+                odpCache.invalidate(packageName);
+                removeAccessCounts(storageMode, packageName);
             }
-        }).start();
+        });
     }
 
     private PolicyProfileSetting convertUserPolicyToPolicySetting(final UserPolicy policy) {
         if(policy == null) { return null; }
 
         PolicyProfileSetting setting = new PolicyProfileSetting();
-        setting.profileName = activePolicyProfile.profileName;
+        setting.profileName = activeProfileName();
         setting.app = policy.app;
         setting.permission = policy.permission.androidPermission.toString();
         setting.purpose = policy.purpose.name.toString();
@@ -1120,20 +1787,7 @@ public class DataRepository {
         return null;
     }
 
-    private class GlobalSettingRetrievalTask extends Thread {
-        List<PolicyProfileSetting> result = new LinkedList<PolicyProfileSetting>();
-        private String profileName;
-
-        public GlobalSettingRetrievalTask(final String profileName) {
-            this.profileName = profileName;
-        }
-
-        public void run() {
-            result = policyDAO.getAllGlobalPolicies(profileName);
-        }
-    }
-
-    private Map<String, String> jsonToMetadata(final String json) {
+    private static Map<String, String> jsonToMetadata(final String json) {
         Map<String, String> metadata = new TreeMap<String, String>();
 
         JsonReader reader = new JsonReader(new StringReader(json));
@@ -1161,13 +1815,13 @@ public class DataRepository {
         return metadata;
     }
 
-    private String metadataToJson(final Map<String, String> metadata) {
+    private static String metadataToJson(final Map<String, String> metadata) {
         String jsonString = "{ ";
         Iterator<String> iter = metadata.keySet().iterator();
 
         while(iter.hasNext()) {
             String key = iter.next();
-            jsonString += "\"" + key + "\" : \"" + metadata.get(key) + "\"";
+            jsonString += quote(key) + " : " + quote(metadata.get(key));
 
             if(iter.hasNext()) { jsonString += ", "; }
         }
@@ -1177,20 +1831,168 @@ public class DataRepository {
         return jsonString;
     }
 
-    private class GetMetadataTask extends Thread {
-        public Map<String, String> metadata;
-        private String owner;
+    private static String quote(final String value) {
+        return "\"" + String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
 
-        public GetMetadataTask(final String o) {
-            owner = o;
+    /*
+     * Writes the reconciler's changes to the database of a storage mode in one transaction on
+     * the write pool, then brings that mode's compiled policy table and caches up to date.
+     * Apps that were updated keep their policies; only permissions without any get the
+     * default setting. The changes were worked out from a read made before the scan, so an
+     * app recorded since (by InstallPipeline) is not added twice.
+     */
+    private static final class ReconcileStore implements PackageReconciler.Store {
+        private final StorageType mType;
+        private final AppDatabase mDB;
+
+        private ReconcileStore(StorageType type) {
+            mType = type;
+            mDB = AppDatabaseSingleton.getDB(type);
         }
 
-        public void run() {
-            Metadata m = metadataDAO.getMetadataByOwner(owner);
+        @Override
+        public List<AppInfo> getApps() { return mDB.appInfoDao().getAll(); }
+
+        @Override
+        public Map<String, PackageSource.PackageVersion> getSkippedPackages() {
+            Map<String, PackageSource.PackageVersion> skipped =
+                    new HashMap<String, PackageSource.PackageVersion>();
+            Metadata metadata = mDB.metadataDao().getMetadataByOwner(KEY_SKIPPED_PACKAGES);
+
+            if(metadata == null) { return skipped; }
+
+            Map<String, String> versions = jsonToMetadata(metadata.metadataJson);
+
+            for(Map.Entry<String, String> entry : versions.entrySet()) {
+                PackageSource.PackageVersion version =
+                        PackageSource.PackageVersion.parse(entry.getValue());
+
+                if(version != null) { skipped.put(entry.getKey(), version); }
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public void apply(final PackageReconciler.Changes changes) {
+            RepositoryExecutors.run(RepositoryExecutors.Pool.WRITE, new Runnable() {
+                @Override
+                public void run() { write(changes); }
+            });
+        }
+
+        private void write(final PackageReconciler.Changes changes) {
+            final List<PolicyProfileSetting> inserted = new ArrayList<PolicyProfileSetting>();
+            final List<PackageScanner.ScannedApp> added =
+                    new ArrayList<PackageScanner.ScannedApp>();
+
+            mDB.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for(String packageName : changes.removed) {
+                        mDB.appInfoDao().deleteWithPackageName(packageName);
+                        mDB.policyProfileSettingDAO()
+                           .deletePoliciesWithPackageName(PolicyProfile.DEFAULT, packageName);
+                        mDB.metadataDao().deleteDataOwnedBy(packageName);
+                        mDB.dataAccessCountDAO().deleteCountsForApp(packageName);
+                    }
+
+                    for(PackageScanner.ScannedApp scanned : changes.added) {
+                        if(mDB.appInfoDao().getAppWithPackageName(
+                                scanned.app.packageName) != null) {
+                            continue;
+                        }
+
+                        added.add(scanned);
+                        scanned.app.id = mDB.appInfoDao().insert(scanned.app);
+                        mDB.permissionInfoDao().insertPermissionsForApp(scanned.app,
+                                                                        scanned.permissions);
+                        insert(scanned.settings, inserted);
+                    }
+
+                    for(PackageScanner.ScannedApp scanned : changes.updated) {
+                        mDB.appInfoDao().update(scanned.app);
+                        mDB.permissionInfoDao().deletePermissionsForApp(scanned.app.id);
+                        mDB.permissionInfoDao().insertPermissionsForApp(scanned.app,
+                                                                        scanned.permissions);
+
+                        List<String> withSettings = mDB.policyProfileSettingDAO()
+                                .getPermissionsWithSettings(PolicyProfile.DEFAULT,
+                                                            scanned.app.packageName);
+                        List<PolicyProfileSetting> missing =
+                                new ArrayList<PolicyProfileSetting>();
+
+                        for(PolicyProfileSetting setting : scanned.settings) {
+                            if(!withSettings.contains(setting.permission)) {
+                                missing.add(setting);
+                            }
+                        }
+
+                        insert(missing, inserted);
+                    }
+
+                    for(Map.Entry<String, PackageSource.PackageVersion> entry :
+                            changes.restamped.entrySet()) {
+                        mDB.appInfoDao().updateVersion(entry.getKey(),
+                                                       entry.getValue().versionCode,
+                                                       entry.getValue().lastUpdateTime);
+                    }
+
+                    if(changes.skipped != null) {
+                        mDB.metadataDao().deleteDataOwnedBy(KEY_SKIPPED_PACKAGES);
+
+                        if(!changes.skipped.isEmpty()) {
+                            Map<String, String> versions = new TreeMap<String, String>();
+
+                            for(Map.Entry<String, PackageSource.PackageVersion> entry :
+                                    changes.skipped.entrySet()) {
+                                versions.put(entry.getKey(), entry.getValue().toString());
+                            }
+
+                            Metadata metadata = new Metadata();
+                            metadata.dataOwner = KEY_SKIPPED_PACKAGES;
+                            metadata.metadataJson = metadataToJson(versions);
+                            mDB.metadataDao().insert(metadata);
+                        }
+                    }
+                }
+            });
+
+            CompiledPolicyTable table = policyTables.get(mType);
+            PolicyDecisionCache decisions = decisionCaches.get(mType);
+            OdpCache odps = odpCaches.get(mType);
+
+            for(String packageName : changes.removed) {
+                table.removeApp(PolicyProfile.DEFAULT, packageName);
+                accessCounters.get(mType).removeApp(packageName);
+                decisions.invalidateApp(packageName);
+                odps.invalidate(packageName);
+            }
+
+            for(PolicyProfileSetting setting : inserted) { table.put(setting); }
+
+            for(PackageScanner.ScannedApp scanned : added) {
+                decisions.invalidateApp(scanned.app.packageName);
+            }
+
+            for(PackageScanner.ScannedApp scanned : changes.updated) {
+                decisions.invalidateApp(scanned.app.packageName);
+                odps.invalidate(scanned.app.packageName);
+            }
+        }
+
+        private void insert(List<PolicyProfileSetting> settings,
+                            List<PolicyProfileSetting> inserted) {
+            if(settings.isEmpty()) { return; }
+
+            PolicyProfileSetting[] rows = settings.toArray(new PolicyProfileSetting[0]);
+            long[] ids = mDB.policyProfileSettingDAO().insert(rows);
 
-            if(m != null) {
-                metadata = jsonToMetadata(m.metadataJson);
+            for(int i = 0; i < rows.length; i++) {
+                rows[i].id = ids[i];
+                inserted.add(rows[i]);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,321 @@
+package edu.cmu.policymanager.DataRepository;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import edu.cmu.policymanager.DataRepository.db.model.AppInfo;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
+import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibrary;
+import edu.cmu.policymanager.PolicyManager.metrics.LatencyHistogram;
+import edu.cmu.policymanager.PolicyManager.policies.OffDevicePolicy;
+import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
+import edu.cmu.policymanager.application.PolicyManagerApplication;
+import edu.cmu.policymanager.util.FetchUtil;
+import edu.cmu.policymanager.validation.Precondition;
+
+/**
+ * Records newly installed apps: their app info, off-device policy and the default ALLOW
+ * settings for every permission and purpose in that policy.
+ *
+ * Each install runs on the INSTALL pool with its own Install, so installs that overlap never
+ * share state. The off-device policy is expanded into settings before anything is written,
+ * and duplicate settings are dropped there. The app, its policy and its settings are then
+ * written in one transaction on the write pool, so an install is either all there or not at
+ * all. A second install of a package that is still in flight joins the first one instead of
+ * running again.
+ *
+ * The policy the settings are expanded from is the one that wins: it is written over a
+ * different policy already stored for the package, such as one the emulated Play store
+ * loaded, so the stored policy and the app's default settings always agree. A resolver that
+ * prefers the stored policy returns it, and nothing is overwritten.
+ *
+ * The INSTALL pool has a bounded queue, and callers wait for space when it is full, so a
+ * burst of installs is worked off a few at a time.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class InstallPipeline {
+    private static final String TAG = "InstallPipeline";
+
+    /* Separates the parts of a setting key; cannot appear in a permission, purpose or library. */
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final Context mContext;
+
+    /* The install of each package that is queued or running, so a second one can join it. */
+    private final Map<String, CompletableFuture<DataRepository.InstallInfo>> mInFlight =
+            new ConcurrentHashMap<String, CompletableFuture<DataRepository.InstallInfo>>();
+
+    private final AtomicLong mSubmitted = new AtomicLong(),
+                             mJoined = new AtomicLong(),
+                             mCommitted = new AtomicLong(),
+                             mAlreadyInstalled = new AtomicLong(),
+                             mFailed = new AtomicLong(),
+                             mSettingsWritten = new AtomicLong(),
+                             mSettingsDropped = new AtomicLong();
+
+    private final LatencyHistogram mInstallTime = new LatencyHistogram();
+
+    InstallPipeline(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Record an install with a known off-device policy. It replaces any policy already
+     * stored for the package.
+     *
+     * @param packageName the package name of the app being installed
+     * @param odp the off-device policy JSON String
+     * @return a future that completes with the install once it is written, or skipped because
+     * the app is already in the database
+     * */
+    public CompletableFuture<DataRepository.InstallInfo> submit(CharSequence packageName,
+                                                                final String odp) {
+        return submit(packageName, new Function<String, String>() {
+            @Override
+            public String apply(String storedODP) { return odp; }
+        });
+    }
+
+    /**
+     * Record an install, resolving its off-device policy on the INSTALL pool.
+     *
+     * @param packageName the package name of the app being installed
+     * @param resolveODP given the off-device policy already stored for the package (or null),
+     *                   returns the policy to install, which replaces the stored one
+     * @return a future that completes with the install once it is written, or skipped because
+     * the app is already in the database
+     * */
+    public CompletableFuture<DataRepository.InstallInfo> submit(
+            CharSequence packageName,
+            final Function<String, String> resolveODP) {
+        Precondition.checkEmptyCharSequence(packageName);
+        Precondition.checkIfNull(resolveODP, "Off-device policy resolver is null");
+
+        final String pkg = packageName.toString();
+        final CompletableFuture<DataRepository.InstallInfo> result =
+                new CompletableFuture<DataRepository.InstallInfo>();
+
+        mSubmitted.incrementAndGet();
+
+        CompletableFuture<DataRepository.InstallInfo> running =
+                mInFlight.putIfAbsent(pkg, result);
+
+        if(running != null) {
+            mJoined.incrementAndGet();
+            return running;
+        }
+
+        final long queuedNanos = System.nanoTime();
+
+        try {
+            RepositoryExecutors.installs().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(install(new Install(pkg, resolveODP)));
+                    } catch(RuntimeException e) {
+                        mFailed.incrementAndGet();
+                        Log.e(TAG, "Unable to install " + pkg, e);
+                        result.completeExceptionally(e);
+                    } finally {
+                        mInFlight.remove(pkg, result);
+                        mInstallTime.record(System.nanoTime() - queuedNanos);
+                    }
+                }
+            });
+        } catch(RuntimeException e) {
+            mInFlight.remove(pkg, result);
+            mFailed.incrementAndGet();
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Expand an off-device policy into the default profile settings of an app. Each
+     * sub-policy gives an ALLOW setting for its permission, purpose and library, and an ALLOW
+     * setting for all purposes of the permission, for internal or third party use. Settings
+     * that more than one sub-policy gives are only listed once.
+     *
+     * @param packageName the package name of the app
+     * @param odp the parsed off-device policy
+     * @return the settings, in the order the policy first gives them
+     * */
+    public static List<PolicyProfileSetting> expandSettings(String packageName,
+                                                            OffDevicePolicy odp) {
+        return new ArrayList<PolicyProfileSetting>(expand(packageName, odp).values());
+    }
+
+    /**
+     * @return the number of installs that are queued or running
+     * */
+    public int getInFlightCount() { return mInFlight.size(); }
+
+    /**
+     * @return the number of installs submitted, including those that joined one in flight
+     * */
+    public long getSubmittedCount() { return mSubmitted.get(); }
+
+    /**
+     * @return the number of installs that joined an install of the same package in flight
+     * */
+    public long getJoinedCount() { return mJoined.get(); }
+
+    /**
+     * @return the number of installs written to the database
+     * */
+    public long getCommittedCount() { return mCommitted.get(); }
+
+    /**
+     * @return the number of settings dropped because another sub-policy already gave them
+     * */
+    public long getDroppedSettingCount() { return mSettingsDropped.get(); }
+
+    /**
+     * Print what the pipeline has done since the app started.
+     *
+     * @param writer where to print
+     * */
+    public void dump(PrintWriter writer) {
+        writer.println("Installs:");
+        writer.println(String.format(Locale.US,
+                                     "  %d submitted, %d joined, %d committed, " +
+                                     "%d already installed, %d failed, %d in flight",
+                                     mSubmitted.get(),
+                                     mJoined.get(),
+                                     mCommitted.get(),
+                                     mAlreadyInstalled.get(),
+                                     mFailed.get(),
+                                     mInFlight.size()));
+        writer.println(String.format(Locale.US,
+                                     "  settings: %d written, %d duplicates dropped",
+                                     mSettingsWritten.get(),
+                                     mSettingsDropped.get()));
+        writer.println(String.format(Locale.US,
+                                     "  install time (ms): p50 %.1f, p99 %.1f, max %.1f",
+                                     mInstallTime.getValueAtPercentile(50) / 1000000.0,
+                                     mInstallTime.getValueAtPercentile(99) / 1000000.0,
+                                     mInstallTime.getMax() / 1000000.0));
+        writer.flush();
+    }
+
+    private DataRepository.InstallInfo install(Install install) {
+        DataRepository repository = DataRepository.getInstance();
+
+        install.odpString = install.resolveODP.apply(
+                repository.syncGetODPForPackage(install.info.packageName)
+        );
+
+        try {
+            install.info.odp = new OffDevicePolicy(install.odpString);
+            install.settings = expand(install.info.packageName, install.info.odp);
+            mSettingsDropped.addAndGet(2L * install.info.odp.SUBPOLICIES.size() -
+                                       install.settings.size());
+        } catch(JSONException jse) {
+            Log.e(TAG, "Unable to parse the policy of " + install.info.packageName, jse);
+            install.settings = new LinkedHashMap<String, PolicyProfileSetting>();
+        }
+
+        if(!repository.isAppInstalled(install.info.packageName)) {
+            install.app = FetchUtil.loadAppInfo(mContext, install.info.packageName);
+
+            List<PolicyProfileSetting> settings =
+                    new ArrayList<PolicyProfileSetting>(install.settings.values());
+
+            if(DataRepository.commitInstall(install.info,
+                                            install.app,
+                                            install.odpString,
+                                            settings)) {
+                mCommitted.incrementAndGet();
+                mSettingsWritten.addAndGet(settings.size());
+                return install.info;
+            }
+        }
+
+        mAlreadyInstalled.incrementAndGet();
+        DataRepository.setInstallInfo(install.info);
+
+        return install.info;
+    }
+
+    private static Map<String, PolicyProfileSetting> expand(String packageName,
+                                                            OffDevicePolicy odp) {
+        Map<String, PolicyProfileSetting> settings =
+                new LinkedHashMap<String, PolicyProfileSetting>();
+
+        if(odp == null) { return settings; }
+
+        for(OffDevicePolicy.SubPolicy policy : odp.SUBPOLICIES) {
+            ThirdPartyLibrary lib =
+                    ThirdPartyLibraries.getLibraryByOffendingClass(policy.className);
+
+            add(settings,
+                packageName,
+                policy.permission,
+                PolicyManagerApplication.SYMBOL_ALL,
+                lib != null ? ThirdPartyLibraries.THIRD_PARTY_USE :
+                              ThirdPartyLibraries.APP_INTERNAL_USE);
+            add(settings,
+                packageName,
+                policy.permission,
+                policy.purpose,
+                lib != null ? lib.qualifiedName : ThirdPartyLibraries.APP_INTERNAL_USE);
+        }
+
+        return settings;
+    }
+
+    private static void add(Map<String, PolicyProfileSetting> settings,
+                            String packageName,
+                            String permission,
+                            String purpose,
+                            String library) {
+        String key = permission + KEY_SEPARATOR + purpose + KEY_SEPARATOR + library;
+
+        if(settings.containsKey(key)) { return; }
+
+        PolicyProfileSetting setting = new PolicyProfileSetting();
+        setting.profileName = PolicyProfile.DEFAULT;
+        setting.app = packageName;
+        setting.permission = permission;
+        setting.purpose = purpose;
+        setting.thirdPartyLibrary = library;
+        setting.policyAction = UserPolicy.Policy.ALLOW.name();
+
+        settings.put(key, setting);
+    }
+
+    /*
+     * Everything one install works with, so installs that overlap share nothing.
+     */
+    private static final class Install {
+        private final DataRepository.InstallInfo info = new DataRepository.InstallInfo();
+        private final Function<String, String> resolveODP;
+
+        private String odpString;
+        private Map<String, PolicyProfileSetting> settings;
+        private AppInfo app;
+
+        private Install(String packageName, Function<String, String> resolveODP) {
+            info.packageName = packageName;
+            this.resolveODP = resolveODP;
+        }
+    }
+}
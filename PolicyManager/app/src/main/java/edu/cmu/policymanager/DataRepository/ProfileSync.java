@@ -0,0 +1,225 @@
+package edu.cmu.policymanager.DataRepository;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.policymanager.DataRepository.network.ProfileChanges;
+import edu.cmu.policymanager.DataRepository.network.ProfileSource;
+import edu.cmu.policymanager.PolicyManager.metrics.LatencyHistogram;
+import edu.cmu.policymanager.validation.Precondition;
+
+/**
+ * Installs policy profiles from a ProfileSource and keeps them up to date.
+ *
+ * The version of each installed profile is kept with its entity tag in the metadata table,
+ * so a sync of an unchanged profile costs one conditional request, and a changed profile is
+ * sent as a delta when the source can. Either way, the new version is diffed against the
+ * installed rules, and only the rules that changed are inserted, updated or deleted, in one
+ * transaction with the new version. A delta whose base is not the installed version (say,
+ * the source sent it for a version that was since replaced) is dropped and the whole profile
+ * is fetched instead.
+ *
+ * Syncs run on the BACKGROUND pool, as they wait on the source. A second sync of a profile
+ * that is still in flight joins the first one instead of running again.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class ProfileSync {
+    private static final String TAG = "ProfileSync";
+
+    private volatile ProfileSource mSource;
+
+    /* The sync of each profile that is queued or running, so a second one can join it. */
+    private final Map<String, CompletableFuture<ProfileChanges>> mInFlight =
+            new ConcurrentHashMap<String, CompletableFuture<ProfileChanges>>();
+
+    private final AtomicLong mSyncs = new AtomicLong(),
+                             mNotModified = new AtomicLong(),
+                             mFull = new AtomicLong(),
+                             mDeltas = new AtomicLong(),
+                             mStaleDeltas = new AtomicLong(),
+                             mFailed = new AtomicLong(),
+                             mInserted = new AtomicLong(),
+                             mUpdated = new AtomicLong(),
+                             mRemoved = new AtomicLong();
+
+    private final LatencyHistogram mSyncTime = new LatencyHistogram();
+
+    ProfileSync(ProfileSource source) {
+        Precondition.checkIfNull(source, "Profile source is null");
+        mSource = source;
+    }
+
+    /**
+     * @param source where to sync profiles from, from now on
+     * */
+    public void setSource(ProfileSource source) {
+        Precondition.checkIfNull(source, "Profile source is null");
+        mSource = source;
+    }
+
+    public ProfileSource getSource() { return mSource; }
+
+    /**
+     * Install a profile, or bring it up to date, on the BACKGROUND pool.
+     *
+     * @param profile the name of the profile
+     * @return a future that completes with the rules that changed, or exceptionally if the
+     * profile could not be fetched
+     * */
+    public CompletableFuture<ProfileChanges> submit(CharSequence profile) {
+        Precondition.checkEmptyCharSequence(profile);
+
+        final String name = profile.toString();
+        final CompletableFuture<ProfileChanges> result = new CompletableFuture<ProfileChanges>();
+        CompletableFuture<ProfileChanges> running = mInFlight.putIfAbsent(name, result);
+
+        if(running != null) { return running; }
+
+        try {
+            RepositoryExecutors.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(syncProfile(name));
+                    } catch(IOException | RuntimeException e) {
+                        Log.e(TAG, "Unable to sync " + name, e);
+                        result.completeExceptionally(e);
+                    } finally {
+                        mInFlight.remove(name, result);
+                    }
+                }
+            });
+        } catch(RuntimeException e) {
+            mInFlight.remove(name, result);
+            mFailed.incrementAndGet();
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Install a profile, or bring it up to date, on the calling thread. Must not be called
+     * from the write pool, which applies the changes.
+     *
+     * @param profile the name of the profile
+     * @return the rules that changed
+     * @throws IOException if the profile could not be fetched
+     * */
+    public ProfileChanges sync(CharSequence profile) throws IOException {
+        Precondition.checkEmptyCharSequence(profile);
+
+        return syncProfile(profile.toString());
+    }
+
+    /**
+     * @return the number of syncs that found the installed version current
+     * */
+    public long getNotModifiedCount() { return mNotModified.get(); }
+
+    /**
+     * @return the number of whole profiles applied
+     * */
+    public long getFullCount() { return mFull.get(); }
+
+    /**
+     * @return the number of deltas applied
+     * */
+    public long getDeltaCount() { return mDeltas.get(); }
+
+    /**
+     * @return the number of deltas dropped because their base was not the installed version
+     * */
+    public long getStaleDeltaCount() { return mStaleDeltas.get(); }
+
+    /**
+     * Print what the syncs have done since the app started.
+     *
+     * @param writer where to print
+     * */
+    public void dump(PrintWriter writer) {
+        writer.println("Profile syncs (" + mSource + "):");
+        writer.println(String.format(Locale.US,
+                                     "  %d syncs, %d not modified, %d full, %d deltas, " +
+                                     "%d stale deltas, %d failed, %d in flight",
+                                     mSyncs.get(),
+                                     mNotModified.get(),
+                                     mFull.get(),
+                                     mDeltas.get(),
+                                     mStaleDeltas.get(),
+                                     mFailed.get(),
+                                     mInFlight.size()));
+        writer.println(String.format(Locale.US,
+                                     "  rules: %d inserted, %d updated, %d removed",
+                                     mInserted.get(),
+                                     mUpdated.get(),
+                                     mRemoved.get()));
+        writer.println(String.format(Locale.US,
+                                     "  sync time (ms): p50 %.1f, p99 %.1f, max %.1f",
+                                     mSyncTime.getValueAtPercentile(50) / 1000000.0,
+                                     mSyncTime.getValueAtPercentile(99) / 1000000.0,
+                                     mSyncTime.getMax() / 1000000.0));
+        writer.flush();
+    }
+
+    private ProfileChanges syncProfile(String profile) throws IOException {
+        long start = System.nanoTime();
+
+        mSyncs.incrementAndGet();
+
+        try {
+            ProfileSource source = mSource;
+            ProfileSource.Fetch fetch = source.fetch(profile, DataRepository.profileETag(profile));
+
+            if(fetch.status == ProfileSource.Fetch.Status.NOT_MODIFIED) {
+                mNotModified.incrementAndGet();
+                return ProfileChanges.NONE;
+            }
+
+            ProfileChanges changes = apply(profile, fetch);
+
+            if(changes == null) {
+                mStaleDeltas.incrementAndGet();
+                changes = apply(profile, source.fetch(profile, null));
+            }
+
+            if(changes == null) {
+                throw new IOException("Profile source sent a delta for " + profile +
+                                      " without being asked for one");
+            }
+
+            mInserted.addAndGet(changes.inserted.size());
+            mUpdated.addAndGet(changes.updated.size());
+            mRemoved.addAndGet(changes.removed.size());
+
+            return changes;
+        } catch(IOException | RuntimeException e) {
+            mFailed.incrementAndGet();
+            throw e;
+        } finally {
+            mSyncTime.record(System.nanoTime() - start);
+        }
+    }
+
+    private ProfileChanges apply(String profile, ProfileSource.Fetch fetch) throws IOException {
+        if(fetch.document == null || !profile.equals(fetch.document.profile)) {
+            throw new IOException("Profile source did not send " + profile);
+        }
+
+        ProfileChanges changes = DataRepository.commitProfile(fetch.document, fetch.etag);
+
+        if(changes != null) {
+            (fetch.document.isDelta() ? mDeltas : mFull).incrementAndGet();
+        }
+
+        return changes;
+    }
+}
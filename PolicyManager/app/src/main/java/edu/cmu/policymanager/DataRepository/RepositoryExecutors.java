@@ -0,0 +1,362 @@
+package edu.cmu.policymanager.DataRepository;
+
+import android.os.Process;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.policymanager.PolicyManager.metrics.LatencyHistogram;
+
+/**
+ * The threads the DataRepository and PolicyManager do their work on. There are four
+ * bounded pools, so bulk work can never hold up a read:
+ *
+ * - READ runs queries, for policy enforcement and the user interface. When its queue is
+ * full, the caller runs the query itself instead of waiting behind the queue.
+ * - WRITE is a single thread, so writes reach the database in the order they were made.
+ * When its queue is full, callers wait for space.
+ * - BACKGROUND runs bulk work, such as installing a policy profile, at background thread
+ * priority. When its queue is full, callers wait for space.
+ * - INSTALL records newly installed apps (see InstallPipeline) at background thread
+ * priority. When its queue is full, callers wait for space, so a burst of installs is
+ * worked off a few at a time.
+ *
+ * A task can call synchronous DataRepository methods without deadlocking the pools: waiting
+ * on a pool from one of these threads runs the task right away on that thread, except for
+ * writes from outside the WRITE pool, which still wait their turn. The WRITE thread never
+ * waits on another pool, so there is no cycle to deadlock on.
+ *
+ * Periodic work is scheduled with scheduleWithFixedDelay. A single daemon timer thread only
+ * hands each run to its pool, so the work itself is queued and counted like any other task.
+ *
+ * Each pool counts its queue depth, the deepest its queue has been, how many tasks hit a
+ * full queue and how long tasks waited to start; dump(PrintWriter) prints them.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class RepositoryExecutors {
+    public enum Pool {
+        READ(2, 64, Process.THREAD_PRIORITY_DEFAULT),
+        WRITE(1, 1024, Process.THREAD_PRIORITY_DEFAULT),
+        BACKGROUND(2, 256, Process.THREAD_PRIORITY_BACKGROUND),
+        INSTALL(2, 64, Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final int mThreads, mQueueCapacity, mThreadPriority;
+
+        Pool(int threads, int queueCapacity, int threadPriority) {
+            mThreads = threads;
+            mQueueCapacity = queueCapacity;
+            mThreadPriority = threadPriority;
+        }
+    }
+
+    private static final ThreadLocal<Pool> currentPool = new ThreadLocal<Pool>();
+
+    private static final PoolExecutor[] executors = new PoolExecutor[Pool.values().length];
+
+    private static final ScheduledThreadPoolExecutor scheduler =
+            new ScheduledThreadPoolExecutor(1, new SchedulerThreadFactory());
+
+    static {
+        for(Pool pool : Pool.values()) { executors[pool.ordinal()] = new PoolExecutor(pool); }
+    }
+
+    private RepositoryExecutors() {}
+
+    /**
+     * @return the pool for queries
+     * */
+    public static Executor reads() { return executors[Pool.READ.ordinal()]; }
+
+    /**
+     * @return the pool for writes, which runs them one at a time in order
+     * */
+    public static Executor writes() { return executors[Pool.WRITE.ordinal()]; }
+
+    /**
+     * @return the low priority pool for bulk work
+     * */
+    public static Executor background() { return executors[Pool.BACKGROUND.ordinal()]; }
+
+    /**
+     * @return the low priority pool that records newly installed apps
+     * */
+    public static Executor installs() { return executors[Pool.INSTALL.ordinal()]; }
+
+    /**
+     * Run a task on a pool and wait for its result. On one of the repository's own threads,
+     * the task runs right away on the calling thread, unless it is a write from outside the
+     * WRITE pool.
+     *
+     * @param pool the pool to run the task on
+     * @param task the task
+     * @return what the task returned
+     * @throws IllegalStateException if the caller is interrupted while waiting
+     * */
+    public static <T> T call(Pool pool, Callable<T> task) {
+        Pool callerPool = currentPool.get();
+
+        if(callerPool == pool || (callerPool != null && pool != Pool.WRITE)) {
+            try {
+                return task.call();
+            } catch(RuntimeException e) {
+                throw e;
+            } catch(Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Future<T> future = executors[pool.ordinal()].submit(task);
+
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the " + pool + " pool");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Run a task on a pool and wait for it to finish.
+     *
+     * @param pool the pool to run the task on
+     * @param task the task
+     * @throws IllegalStateException if the caller is interrupted while waiting
+     * */
+    public static void run(Pool pool, final Runnable task) {
+        call(pool, new Callable<Void>() {
+            @Override
+            public Void call() {
+                task.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run a task on a pool periodically. The task is handed to the pool after the delay, and
+     * then again each time the delay has passed since it was last handed over.
+     *
+     * @param pool the pool to run the task on
+     * @param task the task
+     * @param delay the delay before the first run and between runs
+     * @param unit the unit of the delay
+     * @return the schedule, which can be cancelled
+     * */
+    public static ScheduledFuture<?> scheduleWithFixedDelay(final Pool pool,
+                                              final Runnable task,
+                                              long delay,
+                                              TimeUnit unit) {
+        if(task == null) { throw new IllegalArgumentException("Task is null"); }
+
+        return scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() { executors[pool.ordinal()].execute(task); }
+        }, delay, delay, unit);
+    }
+
+    /**
+     * @return true if the calling thread belongs to one of the pools
+     * */
+    public static boolean isRepositoryThread() { return currentPool.get() != null; }
+
+    /**
+     * @return the number of tasks waiting in the pool's queue
+     * */
+    public static int getQueueDepth(Pool pool) {
+        return executors[pool.ordinal()].getQueue().size();
+    }
+
+    /**
+     * @return the most tasks that have waited in the pool's queue at once
+     * */
+    public static int getMaxQueueDepth(Pool pool) {
+        return executors[pool.ordinal()].mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return the number of tasks that found the pool's queue full, and so were run by the
+     * caller (READ) or made the caller wait (the other pools)
+     * */
+    public static long getSaturatedCount(Pool pool) {
+        return executors[pool.ordinal()].mSaturated.get();
+    }
+
+    /**
+     * @return the number of tasks the pool has finished
+     * */
+    public static long getCompletedCount(Pool pool) {
+        return executors[pool.ordinal()].getCompletedTaskCount();
+    }
+
+    /**
+     * @return the histogram of how long the pool's tasks waited before they started
+     * */
+    public static LatencyHistogram getQueueWait(Pool pool) {
+        return executors[pool.ordinal()].mQueueWait;
+    }
+
+    /**
+     * Print the queue depth and wait times of each pool.
+     *
+     * @param writer where to print
+     * */
+    public static void dump(PrintWriter writer) {
+        writer.println("Repository pools:");
+        writer.println(String.format(Locale.US,
+                                     "  %-10s %7s %7s %9s %9s %9s %9s",
+                                     "pool", "active", "queued", "max queue",
+                                     "saturated", "completed", "p99 (us)"));
+
+        for(Pool pool : Pool.values()) {
+            PoolExecutor executor = executors[pool.ordinal()];
+
+            writer.println(String.format(Locale.US,
+                                         "  %-10s %7d %7d %9d %9d %9d %9.1f",
+                                         pool.name().toLowerCase(Locale.US),
+                                         executor.getActiveCount(),
+                                         executor.getQueue().size(),
+                                         executor.mMaxQueueDepth.get(),
+                                         executor.mSaturated.get(),
+                                         executor.getCompletedTaskCount(),
+                                         executor.mQueueWait.getValueAtPercentile(99) / 1000.0));
+        }
+
+        writer.flush();
+    }
+
+    private static final class PoolExecutor extends ThreadPoolExecutor {
+        private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+        private final AtomicLong mSaturated = new AtomicLong();
+        private final LatencyHistogram mQueueWait = new LatencyHistogram();
+
+        private PoolExecutor(final Pool pool) {
+            super(pool.mThreads,
+                  pool.mThreads,
+                  30, TimeUnit.SECONDS,
+                  new ArrayBlockingQueue<Runnable>(pool.mQueueCapacity),
+                  new PoolThreadFactory(pool),
+                  new SaturationPolicy(pool));
+
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if(task == null) { throw new IllegalArgumentException("Task is null"); }
+
+            super.execute(new TimedTask(task, mQueueWait));
+
+            int depth = getQueue().size(), max = mMaxQueueDepth.get();
+
+            while(depth > max && !mMaxQueueDepth.compareAndSet(max, depth)) {
+                max = mMaxQueueDepth.get();
+            }
+        }
+    }
+
+    private static final class TimedTask implements Runnable {
+        private final Runnable mTask;
+        private final LatencyHistogram mQueueWait;
+        private final long mQueuedNanos = System.nanoTime();
+
+        private TimedTask(Runnable task, LatencyHistogram queueWait) {
+            mTask = task;
+            mQueueWait = queueWait;
+        }
+
+        @Override
+        public void run() {
+            mQueueWait.record(System.nanoTime() - mQueuedNanos);
+            mTask.run();
+        }
+    }
+
+    private static final class PoolThreadFactory implements ThreadFactory {
+        private final Pool mPool;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        private PoolThreadFactory(Pool pool) { mPool = pool; }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            String name = "Repository-" + mPool.name().toLowerCase(Locale.US) + "-" +
+                          mCount.incrementAndGet();
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mPool.mThreadPriority);
+                    currentPool.set(mPool);
+                    runnable.run();
+                }
+            }, name);
+
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /* The timer thread never runs repository work, so it is not given a pool. */
+    private static final class SchedulerThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Repository-scheduler");
+
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /*
+     * Reads run on the caller when the queue is full. Writes and bulk work wait for space,
+     * unless the caller is one of the pool's own threads, which would wait forever.
+     */
+    private static final class SaturationPolicy implements RejectedExecutionHandler {
+        private final Pool mPool;
+
+        private SaturationPolicy(Pool pool) { mPool = pool; }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if(executor.isShutdown()) { return; }
+
+            ((PoolExecutor)executor).mSaturated.incrementAndGet();
+
+            if(mPool == Pool.READ || currentPool.get() == mPool) {
+                task.run();
+                return;
+            }
+
+            BlockingQueue<Runnable> queue = executor.getQueue();
+
+            try {
+                queue.put(task);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for the " + mPool + " pool");
+            }
+        }
+    }
+}
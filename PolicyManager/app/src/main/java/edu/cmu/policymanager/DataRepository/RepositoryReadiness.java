@@ -0,0 +1,285 @@
+package edu.cmu.policymanager.DataRepository;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tells when the DataRepository has finished starting up and can enforce policy, and how
+ * long each stage of starting up took.
+ *
+ * DataRepository.initAsync returns right away and runs the stages on the write pool. Until
+ * they finish, permission requests are handled according to the EarlyRequestPolicy: they
+ * are queued and enforced as soon as the repository is ready (the default), or answered
+ * right away with ALLOW or DENY. Queued requests past MAX_QUEUED_REQUESTS are denied.
+ *
+ * Stages that run after the repository is ready, such as installing the app policies of the
+ * emulated Play store, are timed too, so the whole cold start shows up in dump(PrintWriter).
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class RepositoryReadiness {
+    public enum Stage {
+        /* Compiling the list of critical system apps, before the repository starts */
+        CRITICAL_SYSTEM_APPS,
+        /* Opening (and creating or migrating) the database */
+        OPEN_DATABASE,
+        /* Bringing the apps in the database up to date with the installed packages */
+        RECONCILE_INSTALLED_APPS,
+        /* Adding the default global settings to an empty database, on first boot */
+        INSTALL_GLOBAL_SETTINGS,
+        LOAD_ACTIVE_PROFILE,
+        COMPILE_POLICY_TABLE,
+        LOAD_ASK_DECISIONS,
+        LOAD_ACCESS_COUNTS,
+        /* Adding the app policies of the emulated Play store, on first boot, after ready */
+        INSTALL_APP_POLICIES
+    }
+
+    public enum EarlyRequestPolicy {
+        QUEUE,
+        ALLOW,
+        DENY
+    }
+
+    public static final int MAX_QUEUED_REQUESTS = 256;
+
+    private static volatile EarlyRequestPolicy earlyRequestPolicy = EarlyRequestPolicy.QUEUE;
+
+    private final long mCreatedNanos = System.nanoTime();
+    private final AtomicLongArray mStageStartNanos = new AtomicLongArray(Stage.values().length),
+                                  mStageNanos = new AtomicLongArray(Stage.values().length);
+
+    private final CompletableFuture<Void> mReadyFuture = new CompletableFuture<Void>();
+
+    private final Object mLock = new Object();
+    private volatile boolean mReady;
+    private long mReadyNanos;
+    private Throwable mFailure;
+    private List<Runnable> mQueuedRequests = new ArrayList<Runnable>();
+
+    private final AtomicLong mQueuedCount = new AtomicLong(),
+                             mAnsweredEarlyCount = new AtomicLong();
+
+    RepositoryReadiness() {
+        for(int i = 0; i < mStageNanos.length(); i++) { mStageNanos.set(i, -1); }
+    }
+
+    /**
+     * Sets what happens to permission requests that arrive before the repository is ready.
+     *
+     * @param policy queue them, or answer them right away
+     * */
+    public static void setEarlyRequestPolicy(EarlyRequestPolicy policy) {
+        if(policy == null) { throw new IllegalArgumentException("Policy is null"); }
+        earlyRequestPolicy = policy;
+    }
+
+    public static EarlyRequestPolicy getEarlyRequestPolicy() { return earlyRequestPolicy; }
+
+    /**
+     * @return true once every stage the policy enforcement needs has finished
+     * */
+    public boolean isReady() { return mReady; }
+
+    /**
+     * @return a future that completes when the repository is ready. It completes normally
+     * even if a stage failed; see getFailure.
+     * */
+    public CompletableFuture<Void> future() { return mReadyFuture; }
+
+    /**
+     * Wait for the repository to be ready.
+     *
+     * @param timeout how long to wait
+     * @param unit the unit of timeout
+     * @return true if the repository is ready
+     * @throws InterruptedException if interrupted while waiting
+     * */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            mReadyFuture.get(timeout, unit);
+        } catch(ExecutionException | TimeoutException e) {
+            return mReady;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the error that stopped a stage, or null if starting up went fine
+     * */
+    public Throwable getFailure() {
+        synchronized(mLock) { return mFailure; }
+    }
+
+    /**
+     * Hold a permission request until the repository is ready, if the EarlyRequestPolicy
+     * allows it. Held requests are run on the read pool. When the repository is already
+     * ready, the request is run on the read pool right away.
+     *
+     * @param request enforces the permission request
+     * @return false if the request was not held and must be answered right away with
+     * getEarlyDecision
+     * */
+    public boolean enqueue(Runnable request) {
+        synchronized(mLock) {
+            if(!mReady) {
+                if(earlyRequestPolicy != EarlyRequestPolicy.QUEUE ||
+                   mQueuedRequests.size() >= MAX_QUEUED_REQUESTS) {
+                    mAnsweredEarlyCount.incrementAndGet();
+                    return false;
+                }
+
+                mQueuedRequests.add(request);
+                mQueuedCount.incrementAndGet();
+                return true;
+            }
+        }
+
+        RepositoryExecutors.reads().execute(request);
+        return true;
+    }
+
+    /**
+     * @return true if a request that could not be held should be allowed
+     * */
+    public boolean getEarlyDecision() { return earlyRequestPolicy == EarlyRequestPolicy.ALLOW; }
+
+    /**
+     * Record how long a stage took, from the given start to now.
+     *
+     * @param stage the stage that ran
+     * @param startNanos the System.nanoTime() the stage started at
+     * */
+    public void recordStageSince(Stage stage, long startNanos) {
+        recordStage(stage, startNanos, System.nanoTime());
+    }
+
+    /**
+     * Record when a stage ran, such as one that finished before the repository started.
+     *
+     * @param stage the stage that ran
+     * @param startNanos the System.nanoTime() the stage started at
+     * @param endNanos the System.nanoTime() the stage ended at
+     * */
+    public void recordStage(Stage stage, long startNanos, long endNanos) {
+        mStageStartNanos.set(stage.ordinal(), startNanos);
+        mStageNanos.set(stage.ordinal(), Math.max(endNanos - startNanos, 0L));
+    }
+
+    /**
+     * @return how long the stage took in nanoseconds, or -1 if it has not run
+     * */
+    public long getStageNanos(Stage stage) {
+        return mStageNanos.get(stage.ordinal());
+    }
+
+    /**
+     * @return how long it took from initAsync to ready in nanoseconds, or -1 if not ready yet
+     * */
+    public long getTimeToReadyNanos() {
+        synchronized(mLock) { return mReady ? mReadyNanos - mCreatedNanos : -1; }
+    }
+
+    /**
+     * @return the number of permission requests that were held until the repository was ready
+     * */
+    public long getQueuedRequestCount() { return mQueuedCount.get(); }
+
+    /**
+     * @return the number of permission requests answered with the early decision
+     * */
+    public long getAnsweredEarlyCount() { return mAnsweredEarlyCount.get(); }
+
+    void markReady(Throwable failure) {
+        List<Runnable> queued;
+
+        synchronized(mLock) {
+            if(mReady) { return; }
+
+            mReady = true;
+            mReadyNanos = System.nanoTime();
+            mFailure = failure;
+            queued = mQueuedRequests;
+            mQueuedRequests = new ArrayList<Runnable>();
+        }
+
+        for(Runnable request : queued) { RepositoryExecutors.reads().execute(request); }
+
+        mReadyFuture.complete(null);
+    }
+
+    /**
+     * Print when each stage started, relative to the first, and how long it took, in
+     * milliseconds, followed by the time to ready and what happened to early requests.
+     *
+     * @param writer where to print
+     * */
+    public void dump(PrintWriter writer) {
+        long base = mCreatedNanos;
+
+        for(int i = 0; i < mStageNanos.length(); i++) {
+            if(mStageNanos.get(i) >= 0 && mStageStartNanos.get(i) - base < 0) {
+                base = mStageStartNanos.get(i);
+            }
+        }
+
+        writer.println("Startup (ms):");
+        writer.println(String.format(Locale.US, "  %-24s %9s %9s", "stage", "start", "took"));
+
+        for(Stage stage : Stage.values()) {
+            long start = mStageStartNanos.get(stage.ordinal()),
+                 took = mStageNanos.get(stage.ordinal());
+
+            if(took < 0) {
+                writer.println(String.format(Locale.US,
+                                             "  %-24s %9s %9s",
+                                             stage.name().toLowerCase(Locale.US), "-", "-"));
+                continue;
+            }
+
+            writer.println(String.format(Locale.US,
+                                         "  %-24s %9.1f %9.1f",
+                                         stage.name().toLowerCase(Locale.US),
+                                         millis(start - base),
+                                         millis(took)));
+        }
+
+        long toReady = getTimeToReadyNanos();
+
+        writer.println(toReady < 0 ?
+                       "  not ready yet" :
+                       String.format(Locale.US, "  ready after %.1f ms", millis(toReady)));
+        writer.println(String.format(Locale.US,
+                                     "  early requests: %d queued, %d answered with %s",
+                                     getQueuedRequestCount(),
+                                     getAnsweredEarlyCount(),
+                                     getEarlyDecision() ? "allow" : "deny"));
+
+        Throwable failure = getFailure();
+        if(failure != null) { writer.println("  failed: " + failure); }
+
+        writer.flush();
+    }
+
+    /**
+     * @return what dump(PrintWriter) prints, as a String
+     * */
+    public String dump() {
+        StringWriter out = new StringWriter();
+        dump(new PrintWriter(out));
+
+        return out.toString();
+    }
+
+    private static double millis(long nanos) { return nanos / 1000000.0; }
+}
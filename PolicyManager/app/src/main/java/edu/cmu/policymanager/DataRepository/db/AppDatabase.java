@@ -1,9 +1,13 @@
 package edu.cmu.policymanager.DataRepository.db;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 import edu.cmu.policymanager.DataRepository.db.dao.AppInfoDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.AskPolicySettingDAO;
+import edu.cmu.policymanager.DataRepository.db.dao.DataAccessCountDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.MetadataDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.OffDevicePolicyDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.PermissionInfoDAO;
@@ -14,6 +18,7 @@ import edu.cmu.policymanager.DataRepository.db.dao.PurposeInfoDAO;
 import edu.cmu.policymanager.DataRepository.db.dao.ThirdPartyLibDAO;
 import edu.cmu.policymanager.DataRepository.db.model.AppInfo;
 import edu.cmu.policymanager.DataRepository.db.model.AskPolicySetting;
+import edu.cmu.policymanager.DataRepository.db.model.DataAccessCount;
 import edu.cmu.policymanager.DataRepository.db.model.Metadata;
 import edu.cmu.policymanager.DataRepository.db.model.OffDevicePolicyDBModel;
 import edu.cmu.policymanager.DataRepository.db.model.PermissionInfo;
@@ -36,9 +41,28 @@ import edu.cmu.policymanager.DataRepository.db.model.ThirdPartyLibInfo;
                       PolicyProfile.class,
                       PolicyProfileSetting.class,
                       AskPolicySetting.class,
-                      OffDevicePolicyDBModel.class},
-          exportSchema = false, version = 15)
+                      OffDevicePolicyDBModel.class,
+                      DataAccessCount.class},
+          exportSchema = false, version = 16)
 public abstract class AppDatabase extends RoomDatabase {
+    /**
+     * Version 16 added the DataAccessCount table. Nothing else changed, so upgrading keeps
+     * every policy, profile and ASK answer.
+     * */
+    public static final Migration MIGRATION_15_16 = new Migration(15, 16) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `DataAccessCount` (" +
+                             "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                             "`app` TEXT, `permission` TEXT, `purpose` TEXT, " +
+                             "`count` INTEGER NOT NULL, " +
+                             "`last_access_millis` INTEGER NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " +
+                             "`index_DataAccessCount_app_permission_purpose` " +
+                             "ON `DataAccessCount` (`app`, `permission`, `purpose`)");
+        }
+    };
+
     abstract public AppInfoDAO appInfoDao();
 
     abstract public PermissionInfoDAO permissionInfoDao();
@@ -58,4 +82,6 @@ public abstract class AppDatabase extends RoomDatabase {
     abstract public AskPolicySettingDAO askPolicySettingDAO();
 
     abstract public OffDevicePolicyDAO odpDAO();
+
+    abstract public DataAccessCountDAO dataAccessCountDAO();
 }
\ No newline at end of file
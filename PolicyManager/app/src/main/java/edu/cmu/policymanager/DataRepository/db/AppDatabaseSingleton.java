@@ -42,8 +42,13 @@ public class AppDatabaseSingleton {
         );
     }
 
+    /*
+     * Upgrades with a migration keep the user's data; only versions older than the first
+     * migration still fall back to recreating the database.
+     */
     private synchronized static void createDiskDB(Context ctx){
         diskDatabase.db = Room.databaseBuilder(ctx, AppDatabase.class, "policymanager-db")
+                              .addMigrations(AppDatabase.MIGRATION_15_16)
                               .fallbackToDestructiveMigration()
                               .build();
     }
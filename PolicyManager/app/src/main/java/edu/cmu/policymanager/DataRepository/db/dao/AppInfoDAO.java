@@ -33,6 +33,10 @@ public abstract class AppInfoDAO {
     @Query("SELECT * from appinfo WHERE package_name=:packageName AND version_code=:versionCode LIMIT 1")
     abstract AppInfo getAppWithVersionCode(String packageName, int versionCode);
 
+    @Query("UPDATE appinfo SET version_code=:versionCode, last_update_time=:lastUpdateTime " +
+           "WHERE package_name=:packageName")
+    abstract public int updateVersion(String packageName, int versionCode, long lastUpdateTime);
+
     @Insert
     abstract public long insert(AppInfo info);
 
@@ -0,0 +1,46 @@
+package edu.cmu.policymanager.DataRepository.db.dao;
+
+import java.util.List;
+
+import androidx.room.Dao;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import edu.cmu.policymanager.DataRepository.db.model.DataAccessCount;
+
+/**
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+@Dao
+public abstract class DataAccessCountDAO {
+    /**
+     * Add the accesses counted since the last flush to the stored counts, in one transaction.
+     *
+     * @param deltas the accesses to add for each app, permission and purpose
+     * */
+    @Transaction
+    public void addCounts(List<DataAccessCount> deltas) {
+        for(DataAccessCount delta : deltas) {
+            insertIfAbsent(delta.app, delta.permission, delta.purpose);
+            addCount(delta.app, delta.permission, delta.purpose, delta.count, delta.lastAccessMillis);
+        }
+    }
+
+    @Query("INSERT OR IGNORE INTO dataaccesscount (app, permission, purpose, count, " +
+           "last_access_millis) VALUES (:app, :permission, :purpose, 0, 0)")
+    public abstract void insertIfAbsent(String app, String permission, String purpose);
+
+    @Query("UPDATE dataaccesscount SET count = count + :delta, " +
+           "last_access_millis = MAX(last_access_millis, :lastAccessMillis) " +
+           "WHERE app=:app AND permission=:permission AND purpose=:purpose")
+    public abstract int addCount(String app,
+                                 String permission,
+                                 String purpose,
+                                 long delta,
+                                 long lastAccessMillis);
+
+    @Query("SELECT id, app, permission, purpose, count, last_access_millis FROM dataaccesscount")
+    public abstract List<DataAccessCount> getAll();
+
+    @Query("DELETE FROM dataaccesscount WHERE app=:app")
+    public abstract void deleteCountsForApp(String app);
+}
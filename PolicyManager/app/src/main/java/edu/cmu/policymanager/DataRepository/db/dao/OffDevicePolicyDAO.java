@@ -3,6 +3,9 @@ package edu.cmu.policymanager.DataRepository.db.dao;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+
+import java.util.List;
+
 import edu.cmu.policymanager.DataRepository.db.model.OffDevicePolicyDBModel;
 
 @Dao
@@ -11,4 +14,10 @@ public abstract class OffDevicePolicyDAO {
     public abstract OffDevicePolicyDBModel getPolicy(String packageName);
 
     @Insert public abstract long insert(OffDevicePolicyDBModel policy);
+
+    @Query("UPDATE offdevicepolicydbmodel SET odp=:odp WHERE package_name=:packageName")
+    public abstract int updatePolicy(String packageName, String odp);
+
+    /* Room inserts the whole list in one transaction. */
+    @Insert public abstract void insertAll(List<OffDevicePolicyDBModel> policies);
 }
\ No newline at end of file
@@ -39,6 +39,9 @@ public abstract class PermissionInfoDAO {
         }
     }
 
+    @Query("DELETE FROM permissioninfo WHERE app_id=:appId")
+    public abstract void deletePermissionsForApp(long appId);
+
     @Update
     public abstract void update(PermissionInfo... repos);
 
@@ -1,5 +1,6 @@
 package edu.cmu.policymanager.DataRepository.db.dao;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.room.Dao;
 import androidx.room.Insert;
@@ -10,17 +11,47 @@ import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibrary;
 
 @Dao
 public abstract class PolicyProfileSettingDAO {
+    private static final AtomicLong exactPolicyQueries = new AtomicLong();
+
     public PolicyProfileSetting getSetting(String profile,
                                            String appName,
                                            String permission,
                                            String purpose,
                                            String libraryOrCategory) {
-        String category = null;
+        String library = libraryOrDefault(libraryOrCategory);
+
+        return getSettingByCategoryOrLibrary(profile,
+                                             appName,
+                                             permission,
+                                             purpose,
+                                             library,
+                                             categoryOf(library));
+    }
 
+    /**
+     * The library a setting is looked up with. Settings without a library are treated as
+     * app internal use.
+     *
+     * @param libraryOrCategory the library qualified name or library category, may be empty
+     * @return the library to look up settings for
+     * */
+    public static String libraryOrDefault(String libraryOrCategory) {
         if(libraryOrCategory == null || libraryOrCategory.isEmpty()) {
-            libraryOrCategory = ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE.qualifiedName;
+            return ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE.qualifiedName;
         }
 
+        return libraryOrCategory;
+    }
+
+    /**
+     * The library category settings for this library also apply to.
+     *
+     * @param libraryOrCategory the library qualified name or library category
+     * @return the category, or null if the library is unknown
+     * */
+    public static String categoryOf(String libraryOrCategory) {
+        String category = null;
+
         if(libraryOrCategory.contains(ThirdPartyLibraries.APP_INTERNAL_USE)) {
             category = libraryOrCategory;
         }
@@ -35,12 +66,7 @@ public abstract class PolicyProfileSettingDAO {
             }
         }
 
-        return getSettingByCategoryOrLibrary(profile,
-                                             appName,
-                                             permission,
-                                             purpose,
-                                             libraryOrCategory,
-                                             category);
+        return category;
     }
 
     @Query("SELECT id, profile_name, app, permission, purpose, third_party_library, " +
@@ -82,6 +108,10 @@ public abstract class PolicyProfileSettingDAO {
            "last_updated FROM policyprofilesetting WHERE profile_name=:profile")
     abstract public List<PolicyProfileSetting> getAllProfileSettings(String profile);
 
+    @Query("SELECT id, profile_name, app, permission, purpose, third_party_library, " +
+           "policy_action, last_updated FROM policyprofilesetting")
+    abstract public List<PolicyProfileSetting> getAllSettings();
+
     @Query("SELECT id, app, permission, purpose, policy_action, third_party_library, " +
            "last_updated FROM policyprofilesetting WHERE profile_name=:profile AND app='*'")
     abstract public List<PolicyProfileSetting> getAllGlobalPolicies(String profile);
@@ -105,18 +135,38 @@ public abstract class PolicyProfileSettingDAO {
                                String action,
                                long lastUpdated);
 
+    @Query("UPDATE policyprofilesetting SET policy_action=:action WHERE id=:id")
+    abstract public int updatePolicyAction(long id, String action);
+
+    public PolicyProfileSetting getExactPolicy(String app,
+                                               String permission,
+                                               String purpose,
+                                               String libraryOrCategory) {
+        exactPolicyQueries.incrementAndGet();
+        return queryExactPolicy(app, permission, purpose, libraryOrCategory);
+    }
+
+    /**
+     * @return how many times getExactPolicy has queried the database, across every database
+     * */
+    public static long getExactPolicyQueryCount() { return exactPolicyQueries.get(); }
+
     @Query("SELECT id, app, permission, purpose, third_party_library, policy_action, " +
            "last_updated FROM policyprofilesetting WHERE app=:app AND " +
            "permission=:permission AND purpose=:purpose AND " +
            "third_party_library=:libraryOrCategory")
-    abstract public PolicyProfileSetting getExactPolicy(String app,
-                                                        String permission,
-                                                        String purpose,
-                                                        String libraryOrCategory);
+    abstract public PolicyProfileSetting queryExactPolicy(String app,
+                                                          String permission,
+                                                          String purpose,
+                                                          String libraryOrCategory);
 
     @Insert
     abstract public long[] insert(PolicyProfileSetting... setting);
 
+    @Query("SELECT DISTINCT permission FROM policyprofilesetting WHERE profile_name=:profile " +
+           "AND app=:packageName")
+    abstract public List<String> getPermissionsWithSettings(String profile, String packageName);
+
     @Query("DELETE FROM policyprofilesetting WHERE profile_name=:profile AND app=:packageName")
     abstract public int deletePoliciesWithPackageName(String profile, String packageName);
 
@@ -127,6 +177,9 @@ public abstract class PolicyProfileSettingDAO {
                                           String purpose,
                                           String library);
 
+    @Query("DELETE FROM policyprofilesetting WHERE id IN (:ids)")
+    abstract public int deleteSettings(List<Long> ids);
+
     @Query("DELETE FROM policyprofilesetting")
     abstract public void clearTable();
 }
\ No newline at end of file
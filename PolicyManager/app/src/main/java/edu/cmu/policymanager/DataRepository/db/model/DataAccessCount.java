@@ -0,0 +1,38 @@
+package edu.cmu.policymanager.DataRepository.db.model;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * How many times an app has requested a permission for a purpose, and when it last did.
+ * There is one row for each app, permission and purpose.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+@Entity(indices = { @Index(value = { "app", "permission", "purpose" }, unique = true) })
+public class DataAccessCount {
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @ColumnInfo(name = "app")
+    public String app;
+
+    @ColumnInfo(name = "permission")
+    public String permission;
+
+    @ColumnInfo(name = "purpose")
+    public String purpose;
+
+    @ColumnInfo(name = "count")
+    public long count;
+
+    @ColumnInfo(name = "last_access_millis")
+    public long lastAccessMillis;
+
+    public String toString() {
+        return "DataAccessCount [" + app + ", " + permission + ", " + purpose + ", " +
+               count + " accesses, last at " + lastAccessMillis + "]";
+    }
+}
@@ -0,0 +1,260 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.cmu.policymanager.DataRepository.db.model.DataAccessCount;
+
+/**
+ * Counts data accesses per app, permission and purpose in memory, so counting an access
+ * never touches the database. Each count is a LongAdder, which spreads increments from
+ * different threads over separate cells, so apps accessing data at the same time do not
+ * contend on one counter and no increment is ever lost.
+ *
+ * The DataRepository moves the counts to the database now and then: takePending gives the
+ * accesses counted since the last flush, and the counts only move once the flush commits,
+ * so a failed write is retried with the next flush. Counts read from this class include
+ * both the stored and the pending accesses.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class AccessCounter {
+    private final ConcurrentHashMap<Key, Counter> mCounters =
+            new ConcurrentHashMap<Key, Counter>();
+    private final Object mFlushLock = new Object();
+
+    /**
+     * Count one access.
+     *
+     * @param app the package name of the app
+     * @param permission the android permission
+     * @param purpose the purpose of the access, which may be null
+     * */
+    public void increment(String app, String permission, String purpose) {
+        Counter counter = counterFor(new Key(app, permission, purpose));
+
+        counter.accesses.increment();
+        counter.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Set the counts stored in the database, such as when the repository starts. Accesses
+     * already counted in memory are kept on top of them.
+     *
+     * @param stored the rows of the dataaccesscount table
+     * */
+    public void load(List<DataAccessCount> stored) {
+        synchronized(mFlushLock) {
+            for(Counter counter : mCounters.values()) { counter.storedCount = 0; }
+
+            if(stored == null) { return; }
+
+            for(DataAccessCount row : stored) {
+                Counter counter = counterFor(new Key(row.app, row.permission, row.purpose));
+
+                counter.storedCount = row.count;
+                counter.storedLastAccessMillis = row.lastAccessMillis;
+            }
+        }
+    }
+
+    /**
+     * @return the number of accesses by this app to this permission for this purpose
+     * */
+    public long getCount(String app, String permission, String purpose) {
+        Counter counter = mCounters.get(new Key(app, permission, purpose));
+        return counter == null ? 0L : counter.total();
+    }
+
+    /**
+     * @param app the package name of an app
+     * @return the counts of every permission and purpose the app has accessed
+     * */
+    public List<DataAccessCount> getCountsForApp(String app) {
+        List<DataAccessCount> counts = new ArrayList<DataAccessCount>();
+
+        for(Map.Entry<Key, Counter> entry : mCounters.entrySet()) {
+            if(entry.getKey().app.equals(app)) {
+                counts.add(entry.getValue().toRow(entry.getKey()));
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * @param permission an android permission
+     * @return the counts of every app and purpose that accessed the permission
+     * */
+    public List<DataAccessCount> getCountsForPermission(String permission) {
+        List<DataAccessCount> counts = new ArrayList<DataAccessCount>();
+
+        for(Map.Entry<Key, Counter> entry : mCounters.entrySet()) {
+            if(entry.getKey().permission.equals(permission)) {
+                counts.add(entry.getValue().toRow(entry.getKey()));
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Take the accesses counted since the last flush. They stay pending until the flush
+     * commits, and only one flush can be taken at a time.
+     *
+     * @return the flush, with one row per app, permission and purpose that has new accesses
+     * */
+    public Flush takePending() {
+        synchronized(mFlushLock) {
+            List<DataAccessCount> rows = new ArrayList<DataAccessCount>();
+            List<Counter> counters = new ArrayList<Counter>();
+            List<Long> sums = new ArrayList<Long>();
+
+            for(Map.Entry<Key, Counter> entry : mCounters.entrySet()) {
+                Counter counter = entry.getValue();
+                long sum = counter.accesses.sum(),
+                     delta = sum - counter.flushedCount;
+
+                if(delta <= 0) { continue; }
+
+                DataAccessCount row = new DataAccessCount();
+                row.app = entry.getKey().app;
+                row.permission = entry.getKey().permission;
+                row.purpose = entry.getKey().purpose;
+                row.count = delta;
+                row.lastAccessMillis = counter.lastAccessMillis;
+
+                rows.add(row);
+                counters.add(counter);
+                sums.add(sum);
+            }
+
+            return new Flush(rows, counters, sums);
+        }
+    }
+
+    /**
+     * Forget the counts of an app, such as when it is uninstalled.
+     *
+     * @param app the package name of the app
+     * */
+    public void removeApp(String app) {
+        synchronized(mFlushLock) {
+            for(Key key : new ArrayList<Key>(mCounters.keySet())) {
+                if(key.app.equals(app)) { mCounters.remove(key); }
+            }
+        }
+    }
+
+    /**
+     * Forget every count.
+     * */
+    public void clear() {
+        synchronized(mFlushLock) { mCounters.clear(); }
+    }
+
+    private Counter counterFor(Key key) {
+        Counter counter = mCounters.get(key);
+
+        if(counter == null) {
+            Counter created = new Counter();
+            counter = mCounters.putIfAbsent(key, created);
+
+            if(counter == null) { counter = created; }
+        }
+
+        return counter;
+    }
+
+    /**
+     * The accesses counted since the last flush. Commit it once they are in the database.
+     * */
+    public final class Flush {
+        public final List<DataAccessCount> rows;
+
+        private final List<Counter> mCounters;
+        private final List<Long> mSums;
+
+        private Flush(List<DataAccessCount> rows, List<Counter> counters, List<Long> sums) {
+            this.rows = Collections.unmodifiableList(rows);
+            mCounters = counters;
+            mSums = sums;
+        }
+
+        public boolean isEmpty() { return rows.isEmpty(); }
+
+        /**
+         * Move the flushed accesses from pending to stored.
+         * */
+        public void commit() {
+            synchronized(mFlushLock) {
+                for(int i = 0; i < mCounters.size(); i++) {
+                    Counter counter = mCounters.get(i);
+                    long sum = mSums.get(i);
+
+                    counter.storedCount += sum - counter.flushedCount;
+                    counter.storedLastAccessMillis = Math.max(counter.storedLastAccessMillis,
+                                                              rows.get(i).lastAccessMillis);
+                    counter.flushedCount = sum;
+                }
+            }
+        }
+    }
+
+    private static final class Counter {
+        private final LongAdder accesses = new LongAdder();
+        private volatile long lastAccessMillis;
+
+        /* Guarded by mFlushLock, but read without it for queries. */
+        private volatile long storedCount, storedLastAccessMillis, flushedCount;
+
+        private long total() { return storedCount + accesses.sum() - flushedCount; }
+
+        private DataAccessCount toRow(Key key) {
+            DataAccessCount row = new DataAccessCount();
+            row.app = key.app;
+            row.permission = key.permission;
+            row.purpose = key.purpose;
+            row.count = total();
+            row.lastAccessMillis = Math.max(lastAccessMillis, storedLastAccessMillis);
+
+            return row;
+        }
+    }
+
+    private static final class Key {
+        private final String app, permission, purpose;
+        private final int hash;
+
+        private Key(String app, String permission, String purpose) {
+            if(app == null || permission == null) {
+                throw new IllegalArgumentException("Access count needs an app and permission");
+            }
+
+            this.app = app;
+            this.permission = permission;
+            this.purpose = purpose == null ? "" : purpose;
+
+            hash = 31 * (31 * app.hashCode() + permission.hashCode()) + this.purpose.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) { return true; }
+            if(!(o instanceof Key)) { return false; }
+
+            Key that = (Key)o;
+
+            return app.equals(that.app) &&
+                   permission.equals(that.permission) &&
+                   purpose.equals(that.purpose);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+    }
+}
@@ -0,0 +1,294 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.cmu.policymanager.DataRepository.db.model.AskPolicySetting;
+
+/**
+ * Holds the user's recent answers to ASK prompts in memory, keyed on (app, permission,
+ * purpose, library), so checking for an answer is a hash lookup instead of a query. It answers
+ * the same question as AskPolicySettingDAO.getLastUserDecisionInTimeframe:
+ *
+ *  the most recent answer for (library = l OR library = category(l)) that was set no longer
+ *  than the timeframe ago.
+ *
+ * Each answer stores the time it expires, worked out when it is recorded. Expired answers are
+ * dropped by a TimerWheel, which is advanced as the store is used, so the store only holds
+ * answers that are still valid (give or take one tick). Changing the timeframe works out the
+ * expiry of every answer again.
+ *
+ * The DataRepository loads the store from the askpolicysetting table on init, and records
+ * every new answer here before writing it to the table.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class AskDecisionStore {
+    public static final long DEFAULT_TIMEFRAME_MILLIS = 5 * 60 * 1000;
+
+    private static final long TICK_MILLIS = 1000;
+
+    private final Map<Key, Decision> mDecisions = new ConcurrentHashMap<Key, Decision>();
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    private TimerWheel<Decision> mWheel;
+
+    private volatile long mTimeframeMillis = DEFAULT_TIMEFRAME_MILLIS,
+                          mNextTickMillis;
+
+    public AskDecisionStore() { mWheel = newWheel(System.currentTimeMillis()); }
+
+    /**
+     * Get the answer the user gave for this request, if it is still valid.
+     *
+     * @param app the package name of the app
+     * @param permission the android permission
+     * @param purpose the purpose name
+     * @param library the library qualified name (or library category)
+     * @param libraryCategory the category of library, may be null
+     * @param nowMillis the current time
+     * @return the most recent valid answer, or null if there is none. Do not modify it.
+     * */
+    public AskPolicySetting get(String app,
+                                String permission,
+                                String purpose,
+                                String library,
+                                String libraryCategory,
+                                long nowMillis) {
+        if(nowMillis >= mNextTickMillis) { expire(nowMillis, false); }
+
+        Decision decision = valid(mDecisions.get(new Key(app, permission, purpose, library)),
+                                  nowMillis);
+
+        if(libraryCategory != null && !libraryCategory.equals(library)) {
+            Decision categoryDecision =
+                    valid(mDecisions.get(new Key(app, permission, purpose, libraryCategory)),
+                          nowMillis);
+
+            if(categoryDecision != null &&
+               (decision == null ||
+                categoryDecision.setting.timeThisPolicyWasSet >
+                decision.setting.timeThisPolicyWasSet)) {
+                decision = categoryDecision;
+            }
+        }
+
+        return decision == null ? null : decision.setting;
+    }
+
+    /**
+     * Record an answer, replacing any earlier answer with the same key. A copy of the setting
+     * is kept, so the caller may go on to use it.
+     *
+     * @param setting the answer, with the time it was set
+     * */
+    public void put(AskPolicySetting setting) {
+        if(setting == null) { return; }
+
+        mLock.lock();
+
+        try {
+            putLocked(copy(setting));
+            mWheel.advance(System.currentTimeMillis());
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Add the answers read from the database. An answer only replaces one the store already
+     * has if it is more recent, so answers recorded while the table was being read are kept.
+     *
+     * @param settings the rows of the askpolicysetting table
+     * */
+    public void load(List<AskPolicySetting> settings) {
+        if(settings == null) { return; }
+
+        mLock.lock();
+
+        try {
+            for(AskPolicySetting setting : settings) {
+                Decision existing = mDecisions.get(keyOf(setting));
+
+                if(existing == null ||
+                   existing.setting.timeThisPolicyWasSet < setting.timeThisPolicyWasSet) {
+                    putLocked(copy(setting));
+                }
+            }
+
+            mWheel.advance(System.currentTimeMillis());
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Set how long an answer is valid for. Every answer already recorded gets a new expiry.
+     *
+     * @param timeframeMillis the timeframe in milliseconds
+     * */
+    public void setTimeframe(long timeframeMillis) {
+        if(timeframeMillis <= 0) {
+            throw new IllegalArgumentException("Timeframe must be positive");
+        }
+
+        if(timeframeMillis == mTimeframeMillis) { return; }
+
+        mLock.lock();
+
+        try {
+            mTimeframeMillis = timeframeMillis;
+            mWheel = newWheel(System.currentTimeMillis());
+
+            for(Decision decision : mDecisions.values()) { putLocked(decision.setting); }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return how long an answer is valid for, in milliseconds
+     * */
+    public long getTimeframe() { return mTimeframeMillis; }
+
+    /**
+     * Drop answers that have expired.
+     *
+     * @param nowMillis the current time
+     * */
+    public void expire(long nowMillis) { expire(nowMillis, true); }
+
+    /**
+     * Drop every answer.
+     * */
+    public void clear() {
+        mLock.lock();
+
+        try {
+            mDecisions.clear();
+            mWheel.clear();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of answers held, including ones that expired in the last tick
+     * */
+    public int size() { return mDecisions.size(); }
+
+    /*
+     * Lookups only expire answers when the lock is free, so they never wait on a writer.
+     */
+    private void expire(long nowMillis, boolean wait) {
+        if(wait) {
+            mLock.lock();
+        } else if(!mLock.tryLock()) {
+            return;
+        }
+
+        try {
+            mWheel.advance(nowMillis);
+            mNextTickMillis = (nowMillis / TICK_MILLIS + 1) * TICK_MILLIS;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void putLocked(AskPolicySetting setting) {
+        Key key = keyOf(setting);
+        Decision decision = new Decision(key,
+                                         setting,
+                                         setting.timeThisPolicyWasSet + mTimeframeMillis);
+
+        mDecisions.put(key, decision);
+        mWheel.schedule(decision, decision.expiresAtMillis);
+    }
+
+    private TimerWheel<Decision> newWheel(long nowMillis) {
+        return new TimerWheel<Decision>(TICK_MILLIS,
+                                        nowMillis,
+                                        new TimerWheel.ExpiryListener<Decision>() {
+            @Override
+            public void expired(Decision decision) {
+                /* An answer that was replaced already had its entry overwritten. */
+                mDecisions.remove(decision.key, decision);
+            }
+        });
+    }
+
+    private static Decision valid(Decision decision, long nowMillis) {
+        return decision != null && nowMillis <= decision.expiresAtMillis ? decision : null;
+    }
+
+    private static Key keyOf(AskPolicySetting setting) {
+        return new Key(setting.app, setting.permission, setting.purpose, setting.library);
+    }
+
+    private static AskPolicySetting copy(AskPolicySetting setting) {
+        AskPolicySetting copy = new AskPolicySetting();
+        copy.id = setting.id;
+        copy.app = setting.app;
+        copy.permission = setting.permission;
+        copy.purpose = setting.purpose;
+        copy.library = setting.library;
+        copy.policy = setting.policy;
+        copy.timeThisPolicyWasSet = setting.timeThisPolicyWasSet;
+
+        return copy;
+    }
+
+    private static final class Decision {
+        private final Key key;
+        private final AskPolicySetting setting;
+        private final long expiresAtMillis;
+
+        private Decision(Key key, AskPolicySetting setting, long expiresAtMillis) {
+            this.key = key;
+            this.setting = setting;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private static final class Key {
+        private final String app, permission, purpose, library;
+        private final int hash;
+
+        private Key(String app, String permission, String purpose, String library) {
+            this.app = app;
+            this.permission = permission;
+            this.purpose = purpose;
+            this.library = library;
+
+            int h = hashOf(app);
+            h = 31 * h + hashOf(permission);
+            h = 31 * h + hashOf(purpose);
+            hash = 31 * h + hashOf(library);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) { return true; }
+            if(!(o instanceof Key)) { return false; }
+
+            Key other = (Key)o;
+
+            return hash == other.hash &&
+                   same(app, other.app) &&
+                   same(permission, other.permission) &&
+                   same(purpose, other.purpose) &&
+                   same(library, other.library);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+
+        private static int hashOf(String s) { return s == null ? 0 : s.hashCode(); }
+
+        private static boolean same(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,799 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+/**
+ * In-memory copy of the policyprofilesetting table, compiled so that a policy can be resolved
+ * without running SQL. It answers the same question as
+ * PolicyProfileSettingDAO.getSettingByCategoryOrLibrary:
+ *
+ *  (app = x OR *) AND (permission = p OR *) AND (purpose = u OR *) AND
+ *  (library = l OR library = category(l) OR *), most recently updated wins.
+ *
+ * Settings are grouped per profile into cells indexed by permission and purpose ordinal, where
+ * ordinal 0 is the wildcard. Each cell maps app -> library -> setting. A lookup probes at most
+ * 2 permissions x 2 purposes x 2 apps x 3 libraries, regardless of how many settings exist.
+ *
+ * When settings are updated at the same time (for example, the -1 timestamp settings are
+ * created with), SQLite returns the one it scanned first, which is the one with the lowest id.
+ * The table breaks ties the same way.
+ *
+ * The DataRepository keeps the table in sync by rebuilding it from the database on init, and
+ * mirroring every insert, update and delete it makes to the policyprofilesetting table.
+ *
+ * The table also keeps the active profile as a ProfileSnapshot. Whenever the settings of a
+ * profile other than the default change, its snapshot is compiled again (copy on write), so
+ * getActiveProfile always returns a complete snapshot without taking a lock, and activating
+ * a profile only swaps which snapshot that is. When a ProfileStack of several profiles is
+ * active, the snapshots of its enabled layers are combined into one, which is kept for as
+ * long as none of them change, so switching a layer back on is a swap too.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class CompiledPolicyTable {
+    private static final String WILDCARD = "*";
+    private static final int WILDCARD_ORDINAL = 0;
+
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    private Map<String, Integer> mPermissionOrdinals = newOrdinals(),
+                                 mPurposeOrdinals = newOrdinals();
+
+    private Map<String, ProfileTable> mProfiles = new HashMap<String, ProfileTable>();
+
+    /* Compiled snapshots of the profiles, dropped when their settings change. */
+    private final Map<String, ProfileSnapshot> mSnapshots = new HashMap<String, ProfileSnapshot>();
+
+    /* Combined snapshots of stacks, by ProfileStack.key, dropped when any profile changes. */
+    private final Map<String, ProfileSnapshot> mStacks = new HashMap<String, ProfileSnapshot>();
+
+    private ProfileStack mStack = ProfileStack.empty();
+    private volatile ProfileSnapshot mActive = ProfileSnapshot.empty(PolicyProfile.DEFAULT);
+
+    /* Goes up with every change to the settings; written with the write lock held. */
+    private volatile long mGeneration;
+
+    /**
+     * Replaces the contents of the table with the given settings, normally every row of
+     * the policyprofilesetting table.
+     *
+     * @param settings the settings to compile
+     * */
+    public void rebuild(List<PolicyProfileSetting> settings) {
+        mLock.writeLock().lock();
+
+        try {
+            rebuild(settings, mGeneration);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the table with settings read from the database, unless the
+     * table was changed after they were read. A setting put in between would be in neither
+     * the settings nor the new table, so the caller reads the settings again and retries:
+     *
+     *  long generation;
+     *
+     *  do {
+     *      generation = table.getGeneration();
+     *  } while(!table.rebuild(policyDAO.getAllSettings(), generation));
+     *
+     * @param settings the settings to compile, normally every row of the policyprofilesetting
+     * table
+     * @param generation the generation of the table before the settings were read
+     * @return true if the table was rebuilt, false if it changed since the generation was read
+     * and was left as it is
+     * */
+    public boolean rebuild(List<PolicyProfileSetting> settings, long generation) {
+        Map<String, Integer> permissionOrdinals = newOrdinals(),
+                             purposeOrdinals = newOrdinals();
+
+        Map<String, ProfileTable> profiles = new HashMap<String, ProfileTable>();
+
+        for(PolicyProfileSetting setting : settings) {
+            insert(profiles, permissionOrdinals, purposeOrdinals, setting);
+        }
+
+        mLock.writeLock().lock();
+
+        try {
+            if(generation != mGeneration) { return false; }
+
+            mPermissionOrdinals = permissionOrdinals;
+            mPurposeOrdinals = purposeOrdinals;
+            mProfiles = profiles;
+            mGeneration++;
+
+            mSnapshots.clear();
+            mStacks.clear();
+            mActive = compileLocked(mStack);
+
+            return true;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a count that goes up every time settings are added, changed or removed, or the
+     * table is rebuilt
+     * */
+    public long getGeneration() { return mGeneration; }
+
+    /**
+     * Adds a setting that was just inserted into the database. The setting's id must be
+     * the id the database assigned to it.
+     *
+     * @param setting the inserted setting
+     * */
+    public void put(PolicyProfileSetting setting) {
+        mLock.writeLock().lock();
+
+        try {
+            insert(mProfiles, mPermissionOrdinals, mPurposeOrdinals, setting);
+            profileChanged(setting.profileName);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds settings that were just inserted into the database, compiling the snapshot of
+     * each profile they belong to once.
+     *
+     * @param settings the inserted settings, with the ids the database assigned them
+     * */
+    public void putAll(Collection<PolicyProfileSetting> settings) {
+        Set<String> profiles = new HashSet<String>();
+
+        mLock.writeLock().lock();
+
+        try {
+            for(PolicyProfileSetting setting : settings) {
+                insert(mProfiles, mPermissionOrdinals, mPurposeOrdinals, setting);
+                profiles.add(setting.profileName);
+            }
+
+            for(String profile : profiles) { profileChanged(profile); }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mirrors a new version of a profile that was just written to the database, compiling
+     * the profile's snapshot once however many of its settings changed.
+     *
+     * @param profile the name of the profile
+     * @param inserted the settings inserted, with the ids the database assigned them
+     * @param updated the settings whose action changed, with their ids
+     * @param removed the settings deleted, with their ids
+     * */
+    public void applyProfileChanges(String profile,
+                                    Collection<PolicyProfileSetting> inserted,
+                                    Collection<PolicyProfileSetting> updated,
+                                    Collection<PolicyProfileSetting> removed) {
+        mLock.writeLock().lock();
+
+        try {
+            for(PolicyProfileSetting setting : removed) {
+                Map<String, PolicyProfileSetting> libraries = librariesFor(
+                        mProfiles.get(profile), setting.app, setting.permission, setting.purpose
+                );
+                PolicyProfileSetting existing =
+                        libraries == null ? null : libraries.get(setting.thirdPartyLibrary);
+
+                if(existing != null && existing.id == setting.id) {
+                    libraries.remove(setting.thirdPartyLibrary);
+                }
+            }
+
+            for(PolicyProfileSetting setting : updated) {
+                Map<String, PolicyProfileSetting> libraries = librariesFor(
+                        mProfiles.get(profile), setting.app, setting.permission, setting.purpose
+                );
+                PolicyProfileSetting existing =
+                        libraries == null ? null : libraries.get(setting.thirdPartyLibrary);
+
+                if(existing != null && existing.id == setting.id) {
+                    libraries.put(setting.thirdPartyLibrary, copy(setting));
+                } else {
+                    insert(mProfiles, mPermissionOrdinals, mPurposeOrdinals, setting);
+                }
+            }
+
+            for(PolicyProfileSetting setting : inserted) {
+                insert(mProfiles, mPermissionOrdinals, mPurposeOrdinals, setting);
+            }
+
+            profileChanged(profile);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mirrors PolicyProfileSettingDAO.update: sets the action and timestamp of the settings
+     * that exactly match this profile, app, permission, purpose and library.
+     *
+     * @return the number of settings that were updated (0 or 1)
+     * */
+    public int update(String profile,
+                      String app,
+                      String permission,
+                      String purpose,
+                      String library,
+                      String action,
+                      long lastUpdated) {
+        mLock.writeLock().lock();
+
+        try {
+            Map<String, PolicyProfileSetting> libraries =
+                    librariesFor(mProfiles.get(profile), app, permission, purpose);
+
+            if(libraries == null) { return 0; }
+
+            PolicyProfileSetting existing = libraries.get(library);
+
+            if(existing == null) { return 0; }
+
+            PolicyProfileSetting updated = copy(existing);
+            updated.policyAction = action;
+            updated.lastUpdated = lastUpdated;
+            libraries.put(library, updated);
+            profileChanged(profile);
+
+            return 1;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mirrors PolicyProfileSettingDAO.deleteUserPolicy, which removes the setting from
+     * every profile.
+     * */
+    public void remove(String app,
+                       String permission,
+                       String purpose,
+                       String library) {
+        mLock.writeLock().lock();
+
+        try {
+            for(Map.Entry<String, ProfileTable> profile : mProfiles.entrySet()) {
+                Map<String, PolicyProfileSetting> libraries =
+                        librariesFor(profile.getValue(), app, permission, purpose);
+
+                if(libraries != null && libraries.remove(library) != null) {
+                    profileChanged(profile.getKey());
+                }
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mirrors PolicyProfileSettingDAO.deletePoliciesWithPackageName.
+     *
+     * @param profile the profile to remove the app's settings from
+     * @param app the package name of the app
+     * */
+    public void removeApp(String profile, String app) {
+        mLock.writeLock().lock();
+
+        try {
+            ProfileTable table = mProfiles.get(profile);
+
+            if(table == null) { return; }
+
+            for(Cell[] cells : table.cells) {
+                if(cells == null) { continue; }
+
+                for(Cell cell : cells) {
+                    if(cell != null) { cell.apps.remove(app); }
+                }
+            }
+
+            profileChanged(profile);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Make a profile the only active one. Its snapshot is compiled already if its settings
+     * have not changed since it was last used, so this is normally just a reference swap.
+     *
+     * @param profile the name of the profile to activate
+     * @return the snapshot of the profile, which is now the active one
+     * */
+    public ProfileSnapshot activate(String profile) {
+        if(profile == null) { throw new IllegalArgumentException("Profile name is null"); }
+
+        return activate(ProfileStack.of(profile));
+    }
+
+    /**
+     * Make a stack of profiles the active one.
+     *
+     * @param stack the stack to activate
+     * @return the combined snapshot of the stack, which is now the active one
+     * */
+    public ProfileSnapshot activate(ProfileStack stack) {
+        if(stack == null) { throw new IllegalArgumentException("Profile stack is null"); }
+
+        mLock.writeLock().lock();
+
+        try {
+            mStack = stack;
+            mActive = compileLocked(stack);
+            return mActive;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Switch one layer of the active stack on or off, putting the profile on top of the
+     * stack if it is not in it yet.
+     *
+     * @param profile the name of the profile
+     * @param enabled true to switch the layer on
+     * @return the combined snapshot of the new stack, which is now the active one
+     * */
+    public ProfileSnapshot setLayerEnabled(String profile, boolean enabled) {
+        if(profile == null) { throw new IllegalArgumentException("Profile name is null"); }
+
+        mLock.writeLock().lock();
+
+        try {
+            return activate(mStack.withLayer(profile, enabled));
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the active stack of profiles
+     * */
+    public ProfileStack getProfileStack() {
+        mLock.readLock().lock();
+
+        try {
+            return mStack;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the snapshot of the active profile. It never changes once returned, so a caller
+     * that holds on to it sees one profile from start to end.
+     * */
+    public ProfileSnapshot getActiveProfile() { return mActive; }
+
+    /**
+     * @param profile the name of a profile
+     * @return the current snapshot of the profile, compiled if it is not already
+     * */
+    public ProfileSnapshot snapshot(String profile) {
+        if(profile == null) { throw new IllegalArgumentException("Profile name is null"); }
+
+        mLock.writeLock().lock();
+
+        try {
+            return snapshotLocked(profile);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every setting from the table.
+     * */
+    public void clear() { rebuild(Collections.<PolicyProfileSetting>emptyList()); }
+
+    /**
+     * Resolve the setting to enforce for this request in the given profile.
+     *
+     * @param profile the profile to search
+     * @param app the package name of the app
+     * @param permission the android permission
+     * @param purpose the purpose name
+     * @param library the library qualified name (or library category)
+     * @param libraryCategory the category of library, may be null
+     * @return a copy of the most recently updated matching setting, or null if none match
+     * */
+    public PolicyProfileSetting resolve(String profile,
+                                        String app,
+                                        String permission,
+                                        String purpose,
+                                        String library,
+                                        String libraryCategory) {
+        mLock.readLock().lock();
+
+        try {
+            ProfileTable table = mProfiles.get(profile);
+
+            if(table == null) { return null; }
+
+            int permissionOrdinal = ordinalOf(mPermissionOrdinals, permission),
+                purposeOrdinal = ordinalOf(mPurposeOrdinals, purpose);
+
+            PolicyProfileSetting best = null;
+
+            best = resolveCell(table.cell(permissionOrdinal, purposeOrdinal),
+                               app, library, libraryCategory, best);
+
+            if(purposeOrdinal != WILDCARD_ORDINAL) {
+                best = resolveCell(table.cell(permissionOrdinal, WILDCARD_ORDINAL),
+                                   app, library, libraryCategory, best);
+            }
+
+            if(permissionOrdinal != WILDCARD_ORDINAL) {
+                best = resolveCell(table.cell(WILDCARD_ORDINAL, purposeOrdinal),
+                                   app, library, libraryCategory, best);
+
+                if(purposeOrdinal != WILDCARD_ORDINAL) {
+                    best = resolveCell(table.cell(WILDCARD_ORDINAL, WILDCARD_ORDINAL),
+                                       app, library, libraryCategory, best);
+                }
+            }
+
+            return best == null ? null : copy(best);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Mirrors PolicyProfileSettingDAO.getExactPolicy: find a setting in any profile that has
+     * exactly this app, permission, purpose and library. Wildcards are not expanded.
+     *
+     * @return a copy of the matching setting, or null if there is none. If several profiles
+     * have one, the default profile's is returned.
+     * */
+    public PolicyProfileSetting findExact(String defaultProfile,
+                                          String app,
+                                          String permission,
+                                          String purpose,
+                                          String library) {
+        mLock.readLock().lock();
+
+        try {
+            Map<String, PolicyProfileSetting> libraries =
+                    librariesFor(mProfiles.get(defaultProfile), app, permission, purpose);
+
+            PolicyProfileSetting result = libraries == null ? null : libraries.get(library);
+
+            if(result == null) {
+                for(ProfileTable table : mProfiles.values()) {
+                    libraries = librariesFor(table, app, permission, purpose);
+
+                    if(libraries != null && libraries.containsKey(library)) {
+                        result = libraries.get(library);
+                        break;
+                    }
+                }
+            }
+
+            return result == null ? null : copy(result);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of settings in the table
+     * */
+    public int size() {
+        mLock.readLock().lock();
+
+        try {
+            int size = 0;
+
+            for(ProfileTable table : mProfiles.values()) {
+                for(Cell[] cells : table.cells) {
+                    if(cells == null) { continue; }
+
+                    for(Cell cell : cells) {
+                        if(cell == null) { continue; }
+
+                        for(Map<String, PolicyProfileSetting> libraries : cell.apps.values()) {
+                            size += libraries.size();
+                        }
+                    }
+                }
+            }
+
+            return size;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /* Call with the write lock held. */
+    private ProfileSnapshot snapshotLocked(String profile) {
+        ProfileSnapshot snapshot = mSnapshots.get(profile);
+
+        if(snapshot == null) {
+            snapshot = ProfileSnapshot.compile(profile, settingsOf(mProfiles.get(profile)));
+            mSnapshots.put(profile, snapshot);
+        }
+
+        return snapshot;
+    }
+
+    /*
+     * Call with the write lock held. A stack of one profile is that profile's own snapshot;
+     * anything else is combined from the snapshots of its layers.
+     */
+    private ProfileSnapshot compileLocked(ProfileStack stack) {
+        List<String> profiles = stack.getEnabledProfiles();
+
+        if(profiles.isEmpty()) { return snapshotLocked(PolicyProfile.DEFAULT); }
+
+        if(profiles.size() == 1 && stack.getRule() == ProfileStack.CombiningRule.FIRST_APPLICABLE) {
+            return snapshotLocked(profiles.get(0));
+        }
+
+        ProfileSnapshot combined = mStacks.get(stack.key());
+
+        if(combined == null) {
+            List<ProfileSnapshot> layers = new ArrayList<ProfileSnapshot>(profiles.size());
+
+            for(String profile : profiles) { layers.add(snapshotLocked(profile)); }
+
+            combined = ProfileSnapshot.combine(stack, layers);
+            mStacks.put(stack.key(), combined);
+        }
+
+        return combined;
+    }
+
+    /*
+     * Call with the write lock held, after changing a profile's settings. The default profile
+     * has no snapshot to compile, which keeps changes to the user's own settings cheap.
+     */
+    private void profileChanged(String profile) {
+        mGeneration++;
+
+        if(profile == null || PolicyProfile.DEFAULT.equalsIgnoreCase(profile)) { return; }
+
+        mSnapshots.remove(profile);
+        mStacks.clear();
+
+        if(mStack.isEnabled(profile)) { mActive = compileLocked(mStack); }
+    }
+
+    private static List<PolicyProfileSetting> settingsOf(ProfileTable table) {
+        List<PolicyProfileSetting> settings = new ArrayList<PolicyProfileSetting>();
+
+        if(table == null) { return settings; }
+
+        for(Cell[] cells : table.cells) {
+            if(cells == null) { continue; }
+
+            for(Cell cell : cells) {
+                if(cell == null) { continue; }
+
+                for(Map<String, PolicyProfileSetting> libraries : cell.apps.values()) {
+                    settings.addAll(libraries.values());
+                }
+            }
+        }
+
+        return settings;
+    }
+
+    private static PolicyProfileSetting resolveCell(Cell cell,
+                                                    String app,
+                                                    String library,
+                                                    String libraryCategory,
+                                                    PolicyProfileSetting best) {
+        if(cell == null) { return best; }
+
+        best = resolveApp(cell.apps.get(app), library, libraryCategory, best);
+
+        if(!WILDCARD.equals(app)) {
+            best = resolveApp(cell.apps.get(WILDCARD), library, libraryCategory, best);
+        }
+
+        return best;
+    }
+
+    private static PolicyProfileSetting resolveApp(Map<String, PolicyProfileSetting> libraries,
+                                                   String library,
+                                                   String libraryCategory,
+                                                   PolicyProfileSetting best) {
+        if(libraries == null) { return best; }
+
+        if(library != null) {
+            best = newer(libraries.get(library), best);
+        }
+
+        if(libraryCategory != null && !libraryCategory.equals(library)) {
+            best = newer(libraries.get(libraryCategory), best);
+        }
+
+        if(!WILDCARD.equals(library) && !WILDCARD.equals(libraryCategory)) {
+            best = newer(libraries.get(WILDCARD), best);
+        }
+
+        return best;
+    }
+
+    /*
+     * ORDER BY last_updated DESC LIMIT 1, where SQLite keeps the first row it scanned
+     * (lowest id) when timestamps are equal.
+     */
+    static PolicyProfileSetting newer(PolicyProfileSetting candidate,
+                                      PolicyProfileSetting best) {
+        if(candidate == null) { return best; }
+        if(best == null) { return candidate; }
+
+        long candidateUpdated = timestampOf(candidate),
+             bestUpdated = timestampOf(best);
+
+        if(candidateUpdated != bestUpdated) {
+            return candidateUpdated > bestUpdated ? candidate : best;
+        }
+
+        return candidate.id < best.id ? candidate : best;
+    }
+
+    private static void insert(Map<String, ProfileTable> profiles,
+                               Map<String, Integer> permissionOrdinals,
+                               Map<String, Integer> purposeOrdinals,
+                               PolicyProfileSetting setting) {
+        if(setting.profileName == null || setting.app == null ||
+           setting.permission == null || setting.purpose == null) {
+            return;
+        }
+
+        ProfileTable table = profiles.get(setting.profileName);
+
+        if(table == null) {
+            table = new ProfileTable();
+            profiles.put(setting.profileName, table);
+        }
+
+        Cell cell = table.cellForWrite(internOrdinal(permissionOrdinals, setting.permission),
+                                       internOrdinal(purposeOrdinals, setting.purpose));
+
+        Map<String, PolicyProfileSetting> libraries = cell.apps.get(setting.app);
+
+        if(libraries == null) {
+            libraries = new HashMap<String, PolicyProfileSetting>(4);
+            cell.apps.put(setting.app, libraries);
+        }
+
+        PolicyProfileSetting compiled = copy(setting);
+        libraries.put(compiled.thirdPartyLibrary,
+                      newer(compiled, libraries.get(compiled.thirdPartyLibrary)));
+    }
+
+    private Map<String, PolicyProfileSetting> librariesFor(ProfileTable table,
+                                                           String app,
+                                                           String permission,
+                                                           String purpose) {
+        if(table == null) { return null; }
+
+        Integer permissionOrdinal = mPermissionOrdinals.get(permission),
+                purposeOrdinal = mPurposeOrdinals.get(purpose);
+
+        if(permissionOrdinal == null || purposeOrdinal == null) { return null; }
+
+        Cell cell = table.cell(permissionOrdinal, purposeOrdinal);
+
+        return cell == null ? null : cell.apps.get(app);
+    }
+
+    private static Map<String, Integer> newOrdinals() {
+        Map<String, Integer> ordinals = new HashMap<String, Integer>();
+        ordinals.put(WILDCARD, WILDCARD_ORDINAL);
+
+        return ordinals;
+    }
+
+    private static int ordinalOf(Map<String, Integer> ordinals, String key) {
+        Integer ordinal = key == null ? null : ordinals.get(key);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    private static int internOrdinal(Map<String, Integer> ordinals, String key) {
+        Integer ordinal = ordinals.get(key);
+
+        if(ordinal == null) {
+            ordinal = ordinals.size();
+            ordinals.put(key, ordinal);
+        }
+
+        return ordinal;
+    }
+
+    private static long timestampOf(PolicyProfileSetting setting) {
+        return setting.lastUpdated == null ? -1L : setting.lastUpdated;
+    }
+
+    static PolicyProfileSetting copy(PolicyProfileSetting setting) {
+        PolicyProfileSetting copy = new PolicyProfileSetting();
+        copy.id = setting.id;
+        copy.profileName = setting.profileName;
+        copy.app = setting.app;
+        copy.permission = setting.permission;
+        copy.purpose = setting.purpose;
+        copy.thirdPartyLibrary = setting.thirdPartyLibrary;
+        copy.lastUpdated = setting.lastUpdated;
+        copy.policyAction = setting.policyAction;
+
+        return copy;
+    }
+
+    /*
+     * The settings of one profile, indexed by [permission ordinal][purpose ordinal].
+     */
+    private static class ProfileTable {
+        private Cell[][] cells = new Cell[8][];
+
+        private Cell cell(int permissionOrdinal, int purposeOrdinal) {
+            if(permissionOrdinal < 0 || permissionOrdinal >= cells.length) { return null; }
+
+            Cell[] purposes = cells[permissionOrdinal];
+
+            if(purposes == null || purposeOrdinal < 0 || purposeOrdinal >= purposes.length) {
+                return null;
+            }
+
+            return purposes[purposeOrdinal];
+        }
+
+        private Cell cellForWrite(int permissionOrdinal, int purposeOrdinal) {
+            if(permissionOrdinal >= cells.length) {
+                cells = Arrays.copyOf(cells, Math.max(cells.length * 2,
+                                                                permissionOrdinal + 1));
+            }
+
+            Cell[] purposes = cells[permissionOrdinal];
+
+            if(purposes == null) {
+                purposes = new Cell[Math.max(16, purposeOrdinal + 1)];
+                cells[permissionOrdinal] = purposes;
+            } else if(purposeOrdinal >= purposes.length) {
+                purposes = Arrays.copyOf(purposes, Math.max(purposes.length * 2,
+                                                                      purposeOrdinal + 1));
+                cells[permissionOrdinal] = purposes;
+            }
+
+            Cell cell = purposes[purposeOrdinal];
+
+            if(cell == null) {
+                cell = new Cell();
+                purposes[purposeOrdinal] = cell;
+            }
+
+            return cell;
+        }
+    }
+
+    private static class Cell {
+        private final Map<String, Map<String, PolicyProfileSetting>> apps =
+                new HashMap<String, Map<String, PolicyProfileSetting>>();
+    }
+}
@@ -0,0 +1,79 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.policymanager.PolicyManager.policies.OffDevicePolicy;
+
+/**
+ * Holds the parsed off-device policy of each package, so the JSON is parsed once per install
+ * rather than on every permission request. Packages without an off-device policy are cached
+ * as an empty policy.
+ *
+ * The DataRepository invalidates a package when its policy is added, or the app is installed,
+ * updated or uninstalled. As with PolicyDecisionCache, a policy parsed before an invalidation
+ * is not cached.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class OdpCache {
+    private final Map<String, OffDevicePolicy> mPolicies =
+            new ConcurrentHashMap<String, OffDevicePolicy>();
+
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    /**
+     * Get the parsed policy of this package.
+     *
+     * @param packageName the package name of the app
+     * @return the parsed policy, or null if it has to be loaded
+     * */
+    public OffDevicePolicy get(String packageName) { return mPolicies.get(packageName); }
+
+    /**
+     * The current generation of the cache. Read this before loading a policy and pass it to put.
+     *
+     * @return the generation, which changes on every invalidation
+     * */
+    public long generation() { return mGeneration.get(); }
+
+    /**
+     * Caches a parsed policy, unless the cache was invalidated since generation was read.
+     *
+     * @param generation the value of generation() read before loading the policy
+     * @param packageName the package name of the app
+     * @param policy the parsed policy
+     * */
+    public void put(long generation,
+                    String packageName,
+                    OffDevicePolicy policy) {
+        if(policy == null || generation != mGeneration.get()) { return; }
+
+        mPolicies.put(packageName, policy);
+
+        if(generation != mGeneration.get()) {
+            mPolicies.remove(packageName, policy);
+        }
+    }
+
+    /**
+     * Drops the parsed policy of this package.
+     *
+     * @param packageName the package name of the app
+     * */
+    public void invalidate(String packageName) {
+        mGeneration.incrementAndGet();
+        mPolicies.remove(packageName);
+    }
+
+    /**
+     * Drops every parsed policy.
+     * */
+    public void clear() {
+        mGeneration.incrementAndGet();
+        mPolicies.clear();
+    }
+
+    public int size() { return mPolicies.size(); }
+}
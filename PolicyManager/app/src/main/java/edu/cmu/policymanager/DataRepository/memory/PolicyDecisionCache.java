@@ -0,0 +1,223 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+/**
+ * Caches the policy setting that was resolved for a (profile, app, permission, purpose,
+ * library/category) lookup, so repeated data accesses from the same app do not hit the
+ * database every time.
+ *
+ * Entries are dropped by the DataRepository whenever a write could change what a lookup
+ * resolves to. A setting on the wildcard app or permission affects every app or permission,
+ * so invalidating with a wildcard drops all of the matching entries.
+ *
+ * Resolution runs outside of the cache, so each lookup reads the generation first and hands it
+ * back on put. A put that raced with an invalidation is discarded instead of caching a stale
+ * decision.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class PolicyDecisionCache {
+    private static final String WILDCARD = "*";
+    private static final int MAX_ENTRIES = 4096;
+
+    private final Map<Key, PolicyProfileSetting> mDecisions =
+            new ConcurrentHashMap<Key, PolicyProfileSetting>();
+
+    private final AtomicLong mGeneration = new AtomicLong(),
+                             mQuickSettingVersion = new AtomicLong(),
+                             mHits = new AtomicLong(),
+                             mMisses = new AtomicLong();
+
+    /**
+     * Get the decision cached for this lookup.
+     *
+     * @return the resolved setting, or null if it must be resolved again
+     * */
+    public PolicyProfileSetting get(String profile,
+                                    String app,
+                                    String permission,
+                                    String purpose,
+                                    String library) {
+        PolicyProfileSetting decision =
+                mDecisions.get(new Key(profile, app, permission, purpose, library));
+
+        if(decision != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+
+        return decision;
+    }
+
+    /**
+     * The current generation of the cache. Read this before resolving a decision and pass
+     * it to put.
+     *
+     * @return the generation, which changes on every invalidation
+     * */
+    public long generation() { return mGeneration.get(); }
+
+    /**
+     * Caches a resolved decision, unless the cache was invalidated since generation was read.
+     * The cached setting is shared, so callers must not modify it afterwards.
+     *
+     * @param generation the value of generation() read before resolving the decision
+     * @param decision the resolved setting
+     * */
+    public void put(long generation,
+                    String profile,
+                    String app,
+                    String permission,
+                    String purpose,
+                    String library,
+                    PolicyProfileSetting decision) {
+        if(decision == null || generation != mGeneration.get()) { return; }
+
+        if(mDecisions.size() >= MAX_ENTRIES) { mDecisions.clear(); }
+
+        Key key = new Key(profile, app, permission, purpose, library);
+        mDecisions.put(key, decision);
+
+        if(generation != mGeneration.get()) {
+            mDecisions.remove(key, decision);
+        }
+    }
+
+    /**
+     * Quick settings override the default profile's settings, so decisions resolved under
+     * older quick settings are dropped. Call this with the version of the quick settings a
+     * decision is about to be resolved with, before reading the generation.
+     *
+     * @param version the QuickSettingState version
+     * @return true if the version is current and its decisions may be cached, false if newer
+     * quick settings have already been seen
+     * */
+    public boolean checkQuickSettingVersion(long version) {
+        long seen = mQuickSettingVersion.get();
+
+        while(version > seen) {
+            if(mQuickSettingVersion.compareAndSet(seen, version)) {
+                clear();
+                return true;
+            }
+
+            seen = mQuickSettingVersion.get();
+        }
+
+        return version == seen;
+    }
+
+    /**
+     * Drops every decision that a setting for this app and permission could affect.
+     * Either argument may be the wildcard symbol.
+     *
+     * @param app the package name of the app (or *)
+     * @param permission the android permission (or *)
+     * */
+    public void invalidate(String app, String permission) {
+        mGeneration.incrementAndGet();
+
+        boolean allApps = app == null || WILDCARD.equals(app),
+                allPermissions = permission == null || WILDCARD.equals(permission);
+
+        if(allApps && allPermissions) {
+            mDecisions.clear();
+            return;
+        }
+
+        Iterator<Key> keys = mDecisions.keySet().iterator();
+
+        while(keys.hasNext()) {
+            Key key = keys.next();
+
+            if((allApps || app.equals(key.app)) &&
+               (allPermissions || permission.equals(key.permission))) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every decision that was cached for this app.
+     *
+     * @param app the package name of the app
+     * */
+    public void invalidateApp(String app) { invalidate(app, WILDCARD); }
+
+    /**
+     * Drops every decision that was cached for this permission.
+     *
+     * @param permission the android permission
+     * */
+    public void invalidatePermission(String permission) { invalidate(WILDCARD, permission); }
+
+    /**
+     * Drops every cached decision.
+     * */
+    public void clear() { invalidate(WILDCARD, WILDCARD); }
+
+    public long getHitCount() { return mHits.get(); }
+
+    public long getMissCount() { return mMisses.get(); }
+
+    public int size() { return mDecisions.size(); }
+
+    public String toString() {
+        return "PolicyDecisionCache [" + size() + " entries, " +
+               getHitCount() + " hits, " + getMissCount() + " misses]";
+    }
+
+    private static final class Key {
+        private final String profile, app, permission, purpose, library;
+        private final int hash;
+
+        private Key(String profile,
+                    String app,
+                    String permission,
+                    String purpose,
+                    String library) {
+            this.profile = profile;
+            this.app = app;
+            this.permission = permission;
+            this.purpose = purpose;
+            this.library = library;
+
+            int h = hashOf(profile);
+            h = 31 * h + hashOf(app);
+            h = 31 * h + hashOf(permission);
+            h = 31 * h + hashOf(purpose);
+            hash = 31 * h + hashOf(library);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) { return true; }
+            if(!(o instanceof Key)) { return false; }
+
+            Key other = (Key)o;
+
+            return hash == other.hash &&
+                   same(profile, other.profile) &&
+                   same(app, other.app) &&
+                   same(permission, other.permission) &&
+                   same(purpose, other.purpose) &&
+                   same(library, other.library);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+
+        private static int hashOf(String s) { return s == null ? 0 : s.hashCode(); }
+
+        private static boolean same(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
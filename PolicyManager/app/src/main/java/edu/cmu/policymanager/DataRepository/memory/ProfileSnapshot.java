@@ -0,0 +1,390 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+/**
+ * An immutable, compiled copy of one policy profile's settings. When the profile is active,
+ * its settings overlay the default profile: a request is resolved in the snapshot first, and
+ * only falls through to the default profile's settings when nothing in the snapshot matches.
+ * The default profile itself has an empty overlay.
+ *
+ * Snapshots are never changed after they are made. When a profile's settings change, the
+ * CompiledPolicyTable compiles a new snapshot and swaps it in, so activating a profile is a
+ * single reference swap, and a request that holds a snapshot sees the same profile from
+ * start to end. Reading a snapshot takes no lock.
+ *
+ * A snapshot can also hold a whole ProfileStack. The settings of its enabled layers are
+ * merged into the one lookup structure, each tagged with its layer, and where two layers have
+ * a setting for the same app, permission, purpose and library, the stack's combining rule
+ * keeps one of them up front. A request probes the same cells as for a single profile, and
+ * the combining rule picks between the settings it finds, so it takes the same time however
+ * many layers are stacked.
+ *
+ * The snapshot also keeps the permissions its profiles deny, so checking whether the
+ * active profile denies a request can skip the lookup for every other permission.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class ProfileSnapshot {
+    private static final String WILDCARD = "*";
+
+    /* UserPolicy.Policy.DENY.name(), without pulling the Android side into this class. */
+    private static final String DENY = "DENY";
+
+    /* permission -> purpose -> app -> library -> setting */
+    private final Map<String, Map<String, Map<String, Map<String, Entry>>>> mSettings;
+
+    private final List<String> mProfiles;
+    private final Set<String> mDeniedPermissions;
+    private final int mSize;
+
+    /* The highest profile in the snapshot, or the default profile if it has none */
+    public final String name;
+
+    /* Equal for two snapshots of the same profiles and rule; see ProfileStack.key */
+    public final String key;
+
+    public final ProfileStack.CombiningRule rule;
+
+    private ProfileSnapshot(String name,
+                            String key,
+                            ProfileStack.CombiningRule rule,
+                            List<String> profiles,
+                            Map<String, Map<String, Map<String, Map<String, Entry>>>> settings,
+                            Set<String> deniedPermissions,
+                            int size) {
+        this.name = name;
+        this.key = key;
+        this.rule = rule;
+        mProfiles = profiles;
+        mSettings = settings;
+        mDeniedPermissions = deniedPermissions;
+        mSize = size;
+    }
+
+    /**
+     * @param name the name of the profile
+     * @return a snapshot of a profile without settings
+     * */
+    public static ProfileSnapshot empty(String name) {
+        if(name == null) { throw new IllegalArgumentException("Profile name is null"); }
+
+        Map<String, Map<String, Map<String, Map<String, Entry>>>> settings =
+                Collections.emptyMap();
+
+        return new ProfileSnapshot(name,
+                                   name,
+                                   ProfileStack.CombiningRule.FIRST_APPLICABLE,
+                                   profilesOf(name),
+                                   settings,
+                                   Collections.<String>emptySet(),
+                                   0);
+    }
+
+    /**
+     * Compile the settings of a profile into a snapshot. The default profile always
+     * compiles to an empty snapshot, since it is what the other profiles overlay.
+     *
+     * @param name the name of the profile
+     * @param settings the settings of the profile; settings of other profiles are skipped
+     * @return the snapshot
+     * */
+    public static ProfileSnapshot compile(String name, Collection<PolicyProfileSetting> settings) {
+        if(name == null) { throw new IllegalArgumentException("Profile name is null"); }
+        if(PolicyProfile.DEFAULT.equalsIgnoreCase(name) || settings == null) {
+            return empty(name);
+        }
+
+        Map<String, Map<String, Map<String, Map<String, Entry>>>> compiled =
+                new HashMap<String, Map<String, Map<String, Map<String, Entry>>>>();
+        int size = 0;
+
+        for(PolicyProfileSetting setting : settings) {
+            if(!name.equals(setting.profileName) || setting.app == null ||
+               setting.permission == null || setting.purpose == null) {
+                continue;
+            }
+
+            Entry entry = new Entry(CompiledPolicyTable.copy(setting), 0);
+            if(add(compiled, entry, ProfileStack.CombiningRule.FIRST_APPLICABLE)) { size++; }
+        }
+
+        return new ProfileSnapshot(name,
+                                   name,
+                                   ProfileStack.CombiningRule.FIRST_APPLICABLE,
+                                   profilesOf(name),
+                                   compiled,
+                                   deniedPermissionsOf(compiled),
+                                   size);
+    }
+
+    /**
+     * Compile the enabled layers of a stack into one snapshot.
+     *
+     * @param stack the stack
+     * @param layers the snapshot of each enabled layer of the stack, highest first
+     * @return the snapshot of the stack
+     * */
+    public static ProfileSnapshot combine(ProfileStack stack, List<ProfileSnapshot> layers) {
+        if(stack == null) { throw new IllegalArgumentException("Profile stack is null"); }
+
+        List<String> profiles = stack.getEnabledProfiles();
+
+        if(layers == null || layers.size() != profiles.size()) {
+            throw new IllegalArgumentException("Need one snapshot for every enabled layer");
+        }
+
+        if(profiles.isEmpty()) { return empty(PolicyProfile.DEFAULT); }
+
+        Map<String, Map<String, Map<String, Map<String, Entry>>>> compiled =
+                new HashMap<String, Map<String, Map<String, Map<String, Entry>>>>();
+        int size = 0;
+
+        for(int layer = 0; layer < layers.size(); layer++) {
+            ProfileSnapshot snapshot = layers.get(layer);
+
+            if(!profiles.get(layer).equals(snapshot.name)) {
+                throw new IllegalArgumentException("Snapshot of " + snapshot.name +
+                                                   " given for layer " + profiles.get(layer));
+            }
+
+            for(Map<String, Map<String, Map<String, Entry>>> purposes :
+                    snapshot.mSettings.values()) {
+                for(Map<String, Map<String, Entry>> apps : purposes.values()) {
+                    for(Map<String, Entry> libraries : apps.values()) {
+                        for(Entry entry : libraries.values()) {
+                            if(add(compiled, new Entry(entry.setting, layer), stack.getRule())) {
+                                size++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return new ProfileSnapshot(stack.getTopProfile(),
+                                   stack.key(),
+                                   stack.getRule(),
+                                   Collections.unmodifiableList(profiles),
+                                   compiled,
+                                   deniedPermissionsOf(compiled),
+                                   size);
+    }
+
+    /**
+     * @return true if this is the default profile, which overlays nothing
+     * */
+    public boolean isDefault() { return mProfiles.isEmpty(); }
+
+    /**
+     * @return the profiles in the snapshot, highest precedence first; empty for the default
+     * profile
+     * */
+    public List<String> getProfiles() { return mProfiles; }
+
+    /**
+     * @param profile the name of a profile
+     * @return true if the profile's settings are in the snapshot
+     * */
+    public boolean contains(String profile) { return mProfiles.contains(profile); }
+
+    /**
+     * @return the number of settings in the snapshot
+     * */
+    public int size() { return mSize; }
+
+    /**
+     * @param permission an android permission
+     * @return false if no setting in the snapshot that could match the permission denies it
+     * */
+    public boolean mayDeny(String permission) {
+        return mDeniedPermissions.contains(permission) || mDeniedPermissions.contains(WILDCARD);
+    }
+
+    /**
+     * Resolve the setting of this snapshot for a request, the same way
+     * CompiledPolicyTable.resolve does, with the combining rule deciding between layers.
+     *
+     * @param app the package name of the app
+     * @param permission the android permission
+     * @param purpose the purpose name
+     * @param library the library qualified name (or library category)
+     * @param libraryCategory the category of library, may be null
+     * @return a copy of the matching setting the combining rule picks, or null if none match
+     * */
+    public PolicyProfileSetting resolve(String app,
+                                        String permission,
+                                        String purpose,
+                                        String library,
+                                        String libraryCategory) {
+        if(mSize == 0) { return null; }
+
+        Entry best = null;
+
+        best = resolvePermission(mSettings.get(permission), app, purpose, library,
+                                 libraryCategory, best);
+
+        if(!WILDCARD.equals(permission)) {
+            best = resolvePermission(mSettings.get(WILDCARD), app, purpose, library,
+                                     libraryCategory, best);
+        }
+
+        return best == null ? null : CompiledPolicyTable.copy(best.setting);
+    }
+
+    private Entry resolvePermission(Map<String, Map<String, Map<String, Entry>>> purposes,
+                                    String app,
+                                    String purpose,
+                                    String library,
+                                    String libraryCategory,
+                                    Entry best) {
+        if(purposes == null) { return best; }
+
+        best = resolvePurpose(purposes.get(purpose), app, library, libraryCategory, best);
+
+        if(!WILDCARD.equals(purpose)) {
+            best = resolvePurpose(purposes.get(WILDCARD), app, library, libraryCategory, best);
+        }
+
+        return best;
+    }
+
+    private Entry resolvePurpose(Map<String, Map<String, Entry>> apps,
+                                 String app,
+                                 String library,
+                                 String libraryCategory,
+                                 Entry best) {
+        if(apps == null) { return best; }
+
+        best = resolveLibrary(apps.get(app), library, libraryCategory, best);
+
+        if(!WILDCARD.equals(app)) {
+            best = resolveLibrary(apps.get(WILDCARD), library, libraryCategory, best);
+        }
+
+        return best;
+    }
+
+    private Entry resolveLibrary(Map<String, Entry> libraries,
+                                 String library,
+                                 String libraryCategory,
+                                 Entry best) {
+        if(libraries == null) { return best; }
+
+        if(library != null) {
+            best = better(libraries.get(library), best, rule);
+        }
+
+        if(libraryCategory != null && !libraryCategory.equals(library)) {
+            best = better(libraries.get(libraryCategory), best, rule);
+        }
+
+        if(!WILDCARD.equals(library) && !WILDCARD.equals(libraryCategory)) {
+            best = better(libraries.get(WILDCARD), best, rule);
+        }
+
+        return best;
+    }
+
+    /*
+     * Add an entry to the lookup structure, keeping the better of it and any entry with the
+     * same key. Returns true if there was no entry with that key.
+     */
+    private static boolean add(Map<String, Map<String, Map<String, Map<String, Entry>>>> settings,
+                               Entry entry,
+                               ProfileStack.CombiningRule rule) {
+        PolicyProfileSetting setting = entry.setting;
+        Map<String, Map<String, Map<String, Entry>>> purposes = settings.get(setting.permission);
+
+        if(purposes == null) {
+            purposes = new HashMap<String, Map<String, Map<String, Entry>>>();
+            settings.put(setting.permission, purposes);
+        }
+
+        Map<String, Map<String, Entry>> apps = purposes.get(setting.purpose);
+
+        if(apps == null) {
+            apps = new HashMap<String, Map<String, Entry>>();
+            purposes.put(setting.purpose, apps);
+        }
+
+        Map<String, Entry> libraries = apps.get(setting.app);
+
+        if(libraries == null) {
+            libraries = new HashMap<String, Entry>(4);
+            apps.put(setting.app, libraries);
+        }
+
+        Entry existing = libraries.get(setting.thirdPartyLibrary);
+        libraries.put(setting.thirdPartyLibrary, better(entry, existing, rule));
+
+        return existing == null;
+    }
+
+    /*
+     * The combining rule. A deny wins first if the rule is deny-overrides, then the higher
+     * layer, then the most recently updated setting, as in a single profile.
+     */
+    private static Entry better(Entry candidate, Entry best, ProfileStack.CombiningRule rule) {
+        if(candidate == null) { return best; }
+        if(best == null) { return candidate; }
+
+        if(rule == ProfileStack.CombiningRule.DENY_OVERRIDES &&
+           candidate.denies != best.denies) {
+            return candidate.denies ? candidate : best;
+        }
+
+        if(candidate.layer != best.layer) {
+            return candidate.layer < best.layer ? candidate : best;
+        }
+
+        return CompiledPolicyTable.newer(candidate.setting, best.setting) == candidate.setting ?
+               candidate : best;
+    }
+
+    private static Set<String> deniedPermissionsOf(
+            Map<String, Map<String, Map<String, Map<String, Entry>>>> settings) {
+        Set<String> denied = new HashSet<String>();
+
+        for(Map<String, Map<String, Map<String, Entry>>> purposes : settings.values()) {
+            for(Map<String, Map<String, Entry>> apps : purposes.values()) {
+                for(Map<String, Entry> libraries : apps.values()) {
+                    for(Entry entry : libraries.values()) {
+                        if(entry.denies) { denied.add(entry.setting.permission); }
+                    }
+                }
+            }
+        }
+
+        return denied;
+    }
+
+    private static List<String> profilesOf(String name) {
+        return PolicyProfile.DEFAULT.equalsIgnoreCase(name) ? Collections.<String>emptyList() :
+                                                             Collections.singletonList(name);
+    }
+
+    /*
+     * A compiled setting and the layer of the stack it came from, 0 being the highest.
+     */
+    private static final class Entry {
+        private final PolicyProfileSetting setting;
+        private final int layer;
+        private final boolean denies;
+
+        private Entry(PolicyProfileSetting setting, int layer) {
+            this.setting = setting;
+            this.layer = layer;
+            denies = DENY.equals(setting.policyAction);
+        }
+    }
+}
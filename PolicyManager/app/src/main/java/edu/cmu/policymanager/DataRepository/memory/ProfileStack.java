@@ -0,0 +1,245 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+
+/**
+ * The policy profiles layered on top of the user's default profile, such as a device owner
+ * profile above a department profile. Layers are listed in order of precedence, highest
+ * first, and each can be switched on or off (for example from its quick setting) without
+ * losing its place. The default profile is always the bottom layer, and is not listed.
+ *
+ * The combining rule decides between the enabled layers when more than one has a setting
+ * for a request:
+ *  - FIRST_APPLICABLE: the highest layer with a matching setting decides. Within a layer,
+ *  the most recently updated setting wins, as it does for a single profile.
+ *  - DENY_OVERRIDES: the request is denied if any matching setting of any layer, the
+ *  default profile included, denies it. Otherwise the first applicable setting decides.
+ *
+ * Stacks never change; the with methods return a new stack. The CompiledPolicyTable compiles
+ * the enabled layers into one ProfileSnapshot, so a request is resolved in the same number
+ * of lookups however many layers are stacked.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class ProfileStack {
+    public enum CombiningRule {
+        FIRST_APPLICABLE,
+        DENY_OVERRIDES
+    }
+
+    /**
+     * One profile in the stack, and whether it is switched on.
+     * */
+    public static final class Layer {
+        public final String profile;
+        public final boolean enabled;
+
+        private Layer(String profile, boolean enabled) {
+            this.profile = profile;
+            this.enabled = enabled;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) { return true; }
+            if(!(o instanceof Layer)) { return false; }
+
+            Layer other = (Layer)o;
+
+            return enabled == other.enabled && profile.equals(other.profile);
+        }
+
+        @Override
+        public int hashCode() { return 31 * profile.hashCode() + (enabled ? 1 : 0); }
+
+        public String toString() { return profile + (enabled ? "" : " (off)"); }
+    }
+
+    private static final ProfileStack EMPTY =
+            new ProfileStack(Collections.<Layer>emptyList(), CombiningRule.FIRST_APPLICABLE);
+
+    private final List<Layer> mLayers;
+    private final CombiningRule mRule;
+    private final String mKey;
+
+    private ProfileStack(List<Layer> layers, CombiningRule rule) {
+        mLayers = Collections.unmodifiableList(layers);
+        mRule = rule;
+        mKey = keyOf(layers, rule);
+    }
+
+    /**
+     * @return a stack with nothing above the default profile
+     * */
+    public static ProfileStack empty() { return EMPTY; }
+
+    /**
+     * @param profile the name of a profile
+     * @return a stack with just this profile above the default profile, or the empty stack
+     * if it is the default profile
+     * */
+    public static ProfileStack of(String profile) {
+        return layered(CombiningRule.FIRST_APPLICABLE, profile);
+    }
+
+    /**
+     * @param rule how to decide between layers that both have a setting for a request
+     * @param profiles the profiles to stack, highest precedence first. The default profile
+     *                 is always the bottom layer, and is skipped if given.
+     * @return a stack with every given profile switched on
+     * */
+    public static ProfileStack layered(CombiningRule rule, String... profiles) {
+        if(rule == null) { throw new IllegalArgumentException("Combining rule is null"); }
+        if(profiles == null) { throw new IllegalArgumentException("Profiles are null"); }
+
+        List<Layer> layers = new ArrayList<Layer>(profiles.length);
+
+        for(String profile : profiles) {
+            if(profile == null) { throw new IllegalArgumentException("Profile name is null"); }
+            if(isDefault(profile) || indexOf(layers, profile) >= 0) { continue; }
+
+            layers.add(new Layer(profile, true));
+        }
+
+        return new ProfileStack(layers, rule);
+    }
+
+    /**
+     * Switch a layer on or off. A profile that is not in the stack yet is put on top when it
+     * is switched on.
+     *
+     * @param profile the name of the profile
+     * @param enabled true to switch the layer on
+     * @return the new stack, or this one if nothing changes
+     * */
+    public ProfileStack withLayer(String profile, boolean enabled) {
+        if(profile == null) { throw new IllegalArgumentException("Profile name is null"); }
+        if(isDefault(profile)) { return this; }
+
+        int index = indexOf(mLayers, profile);
+
+        if(index < 0 && !enabled) { return this; }
+        if(index >= 0 && mLayers.get(index).enabled == enabled) { return this; }
+
+        List<Layer> layers = new ArrayList<Layer>(mLayers);
+
+        if(index < 0) {
+            layers.add(0, new Layer(profile, true));
+        } else {
+            layers.set(index, new Layer(profile, enabled));
+        }
+
+        return new ProfileStack(layers, mRule);
+    }
+
+    /**
+     * @param rule how to decide between layers
+     * @return the new stack, or this one if it already uses the rule
+     * */
+    public ProfileStack withRule(CombiningRule rule) {
+        if(rule == null) { throw new IllegalArgumentException("Combining rule is null"); }
+
+        return rule == mRule ? this : new ProfileStack(new ArrayList<Layer>(mLayers), rule);
+    }
+
+    /**
+     * @return every layer above the default profile, highest precedence first
+     * */
+    public List<Layer> getLayers() { return mLayers; }
+
+    /**
+     * @return the profiles of the layers that are switched on, highest precedence first
+     * */
+    public List<String> getEnabledProfiles() {
+        List<String> profiles = new ArrayList<String>(mLayers.size());
+
+        for(Layer layer : mLayers) {
+            if(layer.enabled) { profiles.add(layer.profile); }
+        }
+
+        return profiles;
+    }
+
+    /**
+     * @param profile the name of a profile
+     * @return true if the profile is a layer of this stack and is switched on
+     * */
+    public boolean isEnabled(String profile) {
+        int index = indexOf(mLayers, profile);
+        return index >= 0 && mLayers.get(index).enabled;
+    }
+
+    /**
+     * @return the name of the highest layer that is switched on, or the default profile
+     * */
+    public String getTopProfile() {
+        for(Layer layer : mLayers) {
+            if(layer.enabled) { return layer.profile; }
+        }
+
+        return PolicyProfile.DEFAULT;
+    }
+
+    public CombiningRule getRule() { return mRule; }
+
+    /**
+     * @return a String that is equal for two stacks exactly when they resolve requests the
+     * same way: the same enabled profiles in the same order, with the same rule
+     * */
+    public String key() { return mKey; }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) { return true; }
+        if(!(o instanceof ProfileStack)) { return false; }
+
+        ProfileStack other = (ProfileStack)o;
+
+        return mRule == other.mRule && mLayers.equals(other.mLayers);
+    }
+
+    @Override
+    public int hashCode() { return 31 * mRule.hashCode() + mLayers.hashCode(); }
+
+    public String toString() {
+        return "ProfileStack [" + mRule.name().toLowerCase(Locale.US) + ", " + mLayers + "]";
+    }
+
+    /*
+     * A single profile keys as its own name, so it is cached under the same name as when
+     * it was the only profile that could be active.
+     */
+    private static String keyOf(List<Layer> layers, CombiningRule rule) {
+        StringBuilder key = new StringBuilder();
+        int enabled = 0;
+
+        for(Layer layer : layers) {
+            if(!layer.enabled) { continue; }
+
+            if(enabled++ > 0) { key.append(" > "); }
+            key.append(layer.profile);
+        }
+
+        if(enabled == 0) { return PolicyProfile.DEFAULT; }
+        if(enabled == 1 && rule == CombiningRule.FIRST_APPLICABLE) { return key.toString(); }
+
+        return key.append(" [").append(rule.name()).append(']').toString();
+    }
+
+    private static int indexOf(List<Layer> layers, String profile) {
+        for(int i = 0; i < layers.size(); i++) {
+            if(layers.get(i).profile.equals(profile)) { return i; }
+        }
+
+        return -1;
+    }
+
+    private static boolean isDefault(String profile) {
+        return PolicyProfile.DEFAULT.equalsIgnoreCase(profile);
+    }
+}
@@ -0,0 +1,215 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timer wheel. Items are scheduled to expire at a time in milliseconds, and
+ * handed to the listener once the wheel is advanced past that time.
+ *
+ * Time is split into ticks. The first level has one slot per tick for the next 64 ticks, and
+ * each level above it has slots 64 times as wide, so scheduling and expiring an item is
+ * constant time no matter how far out it expires. When the wheel passes the start of a slot
+ * on a higher level, the items in it are moved down to the level that matches how long they
+ * have left.
+ *
+ * Items are expired once the time is past their deadline, up to one tick late, so anyone
+ * checking an item before it is expired should compare the time themselves.
+ *
+ * Not thread-safe; callers must hold a lock while using the wheel.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class TimerWheel<T> {
+    /**
+     * Receives the items of the wheel as they expire.
+     * */
+    public interface ExpiryListener<T> {
+        void expired(T item);
+    }
+
+    private static final int BITS_PER_LEVEL = 6,
+                             SLOTS_PER_LEVEL = 1 << BITS_PER_LEVEL,
+                             SLOT_MASK = SLOTS_PER_LEVEL - 1,
+                             LEVELS = 4;
+
+    private static final long SPAN = 1L << (BITS_PER_LEVEL * LEVELS);
+
+    private final long mTickMillis;
+    private final ExpiryListener<T> mListener;
+    private final Timer<T>[][] mSlots;
+
+    private long mCurrentTick;
+    private int mSize;
+
+    /**
+     * @param tickMillis the width of a tick in milliseconds
+     * @param nowMillis the time the wheel starts at
+     * @param listener receives expired items
+     * */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, long nowMillis, ExpiryListener<T> listener) {
+        if(tickMillis <= 0) {
+            throw new IllegalArgumentException("Ticks must be at least 1 ms");
+        }
+
+        if(listener == null) {
+            throw new IllegalArgumentException("Timer wheel needs an expiry listener");
+        }
+
+        mTickMillis = tickMillis;
+        mListener = listener;
+        mSlots = (Timer<T>[][])new Timer<?>[LEVELS][SLOTS_PER_LEVEL];
+        mCurrentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedule an item to expire. An item that is already due is expired right away.
+     *
+     * @param item the item
+     * @param deadlineMillis the time the item expires at
+     * */
+    public void schedule(T item, long deadlineMillis) {
+        /* The tick after the deadline's, so an item is never expired at or before it. */
+        long deadlineTick = deadlineMillis / mTickMillis + 1;
+
+        insert(new Timer<T>(item, deadlineTick));
+    }
+
+    /**
+     * Expire every item whose deadline has passed, in no particular order.
+     *
+     * @param nowMillis the current time
+     * */
+    public void advance(long nowMillis) {
+        long targetTick = nowMillis / mTickMillis;
+
+        if(targetTick <= mCurrentTick) { return; }
+
+        if(mSize == 0) {
+            mCurrentTick = targetTick;
+            return;
+        }
+
+        /*
+         * Stepping one tick at a time costs a slot per tick. After a long pause it is cheaper
+         * to take every item out and schedule it again from the new time.
+         */
+        if(targetTick - mCurrentTick > SLOTS_PER_LEVEL) {
+            List<Timer<T>> timers = removeAll();
+            mCurrentTick = targetTick;
+
+            for(Timer<T> timer : timers) { insert(timer); }
+
+            return;
+        }
+
+        while(mCurrentTick < targetTick) {
+            mCurrentTick++;
+
+            for(int level = LEVELS - 1; level > 0; level--) {
+                long levelMask = (1L << (BITS_PER_LEVEL * level)) - 1;
+
+                if((mCurrentTick & levelMask) == 0) { cascade(level); }
+            }
+
+            int slot = (int)(mCurrentTick & SLOT_MASK);
+            Timer<T> timer = mSlots[0][slot];
+            mSlots[0][slot] = null;
+
+            while(timer != null) {
+                Timer<T> next = timer.next;
+                timer.next = null;
+                mSize--;
+                mListener.expired(timer.item);
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * Remove every item without expiring it.
+     * */
+    public void clear() {
+        for(Timer<T>[] slots : mSlots) {
+            for(int i = 0; i < slots.length; i++) { slots[i] = null; }
+        }
+
+        mSize = 0;
+    }
+
+    /**
+     * @return the number of items waiting to expire
+     * */
+    public int size() { return mSize; }
+
+    private void insert(Timer<T> timer) {
+        long delta = timer.deadlineTick - mCurrentTick;
+
+        if(delta <= 0) {
+            mListener.expired(timer.item);
+            return;
+        }
+
+        /* Past the top level, park the item in the furthest slot and place it again later. */
+        long placementTick = delta < SPAN ? timer.deadlineTick : mCurrentTick + SPAN - 1;
+        int level = 0;
+
+        while(level < LEVELS - 1 &&
+              (placementTick - mCurrentTick) >= (1L << (BITS_PER_LEVEL * (level + 1)))) {
+            level++;
+        }
+
+        int slot = (int)((placementTick >>> (BITS_PER_LEVEL * level)) & SLOT_MASK);
+
+        timer.next = mSlots[level][slot];
+        mSlots[level][slot] = timer;
+        mSize++;
+    }
+
+    private void cascade(int level) {
+        int slot = (int)((mCurrentTick >>> (BITS_PER_LEVEL * level)) & SLOT_MASK);
+        Timer<T> timer = mSlots[level][slot];
+        mSlots[level][slot] = null;
+
+        while(timer != null) {
+            Timer<T> next = timer.next;
+            timer.next = null;
+            mSize--;
+            insert(timer);
+            timer = next;
+        }
+    }
+
+    private List<Timer<T>> removeAll() {
+        List<Timer<T>> timers = new ArrayList<Timer<T>>(mSize);
+
+        for(Timer<T>[] slots : mSlots) {
+            for(int i = 0; i < slots.length; i++) {
+                Timer<T> timer = slots[i];
+                slots[i] = null;
+
+                while(timer != null) {
+                    Timer<T> next = timer.next;
+                    timer.next = null;
+                    timers.add(timer);
+                    timer = next;
+                }
+            }
+        }
+
+        mSize = 0;
+        return timers;
+    }
+
+    private static final class Timer<T> {
+        private final T item;
+        private final long deadlineTick;
+        private Timer<T> next;
+
+        private Timer(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
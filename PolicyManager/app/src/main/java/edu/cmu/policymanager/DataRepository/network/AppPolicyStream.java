@@ -0,0 +1,157 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.db.model.OffDevicePolicyDBModel;
+
+/**
+ * Reads a list of app policies, as in res/raw/play_store_app_policies, straight into
+ * off-device policy rows, handing them over in batches so they can be inserted one
+ * transaction per batch:
+ *
+ * [{"policies": [...], "package": "com.example", "category": "Tools"}, ...]
+ *
+ * The "policies" array is copied token by token into the row's JSON string, so no object
+ * tree is built for an app. Keys may come in any order; apps without a package name or
+ * policies are skipped.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class AppPolicyStream {
+    public interface BatchConsumer {
+        /**
+         * @param batch the next rows read, at most the batch size. The list is not reused.
+         * */
+        void accept(List<OffDevicePolicyDBModel> batch);
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    private static final String KEY_PACKAGE = "package",
+                                KEY_POLICIES = "policies";
+
+    private AppPolicyStream() {}
+
+    /**
+     * Read every app policy from the source.
+     *
+     * @param source the JSON array of app policies; it is not closed
+     * @param batchSize how many rows to hand over at a time
+     * @param consumer takes each batch of rows
+     * @return the number of rows read
+     * @throws IOException if the source cannot be read or is not a list of app policies
+     * */
+    public static int read(Reader source, int batchSize, BatchConsumer consumer)
+            throws IOException {
+        if(source == null || consumer == null) {
+            throw new IllegalArgumentException("Source or consumer is null");
+        }
+
+        if(batchSize < 1) { throw new IllegalArgumentException("Batch size must be positive"); }
+
+        JsonReader reader = new JsonReader(source);
+        List<OffDevicePolicyDBModel> batch = new ArrayList<OffDevicePolicyDBModel>(batchSize);
+        int rows = 0;
+
+        reader.beginArray();
+
+        while(reader.hasNext()) {
+            OffDevicePolicyDBModel row = readAppPolicy(reader);
+
+            if(row == null) { continue; }
+
+            batch.add(row);
+            rows++;
+
+            if(batch.size() == batchSize) {
+                consumer.accept(batch);
+                batch = new ArrayList<OffDevicePolicyDBModel>(batchSize);
+            }
+        }
+
+        reader.endArray();
+
+        if(!batch.isEmpty()) { consumer.accept(batch); }
+
+        return rows;
+    }
+
+    private static OffDevicePolicyDBModel readAppPolicy(JsonReader reader) throws IOException {
+        String packageName = null, policies = null;
+
+        reader.beginObject();
+
+        while(reader.hasNext()) {
+            String key = reader.nextName();
+
+            if(KEY_PACKAGE.equals(key) && reader.peek() == JsonToken.STRING) {
+                packageName = reader.nextString();
+            } else if(KEY_POLICIES.equals(key) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                StringWriter out = new StringWriter();
+                JsonWriter writer = new JsonWriter(out);
+
+                copy(reader, writer);
+                writer.flush();
+                policies = out.toString();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+
+        if(packageName == null || packageName.isEmpty() || policies == null) { return null; }
+
+        OffDevicePolicyDBModel row = new OffDevicePolicyDBModel();
+        row.packageName = packageName;
+        row.odp = policies;
+
+        return row;
+    }
+
+    private static void copy(JsonReader reader, JsonWriter writer) throws IOException {
+        switch(reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while(reader.hasNext()) { copy(reader, writer); }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while(reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copy(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                writer.value(new BigDecimal(reader.nextString()));
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                throw new IOException("Unexpected " + reader.peek() + " in app policy");
+        }
+    }
+}
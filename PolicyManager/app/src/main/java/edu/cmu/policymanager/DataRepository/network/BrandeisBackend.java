@@ -1,61 +1,95 @@
 package edu.cmu.policymanager.DataRepository.network;
 
-import android.Manifest;
+import android.content.Context;
 
-import java.util.ArrayList;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
-
-import edu.cmu.policymanager.DataRepository.db.model.PermissionInfo;
-import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
-import edu.cmu.policymanager.DataRepository.db.model.PurposeInfo;
-import edu.cmu.policymanager.DataRepository.db.model.ThirdPartyLibInfo;
-import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
-import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
-import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
-import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
-import edu.cmu.policymanager.application.PolicyManagerApplication;
-import edu.cmu.policymanager.viewmodel.W4PData;
-import edu.cmu.policymanager.viewmodel.W4PGraph;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+import edu.cmu.policymanager.R;
 
 /**
  * Emulates some server back-end that has things like policy profiles or any
  * crowd-sourced data etc.
  *
+ * It stands in for a profile server with the profiles bundled in res/raw, in the
+ * ProfileStream format. Each bundled profile has a single version, so it answers with the
+ * whole profile, or that nothing changed if that version is already installed.
+ *
  * Created by Mike Czapik (Carnegie Mellon University) on 8/15/2018.
  */
 
-public class BrandeisBackend {
-    public BrandeisBackend() {}
-
-    public List<PolicyProfileSetting> getSampleProfileSettings() {
-        List<PolicyProfileSetting> settings = new ArrayList<>(5);
-
-        final String PROFILE_NAME = "Organizational Profile";
-
-        PolicyProfileSetting noFineLocation = new PolicyProfileSetting();
-        noFineLocation.profileName = PROFILE_NAME;
-        noFineLocation.app = PolicyManagerApplication.SYMBOL_ALL;
-        noFineLocation.permission = DangerousPermissions.FINE_LOCATION.androidPermission.toString();
-        noFineLocation.purpose = Purposes.DISPLAY_ADVERTISEMENT.name.toString();
-        noFineLocation.thirdPartyLibrary = ThirdPartyLibraries.THIRD_PARTY_USE;
-        noFineLocation.policyAction = UserPolicy.Policy.DENY.name();
-        settings.add(noFineLocation);
-
-        PolicyProfileSetting noCoarseLocation = new PolicyProfileSetting();
-        noCoarseLocation.profileName = PROFILE_NAME;
-        noCoarseLocation.app = PolicyManagerApplication.SYMBOL_ALL;
-        noCoarseLocation.permission =
-                DangerousPermissions.COARSE_LOCATION.androidPermission.toString();
-        noCoarseLocation.purpose = Purposes.DISPLAY_ADVERTISEMENT.toString();
-        noCoarseLocation.thirdPartyLibrary = ThirdPartyLibraries.THIRD_PARTY_USE;
-        noCoarseLocation.policyAction = UserPolicy.Policy.DENY.name();
-        settings.add(noCoarseLocation);
-
-        return settings;
+public class BrandeisBackend implements ProfileSource {
+    private static final Map<String, Integer> BUNDLED_PROFILES;
+
+    static {
+        Map<String, Integer> profiles = new HashMap<String, Integer>();
+        profiles.put(PolicyProfile.ORGANIZATIONAL, R.raw.organizational_profile);
+
+        BUNDLED_PROFILES = Collections.unmodifiableMap(profiles);
+    }
+
+    private final Context mContext;
+    private final Map<String, ProfileStream.Document> mLoaded =
+            new ConcurrentHashMap<String, ProfileStream.Document>();
+
+    public BrandeisBackend(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public Fetch fetch(String profile, String etag) throws IOException {
+        if(profile == null || profile.isEmpty()) {
+            throw new IllegalArgumentException("Profile name is empty");
+        }
+
+        ProfileStream.Document document = load(profile);
+        String current = etagOf(document);
+
+        if(current.equals(etag)) { return Fetch.notModified(etag); }
+
+        return Fetch.of(current, document);
+    }
+
+    /**
+     * @param document a full profile
+     * @return the entity tag of its version
+     * */
+    public static String etagOf(ProfileStream.Document document) {
+        return "\"" + document.version + "\"";
+    }
+
+    private ProfileStream.Document load(String profile) throws IOException {
+        ProfileStream.Document document = mLoaded.get(profile);
+
+        if(document != null) { return document; }
+
+        Integer resource = BUNDLED_PROFILES.get(profile);
+
+        if(resource == null) { throw new IOException("No bundled profile named " + profile); }
+
+        Reader reader = new BufferedReader(new InputStreamReader(
+                mContext.getResources().openRawResource(resource), StandardCharsets.UTF_8));
+
+        try {
+            document = ProfileStream.read(reader);
+        } finally {
+            reader.close();
+        }
+
+        if(!profile.equals(document.profile) || document.isDelta()) {
+            throw new IOException("Bundled profile " + profile + " is not a full profile of it");
+        }
+
+        mLoaded.put(profile, document);
+
+        return document;
     }
-}
\ No newline at end of file
+}
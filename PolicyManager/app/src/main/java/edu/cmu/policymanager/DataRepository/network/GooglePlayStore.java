@@ -1,18 +1,19 @@
 package edu.cmu.policymanager.DataRepository.network;
 
 import android.content.Context;
-import android.util.JsonReader;
-
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.db.model.OffDevicePolicyDBModel;
 import edu.cmu.policymanager.R;
 
 import static edu.cmu.policymanager.application.PolicyManagerApplication.KEY_APPLICATION;
@@ -41,73 +42,41 @@ public class GooglePlayStore {
     }
 
     /**
-     * Grab app policies from external resource file, and add each JSON string to the
-     * DataRepository.
+     * Stream the app policies from the external resource file into the DataRepository,
+     * AppPolicyStream.DEFAULT_BATCH_SIZE apps per transaction. Waits until every batch has
+     * been written.
+     *
+     * @return the number of app policies installed
      * */
-    public void installAppPolicies() {
+    public int installAppPolicies() {
         InputStream stream = context.getResources().openRawResource(R.raw.play_store_app_policies);
-        JsonReader streamReader = new JsonReader(new InputStreamReader(stream));
+        Reader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        int installed = 0;
 
         try {
-            streamReader.beginArray();
-
-            while(streamReader.hasNext()) {
-                JsonObject appPolicy = readAppPolicyFromStream(streamReader);
-
-                String packageName = appPolicy.get("package").getAsString();
-                String jsonString = appPolicy.get("policies").toString();
-
-                DataRepository.getInstance().addODP(packageName, jsonString);
-            }
-
-            streamReader.endArray();
+            installed = AppPolicyStream.read(reader,
+                                             AppPolicyStream.DEFAULT_BATCH_SIZE,
+                                             new AppPolicyStream.BatchConsumer() {
+                @Override
+                public void accept(List<OffDevicePolicyDBModel> batch) {
+                    DataRepository.getInstance().addODPs(batch);
+                }
+            });
         } catch(IOException ioe) {
             ioe.printStackTrace();
+        } finally {
+            try {
+                reader.close();
+            } catch(IOException ioe) {
+                ioe.printStackTrace();
+            }
         }
 
         Map<String, String> installCompleted = new HashMap<String, String>();
         installCompleted.putIfAbsent(KEY_ARE_POLICIES_INSTALLED, "true");
 
         DataRepository.getInstance().addMetadata(KEY_APPLICATION, installCompleted);
-    }
-
-    private JsonObject readAppPolicyFromStream(final JsonReader reader) {
-        JsonObject appPolicy = new JsonObject();
-        JsonArray policies = new JsonArray();
-
-        try {
-            reader.beginObject();
-            String keyPolicies = reader.nextName();
-
-            reader.beginArray();
-
-            while(reader.hasNext()) {
-                reader.beginObject();
-                JsonObject policy = new JsonObject();
-
-                while(reader.hasNext()) {
-                    policy.addProperty(reader.nextName(), reader.nextString());
-                }
-
-                policies.add(policy);
-                reader.endObject();
-            }
-
-            appPolicy.add(keyPolicies, policies);
-            reader.endArray();
-
-            String keyPackageName = reader.nextName(),
-                   valuePackageName = reader.nextString();
-            appPolicy.addProperty(keyPackageName, valuePackageName);
-
-            String keyCategoryName = reader.nextName(),
-                   valueCategoryName = reader.nextString();
-
-            reader.endObject();
-        } catch(IOException ioe) {
-            ioe.printStackTrace();
-        }
 
-        return appPolicy;
+        return installed;
     }
-}
\ No newline at end of file
+}
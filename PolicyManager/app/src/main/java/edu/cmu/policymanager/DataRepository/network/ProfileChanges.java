@@ -0,0 +1,164 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+/**
+ * The rows to insert, update and delete to bring the installed rules of a profile to a new
+ * version, so applying the version only touches the rules that changed.
+ *
+ * A profile has one rule per app, permission, purpose and library. If the installed rules
+ * have more than one for a key, the one the CompiledPolicyTable enforces (most recently
+ * updated, then lowest id) is kept and the others are deleted.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class ProfileChanges {
+    public static final ProfileChanges NONE =
+            new ProfileChanges(Collections.<PolicyProfileSetting>emptyList(),
+                               Collections.<PolicyProfileSetting>emptyList(),
+                               Collections.<PolicyProfileSetting>emptyList());
+
+    /* New rows, without ids. */
+    public final List<PolicyProfileSetting> inserted;
+
+    /* Installed rows, with their ids, that get a new action. */
+    public final List<PolicyProfileSetting> updated;
+
+    /* Installed rows, with their ids, to delete. */
+    public final List<PolicyProfileSetting> removed;
+
+    private ProfileChanges(List<PolicyProfileSetting> inserted,
+                           List<PolicyProfileSetting> updated,
+                           List<PolicyProfileSetting> removed) {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.removed = removed;
+    }
+
+    /**
+     * @param installed the rules of the profile as they are in the database, with their ids.
+     *                  They are not changed.
+     * @param update the full profile or the delta to apply. For a delta, the installed rules
+     *               must be those of its base version.
+     * @return the changes, with every row's profile name set to the update's profile
+     * */
+    public static ProfileChanges between(List<PolicyProfileSetting> installed,
+                                         ProfileStream.Document update) {
+        if(installed == null || update == null) {
+            throw new IllegalArgumentException("Installed rules or update is null");
+        }
+
+        List<PolicyProfileSetting> inserted = new ArrayList<PolicyProfileSetting>(),
+                                   updated = new ArrayList<PolicyProfileSetting>(),
+                                   removed = new ArrayList<PolicyProfileSetting>();
+        Map<String, PolicyProfileSetting> current =
+                new HashMap<String, PolicyProfileSetting>(installed.size() * 2);
+
+        for(PolicyProfileSetting setting : installed) {
+            String key = ProfileStream.keyOf(setting);
+            PolicyProfileSetting kept = current.get(key);
+
+            if(kept == null) {
+                current.put(key, setting);
+            } else if(enforcedOver(setting, kept)) {
+                current.put(key, setting);
+                removed.add(copy(update.profile, kept, kept.policyAction));
+            } else {
+                removed.add(copy(update.profile, setting, setting.policyAction));
+            }
+        }
+
+        Map<String, PolicyProfileSetting> wanted =
+                new LinkedHashMap<String, PolicyProfileSetting>(update.put.size() * 2);
+
+        for(PolicyProfileSetting rule : update.put) { wanted.put(ProfileStream.keyOf(rule), rule); }
+
+        for(Map.Entry<String, PolicyProfileSetting> rule : wanted.entrySet()) {
+            PolicyProfileSetting existing = current.get(rule.getKey());
+
+            if(existing == null) {
+                PolicyProfileSetting row =
+                        copy(update.profile, rule.getValue(), rule.getValue().policyAction);
+                row.id = 0;
+                row.lastUpdated = -1L;
+                inserted.add(row);
+            } else if(!ProfileStream.sameAction(existing, rule.getValue())) {
+                updated.add(copy(update.profile, existing, rule.getValue().policyAction));
+            }
+        }
+
+        if(update.isDelta()) {
+            for(PolicyProfileSetting rule : update.remove) {
+                String key = ProfileStream.keyOf(rule);
+                PolicyProfileSetting existing = current.get(key);
+
+                if(existing != null && !wanted.containsKey(key)) {
+                    removed.add(copy(update.profile, existing, existing.policyAction));
+                }
+            }
+        } else {
+            for(Map.Entry<String, PolicyProfileSetting> setting : current.entrySet()) {
+                if(!wanted.containsKey(setting.getKey())) {
+                    PolicyProfileSetting existing = setting.getValue();
+                    removed.add(copy(update.profile, existing, existing.policyAction));
+                }
+            }
+        }
+
+        return new ProfileChanges(inserted, updated, removed);
+    }
+
+    /**
+     * @return true if applying the update changes nothing
+     * */
+    public boolean isEmpty() { return size() == 0; }
+
+    /**
+     * @return the number of rows to insert, update and delete
+     * */
+    public int size() { return inserted.size() + updated.size() + removed.size(); }
+
+    public String toString() {
+        return inserted.size() + " inserted, " + updated.size() + " updated, " +
+               removed.size() + " removed";
+    }
+
+    /*
+     * The same order the CompiledPolicyTable picks between two settings for one key.
+     */
+    private static boolean enforcedOver(PolicyProfileSetting candidate,
+                                        PolicyProfileSetting best) {
+        long candidateUpdated = timestampOf(candidate), bestUpdated = timestampOf(best);
+
+        if(candidateUpdated != bestUpdated) { return candidateUpdated > bestUpdated; }
+
+        return candidate.id < best.id;
+    }
+
+    private static long timestampOf(PolicyProfileSetting setting) {
+        return setting.lastUpdated == null ? -1L : setting.lastUpdated;
+    }
+
+    private static PolicyProfileSetting copy(String profile,
+                                             PolicyProfileSetting setting,
+                                             String action) {
+        PolicyProfileSetting copy = new PolicyProfileSetting();
+        copy.id = setting.id;
+        copy.profileName = profile;
+        copy.app = setting.app;
+        copy.permission = setting.permission;
+        copy.purpose = setting.purpose;
+        copy.thirdPartyLibrary = setting.thirdPartyLibrary;
+        copy.lastUpdated = setting.lastUpdated;
+        copy.policyAction = action;
+
+        return copy;
+    }
+}
@@ -0,0 +1,167 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches policy profiles from a profile server over HTTP, as ProfileStream documents:
+ *
+ * GET {server}/profiles/{profile name}
+ *
+ * Once a profile is installed, the entity tag of its version is sent as If-None-Match. The
+ * server answers 304 Not Modified if that version is current. Otherwise the client asks for
+ * a delta (A-IM: profile-delta, RFC 3229), and the server either answers 226 IM Used with
+ * only the changes since that version, or 200 OK with the whole profile, for example when
+ * it no longer knows the installed version. Responses may be gzipped.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class ProfileClient implements ProfileSource {
+    public static final String DELTA_ENCODING = "profile-delta",
+                               CONTENT_TYPE = "application/json";
+
+    public static final int HTTP_IM_USED = 226;
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000,
+                             DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    private static final String PROFILES_PATH = "profiles/";
+
+    private final URL mServer;
+    private final int mConnectTimeoutMillis, mReadTimeoutMillis;
+
+    /**
+     * @param server the base URL of the profile server
+     * */
+    public ProfileClient(URL server) {
+        this(server, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param server the base URL of the profile server
+     * @param connectTimeoutMillis how long to wait for a connection
+     * @param readTimeoutMillis how long to wait for the server to send data
+     * */
+    public ProfileClient(URL server, int connectTimeoutMillis, int readTimeoutMillis) {
+        if(server == null) { throw new IllegalArgumentException("Server URL is null"); }
+
+        if(connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeouts cannot be negative");
+        }
+
+        String base = server.toExternalForm();
+
+        try {
+            mServer = base.endsWith("/") ? server : new URL(base + "/");
+        } catch(IOException e) {
+            throw new IllegalArgumentException("Invalid server URL " + server, e);
+        }
+
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Fetch fetch(String profile, String etag) throws IOException {
+        if(profile == null || profile.isEmpty()) {
+            throw new IllegalArgumentException("Profile name is empty");
+        }
+
+        HttpURLConnection connection = (HttpURLConnection)urlOf(profile).openConnection();
+
+        try {
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            connection.setUseCaches(false);
+            connection.setRequestProperty("Accept", CONTENT_TYPE);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+
+            if(etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+                connection.setRequestProperty("A-IM", DELTA_ENCODING);
+            }
+
+            int status = connection.getResponseCode();
+
+            if(status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if(etag == null) {
+                    throw new IOException("Profile server answered 304 without a version");
+                }
+
+                return Fetch.notModified(etag);
+            }
+
+            if(status != HttpURLConnection.HTTP_OK && status != HTTP_IM_USED) {
+                throw new IOException("Profile server answered " + status + " for " + profile);
+            }
+
+            boolean delta = status == HTTP_IM_USED;
+
+            if(delta && !usesDelta(connection.getHeaderField("IM"))) {
+                throw new IOException("Profile server sent an unknown instance manipulation");
+            }
+
+            ProfileStream.Document document;
+            Reader reader = bodyOf(connection);
+
+            try {
+                document = ProfileStream.read(reader);
+            } finally {
+                reader.close();
+            }
+
+            if(!profile.equals(document.profile)) {
+                throw new IOException("Asked for " + profile + " but got " + document.profile);
+            }
+
+            if(delta != document.isDelta()) {
+                throw new IOException("Profile server answered " + status + " with " +
+                                      (document.isDelta() ? "a delta" : "a full profile"));
+            }
+
+            return Fetch.of(connection.getHeaderField("ETag"), document);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    public URL getServer() { return mServer; }
+
+    public String toString() { return "ProfileClient [" + mServer + "]"; }
+
+    private URL urlOf(String profile) throws IOException {
+        String name = URLEncoder.encode(profile, "UTF-8").replace("+", "%20");
+        return new URL(mServer, PROFILES_PATH + name);
+    }
+
+    private static Reader bodyOf(HttpURLConnection connection) throws IOException {
+        InputStream body = connection.getInputStream();
+        String encoding = connection.getContentEncoding();
+
+        if(encoding != null && encoding.toLowerCase(Locale.US).contains("gzip")) {
+            body = new GZIPInputStream(body);
+        }
+
+        return new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    }
+
+    private static boolean usesDelta(String instanceManipulations) {
+        if(instanceManipulations == null) { return false; }
+
+        for(String manipulation : instanceManipulations.split(",")) {
+            if(DELTA_ENCODING.equalsIgnoreCase(manipulation.trim())) { return true; }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,67 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import java.io.IOException;
+
+/**
+ * Where policy profiles are synced from. The ProfileClient fetches them from a profile
+ * server over HTTP; the BrandeisBackend stands in for one with the profiles bundled in the
+ * app. Implementations must be safe to call from several threads at once.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public interface ProfileSource {
+    /**
+     * Fetch the current version of a profile.
+     *
+     * @param profile the name of the profile
+     * @param etag the entity tag of the version already installed, or null if the profile is
+     *             not installed. Given a tag, the source may answer that nothing changed, or
+     *             with only the changes since that version.
+     * @return what the source answered
+     * @throws IOException if the profile cannot be fetched
+     * */
+    Fetch fetch(String profile, String etag) throws IOException;
+
+    final class Fetch {
+        public enum Status {
+            /* The installed version is current. */
+            NOT_MODIFIED,
+            /* The document is the whole profile. */
+            FULL,
+            /* The document only has the changes since the installed version. */
+            DELTA
+        }
+
+        public final Status status;
+        public final String etag;
+        public final ProfileStream.Document document;
+
+        private Fetch(Status status, String etag, ProfileStream.Document document) {
+            this.status = status;
+            this.etag = etag;
+            this.document = document;
+        }
+
+        /**
+         * @param etag the entity tag of the installed version
+         * */
+        public static Fetch notModified(String etag) {
+            return new Fetch(Status.NOT_MODIFIED, etag, null);
+        }
+
+        /**
+         * @param etag the entity tag of the version fetched, or null if the source has none
+         * @param document the profile or the delta
+         * */
+        public static Fetch of(String etag, ProfileStream.Document document) {
+            if(document == null) { throw new IllegalArgumentException("Document is null"); }
+
+            return new Fetch(document.isDelta() ? Status.DELTA : Status.FULL, etag, document);
+        }
+
+        public String toString() {
+            return status + (etag == null ? "" : " " + etag) +
+                   (document == null ? "" : " " + document);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+/**
+ * Reads and writes policy profiles in the compact format the profile server sends them in:
+ *
+ * {"profile": "Organizational Profile", "version": "7", "base": "6",
+ *  "put": [["*", "android.permission.ACCESS_FINE_LOCATION", "Displaying Advertisement",
+ *           "Third Party Use", "DENY"], [0, 1, 2, 3, "ALLOW"], ...],
+ *  "remove": [["*", 1, 2, "App Internal Usage"], ...]}
+ *
+ * Each row is an array of app, permission, purpose, library and (for "put" only) action.
+ * The first time a string appears in the document it is written out; after that it is
+ * written as its index among the strings seen so far, so a profile with thousands of rules
+ * over a few permissions and purposes stays small and is read without building an object
+ * tree.
+ *
+ * A full profile has no "base" and no "remove"; its "put" rows are every rule of the
+ * profile. A delta names the version it applies to as "base", and lists only the rules
+ * that were added or changed ("put") and the ones that were removed ("remove"). Unknown
+ * keys are skipped, so the server can add to the format.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class ProfileStream {
+    private static final String KEY_PROFILE = "profile",
+                                KEY_VERSION = "version",
+                                KEY_BASE = "base",
+                                KEY_PUT = "put",
+                                KEY_REMOVE = "remove";
+
+    /* Separates the parts of a rule key; cannot appear in a permission, purpose or library. */
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * One version of a profile, or the changes between two versions of it.
+     * */
+    public static final class Document {
+        public final String profile, version, base;
+        public final List<PolicyProfileSetting> put, remove;
+
+        private Document(String profile,
+                         String version,
+                         String base,
+                         List<PolicyProfileSetting> put,
+                         List<PolicyProfileSetting> remove) {
+            if(profile == null || profile.isEmpty()) {
+                throw new IllegalArgumentException("Profile name is empty");
+            }
+
+            if(version == null || version.isEmpty()) {
+                throw new IllegalArgumentException("Profile version is empty");
+            }
+
+            if(put == null || remove == null) {
+                throw new IllegalArgumentException("Profile rules are null");
+            }
+
+            this.profile = profile;
+            this.version = version;
+            this.base = base;
+            this.put = Collections.unmodifiableList(put);
+            this.remove = Collections.unmodifiableList(remove);
+        }
+
+        /**
+         * @param profile the name of the profile
+         * @param version the version of the profile
+         * @param settings every rule of the profile
+         * @return the full profile
+         * */
+        public static Document full(String profile,
+                                    String version,
+                                    List<PolicyProfileSetting> settings) {
+            return new Document(profile,
+                                version,
+                                null,
+                                settings,
+                                Collections.<PolicyProfileSetting>emptyList());
+        }
+
+        /**
+         * @param profile the name of the profile
+         * @param version the version the delta brings the profile to
+         * @param base the version the delta applies to
+         * @param put the rules that were added or changed since the base version
+         * @param remove the rules that were removed since the base version
+         * @return the delta
+         * */
+        public static Document delta(String profile,
+                                     String version,
+                                     String base,
+                                     List<PolicyProfileSetting> put,
+                                     List<PolicyProfileSetting> remove) {
+            if(base == null || base.isEmpty()) {
+                throw new IllegalArgumentException("Base version of a delta is empty");
+            }
+
+            return new Document(profile, version, base, put, remove);
+        }
+
+        /**
+         * @return true if this only lists the changes since the base version
+         * */
+        public boolean isDelta() { return base != null; }
+
+        public String toString() {
+            return profile + " " + (isDelta() ? base + " -> " : "") + version + " (" +
+                   put.size() + " put, " + remove.size() + " removed)";
+        }
+    }
+
+    private ProfileStream() {}
+
+    /**
+     * Read a full profile or a delta.
+     *
+     * @param source the document; it is not closed
+     * @return the document, with every rule's profile name set
+     * @throws IOException if the source cannot be read or is not a profile
+     * */
+    public static Document read(Reader source) throws IOException {
+        if(source == null) { throw new IllegalArgumentException("Source is null"); }
+
+        try {
+            return readDocument(new JsonReader(source));
+        } catch(IllegalStateException | NumberFormatException e) {
+            throw new IOException("Not a profile: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write a full profile or a delta.
+     *
+     * @param document the document to write
+     * @param destination where to write it; it is flushed but not closed
+     * @throws IOException if the destination cannot be written to
+     * */
+    public static void write(Document document, Writer destination) throws IOException {
+        if(document == null || destination == null) {
+            throw new IllegalArgumentException("Document or destination is null");
+        }
+
+        JsonWriter writer = new JsonWriter(destination);
+        Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        writer.beginObject();
+        writer.name(KEY_PROFILE).value(document.profile);
+        writer.name(KEY_VERSION).value(document.version);
+
+        if(document.isDelta()) { writer.name(KEY_BASE).value(document.base); }
+
+        writer.name(KEY_PUT);
+        writeRows(writer, strings, true, document.put);
+
+        if(document.isDelta()) {
+            writer.name(KEY_REMOVE);
+            writeRows(writer, strings, false, document.remove);
+        }
+
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * The delta that brings a profile from one version to another.
+     *
+     * @param from the full profile the delta applies to
+     * @param to the full profile the delta brings it to
+     * @return the rules of "to" that "from" does not have with the same action, and the rules
+     * of "from" that "to" does not have
+     * */
+    public static Document diff(Document from, Document to) {
+        if(from == null || to == null) { throw new IllegalArgumentException("Profile is null"); }
+
+        if(from.isDelta() || to.isDelta()) {
+            throw new IllegalArgumentException("Can only compare two full profiles");
+        }
+
+        if(!from.profile.equals(to.profile)) {
+            throw new IllegalArgumentException("Cannot compare " + from.profile +
+                                               " with " + to.profile);
+        }
+
+        Map<String, PolicyProfileSetting> before = byKey(from.put),
+                                          after = byKey(to.put);
+        List<PolicyProfileSetting> put = new ArrayList<PolicyProfileSetting>(),
+                                   remove = new ArrayList<PolicyProfileSetting>();
+
+        for(Map.Entry<String, PolicyProfileSetting> rule : after.entrySet()) {
+            PolicyProfileSetting old = before.get(rule.getKey());
+
+            if(old == null || !sameAction(old, rule.getValue())) { put.add(rule.getValue()); }
+        }
+
+        for(Map.Entry<String, PolicyProfileSetting> rule : before.entrySet()) {
+            if(!after.containsKey(rule.getKey())) { remove.add(rule.getValue()); }
+        }
+
+        return Document.delta(to.profile, to.version, from.version, put, remove);
+    }
+
+    /**
+     * @param setting a rule
+     * @return a key that is equal for two rules exactly when they are for the same app,
+     * permission, purpose and library
+     * */
+    public static String keyOf(PolicyProfileSetting setting) {
+        return setting.app + KEY_SEPARATOR + setting.permission + KEY_SEPARATOR +
+               setting.purpose + KEY_SEPARATOR + setting.thirdPartyLibrary;
+    }
+
+    /**
+     * @return true if both rules have the same action
+     * */
+    public static boolean sameAction(PolicyProfileSetting a, PolicyProfileSetting b) {
+        return a.policyAction == null ? b.policyAction == null :
+                                        a.policyAction.equals(b.policyAction);
+    }
+
+    /*
+     * Later rules for the same key replace earlier ones, as they would if the rows were
+     * applied in order.
+     */
+    private static Map<String, PolicyProfileSetting> byKey(List<PolicyProfileSetting> rules) {
+        Map<String, PolicyProfileSetting> keyed =
+                new LinkedHashMap<String, PolicyProfileSetting>(rules.size() * 2);
+
+        for(PolicyProfileSetting rule : rules) { keyed.put(keyOf(rule), rule); }
+
+        return keyed;
+    }
+
+    private static Document readDocument(JsonReader reader) throws IOException {
+        List<String> strings = new ArrayList<String>();
+        List<PolicyProfileSetting> put = new ArrayList<PolicyProfileSetting>(),
+                                   remove = new ArrayList<PolicyProfileSetting>();
+        String profile = null, version = null, base = null;
+
+        reader.beginObject();
+
+        while(reader.hasNext()) {
+            String key = reader.nextName();
+
+            if(KEY_PROFILE.equals(key)) {
+                profile = reader.nextString();
+            } else if(KEY_VERSION.equals(key)) {
+                version = reader.nextString();
+            } else if(KEY_BASE.equals(key)) {
+                base = reader.nextString();
+            } else if(KEY_PUT.equals(key)) {
+                readRows(reader, strings, true, put);
+            } else if(KEY_REMOVE.equals(key)) {
+                readRows(reader, strings, false, remove);
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+
+        if(profile == null || profile.isEmpty() || version == null || version.isEmpty()) {
+            throw new IOException("Profile has no name or version");
+        }
+
+        if(base == null && !remove.isEmpty()) {
+            throw new IOException("Full profile " + profile + " removes rules");
+        }
+
+        for(PolicyProfileSetting setting : put) { setting.profileName = profile; }
+        for(PolicyProfileSetting setting : remove) { setting.profileName = profile; }
+
+        return base == null ? Document.full(profile, version, put) :
+                              Document.delta(profile, version, base, put, remove);
+    }
+
+    private static void readRows(JsonReader reader,
+                                 List<String> strings,
+                                 boolean withAction,
+                                 List<PolicyProfileSetting> rows) throws IOException {
+        reader.beginArray();
+
+        while(reader.hasNext()) {
+            PolicyProfileSetting setting = new PolicyProfileSetting();
+
+            reader.beginArray();
+            setting.app = readString(reader, strings);
+            setting.permission = readString(reader, strings);
+            setting.purpose = readString(reader, strings);
+            setting.thirdPartyLibrary = readString(reader, strings);
+
+            if(withAction) { setting.policyAction = readString(reader, strings); }
+
+            while(reader.hasNext()) { reader.skipValue(); }
+
+            reader.endArray();
+            rows.add(setting);
+        }
+
+        reader.endArray();
+    }
+
+    private static String readString(JsonReader reader, List<String> strings)
+            throws IOException {
+        if(!reader.hasNext()) { throw new IOException("Profile rule is missing a field"); }
+
+        if(reader.peek() == JsonToken.NUMBER) {
+            int index = reader.nextInt();
+
+            if(index < 0 || index >= strings.size()) {
+                throw new IOException("Profile rule refers to unknown string " + index);
+            }
+
+            return strings.get(index);
+        }
+
+        String value = reader.nextString();
+        strings.add(value);
+
+        return value;
+    }
+
+    private static void writeRows(JsonWriter writer,
+                                  Map<String, Integer> strings,
+                                  boolean withAction,
+                                  List<PolicyProfileSetting> rows) throws IOException {
+        writer.beginArray();
+
+        for(PolicyProfileSetting setting : rows) {
+            writer.beginArray();
+            writeString(writer, strings, setting.app);
+            writeString(writer, strings, setting.permission);
+            writeString(writer, strings, setting.purpose);
+            writeString(writer, strings, setting.thirdPartyLibrary);
+
+            if(withAction) { writeString(writer, strings, setting.policyAction); }
+
+            writer.endArray();
+        }
+
+        writer.endArray();
+    }
+
+    private static void writeString(JsonWriter writer, Map<String, Integer> strings, String value)
+            throws IOException {
+        if(value == null) { throw new IllegalArgumentException("Profile rule has an empty field"); }
+
+        Integer index = strings.get(value);
+
+        if(index != null) {
+            writer.value(index);
+            return;
+        }
+
+        strings.put(value, strings.size());
+        writer.value(value);
+    }
+}
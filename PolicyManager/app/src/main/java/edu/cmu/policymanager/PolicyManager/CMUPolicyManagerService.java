@@ -13,34 +13,38 @@ import android.os.ResultReceiver;
 import android.util.Log;
 import android.app.policy.PolicyManagerService;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import edu.cmu.policymanager.DataRepository.DataRepository;
-import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
-import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
-import edu.cmu.policymanager.PolicyManager.enforcement.PolicyEnforcement;
-import edu.cmu.policymanager.PolicyManager.enforcement.PolicyProfileCheck;
-import edu.cmu.policymanager.PolicyManager.enforcement.PolicyStub;
-import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck;
-import edu.cmu.policymanager.PolicyManager.enforcement.StackTraceAnalysis;
-import edu.cmu.policymanager.PolicyManager.enforcement.UserSettingCheck;
-import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
+import edu.cmu.policymanager.DataRepository.RepositoryExecutors;
+import edu.cmu.policymanager.DataRepository.RepositoryReadiness;
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
 import edu.cmu.policymanager.PolicyManager.policies.OffDevicePolicy;
-import edu.cmu.policymanager.PolicyManager.purposes.Purpose;
-import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
+import edu.cmu.policymanager.PolicyManager.replay.RecordedRequest;
+import edu.cmu.policymanager.PolicyManager.replay.ReplayDriver;
+import edu.cmu.policymanager.PolicyManager.replay.RequestLogReader;
+import edu.cmu.policymanager.PolicyManager.replay.RequestRecorder;
 import edu.cmu.policymanager.R;
 import edu.cmu.policymanager.application.PolicyManagerApplication;
-import edu.cmu.policymanager.peandroid.PEAndroid;
+import edu.cmu.policymanager.peandroid.DecisionResponder;
 import edu.cmu.policymanager.ui.notification.PolicyManagerNotificationService;
 import edu.cmu.policymanager.ui.phonespies.PhoneSpyNotification;
 import edu.cmu.policymanager.ui.phonespies.SpyApps;
+import edu.cmu.policymanager.util.PackageReconciler;
 import edu.cmu.policymanager.util.PolicyManagerDebug;
 
-import static edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck.quickSettings;
+import static edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck.setQuickSetting;
+import static edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck.setQuickSettings;
 
 public class CMUPolicyManagerService extends PolicyManagerService {
     private final Context mServiceContext = this;
@@ -48,13 +52,22 @@ public class CMUPolicyManagerService extends PolicyManagerService {
     public static final String POLICY_PROFILE_ADDED = "profile_added",
                                POLICY_PROFILE_NAME = "profile_name";
 
+    private static final String REQUEST_LOG = "requests.pmlog";
+
+    private final RequestRecorder mRecorder = new RequestRecorder();
+
+    /* A replay runs in the background; dump prints the report of the last one. */
+    private final AtomicBoolean mReplaying = new AtomicBoolean();
+    private volatile String mLastReplay = "No replay has run yet.";
+
     private NotificationManager mManager;
     private NotificationChannel mChannel;
     private final int mSpyNotificationID = 3;
 
-    private final Consumer<Void> mLaunchInstallUI = new Consumer<Void>() {
+    private final Consumer<DataRepository.InstallInfo> mLaunchInstallUI =
+            new Consumer<DataRepository.InstallInfo>() {
         @Override
-        public void accept(Void aVoid) {
+        public void accept(DataRepository.InstallInfo install) {
             PolicyManagerApplication.ui.launchInstallUI(mServiceContext);
         }
     };
@@ -80,31 +93,30 @@ public class CMUPolicyManagerService extends PolicyManagerService {
         };
     }
 
-    private Function<String, CompletableFuture<Void>> logInstallInfo(final String packageName) {
-        return new Function<String, CompletableFuture<Void>>() {
-            @Override
-            public CompletableFuture<Void> apply(String odpString) {
-                return DataRepository.fromDisk().logInstallInfo(packageName, odpString);
-            }
-        };
-    }
-
     BroadcastReceiver appInstalledReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(final Context context, Intent intent) {
             String packageName = intent.getDataString().substring(8);
+            CriticalSystemApps.onPackagesChanged();
+
             boolean isNotCriticalApp = !CriticalSystemApps.packageIsSystemApp(packageName);
 
             if(isNotCriticalApp) {
                 DataRepository.fromDisk()
-                              .getODPForPackage(packageName)
-                              .thenApplyAsync(resolveODP(packageName))
-                              .thenComposeAsync(logInstallInfo(packageName))
+                              .getInstallPipeline()
+                              .submit(packageName, resolveODP(packageName))
                               .thenAccept(mLaunchInstallUI);
             }
         }
     };
 
+    private final BroadcastReceiver mAppRemovedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            CriticalSystemApps.onPackagesChanged();
+        }
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -127,6 +139,11 @@ public class CMUPolicyManagerService extends PolicyManagerService {
 
         registerReceiver(appInstalledReceiver, intentFilter);
 
+        IntentFilter removedFilter = new IntentFilter(Intent.ACTION_PACKAGE_REMOVED);
+        removedFilter.addDataScheme("package");
+
+        registerReceiver(mAppRemovedReceiver, removedFilter);
+
         Intent notificationService = new Intent(
                 mServiceContext,
                 PolicyManagerNotificationService.class
@@ -140,6 +157,143 @@ public class CMUPolicyManagerService extends PolicyManagerService {
     @Override
     public void onDestroy() {
         unregisterReceiver(appInstalledReceiver);
+        unregisterReceiver(mAppRemovedReceiver);
+        mRecorder.stop();
+    }
+
+    /**
+     * Prints the enforcement metrics, the queues of the repository pools and the startup
+     * timings for "adb shell dumpsys activity service CMUPolicyManagerService". Arguments:
+     *  - "reset" clears the metrics after printing them
+     *  - "record start" and "record stop" record incoming requests to the request log
+     *  - "replay", "replay flat N" and "replay speed N" replay the request log in the
+     *  background, as fast as possible on one or N threads, or at N times the recorded speed
+     *  - "replay status" prints the report of the last replay, or that one is running
+     * */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        String command = args != null && args.length > 0 ? args[0] : "";
+
+        if(command.equalsIgnoreCase("record")) {
+            dumpRecord(writer, args);
+            return;
+        } else if(command.equalsIgnoreCase("replay")) {
+            dumpReplay(writer, args);
+            return;
+        }
+
+        EnforcementMetrics.dump(writer);
+        writer.println();
+        RepositoryExecutors.dump(writer);
+        writer.println();
+        DataRepository.getReadiness().dump(writer);
+
+        PackageReconciler.Summary reconciled = DataRepository.getLastReconcileSummary();
+
+        if(reconciled != null) {
+            writer.println("  installed apps: " + reconciled);
+            writer.flush();
+        }
+
+        writer.println();
+        DataRepository.getInstance().getInstallPipeline().dump(writer);
+        writer.println();
+        DataRepository.getInstance().getProfileSync().dump(writer);
+
+        if(command.equalsIgnoreCase("reset")) {
+            EnforcementMetrics.reset();
+            writer.println("Enforcement metrics reset.");
+        }
+    }
+
+    private File getRequestLog() { return new File(getFilesDir(), REQUEST_LOG); }
+
+    private void dumpRecord(PrintWriter writer, String[] args) {
+        if(args.length > 1 && args[1].equalsIgnoreCase("stop")) {
+            mRecorder.stop();
+            writer.println("Stopped recording to " + getRequestLog());
+            return;
+        }
+
+        try {
+            mRecorder.start(getRequestLog());
+            writer.println("Recording requests to " + getRequestLog());
+        } catch(IOException e) {
+            writer.println("Could not start recording: " + e);
+        }
+    }
+
+    /*
+     * A replay can take as long as the recording did, so it never runs on the binder thread
+     * dump is called on, which the caller would time out waiting for.
+     */
+    private void dumpReplay(PrintWriter writer, String[] args) {
+        if(args.length > 1 && args[1].equalsIgnoreCase("status")) {
+            writer.println(mReplaying.get() ? "Replay is running." : mLastReplay);
+            return;
+        }
+
+        if(mRecorder.isRecording()) {
+            writer.println("Stop recording before replaying.");
+            return;
+        }
+
+        final ReplayDriver driver;
+
+        try {
+            if(args.length > 2 && args[1].equalsIgnoreCase("speed")) {
+                driver = ReplayDriver.atSpeed(Double.parseDouble(args[2]));
+            } else if(args.length > 2 && args[1].equalsIgnoreCase("flat")) {
+                driver = ReplayDriver.flatOut(Integer.parseInt(args[2]));
+            } else {
+                driver = ReplayDriver.flatOut(1);
+            }
+        } catch(IllegalArgumentException e) {
+            writer.println("Could not replay " + getRequestLog() + ": " + e);
+            return;
+        }
+
+        if(!mReplaying.compareAndSet(false, true)) {
+            writer.println("Replay is already running.");
+            return;
+        }
+
+        RepositoryExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                StringWriter report = new StringWriter();
+                PrintWriter reportWriter = new PrintWriter(report);
+
+                try {
+                    replay(driver, reportWriter);
+                } finally {
+                    reportWriter.flush();
+                    mLastReplay = report.toString();
+                    mReplaying.set(false);
+                }
+            }
+        });
+
+        writer.println("Replaying " + getRequestLog() + " in the background; " +
+                       "\"replay status\" prints the report.");
+    }
+
+    private void replay(ReplayDriver driver, PrintWriter writer) {
+        try {
+            List<RecordedRequest> requests;
+
+            try(RequestLogReader reader =
+                        new RequestLogReader(new FileInputStream(getRequestLog()))) {
+                requests = reader.readAll();
+            }
+
+            driver.replay(requests).print(writer);
+        } catch(IOException | RuntimeException e) {
+            writer.println("Could not replay " + getRequestLog() + ": " + e);
+        } catch(InterruptedException e) {
+            writer.println("Replay interrupted.");
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -148,114 +302,137 @@ public class CMUPolicyManagerService extends PolicyManagerService {
         return true;
     }
 
-    public void onPrivateDataRequest(String packageName,
-                                     String permission,
-                                     String purpose,
-                                     String pal,
-                                     String description,
+    public void onPrivateDataRequest(final String packageName,
+                                     final String permission,
+                                     final String purpose,
+                                     final String pal,
+                                     final String description,
                                      ResultReceiver recv) {
         Log.d("pal-dbg", "micro PAL request from " + packageName + ":" + pal +
                                    " requesting " + permission + " for " + purpose +
                                    " because " + description);
 
-        try {
-            PermissionRequest request =
-                    PermissionRequest.builder(mServiceContext)
-                                     .setPackageName(packageName)
-                                     .setPermission(permission)
-                                     .setPurpose(Purposes.convertFromMicroPal(purpose))
-                                     .setResultReceiver(recv)
-                                     .setPalModule(pal)
-                                     .setPalRequestDescription(description)
-                                     .setLibrary(ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE)
-                                     .build();
-
-            PolicyEnforcement palPolicyEnforcementAlgorithm = new PolicyProfileCheck(
-                    new QuickSettingCheck(
-                            new UserSettingCheck(
-                                    new PolicyStub(request)
-                            )
-                    )
-            );
-
-            palPolicyEnforcementAlgorithm.isAllowed();
-        } catch(Exception e) {
-            PolicyManagerDebug.logException(e);
-            PEAndroid.connectToReceiver(recv).denyPermission();
+        final DecisionResponder responder = new DecisionResponder(
+                recv,
+                mRecorder.recordPrivateDataRequest(packageName,
+                                                   permission,
+                                                   purpose,
+                                                   pal,
+                                                   description)
+        );
+
+        Runnable enforce = new Runnable() {
+            @Override
+            public void run() {
+                EnforcementPipeline.enforcePrivateDataRequest(mServiceContext,
+                                                              packageName,
+                                                              permission,
+                                                              purpose,
+                                                              pal,
+                                                              description,
+                                                              responder);
+            }
+        };
+
+        if(DataRepository.getReadiness().isReady()) {
+            enforce.run();
+        } else {
+            enforceWhenReady(enforce, responder);
         }
     }
 
     @Override
-    public void onDangerousPermissionRequest(String packageName,
-                                             String permission,
-                                             String purpose,
-                                             List<StackTraceElement[]> stacktraces,
-                                             int flags,
+    public void onDangerousPermissionRequest(final String packageName,
+                                             final String permission,
+                                             final String purpose,
+                                             final List<StackTraceElement[]> stacktraces,
+                                             final int flags,
                                              ComponentName callingComponent,
-                                             ComponentName topActivity,
+                                             final ComponentName topActivity,
                                              ResultReceiver recv) {
         PolicyManagerDebug.debugOnDangerousPermissionRequest(packageName, permission, purpose);
         PolicyManagerDebug.debugMainThreadStacktraces(stacktraces);
 
-        boolean isSystemApp = ((flags & PolicyManagerService.FROM_SYS_APP_REQ) != 0 ||
-                              (flags & PolicyManagerService.FROM_PRIV_APP_REQ) != 0 ||
-                              (flags & PolicyManagerService.FROM_ANDROID_REQ) != 0)
-                              || CriticalSystemApps.packageIsSystemApp(packageName);
+        final DecisionResponder responder = new DecisionResponder(
+                recv,
+                mRecorder.recordDangerousPermissionRequest(packageName,
+                                                           permission,
+                                                           purpose,
+                                                           stacktraces,
+                                                           flags,
+                                                           topActivity)
+        );
 
-        if(isSystemApp) {
-            PEAndroid.connectToReceiver(recv).allowPermission();
-            return;
-        } else if(appIsTryingToLoad(permission, stacktraces)) {
-            PEAndroid.connectToReceiver(recv).allowPermission();
-            return;
+        boolean systemAppRequest = EnforcementPipeline.isSystemAppRequest(packageName, flags);
+
+        if(systemAppRequest || DataRepository.getReadiness().isReady()) {
+            enforceDangerousPermissionRequest(packageName,
+                                              permission,
+                                              purpose,
+                                              stacktraces,
+                                              flags,
+                                              topActivity,
+                                              responder);
+        } else {
+            enforceWhenReady(new Runnable() {
+                @Override
+                public void run() {
+                    enforceDangerousPermissionRequest(packageName,
+                                                      permission,
+                                                      purpose,
+                                                      stacktraces,
+                                                      flags,
+                                                      topActivity,
+                                                      responder);
+                }
+            }, responder);
         }
+    }
 
-        PolicyManagerDebug.debugWithMessage("Starting policy enforcement algorithm.");
-
-        try {
-            if(SpyApps.appIsSpying(packageName)) {
+    private void enforceDangerousPermissionRequest(String packageName,
+                                                   String permission,
+                                                   String purpose,
+                                                   List<StackTraceElement[]> stacktraces,
+                                                   int flags,
+                                                   ComponentName topActivity,
+                                                   DecisionResponder responder) {
+        boolean enforced = EnforcementPipeline.enforceDangerousPermissionRequest(mServiceContext,
+                                                                                 packageName,
+                                                                                 permission,
+                                                                                 purpose,
+                                                                                 stacktraces,
+                                                                                 flags,
+                                                                                 topActivity,
+                                                                                 responder);
+
+        if(enforced && SpyApps.appIsSpying(packageName)) {
+            try {
                 PhoneSpyNotification notification =
                         new PhoneSpyNotification(mServiceContext, packageName);
 
                 if(mManager != null) {
                     mManager.notify(mSpyNotificationID, notification.create());
                 }
+            } catch(Exception e) {
+                PolicyManagerDebug.logException(e);
             }
-
-            PermissionRequest request = PermissionRequest.builder(mServiceContext)
-                                                         .setPackageName(packageName)
-                                                         .setPermission(permission)
-                                                         .setStacktraces(stacktraces)
-                                                         .setPurpose(purpose)
-                                                         .setResultReceiver(recv)
-                                                         .setTopActivity(topActivity)
-                                                         .build();
-
-            PermissionRequest analyzedRequest = StackTraceAnalysis.inferPurposeAndLibrary(request);
-
-            PolicyEnforcement policyEnforcementAlgorithm = new PolicyProfileCheck(
-                    new QuickSettingCheck(
-                            new UserSettingCheck(
-                                    new PolicyStub(analyzedRequest)
-                            )
-                    )
-            );
-
-            policyEnforcementAlgorithm.isAllowed();
-        } catch(Exception e) {
-            System.out.println("We got some error and are unable to handle this request - denying");
-            PolicyManagerDebug.logException(e);
-            PEAndroid.connectToReceiver(recv).denyPermission();
         }
     }
 
-    private boolean appIsTryingToLoad(CharSequence permission,
-                                      List<StackTraceElement[]> stacktraces) {
-        String permissionString = permission.toString();
-
-        return ((permissionString.equalsIgnoreCase(Manifest.permission.READ_EXTERNAL_STORAGE) ||
-                 permissionString.equalsIgnoreCase(Manifest.permission.WRITE_EXTERNAL_STORAGE)) &&
-                (stacktraces == null || stacktraces.isEmpty()));
+    /*
+     * Requests that arrive while the repository is still starting up are held until it is
+     * ready, or answered right away, as the RepositoryReadiness.EarlyRequestPolicy says.
+     */
+    private void enforceWhenReady(Runnable enforce, DecisionResponder responder) {
+        RepositoryReadiness readiness = DataRepository.getReadiness();
+
+        if(!readiness.enqueue(enforce)) {
+            if(readiness.getEarlyDecision()) {
+                responder.allow();
+            } else {
+                responder.deny();
+            }
+        }
     }
 
     private Drawable getIcon(int resourceId) {
@@ -270,7 +447,7 @@ public class CMUPolicyManagerService extends PolicyManagerService {
                 new PolicyManagerService.PrivacySettingListener() {
                     @Override
                     public void onSettingChanged(String s, boolean b) {
-                        quickSettings.put(Manifest.permission.CAMERA, b);
+                        setQuickSetting(Manifest.permission.CAMERA, b);
                     }
                 }
         );
@@ -282,8 +459,9 @@ public class CMUPolicyManagerService extends PolicyManagerService {
                 new PolicyManagerService.PrivacySettingListener() {
                     @Override
                     public void onSettingChanged(String s, boolean b) {
-                        quickSettings.put(Manifest.permission.ACCESS_FINE_LOCATION, b);
-                        quickSettings.put(Manifest.permission.ACCESS_COARSE_LOCATION, b);
+                        setQuickSettings(b,
+                                         Manifest.permission.ACCESS_FINE_LOCATION,
+                                         Manifest.permission.ACCESS_COARSE_LOCATION);
                     }
                 });
 
@@ -294,11 +472,17 @@ public class CMUPolicyManagerService extends PolicyManagerService {
                 new PolicyManagerService.PrivacySettingListener() {
                     @Override
                     public void onSettingChanged(String s, boolean b) {
-                        quickSettings.put(Manifest.permission.RECORD_AUDIO, b);
+                        setQuickSetting(Manifest.permission.RECORD_AUDIO, b);
                     }
                 });
     }
 
+    /**
+     * Adds a quick setting that switches the profile's layer of the active profile stack on
+     * and off. Switching on a profile that is not in the stack puts it on top.
+     *
+     * @param profile the name of the policy profile
+     * */
     public void addProfileQuickSetting(CharSequence profile) {
         final String profileString = profile.toString();
 
@@ -309,13 +493,7 @@ public class CMUPolicyManagerService extends PolicyManagerService {
                 new PrivacySettingListener() {
                     @Override
                     public void onSettingChanged(String s, boolean b) {
-                        if(b) {
-                            PolicyManager.getInstance().activatePolicyProfile(profileString);
-                        }
-                        else {
-                            PolicyManager.getInstance()
-                                         .activatePolicyProfile(PolicyProfile.DEFAULT);
-                        }
+                        PolicyManager.getInstance().setProfileLayerEnabled(profileString, b);
                     }
                 });
     }
@@ -0,0 +1,168 @@
+package edu.cmu.policymanager.PolicyManager;
+
+import android.Manifest;
+import android.app.policy.PolicyManagerService;
+import android.content.ComponentName;
+import android.content.Context;
+
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyEnforcement;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyEnforcementDecorator;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyProfileCheck;
+import edu.cmu.policymanager.PolicyManager.enforcement.PolicyStub;
+import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingCheck;
+import edu.cmu.policymanager.PolicyManager.enforcement.StackTraceAnalysis;
+import edu.cmu.policymanager.PolicyManager.enforcement.UserSettingCheck;
+import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
+import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
+import edu.cmu.policymanager.peandroid.DecisionResponder;
+import edu.cmu.policymanager.util.PolicyManagerDebug;
+
+/**
+ * Takes a permission request from PE for Android to a decision: exempts system apps, builds the
+ * PermissionRequest, analyzes its stack traces and runs the enforcement chain. The decision is
+ * sent through the request's DecisionResponder.
+ *
+ * Used by CMUPolicyManagerService for live requests and by the ReplayDriver for recorded ones.
+ * Notifications are only sent when a Context is given, and prompts only when the responder has
+ * a ResultReceiver, so a replay leaves no trace on the device. Requests that reach the
+ * enforcement chain with a Context are counted as data accesses.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class EnforcementPipeline {
+    private EnforcementPipeline() {}
+
+    /**
+     * Enforce policy on a request from onDangerousPermissionRequest.
+     *
+     * @param context the Context notifications are sent from, or null to send none
+     * @param packageName the app requesting data
+     * @param permission the permission being used
+     * @param purpose the purpose given by the app, if any
+     * @param stacktraces the stack traces of the app's threads
+     * @param flags the PolicyManagerService request flags
+     * @param topActivity the activity in the foreground, if any
+     * @param responder sends the decision
+     * @return true if the request went through the enforcement chain, false if it was exempt
+     * and allowed outright
+     * */
+    public static boolean enforceDangerousPermissionRequest(Context context,
+                                                            String packageName,
+                                                            String permission,
+                                                            String purpose,
+                                                            List<StackTraceElement[]> stacktraces,
+                                                            int flags,
+                                                            ComponentName topActivity,
+                                                            DecisionResponder responder) {
+        if(isSystemAppRequest(packageName, flags) || appIsTryingToLoad(permission, stacktraces)) {
+            responder.allow();
+            return false;
+        }
+
+        PolicyManagerDebug.debugWithMessage("Starting policy enforcement algorithm.");
+
+        try {
+            PermissionRequest request = PermissionRequest.builder(context)
+                                                         .setPackageName(packageName)
+                                                         .setPermission(permission)
+                                                         .setStacktraces(stacktraces)
+                                                         .setPurpose(purpose)
+                                                         .setResponder(responder)
+                                                         .setTopActivity(topActivity)
+                                                         .build();
+
+            PermissionRequest analyzedRequest = StackTraceAnalysis.inferPurposeAndLibrary(request);
+
+            countAccess(context, analyzedRequest);
+            PolicyEnforcementDecorator.enforce(createEnforcementChain(analyzedRequest));
+        } catch(Exception e) {
+            System.out.println("We got some error and are unable to handle this request - denying");
+            PolicyManagerDebug.logException(e);
+            responder.deny();
+        }
+
+        return true;
+    }
+
+    /**
+     * Enforce policy on a request from onPrivateDataRequest.
+     *
+     * @param context the Context notifications are sent from, or null to send none
+     * @param packageName the app requesting data
+     * @param permission the permission being used
+     * @param purpose the micro PAL purpose
+     * @param pal the micro PAL module making the request
+     * @param description why the module is requesting data
+     * @param responder sends the decision
+     * */
+    public static void enforcePrivateDataRequest(Context context,
+                                                 String packageName,
+                                                 String permission,
+                                                 String purpose,
+                                                 String pal,
+                                                 String description,
+                                                 DecisionResponder responder) {
+        try {
+            PermissionRequest request =
+                    PermissionRequest.builder(context)
+                                     .setPackageName(packageName)
+                                     .setPermission(permission)
+                                     .setPurpose(Purposes.convertFromMicroPal(purpose))
+                                     .setResponder(responder)
+                                     .setPalModule(pal)
+                                     .setPalRequestDescription(description)
+                                     .setLibrary(ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE)
+                                     .build();
+
+            countAccess(context, request);
+            PolicyEnforcementDecorator.enforce(createEnforcementChain(request));
+        } catch(Exception e) {
+            PolicyManagerDebug.logException(e);
+            responder.deny();
+        }
+    }
+
+    /**
+     * @param packageName the app requesting data
+     * @param flags the PolicyManagerService request flags
+     * @return true if the request comes from a system, privileged or critical app
+     * */
+    public static boolean isSystemAppRequest(String packageName, int flags) {
+        return ((flags & PolicyManagerService.FROM_SYS_APP_REQ) != 0 ||
+                (flags & PolicyManagerService.FROM_PRIV_APP_REQ) != 0 ||
+                (flags & PolicyManagerService.FROM_ANDROID_REQ) != 0)
+               || CriticalSystemApps.packageIsSystemApp(packageName);
+    }
+
+    /* Replayed requests have no Context, and are not counted as accesses. */
+    private static void countAccess(Context context, PermissionRequest request) {
+        if(context != null) {
+            DataRepository.recordDataAccess(request.packageName,
+                                            request.permission,
+                                            request.purpose);
+        }
+    }
+
+    private static PolicyEnforcement createEnforcementChain(PermissionRequest request) {
+        return new PolicyProfileCheck(
+                new QuickSettingCheck(
+                        new UserSettingCheck(
+                                new PolicyStub(request)
+                        )
+                )
+        );
+    }
+
+    private static boolean appIsTryingToLoad(CharSequence permission,
+                                             List<StackTraceElement[]> stacktraces) {
+        String permissionString = permission.toString();
+
+        return ((permissionString.equalsIgnoreCase(Manifest.permission.READ_EXTERNAL_STORAGE) ||
+                 permissionString.equalsIgnoreCase(Manifest.permission.WRITE_EXTERNAL_STORAGE)) &&
+                (stacktraces == null || stacktraces.isEmpty()));
+    }
+}
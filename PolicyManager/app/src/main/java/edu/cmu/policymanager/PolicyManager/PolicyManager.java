@@ -1,12 +1,20 @@
 package edu.cmu.policymanager.PolicyManager;
 
+import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import edu.cmu.policymanager.DataRepository.DataRepository;
-import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+import edu.cmu.policymanager.DataRepository.RepositoryExecutors;
+import edu.cmu.policymanager.DataRepository.memory.ProfileSnapshot;
+import edu.cmu.policymanager.DataRepository.memory.ProfileStack;
+import edu.cmu.policymanager.DataRepository.network.ProfileClient;
+import edu.cmu.policymanager.PolicyManager.enforcement.EnforcementPlan;
+import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
 import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
 import edu.cmu.policymanager.validation.Precondition;
 
@@ -14,7 +22,9 @@ import edu.cmu.policymanager.validation.Precondition;
  * Determines a policy to enforce based on input UserPolicy. This class contains both
  * synchronous (necessary when querying policies in onDangerousPermissionRequest) and
  * asynchronous (necessary when querying policies in the user interface) methods for querying
- * user policies.
+ * user policies. Asynchronous methods wait for the DataRepository to be ready, then run on
+ * the RepositoryExecutors pools: queries on the read pool, changes on the write pool and
+ * profile installs on the background pool.
  *
  * Note - policy profiles are still experimental/prototyped. Any methods involving policy
  * profiles should be based around the default user profile or the organizational profile
@@ -26,8 +36,6 @@ public class PolicyManager {
     private static PolicyManager sPolicyManager = null;
     private long mTimeframeAskResultIsValid = 5 * 60 * 1000;
 
-    private static String mActiveProfile = PolicyProfile.DEFAULT;
-
     /**
      * Get instance of the PolicyManager.
      *
@@ -48,6 +56,7 @@ public class PolicyManager {
     public void setTimeframeAskResultIsValid(long timeframeInMillis) {
         Precondition.checkState(timeframeInMillis > 0, "Must set timeframe");
         mTimeframeAskResultIsValid = timeframeInMillis;
+        DataRepository.setAskResponseTimeframe(timeframeInMillis);
     }
 
     /**
@@ -55,11 +64,20 @@ public class PolicyManager {
      *
      * @return the active policy profile
      * */
-    public CharSequence getActivePolicyProfile() { return mActiveProfile; }
+    public CharSequence getActivePolicyProfile() { return DataRepository.activeProfileName(); }
+
+    /**
+     * Gets the snapshot of the policy profile that is currently active on this device. It
+     * does not change when another profile is activated, so a request can be enforced
+     * against one profile from start to end.
+     *
+     * @return the active policy profile's snapshot
+     * */
+    public ProfileSnapshot getActiveProfileSnapshot() { return DataRepository.getActiveProfile(); }
 
     /**
-     * Asynchronously install a given policy profile. This will attempt to install the
-     * sample profile from BrandeisBackend.
+     * Asynchronously install a given policy profile, or bring an installed one up to date,
+     * from the profile source. By default this is the sample profile from BrandeisBackend.
      *
      * @param profileName the name of the profile you wish to install
      * @return void CompletableFuture
@@ -67,26 +85,39 @@ public class PolicyManager {
     public CompletableFuture<Void> installPolicyProfile(final CharSequence profileName) {
         Precondition.checkEmptyCharSequence(profileName);
 
-        return CompletableFuture.supplyAsync(
+        return supplyWhenReady(
                 new Supplier<Void>() {
                     @Override
                     public Void get() {
-                        DataRepository.getInstance().installProfile(profileName.toString());
+                        DataRepository.getInstance().syncInstallProfile(profileName.toString());
                         return null;
                     }
-                }
+                },
+                RepositoryExecutors.background()
         );
     }
 
     /**
-     * Synchronously install a given policy profile. This will attempt to install the
-     * sample profile from BrandeisBackend.
+     * Synchronously install a given policy profile, or bring an installed one up to date,
+     * from the profile source. By default this is the sample profile from BrandeisBackend.
      *
      * @param profileName the name of the profile you wish to install
      * */
     public void syncInstallPolicyProfile(CharSequence profileName) {
         Precondition.checkEmptyCharSequence(profileName);
-        DataRepository.getInstance().installProfile(profileName.toString());
+        DataRepository.getInstance().syncInstallProfile(profileName.toString());
+    }
+
+    /**
+     * Install policy profiles from a profile server, instead of the ones bundled with the
+     * app. Profiles that are already installed are brought up to date the next time they
+     * are installed.
+     *
+     * @param server the base URL of the profile server
+     * */
+    public void setProfileServer(URL server) {
+        Precondition.checkIfNull(server, "Profile server URL is null");
+        DataRepository.getInstance().setProfileSource(new ProfileClient(server));
     }
 
     /**
@@ -98,16 +129,16 @@ public class PolicyManager {
      * */
     public CompletableFuture<Void> activatePolicyProfile(final CharSequence profileName) {
         Precondition.checkEmptyCharSequence(profileName);
-        mActiveProfile = profileName.toString();
 
-        return CompletableFuture.supplyAsync(
+        return supplyWhenReady(
                 new Supplier<Void>() {
                     @Override
                     public Void get() {
                         DataRepository.getInstance().activateProfile(profileName.toString());
                         return null;
                     }
-                }
+                },
+                RepositoryExecutors.writes()
         );
     }
 
@@ -119,22 +150,75 @@ public class PolicyManager {
      * */
     public void syncActivatePolicyProfile(CharSequence profileName) {
         Precondition.checkEmptyCharSequence(profileName);
-        mActiveProfile = profileName.toString();
 
         DataRepository.getInstance().activateProfile(profileName.toString());
     }
 
+    /**
+     * Gets the stack of policy profiles that is currently active on this device.
+     *
+     * @return the active profile stack
+     * */
+    public ProfileStack getProfileStack() { return DataRepository.getProfileStack(); }
+
+    /**
+     * Asynchronously layer the given profiles on top of the default profile. The stack's
+     * combining rule decides between layers that both have a setting for a request.
+     *
+     * @param stack the profiles to activate, highest precedence first
+     * @return void CompletableFuture
+     * */
+    public CompletableFuture<Void> setProfileStack(final ProfileStack stack) {
+        Precondition.checkIfNull(stack, "Profile stack is null");
+
+        return supplyWhenReady(
+                new Supplier<Void>() {
+                    @Override
+                    public Void get() {
+                        DataRepository.getInstance().setProfileStack(stack);
+                        return null;
+                    }
+                },
+                RepositoryExecutors.writes()
+        );
+    }
+
+    /**
+     * Asynchronously switch one layer of the active profile stack on or off. A profile that
+     * is not in the stack yet is put on top of it when it is switched on.
+     *
+     * @param profileName the profile of the layer
+     * @param enabled true to switch the layer on
+     * @return void CompletableFuture
+     * */
+    public CompletableFuture<Void> setProfileLayerEnabled(final CharSequence profileName,
+                                                          final boolean enabled) {
+        Precondition.checkEmptyCharSequence(profileName);
+
+        return supplyWhenReady(
+                new Supplier<Void>() {
+                    @Override
+                    public Void get() {
+                        DataRepository.getInstance().setProfileLayerEnabled(profileName, enabled);
+                        return null;
+                    }
+                },
+                RepositoryExecutors.writes()
+        );
+    }
+
     public CompletableFuture<List<UserPolicy>> getProfileSettings(final CharSequence profileName) {
         Precondition.checkEmptyCharSequence(profileName);
 
-        return CompletableFuture.supplyAsync(
+        return supplyWhenReady(
                 new Supplier<List<UserPolicy>>() {
                     @Override
                     public List<UserPolicy> get() {
                         String profileString = profileName.toString();
                         return DataRepository.getInstance().getProfileSettings(profileString);
                     }
-                }
+                },
+                RepositoryExecutors.reads()
         );
     }
 
@@ -152,13 +236,14 @@ public class PolicyManager {
         Precondition.checkIfNull(policy, "Cannot add a null policy");
         Precondition.checkIfPolicyIsValid(policy);
 
-        CompletableFuture.runAsync(
+        runWhenReady(
                 new Runnable() {
                     @Override
                     public void run() {
                         DataRepository.getInstance().addUserPolicy(policy);
                     }
-                }
+                },
+                RepositoryExecutors.writes()
         );
     }
 
@@ -183,12 +268,12 @@ public class PolicyManager {
     public CompletableFuture<List<UserPolicy>> getPoliciesForApp(final CharSequence packageName) {
         Precondition.checkEmptyCharSequence(packageName);
 
-        return CompletableFuture.supplyAsync(new Supplier<List<UserPolicy>>() {
+        return supplyWhenReady(new Supplier<List<UserPolicy>>() {
             @Override
             public List<UserPolicy> get() {
                 return DataRepository.getInstance().getAllPoliciesForApp(packageName.toString());
             }
-        });
+        }, RepositoryExecutors.reads());
     }
 
     /**
@@ -216,12 +301,12 @@ public class PolicyManager {
     ) {
         Precondition.checkEmptyCharSequence(profileName);
 
-        return CompletableFuture.supplyAsync(new Supplier<List<UserPolicy>>() {
+        return supplyWhenReady(new Supplier<List<UserPolicy>>() {
             @Override
             public List<UserPolicy> get() {
                 return DataRepository.getInstance().getProfileSettings(profileName.toString());
             }
-        });
+        }, RepositoryExecutors.reads());
     }
 
     /**
@@ -231,12 +316,12 @@ public class PolicyManager {
      * @return list of UserPolicy objects that belong to the sample profile
      * */
     public CompletableFuture<List<UserPolicy>> requestSampleProfilePolicies() {
-        return CompletableFuture.supplyAsync(new Supplier<List<UserPolicy>>() {
+        return supplyWhenReady(new Supplier<List<UserPolicy>>() {
             @Override
             public List<UserPolicy> get() {
                 return DataRepository.getInstance().previewProfileSettings();
             }
-        });
+        }, RepositoryExecutors.reads());
     }
 
     /**
@@ -264,7 +349,7 @@ public class PolicyManager {
         Precondition.checkIfNull(policyTuples, "Cannot query on a null policy");
         Precondition.checkIfPolicyIsValid(policyTuples);
 
-        return CompletableFuture.supplyAsync(
+        return supplyWhenReady(
                 new Supplier<UserPolicy>() {
                     @Override
                     public UserPolicy get() {
@@ -272,7 +357,8 @@ public class PolicyManager {
                                 DataRepository.getInstance().getUserPolicyAction(policyTuples)
                         );
                     }
-                }
+                },
+                RepositoryExecutors.reads()
         );
     }
 
@@ -310,6 +396,41 @@ public class PolicyManager {
         );
     }
 
+    /**
+     * Synchronously reads the policy settings the policy enforcement chain needs to decide on
+     * a request: the policy in effect (same as syncRequestEnforcedPolicy) and whether the user
+     * already decided on this exact request (same as syncGetExactPolicy).
+     *
+     * Like syncRequestEnforcedPolicy, this is only meant for the policy enforcement algorithms.
+     *
+     * @param request the permission request to read settings for
+     * @return the settings the enforcement checks decide from
+     * */
+    public EnforcementPlan.Settings syncReadEnforcementSettings(final PermissionRequest request) {
+        return syncReadEnforcementSettings(request, getActiveProfileSnapshot());
+    }
+
+    /**
+     * Synchronously read the settings the enforcement chain needs for a request, under the
+     * given snapshot of the active profile.
+     *
+     * @param request the permission request being enforced
+     * @param profile the snapshot of the active profile the request is enforced under
+     * @return the settings for the request
+     * */
+    public EnforcementPlan.Settings syncReadEnforcementSettings(final PermissionRequest request,
+                                                                final ProfileSnapshot profile) {
+        Precondition.checkIfNull(request, "Cannot read settings for a null request");
+        Precondition.checkIfNull(profile, "Cannot read settings without a profile");
+
+        UserPolicy policy = UserPolicy.fromPermissionRequest(request);
+        Precondition.checkIfPolicyIsValid(policy);
+
+        return DataRepository.getInstance().readEnforcementSettings(policy,
+                                                                    mTimeframeAskResultIsValid,
+                                                                    profile);
+    }
+
     /**
      * Asynchronously logs the user's policy decision from an ASK prompt - allow or deny,
      * and tracks the timestamp this decision occurred.
@@ -320,12 +441,12 @@ public class PolicyManager {
         Precondition.checkIfNull(policyResult, "Cannot persist a null policy");
         Precondition.checkIfPolicyIsValid(policyResult);
 
-        CompletableFuture.runAsync(new Runnable() {
+        runWhenReady(new Runnable() {
             @Override
             public void run() {
                 DataRepository.getInstance().logUserResponseToAskPrompt(policyResult);
             }
-        });
+        }, RepositoryExecutors.writes());
     }
 
     /**
@@ -351,7 +472,7 @@ public class PolicyManager {
         Precondition.checkIfNull(policy, "Cannot update a null policy");
         Precondition.checkIfPolicyIsValid(policy);
 
-        CompletableFuture.runAsync(
+        runWhenReady(
                 new Runnable() {
                     @Override
                     public void run() {
@@ -361,7 +482,8 @@ public class PolicyManager {
                             DataRepository.getInstance().addUserPolicy(policy);
                         }
                     }
-                }
+                },
+                RepositoryExecutors.writes()
         );
     }
 
@@ -381,6 +503,22 @@ public class PolicyManager {
         }
     }
 
+    /*
+     * The asynchronous methods wait for the DataRepository to be ready, so the user interface
+     * never reads policies before they are loaded.
+     * */
+    private static <T> CompletableFuture<T> supplyWhenReady(final Supplier<T> task,
+                                                            Executor executor) {
+        return DataRepository.getReadiness().future().thenApplyAsync(new Function<Void, T>() {
+            @Override
+            public T apply(Void ready) { return task.get(); }
+        }, executor);
+    }
+
+    private static CompletableFuture<Void> runWhenReady(final Runnable task, Executor executor) {
+        return DataRepository.getReadiness().future().thenRunAsync(task, executor);
+    }
+
     /*
     * If a policy is allow or deny, then return the allow or deny policy. However, ASK is
     * based on timers, and so the policy manager must fetch the last decision made for
@@ -1,76 +1,51 @@
 package edu.cmu.policymanager.PolicyManager;
 
 import android.content.Context;
-import android.content.Intent;
 
 import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
-
-import static edu.cmu.policymanager.ui.notification.PolicyManagerNotificationService.DATA_ACCESSED;
-import static edu.cmu.policymanager.ui.notification.PolicyManagerNotificationService.KEY_POLICY_RESULT;
+import edu.cmu.policymanager.PolicyManager.events.DecisionEventBus;
 
 /**
- * Sends broadcast to notification service that some policy action has occurred. Can send
- * allow and deny notification broadcasts.
+ * Tells the notification service that some policy action has occurred. Can send
+ * allow and deny notifications.
+ *
+ * Decisions are posted to the DecisionEventBus, which adds up the decisions for each app,
+ * permission and purpose and delivers them together, instead of one broadcast per access.
  *
  * Created by Mike Czapik (Carnegie Mellon University).
  */
 public class PolicyNotification {
-    public static final String KEY_PACKAGE_NAME = "app",
-                               KEY_PERMISSION_NAME = "permission",
-                               KEY_PURPOSE = "purpose",
-                               KEY_POLICY_SOURCE = "policy_source";
-
-    public static final String POLICY_ALLOWED =
-            "edu.cmu.policymanager.PolicyManager.action.ACCESS_ALLOWED",
-                               POLICY_DENIED =
-            "edu.cmu.policymanager.PolicyManager.action.ACCESS_DENIED";
-
     /**
-     * Send a broadcast to the notification service to push a notification that this
-     * permission request was allowed.
+     * Tell the notification service that this permission request was allowed.
      *
-     * @param context the Context
+     * @param context the Context, or null to send no notification
      * @param source where the in the policy enforcement process the decision was made
      * @param request the permission request that was subject to policy enforcement
      * */
     public static void sendAllowedNotification(Context context,
                                                CharSequence source,
                                                PermissionRequest request) {
-        if(context != null) {
-            Intent allowedNotification = createNotificationIntent(request);
-            allowedNotification.putExtra(KEY_POLICY_RESULT, POLICY_ALLOWED);
-            allowedNotification.putExtra(KEY_POLICY_SOURCE, source);
-
-            context.sendBroadcast(allowedNotification);
-        }
+        if(context != null) { post(source, request, true); }
     }
 
     /**
-     * Send a broadcast to the notification service to push a notification that this
-     * permission request was denied.
+     * Tell the notification service that this permission request was denied.
      *
-     * @param context the Context
+     * @param context the Context, or null to send no notification
      * @param source where the in the policy enforcement process the decision was made
      * @param request the permission request that was subject to policy enforcement
      * */
     public static void sendDeniedNotification(Context context,
                                               CharSequence source,
                                               PermissionRequest request) {
-        if(context != null) {
-            Intent deniedNotification = createNotificationIntent(request);
-            deniedNotification.putExtra(KEY_POLICY_RESULT, POLICY_DENIED);
-            deniedNotification.putExtra(KEY_POLICY_SOURCE, source);
-
-            context.sendBroadcast(deniedNotification);
-        }
+        if(context != null) { post(source, request, false); }
     }
 
-    private static Intent createNotificationIntent(final PermissionRequest request) {
-        Intent notificationIntent = new Intent(DATA_ACCESSED);
-        notificationIntent.putExtra(KEY_PACKAGE_NAME, request.packageName);
-        notificationIntent.putExtra(KEY_PERMISSION_NAME, request.permission);
-        notificationIntent.putExtra(KEY_PURPOSE, request.purpose);
-
-        return notificationIntent;
+    private static void post(CharSequence source, PermissionRequest request, boolean allowed) {
+        DecisionEventBus.getInstance().post(request.packageName,
+                                            request.permission,
+                                            request.purpose,
+                                            source,
+                                            allowed);
     }
-}
\ No newline at end of file
+}
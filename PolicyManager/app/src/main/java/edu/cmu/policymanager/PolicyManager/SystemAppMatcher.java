@@ -0,0 +1,273 @@
+package edu.cmu.policymanager.PolicyManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import edu.cmu.policymanager.PolicyManager.libraries.LibrarySignatureMatcher;
+
+/**
+ * Decides whether a package name matches a list of system app patterns. Each pattern says
+ * how it matches:
+ *  - com.android.phone matches com.android.phone and every package under it, such as
+ *  com.android.phone.overlay, but not com.android.phonebook
+ *  - com.android.launcher* matches any package whose last segment starts with launcher,
+ *  such as com.android.launcher3, and every package under those
+ *  - =android matches exactly android
+ *  - *auto_generated_rro_* matches any package that contains auto_generated_rro_
+ *
+ * The dotted patterns are compiled into a trie with one level per package name segment, so
+ * a package is matched by walking its segments once, however many patterns there are. The
+ * few contains patterns are matched in one pass by a LibrarySignatureMatcher. Matching does
+ * not allocate.
+ *
+ * Immutable and thread-safe once compiled.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class SystemAppMatcher {
+    private static final char SEPARATOR = '.',
+                              WILDCARD = '*',
+                              EXACT = '=',
+                              COMMENT = '#';
+
+    private final Node mRoot;
+    private final Set<String> mExact;
+    private final LibrarySignatureMatcher mContains;
+    private final int mPatternCount;
+
+    private SystemAppMatcher(Node root,
+                             Set<String> exact,
+                             List<String> contains,
+                             int patternCount) {
+        mRoot = root;
+        mExact = exact;
+        mContains = contains.isEmpty() ?
+                    null :
+                    new LibrarySignatureMatcher(contains.toArray(new String[contains.size()]));
+        mPatternCount = patternCount;
+    }
+
+    /**
+     * Compile a list of patterns.
+     *
+     * @param patterns the patterns, in the format described above
+     * @return the matcher
+     * @throws IllegalArgumentException if a pattern is malformed
+     * */
+    public static SystemAppMatcher compile(List<String> patterns) {
+        Builder root = new Builder();
+        Set<String> exact = new HashSet<String>();
+        List<String> contains = new ArrayList<String>();
+
+        for(String pattern : patterns) {
+            if(pattern == null || pattern.isEmpty()) {
+                throw new IllegalArgumentException("Empty system app pattern");
+            }
+
+            char first = pattern.charAt(0),
+                 last = pattern.charAt(pattern.length() - 1);
+
+            if(first == EXACT) {
+                exact.add(checkName(pattern, pattern.substring(1)));
+            } else if(first == WILDCARD) {
+                if(pattern.length() < 3 || last != WILDCARD) {
+                    throw new IllegalArgumentException("Contains pattern must be *text*: " +
+                                                       pattern);
+                }
+
+                contains.add(checkName(pattern, pattern.substring(1, pattern.length() - 1)));
+            } else if(last == WILDCARD) {
+                String name = checkName(pattern, pattern.substring(0, pattern.length() - 1));
+                int lastSeparator = name.lastIndexOf(SEPARATOR);
+
+                root.pathTo(name.substring(0, Math.max(lastSeparator, 0)), lastSeparator < 0)
+                    .segmentPrefixes.add(name.substring(lastSeparator + 1));
+            } else {
+                root.pathTo(checkName(pattern, pattern), false).terminal = true;
+            }
+        }
+
+        return new SystemAppMatcher(root.compile(), exact, contains, patterns.size());
+    }
+
+    /**
+     * Read and compile a pattern list with one pattern per line. Blank lines and lines
+     * starting with # are skipped.
+     *
+     * @param reader the pattern list
+     * @return the matcher
+     * @throws IOException if the list could not be read
+     * @throws IllegalArgumentException if a pattern is malformed
+     * */
+    public static SystemAppMatcher parse(Reader reader) throws IOException {
+        return compile(readPatterns(reader));
+    }
+
+    /**
+     * Read a pattern list with one pattern per line, without compiling it.
+     *
+     * @param reader the pattern list
+     * @return the patterns, trimmed, without blank lines and comments
+     * @throws IOException if the list could not be read
+     * */
+    public static List<String> readPatterns(Reader reader) throws IOException {
+        List<String> patterns = new ArrayList<String>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+
+        while((line = lines.readLine()) != null) {
+            line = line.trim();
+
+            if(!line.isEmpty() && line.charAt(0) != COMMENT) { patterns.add(line); }
+        }
+
+        return patterns;
+    }
+
+    /**
+     * @param packageName the package name to classify
+     * @return true if any pattern matches the package
+     * */
+    public boolean matches(String packageName) {
+        if(packageName == null) { return false; }
+        if(mExact.contains(packageName)) { return true; }
+
+        Node node = mRoot;
+        int start = 0,
+            length = packageName.length();
+
+        while(node != null) {
+            int end = packageName.indexOf(SEPARATOR, start);
+            if(end < 0) { end = length; }
+
+            for(String prefix : node.segmentPrefixes) {
+                if(prefix.length() <= end - start &&
+                   packageName.regionMatches(start, prefix, 0, prefix.length())) {
+                    return true;
+                }
+            }
+
+            node = node.child(packageName, start, end);
+
+            if(node != null && node.terminal) { return true; }
+            if(end == length) { break; }
+
+            start = end + 1;
+        }
+
+        return mContains != null &&
+               mContains.firstMatchIn(packageName) != LibrarySignatureMatcher.NO_MATCH;
+    }
+
+    /**
+     * @return the number of patterns this matcher was compiled from
+     * */
+    public int size() { return mPatternCount; }
+
+    private static String checkName(String pattern, String name) {
+        if(name.isEmpty() || name.indexOf(WILDCARD) >= 0 || name.indexOf(EXACT) >= 0) {
+            throw new IllegalArgumentException("Malformed system app pattern: " + pattern);
+        }
+
+        return name;
+    }
+
+    /*
+     * A compiled trie node. Children are sorted by segment so they can be searched for a
+     * region of the package name without cutting the segment out of it.
+     */
+    private static final class Node {
+        private final String[] segments;
+        private final Node[] children;
+        private final String[] segmentPrefixes;
+        private final boolean terminal;
+
+        private Node(String[] segments,
+                     Node[] children,
+                     String[] segmentPrefixes,
+                     boolean terminal) {
+            this.segments = segments;
+            this.children = children;
+            this.segmentPrefixes = segmentPrefixes;
+            this.terminal = terminal;
+        }
+
+        private Node child(String packageName, int start, int end) {
+            int low = 0,
+                high = segments.length - 1;
+
+            while(low <= high) {
+                int middle = (low + high) >>> 1,
+                    order = compareRegion(segments[middle], packageName, start, end);
+
+                if(order < 0) {
+                    low = middle + 1;
+                } else if(order > 0) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+
+            return null;
+        }
+
+        /* Orders like String.compareTo, against packageName.substring(start, end). */
+        private static int compareRegion(String segment, String packageName, int start, int end) {
+            int length = Math.min(segment.length(), end - start);
+
+            for(int i = 0; i < length; i++) {
+                int order = segment.charAt(i) - packageName.charAt(start + i);
+                if(order != 0) { return order; }
+            }
+
+            return segment.length() - (end - start);
+        }
+    }
+
+    /* A trie node while the patterns are being added. */
+    private static final class Builder {
+        private final Map<String, Builder> children = new TreeMap<String, Builder>();
+        private final List<String> segmentPrefixes = new ArrayList<String>();
+        private boolean terminal;
+
+        private Builder pathTo(String name, boolean isRoot) {
+            Builder node = this;
+            if(isRoot) { return node; }
+
+            for(String segment : name.split("\\.", -1)) {
+                Builder child = node.children.get(segment);
+
+                if(child == null) {
+                    child = new Builder();
+                    node.children.put(segment, child);
+                }
+
+                node = child;
+            }
+
+            return node;
+        }
+
+        private Node compile() {
+            String[] segments = children.keySet().toArray(new String[children.size()]);
+            Node[] compiled = new Node[segments.length];
+
+            for(int i = 0; i < segments.length; i++) {
+                compiled[i] = children.get(segments[i]).compile();
+            }
+
+            return new Node(segments,
+                            compiled,
+                            segmentPrefixes.toArray(new String[segmentPrefixes.size()]),
+                            terminal);
+        }
+    }
+}
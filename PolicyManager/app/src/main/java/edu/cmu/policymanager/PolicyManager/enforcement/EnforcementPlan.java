@@ -0,0 +1,129 @@
+package edu.cmu.policymanager.PolicyManager.enforcement;
+
+import edu.cmu.policymanager.DataRepository.memory.ProfileSnapshot;
+import edu.cmu.policymanager.PolicyManager.PolicyManager;
+import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
+
+/**
+ * Everything the policy enforcement chain needs to decide on one permission request:
+ *  - the active policy profile, or stack of profiles
+ *  - the quick setting for the permission
+ *  - the policy in effect (the active profile's setting, or the default profile's if it has
+ *  none), with a recent answer to an ASK prompt applied
+ *  - whether the user has a setting for exactly this request
+ *
+ * The profile snapshot and quick setting are captured when the plan is made, so activating
+ * another profile while the request is enforced does not change how it is decided. The
+ * policy settings are read from the DataRepository in one pass, the first time a check needs
+ * them, so a chain that is decided by quick settings never touches the repository. The checks in the chain
+ * decide from this snapshot instead of querying the repository themselves, so a request is
+ * resolved once no matter how many checks look at it.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class EnforcementPlan {
+    /**
+     * The policy settings for a request, read together from the DataRepository.
+     * */
+    public static final class Settings {
+        public final UserPolicy enforcedPolicy;
+        public final boolean userHasDecided;
+
+        /**
+         * @param enforcedPolicy the policy in effect for the request
+         * @param userHasDecided true if a setting exists for exactly this request
+         * */
+        public Settings(UserPolicy enforcedPolicy, boolean userHasDecided) {
+            if(enforcedPolicy == null) {
+                throw new IllegalArgumentException("Enforcement settings need a policy");
+            }
+
+            this.enforcedPolicy = enforcedPolicy;
+            this.userHasDecided = userHasDecided;
+        }
+    }
+
+    private final PermissionRequest mRequest;
+    private final ProfileSnapshot mActiveProfile;
+    private final QuickSettingState mQuickSettings;
+
+    private Settings mSettings;
+
+    private EnforcementPlan(PermissionRequest request) {
+        mRequest = request;
+        mActiveProfile = PolicyManager.getInstance().getActiveProfileSnapshot();
+        mQuickSettings = QuickSettingCheck.getQuickSettings();
+    }
+
+    /**
+     * Make the plan for a request.
+     *
+     * @param request the permission request to enforce
+     * @return the plan, with the profile and quick setting captured
+     * */
+    public static EnforcementPlan forRequest(PermissionRequest request) {
+        if(request == null || request.permission == null) {
+            throw new IllegalArgumentException("Cannot plan enforcement for an invalid request");
+        }
+
+        return new EnforcementPlan(request);
+    }
+
+    /**
+     * @return the name of the policy profile that was active when the plan was made, or the
+     * highest one if a stack of profiles was active
+     * */
+    public String getActiveProfile() { return mActiveProfile.name; }
+
+    /**
+     * @return true if a profile other than the user's default profile is active
+     * */
+    public boolean hasNonDefaultProfile() { return !mActiveProfile.isDefault(); }
+
+    /**
+     * @return true if a non-default profile is active and the setting of one of its layers
+     * denies access
+     * */
+    public boolean activeProfileDenies() {
+        if(!hasNonDefaultProfile() ||
+           !mActiveProfile.mayDeny(mRequest.permission.androidPermission.toString())) {
+            return false;
+        }
+
+        UserPolicy policy = getEnforcedPolicy();
+
+        return mActiveProfile.contains(policy.profile) && policy.isDenied();
+    }
+
+    /**
+     * @return true if the quick setting for the permission is switched off
+     * */
+    public boolean quickSettingDenies() {
+        return mQuickSettings.isDisabled(mRequest.permission.ordinal);
+    }
+
+    /**
+     * @return true if the user has a setting for exactly this app, permission, purpose
+     * and library
+     * */
+    public boolean userHasDecided() { return getSettings().userHasDecided; }
+
+    /**
+     * @return the policy in effect for this request
+     * */
+    public UserPolicy getEnforcedPolicy() { return getSettings().enforcedPolicy; }
+
+    /**
+     * @return true if the policy settings have been read from the DataRepository
+     * */
+    public boolean hasReadSettings() { return mSettings != null; }
+
+    private Settings getSettings() {
+        if(mSettings == null) {
+            mSettings = PolicyManager.getInstance().syncReadEnforcementSettings(mRequest,
+                                                                               mActiveProfile);
+        }
+
+        return mSettings;
+    }
+}
@@ -15,6 +15,7 @@ import edu.cmu.policymanager.PolicyManager.purposes.Purpose;
 import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
 import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
 import edu.cmu.policymanager.PolicyManager.sensitivedata.SensitiveData;
+import edu.cmu.policymanager.peandroid.DecisionResponder;
 import edu.cmu.policymanager.validation.Precondition;
 
 /**
@@ -31,6 +32,7 @@ public final class PermissionRequest implements Parcelable {
     public final ThirdPartyLibrary thirdPartyLibrary;
     public final List<StackTraceElement[]> stacktraces;
     public final ResultReceiver recv;
+    public final DecisionResponder responder;
     public final Context context;
     public final ComponentName topActivity;
     public final CharSequence palModule;
@@ -44,6 +46,8 @@ public final class PermissionRequest implements Parcelable {
         stacktraces = config.stacktraces;
         topActivity = config.mTopActivity;
         recv = config.mRecv;
+        responder = (config.mResponder != null ? config.mResponder :
+                                                 new DecisionResponder(config.mRecv));
         context = config.mContext;
         palModule = config.mPalModule;
         palRequestDescription = config.mPalRequestDescription;
@@ -55,6 +59,8 @@ public final class PermissionRequest implements Parcelable {
         purpose = in.readParcelable(Purpose.class.getClassLoader());
         thirdPartyLibrary = in.readParcelable(ThirdPartyLibrary.class.getClassLoader());
         recv = in.readParcelable(ResultReceiver.class.getClassLoader());
+        /* A request read back from a parcel can no longer share its original responder. */
+        responder = new DecisionResponder(recv);
         topActivity = in.readParcelable(ComponentName.class.getClassLoader());
         stacktraces = null;
         context = null;
@@ -138,6 +144,7 @@ public final class PermissionRequest implements Parcelable {
         private ThirdPartyLibrary mThirdPartyLibrary;
         private List<StackTraceElement[]> stacktraces;
         private ResultReceiver mRecv;
+        private DecisionResponder mResponder;
         private Context mContext;
         private ComponentName mTopActivity;
         private String mPalModule;
@@ -252,6 +259,23 @@ public final class PermissionRequest implements Parcelable {
          * */
         public Builder setResultReceiver(ResultReceiver recv) {
             mRecv = recv;
+            mResponder = null;
+            return this;
+        }
+
+        /**
+         * Set the DecisionResponder that answers this request. Use this when copying a
+         * request, so that the copy answers through the same responder and the request is
+         * still decided only once. This also sets the ResultReceiver.
+         *
+         * @param responder the responder of the request being copied
+         * @return the Builder instance
+         * */
+        public Builder setResponder(DecisionResponder responder) {
+            Precondition.checkIfNull(responder, "Responder is null");
+
+            mResponder = responder;
+            mRecv = responder.getReceiver();
             return this;
         }
 
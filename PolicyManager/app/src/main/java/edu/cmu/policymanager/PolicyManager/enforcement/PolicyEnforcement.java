@@ -35,6 +35,14 @@ public interface PolicyEnforcement {
      * */
     public PermissionRequest getPermissionRequest();
 
+    /**
+     * Get the EnforcementPlan for the current permission request. It is made once per
+     * request, and every fragment of the algorithm decides from the same plan.
+     *
+     * @return the EnforcementPlan
+     * */
+    public EnforcementPlan getEnforcementPlan();
+
     /**
      * During the course of the policy checks, a detail of the original
      * permission request has changed (ex: stacktrace analysis discovered
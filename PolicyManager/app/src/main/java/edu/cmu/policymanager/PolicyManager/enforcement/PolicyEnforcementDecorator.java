@@ -1,29 +1,83 @@
 package edu.cmu.policymanager.PolicyManager.enforcement;
 
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
+
 /**
  * PolicyEnforcementDecorator - this is what each policy enforcement fragment will
  * extend.
  *
+ * Each fragment that names a stage (see getStage) is timed by the fragment before it, not
+ * counting the time spent in the fragments after it. The first fragment of a chain is timed
+ * by enforce.
+ *
  * Created by Mike Czapik (Carnegie Mellon University).
  * */
 public class PolicyEnforcementDecorator implements PolicyEnforcement {
     protected PolicyEnforcement policyEnforcer;
 
+    private long mNextStageNanos;
+
     public PolicyEnforcementDecorator(final PolicyEnforcement policyEnforcer) {
         this.policyEnforcer = policyEnforcer;
     }
 
+    /**
+     * Run an enforcement chain, recording how long each of its stages took and the status
+     * it finished with.
+     *
+     * @param policyEnforcement the first fragment of the chain
+     * @return the status of the chain
+     * */
+    public static EnforcementStatus.Code enforce(final PolicyEnforcement policyEnforcement) {
+        long start = System.nanoTime();
+        EnforcementStatus.Code status = policyEnforcement.isAllowed();
+        long elapsed = System.nanoTime() - start;
+
+        recordStage(policyEnforcement, elapsed);
+        EnforcementMetrics.record(EnforcementMetrics.Stage.ENFORCEMENT_CHAIN, elapsed);
+        EnforcementMetrics.count(status);
+
+        return status;
+    }
+
+    /**
+     * @return the stage this fragment is timed as, or null to leave it untimed
+     * */
+    public EnforcementMetrics.Stage getStage() { return null; }
+
     public boolean didTerminate() { return policyEnforcer.didTerminate(); }
     public void terminate() { policyEnforcer.terminate(); }
 
     public PermissionRequest getPermissionRequest() { return policyEnforcer.getPermissionRequest(); }
 
+    public EnforcementPlan getEnforcementPlan() { return policyEnforcer.getEnforcementPlan(); }
+
     public EnforcementStatus.Code isAllowed() {
-        return policyEnforcer.isAllowed();
+        long start = System.nanoTime();
+        EnforcementStatus.Code status = policyEnforcer.isAllowed();
+        mNextStageNanos = System.nanoTime() - start;
+
+        recordStage(policyEnforcer, mNextStageNanos);
+
+        return status;
     }
 
     @Override
     public void updatePermissionRequest(final PermissionRequest permissionRequest) {
         policyEnforcer.updatePermissionRequest(permissionRequest);
     }
-}
\ No newline at end of file
+
+    private static void recordStage(PolicyEnforcement policyEnforcement, long elapsedNanos) {
+        if(policyEnforcement instanceof PolicyEnforcementDecorator) {
+            PolicyEnforcementDecorator decorator = (PolicyEnforcementDecorator)policyEnforcement;
+            EnforcementMetrics.Stage stage = decorator.getStage();
+
+            if(stage != null) {
+                EnforcementMetrics.record(stage, elapsedNanos - decorator.mNextStageNanos);
+            }
+
+            /* A fragment that ends the chain early never sets this, so clear it for reuse. */
+            decorator.mNextStageNanos = 0;
+        }
+    }
+}
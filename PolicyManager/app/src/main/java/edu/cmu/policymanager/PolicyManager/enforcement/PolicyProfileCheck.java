@@ -1,15 +1,12 @@
 package edu.cmu.policymanager.PolicyManager.enforcement;
 
-import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
-import edu.cmu.policymanager.PolicyManager.PolicyManager;
 import edu.cmu.policymanager.PolicyManager.PolicyNotification;
-import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
-import edu.cmu.policymanager.peandroid.PEAndroid;
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
 
 /**
  * Checks to see if a policy profile is active other than the user default profile. If a
- * non-default profile is active, then check to see if this profile denies access to
- * the requested data.
+ * non-default profile (or a stack of them) is active, then check to see if it denies access
+ * to the requested data, and name the profile that denied it in the notification.
  *
  * Created by Mike Czapik (Carnegie Mellon University).
  * */
@@ -18,6 +15,9 @@ public class PolicyProfileCheck extends PolicyEnforcementDecorator {
         super(policyEnforcer);
     }
 
+    @Override
+    public EnforcementMetrics.Stage getStage() { return EnforcementMetrics.Stage.POLICY_PROFILE; }
+
     /**
      * Refers to a non-default policy profile to determine if access to this sensitive data
      * is allowed or not. If a default policy profile is active, begin the next step in the
@@ -30,36 +30,21 @@ public class PolicyProfileCheck extends PolicyEnforcementDecorator {
         if(didTerminate()) {
             return EnforcementStatus.Code.TERMINATED;
         } else {
-            String policyProfile = PolicyManager.getInstance().getActivePolicyProfile().toString();
+            EnforcementPlan plan = getEnforcementPlan();
 
-            if(policyProfile.equalsIgnoreCase(PolicyProfile.DEFAULT)) {
-                return super.isAllowed();
-            } else {
+            if(plan.activeProfileDenies()) {
                 PermissionRequest request = getPermissionRequest();
 
-                UserPolicy profilePolicy = UserPolicy.fromPermissionRequest(request);
-
-                profilePolicy = PolicyManager.getInstance()
-                                             .syncRequestEnforcedPolicy(profilePolicy);
-
-                if(activeProfileMatchesPolicy(profilePolicy) && profilePolicy.isDenied()) {
-                    terminate();
-                    PolicyNotification.sendDeniedNotification(request.context,
-                                                              policyProfile,
-                                                              request);
-
-                    PEAndroid.connectToReceiver(request.recv).denyPermission();
-                    return EnforcementStatus.Code.POLICYPROFILE_DENIED;
-                }
+                terminate();
+                PolicyNotification.sendDeniedNotification(request.context,
+                                                          plan.getEnforcedPolicy().profile,
+                                                          request);
 
-                return super.isAllowed();
+                request.responder.deny();
+                return EnforcementStatus.Code.POLICYPROFILE_DENIED;
             }
-        }
-    }
 
-    private boolean activeProfileMatchesPolicy(final UserPolicy policy) {
-        String policyProfile = PolicyManager.getInstance().getActivePolicyProfile().toString();
-
-        return policyProfile.equalsIgnoreCase(policy.profile);
+            return super.isAllowed();
+        }
     }
 }
\ No newline at end of file
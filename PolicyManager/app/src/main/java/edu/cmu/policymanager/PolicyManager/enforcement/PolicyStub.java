@@ -8,6 +8,7 @@ package edu.cmu.policymanager.PolicyManager.enforcement;
  * */
 public class PolicyStub implements PolicyEnforcement {
     private PermissionRequest permissionRequest;
+    private EnforcementPlan enforcementPlan;
     private boolean terminted = false;
 
     public PolicyStub(final PermissionRequest permissionRequest) {
@@ -23,6 +24,15 @@ public class PolicyStub implements PolicyEnforcement {
     @Override
     public PermissionRequest getPermissionRequest() { return permissionRequest; }
 
+    @Override
+    public EnforcementPlan getEnforcementPlan() {
+        if(enforcementPlan == null) {
+            enforcementPlan = EnforcementPlan.forRequest(permissionRequest);
+        }
+
+        return enforcementPlan;
+    }
+
     @Override
     public EnforcementStatus.Code isAllowed() {
         return EnforcementStatus.Code.SUCCESS;
@@ -31,5 +41,6 @@ public class PolicyStub implements PolicyEnforcement {
     @Override
     public void updatePermissionRequest(final PermissionRequest permissionRequest) {
         this.permissionRequest = permissionRequest;
+        this.enforcementPlan = null;
     }
 }
\ No newline at end of file
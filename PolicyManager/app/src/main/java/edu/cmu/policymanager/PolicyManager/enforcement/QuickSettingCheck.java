@@ -1,13 +1,11 @@
 package edu.cmu.policymanager.PolicyManager.enforcement;
 
-import android.Manifest;
-import android.util.Log;
-
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import edu.cmu.policymanager.PolicyManager.PolicyNotification;
-import edu.cmu.policymanager.peandroid.PEAndroid;
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
+import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
+import edu.cmu.policymanager.validation.Precondition;
 
 /**
  * References the current state of quick setting switches to determine if access
@@ -20,16 +18,59 @@ import edu.cmu.policymanager.peandroid.PEAndroid;
  * Created by Mike Czapik (Carnegie Mellon University).
  * */
 public class QuickSettingCheck extends PolicyEnforcementDecorator {
-    public static final Map<String, Boolean> quickSettings = new HashMap<String, Boolean>();
+    private static final AtomicReference<QuickSettingState> quickSettings =
+            new AtomicReference<QuickSettingState>(QuickSettingState.enabled(
+                    DangerousPermissions.FINE_LOCATION.ordinal,
+                    DangerousPermissions.COARSE_LOCATION.ordinal,
+                    DangerousPermissions.RECORD_AUDIO.ordinal,
+                    DangerousPermissions.CAMERA.ordinal
+            ));
+
+    public QuickSettingCheck(final PolicyEnforcement policyEnforcer) { super(policyEnforcer); }
+
+    @Override
+    public EnforcementMetrics.Stage getStage() { return EnforcementMetrics.Stage.QUICK_SETTING; }
 
-    static {
-        quickSettings.put(Manifest.permission.ACCESS_FINE_LOCATION, true);
-        quickSettings.put(Manifest.permission.ACCESS_COARSE_LOCATION, true);
-        quickSettings.put(Manifest.permission.RECORD_AUDIO, true);
-        quickSettings.put(Manifest.permission.CAMERA, true);
+    /**
+     * Get the current state of every quick setting. The snapshot never changes, so read it
+     * once and decide from it.
+     *
+     * @return the latest QuickSettingState
+     * */
+    public static QuickSettingState getQuickSettings() { return quickSettings.get(); }
+
+    /**
+     * Turns the quick setting for a permission on or off.
+     *
+     * @param permission the android permission the quick setting controls
+     * @param enabled true if access is allowed, false if the quick setting denies access
+     * */
+    public static void setQuickSetting(CharSequence permission, boolean enabled) {
+        setQuickSettings(enabled, permission);
     }
 
-    public QuickSettingCheck(final PolicyEnforcement policyEnforcer) { super(policyEnforcer); }
+    /**
+     * Turns the quick setting for several permissions on or off at once, so no request sees
+     * some of them switched and others not.
+     *
+     * @param enabled true if access is allowed, false if the quick setting denies access
+     * @param permissions the android permissions the quick setting controls
+     * */
+    public static void setQuickSettings(boolean enabled, CharSequence... permissions) {
+        int[] ordinals = new int[permissions.length];
+
+        for(int i = 0; i < permissions.length; i++) {
+            Precondition.checkEmptyCharSequence(permissions[i]);
+            ordinals[i] = DangerousPermissions.from(permissions[i]).ordinal;
+        }
+
+        QuickSettingState current, next;
+
+        do {
+            current = quickSettings.get();
+            next = current.with(enabled, ordinals);
+        } while(!quickSettings.compareAndSet(current, next));
+    }
 
     /**
      * References quick settings to see if a data access is allowed or denied.
@@ -43,29 +84,18 @@ public class QuickSettingCheck extends PolicyEnforcementDecorator {
         if(didTerminate()) {
             return EnforcementStatus.Code.TERMINATED;
         }
-        else {
-            String permission = getPermissionRequest().permission.androidPermission.toString();
-
-            if(quickSettings.containsKey(permission)) {
-                boolean quickSettingsAllow = quickSettings.get(permission);
+        else if(getEnforcementPlan().quickSettingDenies()) {
+            terminate();
+            PermissionRequest req = getPermissionRequest();
+            PolicyNotification.sendDeniedNotification(req.context,
+                                               "Quick Settings",
+                                                      req);
 
-                if(quickSettingsAllow) {
-                    return super.isAllowed();
-                }
-                else {
-                    terminate();
-                    PermissionRequest req = getPermissionRequest();
-                    PolicyNotification.sendDeniedNotification(req.context,
-                                                       "Quick Settings",
-                                                              req);
-
-                    PEAndroid.connectToReceiver(req.recv).denyPermission();
-                    return EnforcementStatus.Code.QUICKSETTING_DISABLED;
-                }
-            }
-            else {
-                return super.isAllowed();
-            }
+            req.responder.deny();
+            return EnforcementStatus.Code.QUICKSETTING_DISABLED;
+        }
+        else {
+            return super.isAllowed();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+package edu.cmu.policymanager.PolicyManager.enforcement;
+
+/**
+ * An immutable snapshot of the quick setting switches. Each permission is a bit, indexed by
+ * its SensitiveData ordinal: one mask says which permissions have a quick setting, and the
+ * other says which of those are switched on.
+ *
+ * Changing a switch makes a new snapshot with the next version, so anything derived from a
+ * snapshot (such as cached policy decisions) can tell it is out of date by comparing
+ * versions. Reading a snapshot never allocates or locks.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class QuickSettingState {
+    /**
+     * The number of permissions a snapshot can hold.
+     * */
+    public static final int CAPACITY = Long.SIZE;
+
+    public final long version;
+
+    private final long mControlled, mEnabled;
+
+    private QuickSettingState(long version, long controlled, long enabled) {
+        this.version = version;
+        mControlled = controlled;
+        mEnabled = enabled;
+    }
+
+    /**
+     * Create the first snapshot, with every given permission's quick setting switched on.
+     *
+     * @param ordinals the SensitiveData ordinals of the permissions that have a quick setting
+     * @return the snapshot, at version 0
+     * */
+    public static QuickSettingState enabled(int... ordinals) {
+        long mask = maskOf(ordinals);
+        return new QuickSettingState(0L, mask, mask);
+    }
+
+    /**
+     * Make the next snapshot, with the quick setting of the given permissions switched on
+     * or off. This snapshot is left as it is.
+     *
+     * @param enabled true to allow access, false to deny it
+     * @param ordinals the SensitiveData ordinals of the permissions to switch
+     * @return the new snapshot, one version after this one
+     * */
+    public QuickSettingState with(boolean enabled, int... ordinals) {
+        long mask = maskOf(ordinals);
+
+        return new QuickSettingState(version + 1,
+                                     mControlled | mask,
+                                     enabled ? (mEnabled | mask) : (mEnabled & ~mask));
+    }
+
+    /**
+     * @param ordinal the SensitiveData ordinal of a permission, or -1
+     * @return true if the permission has a quick setting
+     * */
+    public boolean isControlled(int ordinal) {
+        return inRange(ordinal) && (mControlled & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * @param ordinal the SensitiveData ordinal of a permission, or -1
+     * @return true if the permission has a quick setting and it is switched off
+     * */
+    public boolean isDisabled(int ordinal) {
+        return isControlled(ordinal) && (mEnabled & (1L << ordinal)) == 0;
+    }
+
+    public String toString() {
+        return "QuickSettingState [version " + version +
+               ", controlled " + Long.toBinaryString(mControlled) +
+               ", enabled " + Long.toBinaryString(mEnabled) + "]";
+    }
+
+    private static boolean inRange(int ordinal) { return ordinal >= 0 && ordinal < CAPACITY; }
+
+    private static long maskOf(int... ordinals) {
+        long mask = 0L;
+
+        for(int ordinal : ordinals) {
+            if(!inRange(ordinal)) {
+                throw new IllegalArgumentException("No quick setting for permission " + ordinal);
+            }
+
+            mask |= 1L << ordinal;
+        }
+
+        return mask;
+    }
+}
@@ -16,6 +16,7 @@ import edu.cmu.policymanager.PolicyManager.PolicyManager;
 import edu.cmu.policymanager.PolicyManager.enforcement.stacktracecases.StackTraceCases;
 import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
 import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibrary;
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
 import edu.cmu.policymanager.PolicyManager.policies.OffDevicePolicy;
 import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
 import edu.cmu.policymanager.PolicyManager.purposes.Purpose;
@@ -55,26 +56,35 @@ public class StackTraceAnalysis {
      * @return updated permission request with purpose or library
      * */
     public static PermissionRequest inferPurposeAndLibrary(PermissionRequest permissionRequest) {
+        long start = System.nanoTime();
+
+        try {
+            return analyze(permissionRequest);
+        } finally {
+            EnforcementMetrics.recordSince(EnforcementMetrics.Stage.STACK_TRACE_ANALYSIS, start);
+        }
+    }
+
+    private static PermissionRequest analyze(PermissionRequest permissionRequest) {
         boolean canPerformPurposeInference =
                 permissionRequest.stacktraces != null ||
                 permissionRequest.topActivity != null;
 
         if(canPerformPurposeInference) {
-            String odpString = DataRepository.getInstance()
-                                             .syncGetODPForPackage(
-                                                     permissionRequest.packageName
-                                             );
-
             OffDevicePolicy odp = null;
+            long odpStart = System.nanoTime();
 
             try {
-                odp = new OffDevicePolicy(odpString);
+                odp = DataRepository.getInstance()
+                                    .syncGetParsedODPForPackage(permissionRequest.packageName);
             } catch(JSONException jse) {
                 return updateRequest(
                         permissionRequest,
                         ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE,
                         Purposes.RUNNING_OTHER_FEATURES
                 );
+            } finally {
+                EnforcementMetrics.recordSince(EnforcementMetrics.Stage.ODP_PARSING, odpStart);
             }
 
             StackTraceElement[] mainThread =
@@ -167,87 +177,33 @@ public class StackTraceAnalysis {
                                 .setPermission(request.permission.androidPermission)
                                 .setPurpose(purpose.name)
                                 .setLibrary(lib)
-                                .setResultReceiver(request.recv)
+                                .setResponder(request.responder)
                                 .build();
     }
 
     private static ThirdPartyLibrary getThirdPartyLibrary(StackTraceElement[] stacktraces,
                                                           ComponentName topActivity) {
-        if(stacktraces != null) {
-            for(StackTraceElement code : stacktraces) {
-                for(ThirdPartyLibrary library : ThirdPartyLibraries.AS_LIST) {
-                    if(code.getClassName().contains(library.qualifiedName)) {
-                        return library;
-                    }
-                }
-            }
-        }
+        ThirdPartyLibrary library = ThirdPartyLibraries.getLibraryInStacktrace(stacktraces);
 
-        if(topActivity != null) {
-            for(ThirdPartyLibrary library : ThirdPartyLibraries.AS_LIST) {
-                if(topActivity.getClassName().contains(library.qualifiedName)) {
-                    return library;
-                }
-            }
+        if(library == null && topActivity != null) {
+            library = ThirdPartyLibraries.getLibraryByOffendingClass(topActivity.getClassName());
         }
 
-        return null;
+        return library;
     }
 
     private static Purpose searchStacktraceForPurpose(StackTraceElement[] mainThread,
                                                       SensitiveData permission,
                                                       OffDevicePolicy odp) {
-        if(mainThread != null) {
-            for (final StackTraceElement offendingCode : mainThread) {
-                String inferredPurpose = searchODPForMatchingCall(odp, permission, offendingCode);
+        OffDevicePolicy.SubPolicy subPolicy = odp.findCallSite(permission.androidPermission,
+                                                               mainThread);
 
-                if (inferredPurpose != null) {
-                    return Purposes.from(inferredPurpose);
-                }
-            }
-        }
+        if(subPolicy != null) {
+            PolicyManagerDebug.debugWithMessage("Found odp policy: " + subPolicy.toString());
 
-        return null;
-    }
-
-    private static String searchODPForMatchingCall(OffDevicePolicy odp,
-                                                   SensitiveData permission,
-                                                   StackTraceElement codeToInspect) {
-        String permissionName = permission.androidPermission.toString();
-
-        String purpose = search(odp, permissionName, codeToInspect.toString());
-
-        if(purpose == null) {
-            purpose = search(odp, permissionName, PolicyManagerApplication.SYMBOL_ALL);
-        }
-
-        return purpose;
-    }
-
-    private static String search(OffDevicePolicy odp,
-                                 CharSequence permissionName,
-                                 String searchElement) {
-        for(OffDevicePolicy.SubPolicy subPolicy : odp.SUBPOLICIES) {
-            String knownOffendingClass = subPolicy.className,
-                    knownOffendingMethod = subPolicy.method;
-
-            if(subPolicy.permission.equalsIgnoreCase(permissionName.toString()) &&
-               matchesODP(searchElement, knownOffendingClass) &&
-               matchesODP(searchElement, knownOffendingMethod)) {
-                PolicyManagerDebug.debugWithMessage(
-                        "Found odp policy at: " + searchElement + " it is: " + subPolicy.toString()
-                );
-
-                return subPolicy.purpose;
-            }
+            return Purposes.from(subPolicy.purpose);
         }
 
         return null;
     }
-
-    //This handles the case where we generate an ODP based on an app's manifest
-    private static boolean matchesODP(final String codeToCompare,
-                                      final String odpElement) {
-        return codeToCompare.contains(odpElement);
-    }
-}
\ No newline at end of file
+}
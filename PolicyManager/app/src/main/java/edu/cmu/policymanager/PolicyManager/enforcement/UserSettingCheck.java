@@ -1,20 +1,16 @@
 package edu.cmu.policymanager.PolicyManager.enforcement;
 
-import android.os.Bundle;
 import android.util.Log;
 
 import java.util.List;
 
 import edu.cmu.policymanager.DataRepository.DataRepository;
-import edu.cmu.policymanager.PolicyManager.PolicyManager;
 import edu.cmu.policymanager.PolicyManager.PolicyNotification;
 import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
 import edu.cmu.policymanager.PolicyManager.policies.UserPolicy;
 import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
 import edu.cmu.policymanager.application.PolicyManagerApplication;
-import edu.cmu.policymanager.peandroid.PEAndroid;
-
-import static edu.cmu.policymanager.ui.runtime.RuntimeUI.INTENT_KEY_PERMISSION_REQUEST;
 
 /**
  * Checks user-configured policies to determine sensitive data access policy. User-configured
@@ -29,19 +25,12 @@ public class UserSettingCheck extends PolicyEnforcementDecorator {
         super(policyEnforcer);
     }
 
-    private boolean userHasAlreadyDecidedOnThis() {
-        UserPolicy policy = UserPolicy.fromPermissionRequest(getPermissionRequest());
-        policy = PolicyManager.getInstance().syncGetExactPolicy(policy);
-
-        return policy != null;
-    }
+    @Override
+    public EnforcementMetrics.Stage getStage() { return EnforcementMetrics.Stage.USER_SETTING; }
 
     private void promptUserForPolicyDecision() {
         if(getPermissionRequest().recv != null) {
-            Bundle runtimeData = new Bundle();
-            runtimeData.putParcelable(INTENT_KEY_PERMISSION_REQUEST, getPermissionRequest());
-            PolicyManagerApplication.ui.setRuntimeData(runtimeData);
-            PolicyManagerApplication.ui.launchRuntimeUI(getPermissionRequest().context);
+            PolicyManagerApplication.ui.getPromptScheduler().submit(getPermissionRequest());
         }
     }
 
@@ -61,20 +50,20 @@ public class UserSettingCheck extends PolicyEnforcementDecorator {
             return EnforcementStatus.Code.TERMINATED;
         } else {
             PermissionRequest request = getPermissionRequest();
+            EnforcementPlan plan = getEnforcementPlan();
 
-            if(userHasAlreadyDecidedOnThis()) {
-                UserPolicy policy = UserPolicy.fromPermissionRequest(request);
-                policy = PolicyManager.getInstance().syncRequestEnforcedPolicy(policy);
+            if(plan.userHasDecided()) {
+                UserPolicy policy = plan.getEnforcedPolicy();
 
                 if(policy.isAllowed()) {
                     terminate();
                     sendUserSettingAllowedNotification(policy);
-                    PEAndroid.connectToReceiver(request.recv).allowPermission();
+                    request.responder.allow();
                     return EnforcementStatus.Code.USERSETTING_ALLOWED;
                 } else if(policy.isDenied()) {
                     terminate();
                     sendUserSettingDeniedNotification(policy);
-                    PEAndroid.connectToReceiver(request.recv).denyPermission();
+                    request.responder.deny();
                     return EnforcementStatus.Code.USERSETTING_DENIED;
                 } else {
                     terminate();
@@ -0,0 +1,81 @@
+package edu.cmu.policymanager.PolicyManager.events;
+
+import edu.cmu.policymanager.PolicyManager.purposes.Purpose;
+import edu.cmu.policymanager.PolicyManager.sensitivedata.SensitiveData;
+
+/**
+ * The policy decisions made for one app, permission and purpose during one window of the
+ * DecisionEventBus: how many accesses were allowed and denied, and the most recent decision
+ * and where in policy enforcement it was made.
+ *
+ * A batch is only changed by the bus before it is delivered, so subscribers can read it
+ * from any thread.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class DecisionBatch {
+    public final String packageName;
+    public final SensitiveData permission;
+    public final Purpose purpose;
+
+    private String mLatestSource;
+    private boolean mLatestAllowed;
+    private int mAllowedCount, mDeniedCount;
+    private long mFirstMillis, mLatestMillis;
+
+    DecisionBatch(String packageName, SensitiveData permission, Purpose purpose) {
+        this.packageName = packageName;
+        this.permission = permission;
+        this.purpose = purpose;
+    }
+
+    void add(CharSequence source, boolean allowed, long nowMillis) {
+        if(getCount() == 0) { mFirstMillis = nowMillis; }
+
+        mLatestSource = source.toString();
+        mLatestAllowed = allowed;
+        mLatestMillis = nowMillis;
+
+        if(allowed) {
+            mAllowedCount++;
+        } else {
+            mDeniedCount++;
+        }
+    }
+
+    /**
+     * @return where in policy enforcement the latest decision was made, such as
+     * "Quick Settings" or a profile name
+     * */
+    public String getLatestSource() { return mLatestSource; }
+
+    /**
+     * @return true if the latest access was allowed
+     * */
+    public boolean latestWasAllowed() { return mLatestAllowed; }
+
+    public int getAllowedCount() { return mAllowedCount; }
+
+    public int getDeniedCount() { return mDeniedCount; }
+
+    /**
+     * @return the number of accesses in this batch
+     * */
+    public int getCount() { return mAllowedCount + mDeniedCount; }
+
+    /**
+     * @return the wall clock time of the first access in this batch
+     * */
+    public long getFirstMillis() { return mFirstMillis; }
+
+    /**
+     * @return the wall clock time of the latest access in this batch
+     * */
+    public long getLatestMillis() { return mLatestMillis; }
+
+    public String toString() {
+        return "DecisionBatch [" + packageName + ", " + permission.androidPermission + ", " +
+               purpose + ", " + mAllowedCount + " allowed, " + mDeniedCount + " denied, " +
+               "latest from " + mLatestSource + "]";
+    }
+}
@@ -0,0 +1,205 @@
+package edu.cmu.policymanager.PolicyManager.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.policymanager.PolicyManager.purposes.Purpose;
+import edu.cmu.policymanager.PolicyManager.sensitivedata.SensitiveData;
+
+/**
+ * Carries policy decisions from enforcement to whoever shows them to the user, inside the
+ * policy manager's process.
+ *
+ * An app that reads location in a loop is decided hundreds of times a minute, and the user
+ * only needs to know it is happening. So decisions are added up per app, permission and
+ * purpose, and delivered together once per window: the first decision after a quiet period
+ * starts a window, and when it ends, subscribers get one DecisionBatch for each combination
+ * that was decided during it. Posting a decision never blocks on a subscriber.
+ *
+ * Subscribers are called on a daemon thread that every bus shares, one window at a time.
+ * When nobody is subscribed, posted decisions are dropped.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class DecisionEventBus {
+    /**
+     * Receives the decisions of each window.
+     * */
+    public interface Subscriber {
+        void onDecisions(List<DecisionBatch> batches);
+    }
+
+    public static final long DEFAULT_WINDOW_MILLIS = 1000L;
+
+    /* Ends the windows of every bus, so a bus holds no thread of its own to shut down. */
+    private static final ScheduledExecutorService scheduler =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DecisionEventBus");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final DecisionEventBus instance = new DecisionEventBus(DEFAULT_WINDOW_MILLIS);
+
+    private final long mWindowMillis;
+    private final List<Subscriber> mSubscribers = new CopyOnWriteArrayList<Subscriber>();
+
+    private final Object mLock = new Object();
+    private Map<Key, DecisionBatch> mPending = new HashMap<Key, DecisionBatch>();
+    private List<DecisionBatch> mPendingOrder = new ArrayList<DecisionBatch>();
+    private boolean mWindowOpen;
+
+    private final AtomicLong mPosted = new AtomicLong(),
+                             mDelivered = new AtomicLong();
+
+    private final Runnable mDeliverWindow = new Runnable() {
+        @Override
+        public void run() { flush(); }
+    };
+
+    /**
+     * @param windowMillis how long decisions are added up for before they are delivered
+     * */
+    public DecisionEventBus(long windowMillis) {
+        if(windowMillis < 0) {
+            throw new IllegalArgumentException("Window cannot be negative");
+        }
+
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * @return the bus policy enforcement posts its decisions to
+     * */
+    public static DecisionEventBus getInstance() { return instance; }
+
+    public void subscribe(Subscriber subscriber) {
+        if(subscriber == null) {
+            throw new IllegalArgumentException("Subscriber is null");
+        }
+
+        mSubscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Subscriber subscriber) { mSubscribers.remove(subscriber); }
+
+    /**
+     * Post a policy decision. It is delivered with the others of its window.
+     *
+     * @param packageName the app that requested the data
+     * @param permission the permission that was requested
+     * @param purpose the purpose of the request, which may be null
+     * @param source where in policy enforcement the decision was made
+     * @param allowed true if access was allowed
+     * */
+    public void post(String packageName,
+                     SensitiveData permission,
+                     Purpose purpose,
+                     CharSequence source,
+                     boolean allowed) {
+        if(packageName == null || permission == null || source == null) {
+            throw new IllegalArgumentException("Decision needs a package, permission and source");
+        }
+
+        if(mSubscribers.isEmpty()) { return; }
+
+        mPosted.incrementAndGet();
+
+        Key key = new Key(packageName, permission, purpose);
+        long nowMillis = System.currentTimeMillis();
+        boolean startWindow = false;
+
+        synchronized(mLock) {
+            DecisionBatch batch = mPending.get(key);
+
+            if(batch == null) {
+                batch = new DecisionBatch(packageName, permission, purpose);
+                mPending.put(key, batch);
+                mPendingOrder.add(batch);
+            }
+
+            batch.add(source, allowed, nowMillis);
+
+            if(!mWindowOpen) {
+                mWindowOpen = true;
+                startWindow = true;
+            }
+        }
+
+        if(startWindow) {
+            scheduler.schedule(mDeliverWindow, mWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Deliver the decisions of the current window now, on the calling thread.
+     * */
+    public void flush() {
+        List<DecisionBatch> batches;
+
+        synchronized(mLock) {
+            mWindowOpen = false;
+
+            if(mPendingOrder.isEmpty()) { return; }
+
+            batches = Collections.unmodifiableList(mPendingOrder);
+            mPending = new HashMap<Key, DecisionBatch>();
+            mPendingOrder = new ArrayList<DecisionBatch>();
+        }
+
+        mDelivered.incrementAndGet();
+
+        for(Subscriber subscriber : mSubscribers) { subscriber.onDecisions(batches); }
+    }
+
+    /**
+     * @return the number of decisions posted while someone was subscribed
+     * */
+    public long getPostedCount() { return mPosted.get(); }
+
+    /**
+     * @return the number of windows delivered to subscribers
+     * */
+    public long getDeliveredCount() { return mDelivered.get(); }
+
+    private static final class Key {
+        private final String packageName, permission, purpose;
+        private final int hash;
+
+        private Key(String packageName, SensitiveData permission, Purpose purpose) {
+            this.packageName = packageName;
+            this.permission = permission.androidPermission.toString();
+            this.purpose = purpose == null ? "" : purpose.systemPurpose.toString();
+
+            hash = 31 * (31 * this.packageName.hashCode() + this.permission.hashCode()) +
+                   this.purpose.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) { return true; }
+            if(!(o instanceof Key)) { return false; }
+
+            Key that = (Key)o;
+
+            return packageName.equals(that.packageName) &&
+                   permission.equals(that.permission) &&
+                   purpose.equals(that.purpose);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+    }
+}
@@ -0,0 +1,218 @@
+package edu.cmu.policymanager.PolicyManager.libraries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds which library signatures (package names such as com.mopub) occur in a class name.
+ * The signatures are compiled once into an Aho-Corasick automaton, so a class name is matched
+ * against every signature in a single pass over its characters, however many signatures
+ * there are.
+ *
+ * Matching keeps the semantics of the String.contains loop it replaces: a class name matches
+ * a signature if the signature occurs anywhere in it, and when several signatures occur, the
+ * one that comes first in the signature list wins. For a stacktrace, the first frame that
+ * matches anything decides the result.
+ *
+ * Matching does not allocate, so it is safe to use on every permission request.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class LibrarySignatureMatcher {
+    public static final int NO_MATCH = -1;
+
+    private static final int ROOT = 0,
+                             ASCII = 128;
+
+    /* Per state: sorted transition characters and the states they lead to. */
+    private final char[][] mKeys;
+    private final int[][] mNext;
+    private final int[] mFail;
+
+    /*
+     * Most characters of a class name lead back to the root, so the root's transitions and
+     * the characters that appear in no signature at all are looked up directly.
+     */
+    private final int[] mRootNext = new int[ASCII];
+    private final boolean[] mInSignatures = new boolean[ASCII];
+
+    /* Per state: lowest index of a signature that ends here or at any suffix of this state. */
+    private final int[] mMatch;
+
+    private final int mSignatureCount;
+
+    /**
+     * Compiles the signatures into a matcher.
+     *
+     * @param signatures the signatures, in priority order
+     * */
+    public LibrarySignatureMatcher(String[] signatures) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        List<Integer> terminal = new ArrayList<Integer>();
+
+        trie.add(new TreeMap<Character, Integer>());
+        terminal.add(NO_MATCH);
+
+        for(int i = 0; i < signatures.length; i++) {
+            String signature = signatures[i];
+            int state = ROOT;
+
+            for(int c = 0; c < signature.length(); c++) {
+                Character key = signature.charAt(c);
+                Integer next = trie.get(state).get(key);
+
+                if(next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    terminal.add(NO_MATCH);
+                    trie.get(state).put(key, next);
+                }
+
+                state = next;
+            }
+
+            if(terminal.get(state) == NO_MATCH) { terminal.set(state, i); }
+        }
+
+        int states = trie.size();
+        mKeys = new char[states][];
+        mNext = new int[states][];
+        mFail = new int[states];
+        mMatch = new int[states];
+        mSignatureCount = signatures.length;
+
+        for(int state = 0; state < states; state++) {
+            TreeMap<Character, Integer> edges = trie.get(state);
+            mKeys[state] = new char[edges.size()];
+            mNext[state] = new int[edges.size()];
+
+            int edge = 0;
+
+            for(Character key : edges.keySet()) {
+                mKeys[state][edge] = key;
+                mNext[state][edge] = edges.get(key);
+                edge++;
+            }
+        }
+
+        Arrays.fill(mRootNext, ROOT);
+
+        for(int edge = 0; edge < mKeys[ROOT].length; edge++) {
+            if(mKeys[ROOT][edge] < ASCII) { mRootNext[mKeys[ROOT][edge]] = mNext[ROOT][edge]; }
+        }
+
+        for(String signature : signatures) {
+            for(int c = 0; c < signature.length(); c++) {
+                if(signature.charAt(c) < ASCII) { mInSignatures[signature.charAt(c)] = true; }
+            }
+        }
+
+        mMatch[ROOT] = terminal.get(ROOT);
+
+        Queue<Integer> queue = new LinkedList<Integer>();
+
+        for(int child : mNext[ROOT]) {
+            mFail[child] = ROOT;
+            mMatch[child] = lower(terminal.get(child), mMatch[ROOT]);
+            queue.add(child);
+        }
+
+        while(!queue.isEmpty()) {
+            int state = queue.remove();
+
+            for(int edge = 0; edge < mKeys[state].length; edge++) {
+                char key = mKeys[state][edge];
+                int child = mNext[state][edge],
+                    fallback = mFail[state];
+
+                while(fallback != ROOT && transition(fallback, key) == NO_MATCH) {
+                    fallback = mFail[fallback];
+                }
+
+                int target = transition(fallback, key);
+                mFail[child] = (target == NO_MATCH ? ROOT : target);
+                mMatch[child] = lower(terminal.get(child), mMatch[mFail[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Find the highest priority signature that occurs in this text.
+     *
+     * @param text a class or package name
+     * @return index of the signature, or NO_MATCH
+     * */
+    public int firstMatchIn(CharSequence text) {
+        if(text == null) { return NO_MATCH; }
+
+        int state = ROOT,
+            best = mMatch[ROOT];
+
+        for(int i = 0; i < text.length() && best != 0; i++) {
+            state = step(state, text.charAt(i));
+            best = lower(best, mMatch[state]);
+        }
+
+        return best;
+    }
+
+    /**
+     * Find the signature for the first stack frame whose class name contains one.
+     *
+     * @param frames the stacktrace to search, top frame first
+     * @return index of the signature, or NO_MATCH
+     * */
+    public int firstMatchIn(StackTraceElement[] frames) {
+        if(frames == null) { return NO_MATCH; }
+
+        for(StackTraceElement frame : frames) {
+            int match = firstMatchIn(frame.getClassName());
+
+            if(match != NO_MATCH) { return match; }
+        }
+
+        return NO_MATCH;
+    }
+
+    /**
+     * @return the number of signatures this matcher was compiled from
+     * */
+    public int size() { return mSignatureCount; }
+
+    private int step(int state, char key) {
+        if(key < ASCII) {
+            if(!mInSignatures[key]) { return ROOT; }
+            if(state == ROOT) { return mRootNext[key]; }
+        }
+
+        while(true) {
+            int next = transition(state, key);
+
+            if(next != NO_MATCH) { return next; }
+            if(state == ROOT) { return ROOT; }
+
+            state = mFail[state];
+        }
+    }
+
+    private int transition(int state, char key) {
+        char[] keys = mKeys[state];
+
+        if(keys.length == 1) { return keys[0] == key ? mNext[state][0] : NO_MATCH; }
+
+        int edge = Arrays.binarySearch(keys, key);
+        return edge < 0 ? NO_MATCH : mNext[state][edge];
+    }
+
+    private static int lower(int a, int b) {
+        if(a == NO_MATCH) { return b; }
+        if(b == NO_MATCH) { return a; }
+
+        return Math.min(a, b);
+    }
+}
@@ -20,13 +20,21 @@ public class ThirdPartyLibraries {
      * @return a ThirdPartyLibrary (if any) that matches offendingClass
      * */
     public static ThirdPartyLibrary getLibraryByOffendingClass(CharSequence offendingClass) {
-        String classString = offendingClass.toString();
+        return libraryAt(SIGNATURES.firstMatchIn(offendingClass));
+    }
 
-        for(ThirdPartyLibrary library : AS_LIST) {
-            if(classString.contains(library.qualifiedName)) { return library; }
-        }
+    /**
+     * Look-up the third party library that appears first in a stacktrace.
+     *
+     * @param stacktrace the stack frames to search, top frame first
+     * @return a ThirdPartyLibrary (if any) that one of the frames' classes belongs to
+     * */
+    public static ThirdPartyLibrary getLibraryInStacktrace(StackTraceElement[] stacktrace) {
+        return libraryAt(SIGNATURES.firstMatchIn(stacktrace));
+    }
 
-        return null;
+    private static ThirdPartyLibrary libraryAt(int signature) {
+        return signature == LibrarySignatureMatcher.NO_MATCH ? null : AS_LIST[signature];
     }
 
     /**
@@ -269,6 +277,22 @@ public class ThirdPartyLibraries {
             FLURRY
     };
 
+    /**
+     * Matches class names against the qualified names of AS_LIST, in the same order.
+     * */
+    private static final LibrarySignatureMatcher SIGNATURES =
+            new LibrarySignatureMatcher(qualifiedNamesOf(AS_LIST));
+
+    private static String[] qualifiedNamesOf(ThirdPartyLibrary[] libraries) {
+        String[] names = new String[libraries.length];
+
+        for(int i = 0; i < libraries.length; i++) {
+            names[i] = libraries[i].qualifiedName;
+        }
+
+        return names;
+    }
+
     static {
         for(ThirdPartyLibrary library : AS_LIST) {
             packageToLibrary.putIfAbsent(library.qualifiedName, library);
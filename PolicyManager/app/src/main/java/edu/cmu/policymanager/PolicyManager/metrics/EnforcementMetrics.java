@@ -0,0 +1,168 @@
+package edu.cmu.policymanager.PolicyManager.metrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.cmu.policymanager.PolicyManager.enforcement.EnforcementStatus;
+
+/**
+ * Where the time to answer a permission request goes. Keeps a LatencyHistogram for each stage
+ * of enforcement and a count of the requests that ended with each EnforcementStatus.Code.
+ *
+ * The time of a check in the enforcement chain does not include the checks after it.
+ * Everything is fixed in size and lock-free, so recording is cheap
+ * enough to leave on in production. The numbers can be read with
+ * "adb shell dumpsys activity service CMUPolicyManagerService" or on the metrics debug screen.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class EnforcementMetrics {
+    public enum Stage {
+        /* StackTraceAnalysis.inferPurposeAndLibrary, including getting the ODP */
+        STACK_TRACE_ANALYSIS,
+        /* Getting the parsed ODP of the app, from the cache or the database */
+        ODP_PARSING,
+        /* The checks of the enforcement chain, each without the checks after it */
+        POLICY_PROFILE,
+        QUICK_SETTING,
+        USER_SETTING,
+        /* The whole enforcement chain */
+        ENFORCEMENT_CHAIN,
+        /* From a request being prompted to the user answering it */
+        PROMPT_WAIT
+    }
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final LatencyHistogram[] histograms =
+            new LatencyHistogram[Stage.values().length];
+
+    private static final AtomicLongArray statusCounts =
+            new AtomicLongArray(EnforcementStatus.Code.values().length);
+
+    static {
+        for(int i = 0; i < histograms.length; i++) { histograms[i] = new LatencyHistogram(); }
+    }
+
+    private EnforcementMetrics() {}
+
+    /**
+     * Record the time a stage took, from the given start to now.
+     *
+     * @param stage the stage that ran
+     * @param startNanos the System.nanoTime() the stage started at
+     * */
+    public static void recordSince(Stage stage, long startNanos) {
+        record(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record the time a stage took.
+     *
+     * @param stage the stage that ran
+     * @param nanos how long it took, in nanoseconds
+     * */
+    public static void record(Stage stage, long nanos) { histograms[stage.ordinal()].record(nanos); }
+
+    /**
+     * Count a request that the enforcement chain finished with this status.
+     *
+     * @param status the status the chain returned
+     * */
+    public static void count(EnforcementStatus.Code status) {
+        statusCounts.incrementAndGet(status.ordinal());
+    }
+
+    /**
+     * @param stage the stage
+     * @return the histogram of the stage's latencies
+     * */
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * @param status the status
+     * @return the number of requests that finished with it
+     * */
+    public static long getCount(EnforcementStatus.Code status) {
+        return statusCounts.get(status.ordinal());
+    }
+
+    /**
+     * Drop every latency and count.
+     * */
+    public static void reset() {
+        for(LatencyHistogram histogram : histograms) { histogram.reset(); }
+        for(int i = 0; i < statusCounts.length(); i++) { statusCounts.set(i, 0); }
+    }
+
+    /**
+     * Print a table of each stage's latency percentiles in microseconds, followed by the
+     * count of each status.
+     *
+     * @param writer where to print
+     * */
+    public static void dump(PrintWriter writer) {
+        writer.println("Enforcement latency (us):");
+        writer.print(String.format(Locale.US, "  %-22s %9s", "stage", "count"));
+
+        for(double percentile : PERCENTILES) {
+            writer.print(String.format(Locale.US, " %9s", "p" + format(percentile)));
+        }
+
+        writer.println(String.format(Locale.US, " %9s %9s", "max", "mean"));
+
+        for(Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+
+            writer.print(String.format(Locale.US,
+                                       "  %-22s %9d",
+                                       stage.name().toLowerCase(Locale.US),
+                                       histogram.getCount()));
+
+            for(double percentile : PERCENTILES) {
+                writer.print(String.format(Locale.US,
+                                           " %9.1f",
+                                           micros(histogram.getValueAtPercentile(percentile))));
+            }
+
+            writer.println(String.format(Locale.US,
+                                         " %9.1f %9.1f",
+                                         micros(histogram.getMax()),
+                                         micros(histogram.getMean())));
+        }
+
+        writer.println();
+        writer.println("Enforcement results:");
+
+        for(EnforcementStatus.Code status : EnforcementStatus.Code.values()) {
+            writer.println(String.format(Locale.US,
+                                         "  %-46s %9d",
+                                         status.name().toLowerCase(Locale.US),
+                                         getCount(status)));
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * @return what dump(PrintWriter) prints, as a String
+     * */
+    public static String dump() {
+        StringWriter out = new StringWriter();
+        dump(new PrintWriter(out));
+
+        return out.toString();
+    }
+
+    private static double micros(long nanos) { return nanos / 1000.0; }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ?
+               String.valueOf((long)percentile) :
+               String.valueOf(percentile);
+    }
+}
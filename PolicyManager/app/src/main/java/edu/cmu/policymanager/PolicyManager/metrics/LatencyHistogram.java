@@ -0,0 +1,134 @@
+package edu.cmu.policymanager.PolicyManager.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of latencies in nanoseconds, in the style of an HdrHistogram.
+ *
+ * Values are counted in buckets that are linear within each power of two: every power of two
+ * is split into 32 sub-buckets, so a value is reported to within about 3% of what was
+ * recorded, from 1 ns up to about 18 minutes. Anything longer is counted in the last bucket.
+ * The histogram never grows, and recording a value is a few atomic increments with no
+ * locking or allocation, so it can be used on the enforcement path.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5,
+                             SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS,
+                             MAX_VALUE_BITS = 40,
+                             BUCKET_COUNT =
+                                     (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    /**
+     * The highest value that is recorded exactly; longer latencies are clamped to it.
+     * */
+    public static final long MAX_TRACKABLE_NANOS = (1L << MAX_VALUE_BITS) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong(),
+                             mTotalNanos = new AtomicLong(),
+                             mMaxNanos = new AtomicLong();
+
+    /**
+     * Record one latency.
+     *
+     * @param nanos the latency in nanoseconds; negative values are recorded as 0
+     * */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0L), MAX_TRACKABLE_NANOS);
+
+        mCounts.incrementAndGet(bucketOf(value));
+        mTotalCount.incrementAndGet();
+        mTotalNanos.addAndGet(value);
+
+        long max = mMaxNanos.get();
+
+        while(value > max && !mMaxNanos.compareAndSet(max, value)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    /**
+     * @return the number of latencies recorded
+     * */
+    public long getCount() { return mTotalCount.get(); }
+
+    /**
+     * @return the longest latency recorded, in nanoseconds
+     * */
+    public long getMax() { return mMaxNanos.get(); }
+
+    /**
+     * @return the mean latency in nanoseconds, or 0 if nothing was recorded
+     * */
+    public long getMean() {
+        long count = mTotalCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * Get the latency that the given percentage of recorded latencies are at or under. The
+     * answer is the top of the bucket the latency falls in, so it never under-reports.
+     *
+     * @param percentile between 0 and 100
+     * @return the latency in nanoseconds, or 0 if nothing was recorded
+     * */
+    public long getValueAtPercentile(double percentile) {
+        if(percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        /* Buckets are read one at a time while others record, so count what is there. */
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+
+        if(total == 0) { return 0; }
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total)),
+             seen = 0;
+
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+
+            if(seen >= rank) { return Math.min(highestValueIn(i), getMax()); }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Drop every recorded latency. Latencies recorded at the same time may be partly kept.
+     * */
+    public void reset() {
+        for(int i = 0; i < BUCKET_COUNT; i++) { mCounts.set(i, 0); }
+
+        mTotalCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if(value < SUB_BUCKET_COUNT) { return (int)value; }
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift) - SUB_BUCKET_COUNT;
+
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValueIn(int bucket) {
+        if(bucket < SUB_BUCKET_COUNT) { return bucket; }
+
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long lowest = (long)(SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+
+        return lowest + (1L << shift) - 1;
+    }
+}
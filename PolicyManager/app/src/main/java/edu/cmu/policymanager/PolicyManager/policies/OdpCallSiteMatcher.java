@@ -0,0 +1,235 @@
+package edu.cmu.policymanager.PolicyManager.policies;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches stack frames against the call sites (class and method) an off-device policy declares
+ * for one permission. It is compiled once per permission when the policy is parsed, and
+ * matching looks at getClassName() and getMethodName() directly, so nothing is allocated per
+ * frame.
+ *
+ * A call site matches a frame if:
+ *  - its class is the frame's class, or a class the frame's class is nested in
+ *  (com.domain.MainActivity matches com.domain.MainActivity$1), or *
+ *  - its method is the frame's method, or *
+ *
+ * When several call sites match a frame, the one declared first wins. Call sites with * for
+ * both class and method are the ones generated from an app's manifest; they never match a
+ * specific frame, and the first of them is used for the whole stacktrace when its top frame
+ * matches nothing, as stack trace analysis always did.
+ *
+ * Policies may also name a call site by part of its class or method, e.g. a package such as
+ * com.mopub, which stack trace analysis matched by searching each frame's string for the class
+ * and the method. When no frame matches exactly, the frames are searched that way too, before
+ * falling back to the manifest call site, so such policies resolve as they always have. Exact
+ * matches are found without that search and take precedence over it.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ */
+public class OdpCallSiteMatcher {
+    public static final int NO_MATCH = -1;
+
+    private static final String WILDCARD = "*";
+    private static final char NESTED_CLASS_SEPARATOR = '$';
+
+    /* Open addressing table of class names, with the call sites declared for each class. */
+    private final String[] mClasses;
+    private final int[] mClassHashes;
+    private final int[][] mClassSites;
+    private final int mMask;
+
+    private final String[] mClassNames;
+    private final String[] mMethods;
+
+    /* Call sites with a * class and a specific method. */
+    private final int[] mAnyClassSites;
+
+    private final int mFallback;
+
+    /**
+     * Compiles the call sites of one permission.
+     *
+     * @param classNames the class of each call site, in policy order
+     * @param methods the method of each call site, in policy order
+     * */
+    public OdpCallSiteMatcher(List<String> classNames, List<String> methods) {
+        if(classNames.size() != methods.size()) {
+            throw new IllegalArgumentException("Every call site needs a class and a method");
+        }
+
+        Map<String, List<Integer>> sitesByClass = new LinkedHashMap<String, List<Integer>>();
+        List<Integer> anyClassSites = new ArrayList<Integer>();
+        int fallback = NO_MATCH;
+
+        mClassNames = classNames.toArray(new String[classNames.size()]);
+        mMethods = methods.toArray(new String[methods.size()]);
+
+        for(int site = 0; site < mMethods.length; site++) {
+            String className = classNames.get(site);
+
+            if(WILDCARD.equals(className)) {
+                if(!WILDCARD.equals(mMethods[site])) {
+                    anyClassSites.add(site);
+                } else if(fallback == NO_MATCH) {
+                    fallback = site;
+                }
+
+                continue;
+            }
+
+            List<Integer> sites = sitesByClass.get(className);
+
+            if(sites == null) {
+                sites = new ArrayList<Integer>();
+                sitesByClass.put(className, sites);
+            }
+
+            sites.add(site);
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(1, sitesByClass.size()) * 4);
+
+        mClasses = new String[capacity];
+        mClassHashes = new int[capacity];
+        mClassSites = new int[capacity][];
+        mMask = capacity - 1;
+        mAnyClassSites = toArray(anyClassSites);
+        mFallback = fallback;
+
+        for(Map.Entry<String, List<Integer>> entry : sitesByClass.entrySet()) {
+            int hash = entry.getKey().hashCode(),
+                slot = spread(hash) & mMask;
+
+            while(mClasses[slot] != null) { slot = (slot + 1) & mMask; }
+
+            mClasses[slot] = entry.getKey();
+            mClassHashes[slot] = hash;
+            mClassSites[slot] = toArray(entry.getValue());
+        }
+    }
+
+    /**
+     * Find the call site declared for a stacktrace.
+     *
+     * @param frames the stacktrace, top frame first
+     * @return the position of the call site in policy order, or NO_MATCH
+     * */
+    public int match(StackTraceElement[] frames) {
+        if(frames == null || frames.length == 0) { return NO_MATCH; }
+
+        /* With a manifest call site, only the top frame is searched before falling back. */
+        int searched = mFallback == NO_MATCH ? frames.length : 1;
+
+        for(int i = 0; i < searched; i++) {
+            int site = match(frames[i].getClassName(), frames[i].getMethodName());
+
+            if(site != NO_MATCH) { return site; }
+        }
+
+        for(int i = 0; i < searched; i++) {
+            int site = containsSearch(frames[i].toString());
+
+            if(site != NO_MATCH) { return site; }
+        }
+
+        return mFallback;
+    }
+
+    /**
+     * Find the first call site that matches a single frame exactly, without the substring
+     * search or the * fallback.
+     *
+     * @param className the class name of the frame
+     * @param methodName the method name of the frame
+     * @return the position of the call site in policy order, or NO_MATCH
+     * */
+    public int match(String className, String methodName) {
+        if(className == null || methodName == null) { return NO_MATCH; }
+
+        int best = firstMatchingSite(mAnyClassSites, methodName, NO_MATCH),
+            hash = 0;
+
+        /*
+         * The hash of every prefix that ends before a $ is a step of String.hashCode over the
+         * whole name, so the frame's class and each class it is nested in are probed in one pass.
+         */
+        for(int i = 0; i < className.length(); i++) {
+            char c = className.charAt(i);
+
+            if(c == NESTED_CLASS_SEPARATOR && i > 0) {
+                best = matchClass(className, i, hash, methodName, best);
+            }
+
+            hash = 31 * hash + c;
+        }
+
+        return matchClass(className, className.length(), hash, methodName, best);
+    }
+
+    /**
+     * @return the position of the call site used when the top frame matches nothing,
+     * or NO_MATCH
+     * */
+    public int getFallback() { return mFallback; }
+
+    private int matchClass(String className,
+                           int length,
+                           int hash,
+                           String methodName,
+                           int best) {
+        int slot = spread(hash) & mMask;
+
+        while(mClasses[slot] != null) {
+            String candidate = mClasses[slot];
+
+            if(mClassHashes[slot] == hash &&
+               candidate.length() == length &&
+               className.regionMatches(0, candidate, 0, length)) {
+                return firstMatchingSite(mClassSites[slot], methodName, best);
+            }
+
+            slot = (slot + 1) & mMask;
+        }
+
+        return best;
+    }
+
+    /*
+     * The slow path: the first call site whose class and method are both part of the frame's
+     * string, as stack trace analysis searched before call sites were compiled.
+     */
+    private int containsSearch(String frame) {
+        for(int site = 0; site < mClassNames.length; site++) {
+            if(frame.contains(mClassNames[site]) && frame.contains(mMethods[site])) {
+                return site;
+            }
+        }
+
+        return NO_MATCH;
+    }
+
+    private int firstMatchingSite(int[] sites, String methodName, int best) {
+        for(int site : sites) {
+            if(best != NO_MATCH && site >= best) { return best; }
+
+            String method = mMethods[site];
+
+            if(method.equals(methodName) || method.equals(WILDCARD)) { return site; }
+        }
+
+        return best;
+    }
+
+    private static int spread(int hash) { return hash ^ (hash >>> 16); }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+
+        for(int i = 0; i < array.length; i++) { array[i] = values.get(i); }
+
+        return array;
+    }
+}
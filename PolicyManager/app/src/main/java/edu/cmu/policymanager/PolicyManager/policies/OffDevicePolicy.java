@@ -16,8 +16,12 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
 import edu.cmu.policymanager.PolicyManager.sensitivedata.DangerousPermissions;
@@ -64,11 +68,41 @@ public class OffDevicePolicy {
 
     public final List<SubPolicy> SUBPOLICIES = new LinkedList<SubPolicy>();
 
+    /*
+     * Sub-policies grouped by permission and by class name, in the order they appear in the
+     * policy. Built once after parsing, so lookups do not scan every sub-policy. Permissions
+     * are keyed both as written and in lower case, since they are compared ignoring case.
+     */
+    private final Map<String, PermissionPolicies> mByPermission =
+            new HashMap<String, PermissionPolicies>();
+    private final Map<String, List<SubPolicy>> mByClass =
+            new HashMap<String, List<SubPolicy>>();
+
+    /* The sub-policies of one permission, with their call sites compiled for matching. */
+    private static final class PermissionPolicies {
+        final List<SubPolicy> policies;
+        final OdpCallSiteMatcher callSites;
+
+        PermissionPolicies(List<SubPolicy> policies) {
+            List<String> classNames = new ArrayList<String>(policies.size()),
+                         methods = new ArrayList<String>(policies.size());
+
+            for(SubPolicy policy : policies) {
+                classNames.add(policy.className);
+                methods.add(policy.method);
+            }
+
+            this.policies = Collections.unmodifiableList(policies);
+            this.callSites = new OdpCallSiteMatcher(classNames, methods);
+        }
+    }
+
     /**
      * Create an OffDevicepolicy from the ODP string passed to us by PE Android (if one exists)
      * */
     public OffDevicePolicy(final String policyString) throws JSONException {
         parse(policyString);
+        index();
     }
 
     public String toString() {
@@ -81,14 +115,56 @@ public class OffDevicePolicy {
         return policyAsString;
     }
 
+    /**
+     * Get the sub-policies that declare an access of this permission. Permission names are
+     * compared ignoring case, as they are everywhere else in an off-device policy.
+     *
+     * @param permission the android permission, e.g. android.permission.CAMERA
+     * @return the sub-policies in policy order, or an empty list
+     * */
+    public List<SubPolicy> getSubPoliciesFor(CharSequence permission) {
+        PermissionPolicies policies = policiesFor(permission);
+        return policies == null ? Collections.<SubPolicy>emptyList() : policies.policies;
+    }
+
+    /**
+     * Find the sub-policy whose class and method match where in the app this permission was
+     * requested. See OdpCallSiteMatcher for how call sites are matched.
+     *
+     * @param permission the android permission being requested
+     * @param stacktrace the stacktrace of the request, top frame first
+     * @return the matching sub-policy, or null
+     * */
+    public SubPolicy findCallSite(CharSequence permission,
+                                  StackTraceElement[] stacktrace) {
+        PermissionPolicies policies = policiesFor(permission);
+
+        if(policies == null) { return null; }
+
+        int site = policies.callSites.match(stacktrace);
+        return site == OdpCallSiteMatcher.NO_MATCH ? null : policies.policies.get(site);
+    }
+
+    /**
+     * Get the sub-policies that declare an access in this class.
+     *
+     * @param className the fully qualified class name, or * for the policies generated
+     *                  from an app's manifest
+     * @return the sub-policies in policy order, or an empty list
+     * */
+    public List<SubPolicy> getSubPoliciesForClass(CharSequence className) {
+        if(className == null) { return Collections.emptyList(); }
+
+        List<SubPolicy> policies = mByClass.get(className.toString());
+        return policies == null ? Collections.<SubPolicy>emptyList() : policies;
+    }
+
     public CharSequence getPolicyComment(CharSequence permission,
                                          CharSequence purpose) {
-        String permissionName = permission.toString(),
-               purposeName = purpose.toString();
+        String purposeName = purpose.toString();
 
-        for (final OffDevicePolicy.SubPolicy subPolicy : SUBPOLICIES) {
-            if (subPolicy.permission.equalsIgnoreCase(permissionName) &&
-                subPolicy.purpose.equalsIgnoreCase(purposeName)) {
+        for (final OffDevicePolicy.SubPolicy subPolicy : getSubPoliciesFor(permission)) {
+            if (subPolicy.purpose.equalsIgnoreCase(purposeName)) {
                 return subPolicy.comment;
             }
         }
@@ -207,6 +283,52 @@ public class OffDevicePolicy {
         }
     }
 
+    private void index() {
+        Map<String, List<SubPolicy>> byFoldedPermission = new HashMap<String, List<SubPolicy>>();
+
+        for(SubPolicy policy : SUBPOLICIES) {
+            addTo(byFoldedPermission, fold(policy.permission), policy);
+            addTo(mByClass, policy.className, policy);
+        }
+
+        for(Map.Entry<String, List<SubPolicy>> entry : byFoldedPermission.entrySet()) {
+            mByPermission.put(entry.getKey(), new PermissionPolicies(entry.getValue()));
+        }
+
+        for(Map.Entry<String, List<SubPolicy>> entry : mByClass.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+
+        /* Every spelling of a permission maps to all policies for it, whatever their case. */
+        for(SubPolicy policy : SUBPOLICIES) {
+            mByPermission.put(policy.permission, mByPermission.get(fold(policy.permission)));
+        }
+    }
+
+    private PermissionPolicies policiesFor(CharSequence permission) {
+        if(permission == null) { return null; }
+
+        String permissionName = permission.toString();
+        PermissionPolicies policies = mByPermission.get(permissionName);
+
+        return policies != null ? policies : mByPermission.get(fold(permissionName));
+    }
+
+    private static void addTo(Map<String, List<SubPolicy>> index,
+                              String key,
+                              SubPolicy policy) {
+        List<SubPolicy> policies = index.get(key);
+
+        if(policies == null) {
+            policies = new ArrayList<SubPolicy>();
+            index.put(key, policies);
+        }
+
+        policies.add(policy);
+    }
+
+    private static String fold(String permission) { return permission.toLowerCase(Locale.US); }
+
     private SubPolicy extractSubPolicy(JSONObject jsonPolicy) {
         SubPolicyBuilder policyBuilder = new SubPolicyBuilder();
 
@@ -0,0 +1,178 @@
+package edu.cmu.policymanager.PolicyManager.replay;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One permission request as it was received from PE for Android, read back from a request log,
+ * along with the decision the policy manager made for it at the time.
+ *
+ * The top activity is kept as a flattened ComponentName string, so a recording can be read
+ * without Android.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class RecordedRequest {
+    public enum Kind {
+        /* A request from onDangerousPermissionRequest */
+        DANGEROUS_PERMISSION,
+        /* A request from onPrivateDataRequest */
+        PRIVATE_DATA
+    }
+
+    public enum Decision {
+        ALLOWED,
+        DENIED,
+        /* No decision was recorded, such as for a prompt that was never answered */
+        NONE
+    }
+
+    public final long sequence;
+    public final long timestampMillis;
+    public final Kind kind;
+    public final String packageName, permission, purpose;
+    public final List<StackTraceElement[]> stacktraces;
+    public final int flags;
+    public final String topActivity;
+    public final String palModule, palDescription;
+    public final Decision decision;
+
+    private RecordedRequest(Builder config, Decision decision) {
+        sequence = config.mSequence;
+        timestampMillis = config.mTimestampMillis;
+        kind = config.mKind;
+        packageName = config.mPackageName;
+        permission = config.mPermission;
+        purpose = config.mPurpose;
+        stacktraces = config.mStacktraces;
+        flags = config.mFlags;
+        topActivity = config.mTopActivity;
+        palModule = config.mPalModule;
+        palDescription = config.mPalDescription;
+        this.decision = decision;
+    }
+
+    /**
+     * @param decision the decision made for this request
+     * @return a copy of this request with the decision set
+     * */
+    public RecordedRequest withDecision(Decision decision) {
+        if(decision == null) {
+            throw new IllegalArgumentException("Decision is null, use Decision.NONE");
+        }
+
+        return new RecordedRequest(toBuilder(), decision);
+    }
+
+    public static Builder builder(Kind kind) { return new Builder(kind); }
+
+    public String toString() {
+        return "RecordedRequest #" + sequence + " [" + kind + ", " + packageName + ", " +
+               permission + ", " + purpose + ", " + decision + "]";
+    }
+
+    private Builder toBuilder() {
+        return builder(kind).setSequence(sequence)
+                            .setTimestampMillis(timestampMillis)
+                            .setPackageName(packageName)
+                            .setPermission(permission)
+                            .setPurpose(purpose)
+                            .setStacktraces(stacktraces)
+                            .setFlags(flags)
+                            .setTopActivity(topActivity)
+                            .setPalModule(palModule)
+                            .setPalDescription(palDescription);
+    }
+
+    /**
+     * Builds recorded requests. A package name and permission are required.
+     * */
+    public static final class Builder {
+        private final Kind mKind;
+        private long mSequence, mTimestampMillis;
+        private String mPackageName, mPermission, mPurpose;
+        private List<StackTraceElement[]> mStacktraces =
+                Collections.<StackTraceElement[]>emptyList();
+        private int mFlags;
+        private String mTopActivity, mPalModule, mPalDescription;
+
+        private Builder(Kind kind) {
+            if(kind == null) {
+                throw new IllegalArgumentException("A recorded request needs a kind");
+            }
+
+            mKind = kind;
+        }
+
+        public Builder setSequence(long sequence) {
+            mSequence = sequence;
+            return this;
+        }
+
+        public Builder setTimestampMillis(long timestampMillis) {
+            mTimestampMillis = timestampMillis;
+            return this;
+        }
+
+        public Builder setPackageName(String packageName) {
+            mPackageName = packageName;
+            return this;
+        }
+
+        public Builder setPermission(String permission) {
+            mPermission = permission;
+            return this;
+        }
+
+        public Builder setPurpose(String purpose) {
+            mPurpose = purpose;
+            return this;
+        }
+
+        /**
+         * @param stacktraces the stack traces of the app's threads, or null for none
+         * @return the Builder instance
+         * */
+        public Builder setStacktraces(List<StackTraceElement[]> stacktraces) {
+            mStacktraces = stacktraces == null ?
+                           Collections.<StackTraceElement[]>emptyList() :
+                           stacktraces;
+            return this;
+        }
+
+        public Builder setFlags(int flags) {
+            mFlags = flags;
+            return this;
+        }
+
+        /**
+         * @param topActivity the flattened ComponentName of the foreground activity, or null
+         * @return the Builder instance
+         * */
+        public Builder setTopActivity(String topActivity) {
+            mTopActivity = topActivity;
+            return this;
+        }
+
+        public Builder setPalModule(String palModule) {
+            mPalModule = palModule;
+            return this;
+        }
+
+        public Builder setPalDescription(String palDescription) {
+            mPalDescription = palDescription;
+            return this;
+        }
+
+        /**
+         * @return the recorded request, with no decision
+         * */
+        public RecordedRequest build() {
+            if(mPackageName == null || mPermission == null) {
+                throw new IllegalStateException("A recorded request needs a package and permission");
+            }
+
+            return new RecordedRequest(this, Decision.NONE);
+        }
+    }
+}
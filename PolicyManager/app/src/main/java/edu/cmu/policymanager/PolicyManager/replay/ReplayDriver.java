@@ -0,0 +1,194 @@
+package edu.cmu.policymanager.PolicyManager.replay;
+
+import android.content.ComponentName;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.policymanager.PolicyManager.EnforcementPipeline;
+import edu.cmu.policymanager.peandroid.DecisionResponder;
+
+/**
+ * Feeds recorded requests back through the EnforcementPipeline and reports how fast they were
+ * decided and whether the decisions match the recording.
+ *
+ * Requests can be replayed:
+ *  - at the speed they were recorded, or some multiple of it. Each request is started when it
+ *  is due, whether or not the requests before it are done, and its latency counts from when
+ *  it was due, so a slow pipeline shows up as latency instead of just slowing the replay down.
+ *  - flat out, with every thread taking the next request as soon as it is done with the last.
+ *
+ * Replayed requests send no notifications and never prompt the user, since they have no
+ * Context or ResultReceiver. A request that would have prompted is left undecided.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class ReplayDriver {
+    /* Threads that run timed replays, so a slow request does not hold up the ones after it. */
+    private static final int TIMED_REPLAY_THREADS = 4;
+
+    private final double mSpeed;
+    private final int mThreads;
+
+    private ReplayDriver(double speed, int threads) {
+        mSpeed = speed;
+        mThreads = threads;
+    }
+
+    /**
+     * @return a driver that replays requests with the delays they were recorded with
+     * */
+    public static ReplayDriver atOriginalSpeed() { return atSpeed(1); }
+
+    /**
+     * @param speed how many times faster than recorded to replay, such as 10 for a tenth of
+     *              the recorded delays
+     * @return a driver that replays requests at a multiple of the recorded speed
+     * */
+    public static ReplayDriver atSpeed(double speed) {
+        if(!(speed > 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Replay speed must be above 0, was " + speed);
+        }
+
+        return new ReplayDriver(speed, TIMED_REPLAY_THREADS);
+    }
+
+    /**
+     * @param threads the number of threads replaying requests
+     * @return a driver that replays requests as fast as it can
+     * */
+    public static ReplayDriver flatOut(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("Replay needs at least one thread");
+        }
+
+        return new ReplayDriver(0, threads);
+    }
+
+    /**
+     * Replay requests and wait for all of them to be decided.
+     *
+     * @param requests the requests to replay, in the order they were recorded
+     * @return the report of the replay
+     * @throws InterruptedException if interrupted while replaying
+     * */
+    public ReplayReport replay(final List<RecordedRequest> requests) throws InterruptedException {
+        ReplayReport report = new ReplayReport();
+        long start = System.nanoTime();
+
+        if(mSpeed == 0) {
+            replayFlatOut(requests, report);
+        } else {
+            replayTimed(requests, report, start);
+        }
+
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    private void replayFlatOut(final List<RecordedRequest> requests,
+                               final ReplayReport report) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[mThreads];
+
+        for(int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+
+                    while((index = next.getAndIncrement()) < requests.size()) {
+                        replayOne(requests.get(index), System.nanoTime(), report);
+                    }
+                }
+            }, "replay-" + i);
+
+            workers[i].start();
+        }
+
+        for(Thread worker : workers) { worker.join(); }
+    }
+
+    private void replayTimed(List<RecordedRequest> requests,
+                             final ReplayReport report,
+                             long start) throws InterruptedException {
+        if(requests.isEmpty()) { return; }
+
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        final CountDownLatch done = new CountDownLatch(requests.size());
+        long firstTimestamp = requests.get(0).timestampMillis;
+
+        try {
+            for(final RecordedRequest request : requests) {
+                /* Clock adjustments can put a request before the first, so it is due at once. */
+                long offsetNanos = Math.max(0L, TimeUnit.MILLISECONDS.toNanos(
+                        request.timestampMillis - firstTimestamp));
+                final long dueNanos = start + (long)(offsetNanos / mSpeed);
+                long waitNanos = dueNanos - System.nanoTime();
+
+                if(waitNanos > 0) { TimeUnit.NANOSECONDS.sleep(waitNanos); }
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            replayOne(request, dueNanos, report);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            done.await();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void replayOne(RecordedRequest request,
+                                  long dueNanos,
+                                  ReplayReport report) {
+        DecisionResponder responder = new DecisionResponder(null);
+
+        if(request.kind == RecordedRequest.Kind.PRIVATE_DATA) {
+            EnforcementPipeline.enforcePrivateDataRequest(null,
+                                                          request.packageName,
+                                                          request.permission,
+                                                          request.purpose,
+                                                          request.palModule,
+                                                          request.palDescription,
+                                                          responder);
+        } else {
+            EnforcementPipeline.enforceDangerousPermissionRequest(
+                    null,
+                    request.packageName,
+                    request.permission,
+                    request.purpose,
+                    request.stacktraces,
+                    request.flags,
+                    request.topActivity == null ?
+                            null :
+                            ComponentName.unflattenFromString(request.topActivity),
+                    responder
+            );
+        }
+
+        long latencyNanos = System.nanoTime() - dueNanos;
+        RecordedRequest.Decision replayed;
+
+        if(!responder.isComplete()) {
+            replayed = RecordedRequest.Decision.NONE;
+        } else if(responder.wasAllowed()) {
+            replayed = RecordedRequest.Decision.ALLOWED;
+        } else {
+            replayed = RecordedRequest.Decision.DENIED;
+        }
+
+        report.add(request, latencyNanos, replayed);
+    }
+}
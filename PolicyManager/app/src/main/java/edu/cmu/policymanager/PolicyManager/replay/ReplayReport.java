@@ -0,0 +1,143 @@
+package edu.cmu.policymanager.PolicyManager.replay;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.policymanager.PolicyManager.metrics.LatencyHistogram;
+
+/**
+ * The results of replaying a request log: how fast the requests were decided, and whether
+ * the replayed decisions match the recorded ones. Requests are added from the threads that
+ * replay them.
+ *
+ * A request is one of:
+ *  - matched, if it was decided the same way as recorded
+ *  - diverged, if it was decided the other way
+ *  - prompted, if the replay would have prompted the user (prompts are never shown during
+ *  a replay) but the recording has an answer
+ *  - unrecorded, if the recording has no decision for it, so there is nothing to compare
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class ReplayReport {
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final int MAX_DIVERGENCES_KEPT = 20;
+
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    private final AtomicLong mMatched = new AtomicLong(),
+                             mDiverged = new AtomicLong(),
+                             mPrompted = new AtomicLong(),
+                             mUnrecorded = new AtomicLong();
+    private final List<String> mDivergences = new ArrayList<String>();
+
+    private volatile long mElapsedNanos;
+
+    /**
+     * Add the result of one replayed request.
+     *
+     * @param request the recorded request
+     * @param latencyNanos how long the request took to decide, from when it was due
+     * @param replayed the decision made during the replay, Decision.NONE if none was made
+     * */
+    public void add(RecordedRequest request,
+                    long latencyNanos,
+                    RecordedRequest.Decision replayed) {
+        mLatency.record(latencyNanos);
+
+        if(request.decision == RecordedRequest.Decision.NONE) {
+            mUnrecorded.incrementAndGet();
+        } else if(replayed == RecordedRequest.Decision.NONE) {
+            mPrompted.incrementAndGet();
+        } else if(replayed == request.decision) {
+            mMatched.incrementAndGet();
+        } else {
+            mDiverged.incrementAndGet();
+
+            synchronized(mDivergences) {
+                if(mDivergences.size() < MAX_DIVERGENCES_KEPT) {
+                    mDivergences.add(request + " was " + replayed + " in replay");
+                }
+            }
+        }
+    }
+
+    /**
+     * @param elapsedNanos the wall clock time the whole replay took
+     * */
+    public void setElapsedNanos(long elapsedNanos) { mElapsedNanos = elapsedNanos; }
+
+    public long getRequestCount() { return mLatency.getCount(); }
+
+    public long getMatchedCount() { return mMatched.get(); }
+
+    public long getDivergedCount() { return mDiverged.get(); }
+
+    public long getPromptedCount() { return mPrompted.get(); }
+
+    public long getUnrecordedCount() { return mUnrecorded.get(); }
+
+    public long getElapsedNanos() { return mElapsedNanos; }
+
+    public LatencyHistogram getLatency() { return mLatency; }
+
+    /**
+     * @return true if every request that has a recorded decision was decided the same way
+     * */
+    public boolean decisionsMatch() { return mDiverged.get() == 0 && mPrompted.get() == 0; }
+
+    /**
+     * @return requests decided per second over the whole replay
+     * */
+    public double getThroughput() {
+        long elapsedNanos = mElapsedNanos;
+        return elapsedNanos <= 0 ? 0 : getRequestCount() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return descriptions of the first requests that were decided differently
+     * */
+    public List<String> getDivergences() {
+        synchronized(mDivergences) {
+            return Collections.unmodifiableList(new ArrayList<String>(mDivergences));
+        }
+    }
+
+    public void print(PrintWriter writer) {
+        writer.println(String.format(Locale.US,
+                                     "Replayed %d requests in %.1f ms, %.1f requests/s",
+                                     getRequestCount(),
+                                     mElapsedNanos / 1e6,
+                                     getThroughput()));
+
+        StringBuilder latency = new StringBuilder("Latency (us):");
+
+        for(double percentile : PERCENTILES) {
+            latency.append(String.format(Locale.US,
+                                         " p%s %.1f",
+                                         formatPercentile(percentile),
+                                         mLatency.getValueAtPercentile(percentile) / 1e3));
+        }
+
+        latency.append(String.format(Locale.US, " max %.1f", mLatency.getMax() / 1e3));
+        writer.println(latency);
+
+        writer.println("Decisions: " + getMatchedCount() + " matched, " +
+                       getDivergedCount() + " diverged, " +
+                       getPromptedCount() + " prompted, " +
+                       getUnrecordedCount() + " unrecorded");
+
+        for(String divergence : getDivergences()) { writer.println("  " + divergence); }
+
+        writer.flush();
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ?
+               Long.toString((long)percentile) :
+               Double.toString(percentile);
+    }
+}
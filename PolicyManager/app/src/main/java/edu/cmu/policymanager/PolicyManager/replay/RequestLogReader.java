@@ -0,0 +1,195 @@
+package edu.cmu.policymanager.PolicyManager.replay;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static edu.cmu.policymanager.PolicyManager.replay.RequestLogWriter.MAGIC;
+import static edu.cmu.policymanager.PolicyManager.replay.RequestLogWriter.NULL_STRING;
+import static edu.cmu.policymanager.PolicyManager.replay.RequestLogWriter.TAG_DECISION;
+import static edu.cmu.policymanager.PolicyManager.replay.RequestLogWriter.TAG_REQUEST;
+import static edu.cmu.policymanager.PolicyManager.replay.RequestLogWriter.TAG_STRING;
+import static edu.cmu.policymanager.PolicyManager.replay.RequestLogWriter.VERSION;
+import static edu.cmu.policymanager.PolicyManager.replay.RequestLogWriter.unzigzag;
+
+/**
+ * Reads a request log written by RequestLogWriter. A log that ends in the middle of a record
+ * is read up to the last complete record.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class RequestLogReader implements Closeable {
+    private static final RecordedRequest.Kind[] KINDS = RecordedRequest.Kind.values();
+
+    private final DataInputStream mIn;
+    private final List<String> mStrings = new ArrayList<String>();
+    private long mLastTimestampMillis;
+
+    /**
+     * @param in the log to read
+     * @throws IOException if the log could not be read or is not a request log
+     * */
+    public RequestLogReader(InputStream in) throws IOException {
+        if(in == null) {
+            throw new IllegalArgumentException("Request log needs an input stream");
+        }
+
+        mIn = new DataInputStream(new BufferedInputStream(in));
+
+        if(mIn.readInt() != MAGIC) { throw new IOException("Not a request log"); }
+
+        int version = mIn.readUnsignedByte();
+
+        if(version != VERSION) {
+            throw new IOException("Unsupported request log version " + version);
+        }
+    }
+
+    /**
+     * Read every request in the log, in sequence order, each with the decision recorded for
+     * it or Decision.NONE.
+     *
+     * @return the recorded requests
+     * @throws IOException if the log could not be read or is corrupt
+     * */
+    public List<RecordedRequest> readAll() throws IOException {
+        List<RecordedRequest> requests = new ArrayList<RecordedRequest>();
+        Map<Long, Boolean> decisions = new HashMap<Long, Boolean>();
+
+        try {
+            int tag;
+
+            while((tag = mIn.read()) != -1) {
+                switch(tag) {
+                    case TAG_STRING:
+                        mStrings.add(mIn.readUTF());
+                        break;
+                    case TAG_REQUEST:
+                        requests.add(readRequest());
+                        break;
+                    case TAG_DECISION:
+                        long sequence = readVarLong();
+                        decisions.put(sequence, mIn.readBoolean());
+                        break;
+                    default:
+                        throw new IOException("Corrupt request log, unknown record " + tag);
+                }
+            }
+        } catch(EOFException cutOff) {
+            /* The last record was not finished. Everything before it is complete. */
+        }
+
+        List<RecordedRequest> decided = new ArrayList<RecordedRequest>(requests.size());
+
+        for(RecordedRequest request : requests) {
+            Boolean allowed = decisions.get(request.sequence);
+
+            if(allowed == null) {
+                decided.add(request);
+            } else {
+                decided.add(request.withDecision(allowed ? RecordedRequest.Decision.ALLOWED :
+                                                           RecordedRequest.Decision.DENIED));
+            }
+        }
+
+        /* Requests received together on different threads can be written out of order. */
+        Collections.sort(decided, new Comparator<RecordedRequest>() {
+            @Override
+            public int compare(RecordedRequest a, RecordedRequest b) {
+                return Long.compare(a.sequence, b.sequence);
+            }
+        });
+
+        return decided;
+    }
+
+    @Override
+    public void close() throws IOException { mIn.close(); }
+
+    private RecordedRequest readRequest() throws IOException {
+        long sequence = readVarLong();
+        long timestampMillis = mLastTimestampMillis + unzigzag(readVarLong());
+        int kind = mIn.readUnsignedByte();
+
+        if(kind >= KINDS.length) {
+            throw new IOException("Corrupt request log, unknown request kind " + kind);
+        }
+
+        RecordedRequest.Builder builder = RecordedRequest.builder(KINDS[kind])
+                                                         .setSequence(sequence)
+                                                         .setTimestampMillis(timestampMillis)
+                                                         .setPackageName(readString())
+                                                         .setPermission(readString())
+                                                         .setPurpose(readString())
+                                                         .setTopActivity(readString())
+                                                         .setPalModule(readString())
+                                                         .setPalDescription(readString())
+                                                         .setFlags((int)readVarLong());
+
+        int stacktraceCount = readLength();
+        List<StackTraceElement[]> stacktraces = new ArrayList<StackTraceElement[]>(stacktraceCount);
+
+        for(int i = 0; i < stacktraceCount; i++) {
+            StackTraceElement[] stacktrace = new StackTraceElement[readLength()];
+
+            for(int j = 0; j < stacktrace.length; j++) {
+                String className = readString(),
+                       methodName = readString(),
+                       fileName = readString();
+                int lineNumber = (int)unzigzag(readVarLong());
+
+                stacktrace[j] = new StackTraceElement(className, methodName, fileName, lineNumber);
+            }
+
+            stacktraces.add(stacktrace);
+        }
+
+        mLastTimestampMillis = timestampMillis;
+
+        return builder.setStacktraces(stacktraces).build();
+    }
+
+    private String readString() throws IOException {
+        long id = readVarLong();
+
+        if(id == NULL_STRING) { return null; }
+
+        if(id > mStrings.size()) {
+            throw new IOException("Corrupt request log, undefined string " + id);
+        }
+
+        return mStrings.get((int)id - 1);
+    }
+
+    private int readLength() throws IOException {
+        long length = readVarLong();
+
+        if(length > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt request log, length " + length);
+        }
+
+        return (int)length;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0L;
+
+        for(int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = mIn.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+
+            if((b & 0x80) == 0) { return value; }
+        }
+
+        throw new IOException("Corrupt request log, number is too long");
+    }
+}
@@ -0,0 +1,168 @@
+package edu.cmu.policymanager.PolicyManager.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Appends permission requests and their decisions to a binary request log.
+ *
+ * The log starts with a header, followed by records that each start with a tag byte:
+ *  - STRING defines the next string id. Strings are written once, the first time they are
+ *  used, and referred to by id after that, so the package names and stack frames that repeat
+ *  in every request cost a few bytes each.
+ *  - REQUEST is a permission request, with its sequence number and the time since the
+ *  previous request.
+ *  - DECISION is the decision for the request with a sequence number. It can come long after
+ *  the request, such as when the user answers a prompt.
+ *
+ * Numbers are written as variable length integers. Every record is complete on its own, so a
+ * log cut off in the middle of a record (such as by a crash) can still be read up to it.
+ *
+ * Not thread-safe; callers must hold a lock or write from one thread.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class RequestLogWriter implements Closeable, Flushable {
+    static final int MAGIC = 0x504D524C;
+    static final int VERSION = 1;
+
+    static final int TAG_STRING = 1,
+                     TAG_REQUEST = 2,
+                     TAG_DECISION = 3;
+
+    /* String ids are written off by one, so 0 is null. */
+    static final int NULL_STRING = 0;
+
+    private final DataOutputStream mOut;
+    private final Map<String, Integer> mStringIds = new HashMap<String, Integer>();
+    private long mLastTimestampMillis;
+
+    /**
+     * Start a new log. The header is written right away.
+     *
+     * @param out where the log is written
+     * @throws IOException if the header could not be written
+     * */
+    public RequestLogWriter(OutputStream out) throws IOException {
+        if(out == null) {
+            throw new IllegalArgumentException("Request log needs an output stream");
+        }
+
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+        mOut.writeInt(MAGIC);
+        mOut.writeByte(VERSION);
+    }
+
+    /**
+     * Append a request. Its decision is written separately with writeDecision.
+     *
+     * @param request the request to write
+     * @throws IOException if the log could not be written
+     * */
+    public void writeRequest(RecordedRequest request) throws IOException {
+        /* Strings go first, so a cut off request never leaves ids that were not defined. */
+        int packageId = idOf(request.packageName),
+            permissionId = idOf(request.permission),
+            purposeId = idOf(request.purpose),
+            topActivityId = idOf(request.topActivity),
+            palModuleId = idOf(request.palModule),
+            palDescriptionId = idOf(request.palDescription);
+
+        int frameCount = 0;
+
+        for(StackTraceElement[] stacktrace : request.stacktraces) { frameCount += stacktrace.length; }
+
+        int[] frameIds = new int[frameCount * 3];
+        int frame = 0;
+
+        for(StackTraceElement[] stacktrace : request.stacktraces) {
+            for(StackTraceElement element : stacktrace) {
+                frameIds[frame++] = idOf(element.getClassName());
+                frameIds[frame++] = idOf(element.getMethodName());
+                frameIds[frame++] = idOf(element.getFileName());
+            }
+        }
+
+        mOut.writeByte(TAG_REQUEST);
+        writeVarLong(request.sequence);
+        writeVarLong(zigzag(request.timestampMillis - mLastTimestampMillis));
+        mOut.writeByte(request.kind.ordinal());
+        writeVarLong(packageId);
+        writeVarLong(permissionId);
+        writeVarLong(purposeId);
+        writeVarLong(topActivityId);
+        writeVarLong(palModuleId);
+        writeVarLong(palDescriptionId);
+        writeVarLong(request.flags & 0xFFFFFFFFL);
+        writeVarLong(request.stacktraces.size());
+
+        frame = 0;
+
+        for(StackTraceElement[] stacktrace : request.stacktraces) {
+            writeVarLong(stacktrace.length);
+
+            for(StackTraceElement element : stacktrace) {
+                writeVarLong(frameIds[frame++]);
+                writeVarLong(frameIds[frame++]);
+                writeVarLong(frameIds[frame++]);
+                writeVarLong(zigzag(element.getLineNumber()));
+            }
+        }
+
+        mLastTimestampMillis = request.timestampMillis;
+    }
+
+    /**
+     * Append the decision for a request that was written before.
+     *
+     * @param sequence the sequence number of the request
+     * @param allowed true if the request was allowed
+     * @throws IOException if the log could not be written
+     * */
+    public void writeDecision(long sequence, boolean allowed) throws IOException {
+        mOut.writeByte(TAG_DECISION);
+        writeVarLong(sequence);
+        mOut.writeBoolean(allowed);
+    }
+
+    @Override
+    public void flush() throws IOException { mOut.flush(); }
+
+    @Override
+    public void close() throws IOException { mOut.close(); }
+
+    private int idOf(String value) throws IOException {
+        if(value == null) { return NULL_STRING; }
+
+        Integer id = mStringIds.get(value);
+
+        if(id == null) {
+            id = mStringIds.size() + 1;
+            mStringIds.put(value, id);
+
+            mOut.writeByte(TAG_STRING);
+            mOut.writeUTF(value);
+        }
+
+        return id;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            mOut.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        mOut.writeByte((int)value);
+    }
+
+    static long zigzag(long value) { return (value << 1) ^ (value >> 63); }
+
+    static long unzigzag(long value) { return (value >>> 1) ^ -(value & 1); }
+}
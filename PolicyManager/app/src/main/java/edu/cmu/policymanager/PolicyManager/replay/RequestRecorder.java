@@ -0,0 +1,200 @@
+package edu.cmu.policymanager.PolicyManager.replay;
+
+import android.content.ComponentName;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cmu.policymanager.peandroid.DecisionResponder;
+
+/**
+ * Records the permission requests the service receives, and the decisions made for them, to
+ * a request log that the ReplayDriver can play back.
+ *
+ * Recording is off until started. While it is off, recording a request costs one volatile
+ * read. While it is on, the request is handed to a single writer thread, so the thread
+ * answering the request never waits on the disk. The log is flushed whenever the writer
+ * catches up.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class RequestRecorder {
+    private static final String TAG = "RequestRecorder";
+
+    private final AtomicLong mSequence = new AtomicLong();
+    private volatile Session mSession;
+
+    /**
+     * Start recording to a file, replacing anything in it. Stops any recording in progress.
+     *
+     * @param file the request log to write
+     * @throws IOException if the file could not be opened
+     * */
+    public synchronized void start(File file) throws IOException {
+        stop();
+        mSession = new Session(new RequestLogWriter(new FileOutputStream(file)));
+    }
+
+    /**
+     * Stop recording. Requests already received are written before the log is closed.
+     * */
+    public synchronized void stop() {
+        Session session = mSession;
+        mSession = null;
+
+        if(session != null) { session.close(); }
+    }
+
+    public boolean isRecording() { return mSession != null; }
+
+    /**
+     * Record a request from onDangerousPermissionRequest, if recording.
+     *
+     * @return a listener that records the decision for the request, or null if not recording
+     * */
+    public DecisionResponder.DecisionListener recordDangerousPermissionRequest(
+            String packageName,
+            String permission,
+            String purpose,
+            List<StackTraceElement[]> stacktraces,
+            int flags,
+            ComponentName topActivity) {
+        Session session = mSession;
+
+        if(session == null) { return null; }
+
+        RecordedRequest request =
+                RecordedRequest.builder(RecordedRequest.Kind.DANGEROUS_PERMISSION)
+                               .setSequence(mSequence.incrementAndGet())
+                               .setTimestampMillis(System.currentTimeMillis())
+                               .setPackageName(packageName)
+                               .setPermission(permission)
+                               .setPurpose(purpose)
+                               .setStacktraces(stacktraces)
+                               .setFlags(flags)
+                               .setTopActivity(topActivity == null ?
+                                               null :
+                                               topActivity.flattenToString())
+                               .build();
+
+        return session.record(request);
+    }
+
+    /**
+     * Record a request from onPrivateDataRequest, if recording.
+     *
+     * @return a listener that records the decision for the request, or null if not recording
+     * */
+    public DecisionResponder.DecisionListener recordPrivateDataRequest(String packageName,
+                                                                       String permission,
+                                                                       String purpose,
+                                                                       String pal,
+                                                                       String description) {
+        Session session = mSession;
+
+        if(session == null) { return null; }
+
+        RecordedRequest request =
+                RecordedRequest.builder(RecordedRequest.Kind.PRIVATE_DATA)
+                               .setSequence(mSequence.incrementAndGet())
+                               .setTimestampMillis(System.currentTimeMillis())
+                               .setPackageName(packageName)
+                               .setPermission(permission)
+                               .setPurpose(purpose)
+                               .setPalModule(pal)
+                               .setPalDescription(description)
+                               .build();
+
+        return session.record(request);
+    }
+
+    /*
+     * One recording: the log and the thread writing it. Writes that arrive after the session
+     * is closed, such as the answer to a prompt that outlives the recording, are dropped.
+     */
+    private static final class Session {
+        private final RequestLogWriter mWriter;
+        private final ThreadPoolExecutor mExecutor =
+                new ThreadPoolExecutor(1, 1,
+                                       0L, TimeUnit.MILLISECONDS,
+                                       new LinkedBlockingQueue<Runnable>());
+
+        private volatile boolean mFailed;
+
+        private Session(RequestLogWriter writer) { mWriter = writer; }
+
+        private DecisionResponder.DecisionListener record(final RecordedRequest request) {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mWriter.writeRequest(request);
+                        flushIfIdle();
+                    } catch(IOException e) {
+                        fail(e);
+                    }
+                }
+            });
+
+            return new DecisionResponder.DecisionListener() {
+                @Override
+                public void onDecision(DecisionResponder responder, final boolean allowed) {
+                    submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                mWriter.writeDecision(request.sequence, allowed);
+                                flushIfIdle();
+                            } catch(IOException e) {
+                                fail(e);
+                            }
+                        }
+                    });
+                }
+            };
+        }
+
+        private void close() {
+            /* Closed even after a failed write, so the file is not left open. */
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mWriter.close();
+                    } catch(IOException e) {
+                        Log.e(TAG, "Could not close the request log", e);
+                    }
+                }
+            });
+
+            mExecutor.shutdown();
+        }
+
+        private void submit(Runnable write) {
+            if(mFailed) { return; }
+
+            try {
+                mExecutor.execute(write);
+            } catch(RejectedExecutionException closed) {
+                /* The recording has stopped. */
+            }
+        }
+
+        private void flushIfIdle() throws IOException {
+            if(mExecutor.getQueue().isEmpty()) { mWriter.flush(); }
+        }
+
+        private void fail(IOException e) {
+            Log.e(TAG, "Could not write the request log, recording stopped", e);
+            mFailed = true;
+        }
+    }
+}
@@ -457,6 +457,17 @@ public final class DangerousPermissions {
         return permissionMap.get(serialized.toString());
     }
 
+    /**
+     * Get the ordinal of a dangerous permission without creating anything.
+     *
+     * @param permission the android permission (ex android.permission.ACCESS_FINE_LOCATION)
+     * @return the SensitiveData ordinal, or -1 if the permission is not a dangerous permission
+     * */
+    public static int ordinalOf(String permission) {
+        SensitiveData data = permission == null ? null : permissionMap.get(permission);
+        return data == null ? -1 : data.ordinal;
+    }
+
     public static boolean permissionIsDangerous(final CharSequence permissionName) {
         if(permissionName == null || permissionName.length() == 0) {
             throw new IllegalArgumentException("Cannot check empty permission");
@@ -15,10 +15,18 @@ import edu.cmu.policymanager.util.PermissionUtil;
  * Created by Mike Czapik (Carnegie Mellon University).
  * */
 public final class SensitiveData implements Parcelable {
+    private static int sNextOrdinal = 0;
+
     public final CharSequence androidPermission, description;
     private CharSequence displayPermission;
     public final List<Purpose> purposes;
 
+    /**
+     * Position of this permission among the ones DangerousPermissions defines, starting at 0.
+     * Lets per-permission state be kept in arrays and bitmasks.
+     * */
+    public final int ordinal;
+
     protected SensitiveData(CharSequence androidPermission,
                             CharSequence description,
                             List<Purpose> purposes) {
@@ -34,6 +42,7 @@ public final class SensitiveData implements Parcelable {
         this.description = description;
         displayPermission = PermissionUtil.getDisplayPermission(androidPermission.toString());
         this.purposes = purposes;
+        ordinal = sNextOrdinal++;
     }
 
     @Override
@@ -52,6 +61,7 @@ public final class SensitiveData implements Parcelable {
         androidPermission = in.readString();
         description = in.readString();
         displayPermission = in.readString();
+        ordinal = in.readInt();
         Object[] arr = in.readArray(Purpose.class.getClassLoader());
         purposes = new ArrayList<Purpose>(arr.length);
 
@@ -66,6 +76,7 @@ public final class SensitiveData implements Parcelable {
         out.writeString(androidPermission.toString());
         out.writeString(description.toString());
         out.writeString(displayPermission.toString());
+        out.writeInt(ordinal);
         out.writeArray(purposes.toArray());
     }
 
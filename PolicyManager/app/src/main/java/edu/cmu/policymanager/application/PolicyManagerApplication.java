@@ -6,7 +6,10 @@ import android.content.Context;
 import java.util.Map;
 
 import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.RepositoryExecutors;
+import edu.cmu.policymanager.DataRepository.RepositoryReadiness;
 import edu.cmu.policymanager.DataRepository.network.GooglePlayStore;
+import edu.cmu.policymanager.PolicyManager.CriticalSystemApps;
 import edu.cmu.policymanager.PolicyManager.PolicyManager;
 import edu.cmu.policymanager.R;
 
@@ -16,7 +19,8 @@ import static edu.cmu.policymanager.DataRepository.network.GooglePlayStore.KEY_A
  * Created by Mike Czapik (Carnegie Mellon University) on 6/5/2018.
  *
  * Initializes the policy manager application. Anything that should be set up before the default
- * UI loads should be done here.
+ * UI loads should be done here. The DataRepository starts up in the background, so nothing
+ * here should wait for the database.
  */
 
 public class PolicyManagerApplication extends Application {
@@ -32,20 +36,37 @@ public class PolicyManagerApplication extends Application {
     @Override public void onCreate() {
         super.onCreate();
 
-        DataRepository.init(applicationContext, DataRepository.StorageType.DISK);
+        long start = System.nanoTime();
+        CriticalSystemApps.init(applicationContext);
+        long end = System.nanoTime();
+
+        final RepositoryReadiness readiness =
+                DataRepository.initAsync(applicationContext, DataRepository.StorageType.DISK);
+        readiness.recordStage(RepositoryReadiness.Stage.CRITICAL_SYSTEM_APPS, start, end);
+
         ui.setContext(applicationContext);
 
         final long FIVE_MINUTES = (5 * (60 * 1000));
         PolicyManager.getInstance().setTimeframeAskResultIsValid(FIVE_MINUTES);
 
+        readiness.future().thenRunAsync(new Runnable() {
+            @Override
+            public void run() { installAppPoliciesOnFirstBoot(readiness); }
+        }, RepositoryExecutors.background());
+
+        ui.setDefaultUI(new BrandeisUI(applicationContext, R.id.common_ui_allysiqi));
+    }
+
+    private void installAppPoliciesOnFirstBoot(RepositoryReadiness readiness) {
+        long start = System.nanoTime();
+
         Map<String, String> metadata =
                 DataRepository.fromDisk().getMetadataByOwner(KEY_APPLICATION);
 
         if(metadata == null || !metadata.containsKey(KEY_ARE_POLICIES_INSTALLED)) {
             GooglePlayStore.getInstance(applicationContext).installAppPolicies();
+            readiness.recordStageSince(RepositoryReadiness.Stage.INSTALL_APP_POLICIES, start);
         }
-
-        ui.setDefaultUI(new BrandeisUI(applicationContext, R.id.common_ui_allysiqi));
     }
 
     /*
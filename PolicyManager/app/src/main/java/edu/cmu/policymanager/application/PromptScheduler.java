@@ -0,0 +1,206 @@
+package edu.cmu.policymanager.application;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
+import edu.cmu.policymanager.PolicyManager.libraries.ThirdPartyLibraries;
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
+import edu.cmu.policymanager.PolicyManager.purposes.Purposes;
+import edu.cmu.policymanager.peandroid.DecisionResponder;
+import edu.cmu.policymanager.validation.Precondition;
+
+/**
+ * Schedules the runtime prompts for ASK decisions, one at a time.
+ *
+ * Requests are keyed on app, permission, purpose and library. A request that arrives while a
+ * prompt with the same key is waiting or showing is attached to that prompt instead of
+ * opening another one, and the user's single answer is sent to every request attached to it.
+ * Prompts with different keys are shown in priority order, and in the order they were
+ * submitted within a priority.
+ *
+ * Submitting never blocks: the calling thread returns right away, and each request is
+ * answered through its DecisionResponder once the user decides.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class PromptScheduler {
+    public static final int PRIORITY_NORMAL = 0,
+                            PRIORITY_FOREGROUND = 1;
+
+    /**
+     * Shows the prompt for a request. Called without any lock held.
+     * */
+    public interface Launcher {
+        void show(PermissionRequest request);
+    }
+
+    private static final class Prompt {
+        final PermissionRequest request;
+        final int priority;
+        final long sequence;
+        final List<DecisionResponder> responders = new ArrayList<DecisionResponder>();
+        final List<Long> submittedNanos = new ArrayList<Long>();
+
+        Prompt(PermissionRequest request, int priority, long sequence) {
+            this.request = request;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Prompt> PROMPT_ORDER = new Comparator<Prompt>() {
+        @Override
+        public int compare(Prompt a, Prompt b) {
+            if(a.priority != b.priority) { return a.priority > b.priority ? -1 : 1; }
+
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private final Launcher mLauncher;
+    private final Map<String, Prompt> mPrompts = new HashMap<String, Prompt>();
+    private final PriorityQueue<Prompt> mWaiting = new PriorityQueue<Prompt>(11, PROMPT_ORDER);
+
+    private Prompt mShowing;
+    private long mSequence;
+
+    public PromptScheduler(Launcher launcher) {
+        Precondition.checkIfNull(launcher, "Prompt launcher is null");
+        mLauncher = launcher;
+    }
+
+    /**
+     * Schedule a prompt for this request. Requests for an app in the foreground are prompted
+     * before others, since that is what the user is looking at.
+     *
+     * @param request the request the user has to decide on
+     * */
+    public void submit(PermissionRequest request) {
+        boolean inForeground = request.topActivity != null &&
+                               request.packageName.equals(request.topActivity.getPackageName());
+
+        submit(request, inForeground ? PRIORITY_FOREGROUND : PRIORITY_NORMAL);
+    }
+
+    /**
+     * Schedule a prompt for this request with the given priority. Higher priorities are
+     * prompted first.
+     *
+     * @param request the request the user has to decide on
+     * @param priority PRIORITY_NORMAL, PRIORITY_FOREGROUND, or any other int
+     * */
+    public void submit(PermissionRequest request, int priority) {
+        Precondition.checkIfNull(request, "Cannot prompt for a null request");
+
+        String key = keyOf(request);
+        Prompt next;
+
+        synchronized(this) {
+            Prompt prompt = mPrompts.get(key);
+
+            if(prompt != null) {
+                prompt.responders.add(request.responder);
+                prompt.submittedNanos.add(System.nanoTime());
+                return;
+            }
+
+            prompt = new Prompt(request, priority, mSequence++);
+            prompt.responders.add(request.responder);
+            prompt.submittedNanos.add(System.nanoTime());
+            mPrompts.put(key, prompt);
+            mWaiting.add(prompt);
+
+            next = showNextIfIdle();
+        }
+
+        launch(next);
+    }
+
+    /**
+     * Answer the prompt for this request, and every request attached to it, then show the
+     * next prompt.
+     *
+     * @param request the request that was prompted
+     * @param allowed true if the user allowed access, false if they denied it
+     * @return the number of requests that were answered
+     * */
+    public int answer(PermissionRequest request, boolean allowed) {
+        Precondition.checkIfNull(request, "Cannot answer a null request");
+
+        List<DecisionResponder> responders;
+        List<Long> submittedNanos = null;
+        Prompt next;
+
+        synchronized(this) {
+            Prompt prompt = mPrompts.remove(keyOf(request));
+
+            if(prompt == null) {
+                responders = new ArrayList<DecisionResponder>(1);
+                responders.add(request.responder);
+            } else {
+                responders = prompt.responders;
+                submittedNanos = prompt.submittedNanos;
+                mWaiting.remove(prompt);
+            }
+
+            if(prompt != null && mShowing == prompt) { mShowing = null; }
+
+            next = showNextIfIdle();
+        }
+
+        int answered = 0;
+
+        for(DecisionResponder responder : responders) {
+            if(allowed ? responder.allow() : responder.deny()) { answered++; }
+        }
+
+        if(submittedNanos != null) {
+            for(long submitted : submittedNanos) {
+                EnforcementMetrics.recordSince(EnforcementMetrics.Stage.PROMPT_WAIT, submitted);
+            }
+        }
+
+        launch(next);
+        return answered;
+    }
+
+    /**
+     * @return the request whose prompt is showing, or null
+     * */
+    public synchronized PermissionRequest getShowingRequest() {
+        return mShowing == null ? null : mShowing.request;
+    }
+
+    /**
+     * @return the number of prompts waiting or showing
+     * */
+    public synchronized int getPendingCount() { return mPrompts.size(); }
+
+    private Prompt showNextIfIdle() {
+        if(mShowing != null || mWaiting.isEmpty()) { return null; }
+
+        mShowing = mWaiting.remove();
+        return mShowing;
+    }
+
+    private void launch(Prompt prompt) {
+        if(prompt != null) { mLauncher.show(prompt.request); }
+    }
+
+    private static String keyOf(PermissionRequest request) {
+        String purpose = (request.purpose == null ?
+                          Purposes.RUNNING_OTHER_FEATURES.name.toString() :
+                          request.purpose.name.toString()),
+               library = (request.thirdPartyLibrary == null ?
+                          ThirdPartyLibraries.APP_INTERNAL_USE :
+                          request.thirdPartyLibrary.qualifiedName);
+
+        return request.packageName + "|" + request.permission.androidPermission + "|" +
+               purpose + "|" + library;
+    }
+}
@@ -11,12 +11,9 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import edu.cmu.policymanager.PolicyManager.enforcement.PermissionRequest;
-import edu.cmu.policymanager.peandroid.PEAndroid;
 import edu.cmu.policymanager.ui.common.ConfigureSwitch;
 import edu.cmu.policymanager.ui.common.IconManager;
 import edu.cmu.policymanager.ui.common.UIPlugin;
@@ -39,8 +36,12 @@ public final class UIManager {
     private Class installUI = null;
     private Class runtimeUI = null;
     private IconManager iconManager = null;
-    private static Bundle runtimeData = new Bundle();
-    private static Queue<Bundle> mRuntimeQueue = new LinkedBlockingQueue<>();
+    private static volatile Bundle runtimeData = new Bundle();
+    private final PromptScheduler mPromptScheduler =
+            new PromptScheduler(new PromptScheduler.Launcher() {
+                @Override
+                public void show(PermissionRequest request) { launchRuntimeUI(request); }
+            });
     private Context mContext;
     private Set<String> trackedDialogs = new HashSet<String>();
 
@@ -94,45 +95,33 @@ public final class UIManager {
     }
 
     /**
-     * Launches the runtime UI
+     * Get the scheduler that shows runtime prompts for ASK decisions. Requests that need a
+     * user decision are submitted here rather than launching the runtime UI directly.
      *
-     * @param context the Context
+     * @return the PromptScheduler
      * */
-    public void launchRuntimeUI(Context context) {
-        if(context != null) {
-            String key = getKeyFromRequestBundle(runtimeData);
-/*
-            PermissionRequest req = runtimeData.getParcelable(INTENT_KEY_PERMISSION_REQUEST);
-            PEAndroid.connectToReceiver(req.recv).denyPermission();
-            Log.d("dbg", "Policy manager denied " + req.permission.androidPermission
-                                   + " to " + req.packageName);*/
-
-            Intent runtimeLauncher = new Intent(context, runtimeUI);
-            runtimeLauncher.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            context.startActivity(runtimeLauncher);
-            PEAndroid.awaitUserInput(context);
-            //runNextRuntimeUI();
-        }
-    }
-
-    public void runNextRuntimeUI() {
-        if(mContext != null) {
-            if(!mRuntimeQueue.isEmpty()) {
-                setRuntimeData(mRuntimeQueue.remove());
-                launchRuntimeUI(mContext);
-            }
+    public PromptScheduler getPromptScheduler() { return mPromptScheduler; }
+
+    /*
+     * Launches the runtime UI for the prompt the scheduler picked. Only one prompt shows at a
+     * time, so runtimeData always holds the request being shown.
+     */
+    private void launchRuntimeUI(PermissionRequest request) {
+        Context context = (request.context != null ? request.context : mContext);
+
+        if(context == null) {
+            Log.d("UIManager", "No context to prompt for " + request.packageName + ", denying");
+            mPromptScheduler.answer(request, false);
+            return;
         }
-    }
 
-    private String getKeyFromRequestBundle(Bundle requestBundle) {
-        PermissionRequest request = requestBundle.getParcelable(INTENT_KEY_PERMISSION_REQUEST);
+        Bundle data = new Bundle();
+        data.putParcelable(INTENT_KEY_PERMISSION_REQUEST, request);
+        runtimeData = data;
 
-        if(request != null) {
-            return request.packageName + request.permission.androidPermission +
-                   request.purpose.name;
-        }
-
-        return "";
+        Intent runtimeLauncher = new Intent(context, runtimeUI);
+        runtimeLauncher.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(runtimeLauncher);
     }
 
     public Class getInstallUI() { return installUI; }
@@ -145,13 +134,5 @@ public final class UIManager {
      * */
     public IconManager getIconManager() { return iconManager; }
 
-    public void setRuntimeData(Bundle runtimeData) {
-        if(!PEAndroid.sUserPromptIsOpen) {
-            UIManager.runtimeData = runtimeData;
-        } else {
-            mRuntimeQueue.add(runtimeData);
-        }
-    }
-
     public Bundle getRuntimeData() { return runtimeData; }
 }
\ No newline at end of file
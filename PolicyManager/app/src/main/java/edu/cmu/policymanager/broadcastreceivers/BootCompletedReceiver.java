@@ -0,0 +1,47 @@
+package edu.cmu.policymanager.broadcastreceivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.RepositoryExecutors;
+
+/**
+ * Brings the apps in the DataRepository up to date once the device has booted, since an OTA
+ * update or a bulk restore can change many packages without a broadcast for each. Only the
+ * packages that changed are scanned.
+ *
+ * Initializing the DataRepository reconciles the installed apps too, and the packages are
+ * settled before any app starts, so a reconcile that already ran in this process covers the
+ * boot and is not repeated. Otherwise the reconcile is queued behind initialization on the
+ * background pool. The broadcast is finished right away either way: first boot can take
+ * longer than a receiver is allowed to hold its broadcast.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class BootCompletedReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        if(!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) { return; }
+
+        final Context appContext = context.getApplicationContext();
+
+        DataRepository.getReadiness().future().thenRunAsync(new Runnable() {
+            @Override
+            public void run() {
+                if(DataRepository.getLastReconcileSummary() != null) {
+                    Log.i("BootCompletedReceiver", "Installed apps already reconciled");
+                    return;
+                }
+
+                try {
+                    DataRepository.reconcileInstalledApps(appContext);
+                } catch(RuntimeException e) {
+                    Log.e("BootCompletedReceiver", "Unable to reconcile installed apps", e);
+                }
+            }
+        }, RepositoryExecutors.background());
+    }
+}
@@ -15,7 +15,7 @@ import edu.cmu.policymanager.application.PolicyManagerApplication;
 import edu.cmu.policymanager.util.FetchUtil;
 
 /**
- * Used to detect when an app is being uninstalled from the device.
+ * Used to detect when an app is being uninstalled from or updated on the device.
  *
  * Original file by Shawn + Swaroop
  * */
@@ -29,6 +29,10 @@ public class PackageChangeBroadcastReceiver extends BroadcastReceiver {
             Log.i("uninstall-dbg", "Application " + packageName + " uninstalled");
 
             DataRepository.removeAppPackageFromRepository(packageName);
+        } else if(Intent.ACTION_PACKAGE_REPLACED.equals(intent.getAction())) {
+            Log.i("uninstall-dbg", "Application " + packageName + " updated");
+
+            DataRepository.onAppUpdated(packageName);
         }
     }
 }
\ No newline at end of file
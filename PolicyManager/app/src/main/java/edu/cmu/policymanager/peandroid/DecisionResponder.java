@@ -0,0 +1,125 @@
+package edu.cmu.policymanager.peandroid;
+
+import android.os.Bundle;
+import android.os.ResultReceiver;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends the policy manager's decision for one permission request back to PE for Android.
+ *
+ * Every PermissionRequest gets its own responder, so requests enforced on different threads
+ * can never answer each other. A responder completes exactly once: the first allow or deny
+ * is sent through the ResultReceiver, and any later one is ignored.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public final class DecisionResponder {
+    /**
+     * Told about the decision of a request once it is sent, such as to record it.
+     * */
+    public interface DecisionListener {
+        void onDecision(DecisionResponder responder, boolean allowed);
+    }
+
+    private static final String PEANDROID_PERM_KEY = "allowPerm";
+
+    /*
+     * Every decision is one of two results, so they are built once and shared. They are
+     * never modified after this, which makes it safe to parcel them from several threads.
+     */
+    private static final Bundle ALLOW_RESULT = createResult(true),
+                                DENY_RESULT = createResult(false);
+
+    private final ResultReceiver mReceiver;
+    private final DecisionListener mListener;
+    private final long mCreatedAtNanos = System.nanoTime();
+    private final AtomicReference<Bundle> mResult = new AtomicReference<Bundle>();
+
+    private volatile long mCompletedAtMillis, mCompletedAtNanos;
+
+    /**
+     * Create a responder for a permission request.
+     *
+     * @param receiver the ResultReceiver passed via onDangerousPermissionRequest or
+     *                 onPrivateDataRequest. Null when running unit tests, in which case the
+     *                 decision is only recorded.
+     * */
+    public DecisionResponder(ResultReceiver receiver) { this(receiver, null); }
+
+    /**
+     * Create a responder for a permission request that also tells a listener the decision.
+     *
+     * @param receiver the ResultReceiver passed via onDangerousPermissionRequest or
+     *                 onPrivateDataRequest, or null
+     * @param listener called after the decision is sent, or null
+     * */
+    public DecisionResponder(ResultReceiver receiver, DecisionListener listener) {
+        mReceiver = receiver;
+        mListener = listener;
+    }
+
+    /**
+     * Allows access to the requested data, unless a decision was already sent.
+     *
+     * @return true if this call decided the request, false if it was already decided
+     * */
+    public boolean allow() { return complete(ALLOW_RESULT); }
+
+    /**
+     * Denies access to the requested data, unless a decision was already sent.
+     *
+     * @return true if this call decided the request, false if it was already decided
+     * */
+    public boolean deny() { return complete(DENY_RESULT); }
+
+    /**
+     * @return true if a decision was sent for this request
+     * */
+    public boolean isComplete() { return mResult.get() != null; }
+
+    /**
+     * @return true if the request was allowed, false if it was denied or is still pending
+     * */
+    public boolean wasAllowed() { return mResult.get() == ALLOW_RESULT; }
+
+    /**
+     * @return the wall clock time in milliseconds the decision was sent at, or 0 if pending
+     * */
+    public long getCompletionTimeMillis() { return mCompletedAtMillis; }
+
+    /**
+     * @return nanoseconds between creating this responder and sending the decision,
+     * or -1 if pending
+     * */
+    public long getLatencyNanos() {
+        long completedAtNanos = mCompletedAtNanos;
+        return completedAtNanos == 0L ? -1L : completedAtNanos - mCreatedAtNanos;
+    }
+
+    /**
+     * @return the ResultReceiver decisions are sent through, which may be null
+     * */
+    public ResultReceiver getReceiver() { return mReceiver; }
+
+    private boolean complete(Bundle result) {
+        long completedAtNanos = System.nanoTime();
+
+        if(!mResult.compareAndSet(null, result)) { return false; }
+
+        mCompletedAtNanos = completedAtNanos;
+        mCompletedAtMillis = System.currentTimeMillis();
+
+        if(mReceiver != null) { mReceiver.send(0, result); }
+        if(mListener != null) { mListener.onDecision(this, result == ALLOW_RESULT); }
+
+        return true;
+    }
+
+    private static Bundle createResult(boolean allowed) {
+        Bundle result = new Bundle();
+        result.putBoolean(PEANDROID_PERM_KEY, allowed);
+
+        return result;
+    }
+}
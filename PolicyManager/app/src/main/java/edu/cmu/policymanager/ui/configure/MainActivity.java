@@ -30,6 +30,7 @@ import edu.cmu.policymanager.ui.configure.globalsettings.ActivityGlobalSettings;
 import edu.cmu.policymanager.ui.notification.PolicyManagerNotificationService;
 import edu.cmu.policymanager.ui.common.UIPlugin;
 import edu.cmu.policymanager.ui.configure.profiles.ActivityPolicyProfileMain;
+import edu.cmu.policymanager.ui.debug.ActivityEnforcementMetrics;
 import edu.cmu.policymanager.viewmodel.W4PData;
 import edu.cmu.policymanager.viewmodel.W4PGraph;
 
@@ -210,6 +211,10 @@ public class MainActivity extends Activity implements UIPlugin {
                     Intent openProfileUI =
                             new Intent(mActivityContext, ActivityPolicyProfileMain.class);
                     mActivityContext.startActivity(openProfileUI);
+                } else if(item.getGroupId() == R.id.common_menu_debug) {
+                    Intent openMetrics =
+                            new Intent(mActivityContext, ActivityEnforcementMetrics.class);
+                    mActivityContext.startActivity(openMetrics);
                 }
 
                 mDrawerLayout.closeDrawer(GravityCompat.START);
@@ -0,0 +1,42 @@
+package edu.cmu.policymanager.ui.debug;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.TextView;
+
+import edu.cmu.policymanager.PolicyManager.metrics.EnforcementMetrics;
+import edu.cmu.policymanager.R;
+
+/**
+ * Debug screen that shows the latency of each enforcement stage and the count of each
+ * enforcement result, as printed by EnforcementMetrics.dump.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class ActivityEnforcementMetrics extends Activity {
+    private TextView mMetricsText;
+
+    @Override
+    public void onCreate(Bundle savedInstanceData) {
+        super.onCreate(savedInstanceData);
+        setContentView(R.layout.activity_enforcement_metrics);
+
+        mMetricsText = findViewById(R.id.enforcement_metrics_text);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        refreshMetrics(null);
+    }
+
+    public void refreshMetrics(View v) { mMetricsText.setText(EnforcementMetrics.dump()); }
+
+    public void resetMetrics(View v) {
+        EnforcementMetrics.reset();
+        refreshMetrics(v);
+    }
+
+    public void exitScreen(View v) { finish(); }
+}
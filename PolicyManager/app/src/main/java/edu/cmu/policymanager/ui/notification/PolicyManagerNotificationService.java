@@ -5,32 +5,28 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
-import edu.cmu.policymanager.PolicyManager.purposes.Purpose;
-import edu.cmu.policymanager.PolicyManager.sensitivedata.SensitiveData;
+import edu.cmu.policymanager.PolicyManager.events.DecisionBatch;
+import edu.cmu.policymanager.PolicyManager.events.DecisionEventBus;
 import edu.cmu.policymanager.R;
 import edu.cmu.policymanager.ui.configure.MainActivity;
 
-import static edu.cmu.policymanager.PolicyManager.PolicyNotification.KEY_PACKAGE_NAME;
-import static edu.cmu.policymanager.PolicyManager.PolicyNotification.KEY_PERMISSION_NAME;
-import static edu.cmu.policymanager.PolicyManager.PolicyNotification.KEY_POLICY_SOURCE;
-import static edu.cmu.policymanager.PolicyManager.PolicyNotification.KEY_PURPOSE;
-import static edu.cmu.policymanager.PolicyManager.PolicyNotification.POLICY_ALLOWED;
-
 /**
  * Notifies the user of some policy action that was enforced by the policy manager. All
- * policy decisions that are made by the policy manager will send a broadcast indicating
- * whether a data access was allowed or denied, and by what (user setting, quick setting etc).
+ * policy decisions that are made by the policy manager are posted to the DecisionEventBus,
+ * saying whether a data access was allowed or denied, and by what (user setting, quick
+ * setting etc). The bus delivers them in batches, so a chatty app updates the count on one
+ * notification instead of posting a new one for every access.
  *
  * Notifications go live whenever the CMU policy manager is selected by PE for Android.
  *
@@ -39,21 +35,25 @@ import static edu.cmu.policymanager.PolicyManager.PolicyNotification.POLICY_ALLO
 public class PolicyManagerNotificationService extends Service {
     private static boolean sIsRunning = false;
     public static final String CHANNEL_ID = "edu.cmu.policymanager.notifications",
-                               DATA_ACCESSED = "edu.cmu.policymanager.action.DATA_ACCESSED",
-                               NOTIFICATION_GROUP_ID = "policymanager.all.notifications",
-                               KEY_POLICY_RESULT = "policyResult";
+                               NOTIFICATION_GROUP_ID = "policymanager.all.notifications";
 
-    private static final int DEFAULT_NOTIFICATION_ID = 1;
+    private static final int DEFAULT_NOTIFICATION_ID = 1,
+                             FIRST_DECISION_NOTIFICATION_ID = 100,
+                             MAX_CACHED_NOTIFICATIONS = 256;
 
     private final Context mServiceContext = this;
 
     private NotificationManager mManager;
 
-    private Map<String, Integer> mNotificationIDs = new HashMap<String, Integer>();
+    private final Handler mMainThread = new Handler(Looper.getMainLooper());
+    private final Map<String, CachedNotification> mNotifications =
+            new HashMap<String, CachedNotification>();
+    private int mNextNotificationId = FIRST_DECISION_NOTIFICATION_ID;
 
     public void onCreate() { }
 
     public void onDestroy() {
+        DecisionEventBus.getInstance().unsubscribe(mDecisionSubscriber);
         sIsRunning = false;
     }
 
@@ -94,8 +94,7 @@ public class PolicyManagerNotificationService extends Service {
 
                 startForeground(DEFAULT_NOTIFICATION_ID, notificationBuilder.build());
 
-                IntentFilter filter = new IntentFilter(DATA_ACCESSED);
-                registerReceiver(peAndroidUpdate, filter);
+                DecisionEventBus.getInstance().subscribe(mDecisionSubscriber);
             } else {
                 Log.d(
                         "NotificationService",
@@ -111,42 +110,89 @@ public class PolicyManagerNotificationService extends Service {
 
     public IBinder onBind(Intent intent) { return null; }
 
-    private final BroadcastReceiver peAndroidUpdate = new BroadcastReceiver() {
-        @Override public void onReceive(Context context,
-                                        Intent intent) {
-            final String packageName = intent.getStringExtra(KEY_PACKAGE_NAME),
-                         policySource = intent.getStringExtra(KEY_POLICY_SOURCE);
-
-            final SensitiveData permission = intent.getParcelableExtra(KEY_PERMISSION_NAME);
-            final Purpose purpose  = intent.getParcelableExtra(KEY_PURPOSE);
+    /*
+     * Decisions arrive in batches from the DecisionEventBus thread, and are shown on the main
+     * thread, where notifications have always been built.
+     */
+    private final DecisionEventBus.Subscriber mDecisionSubscriber =
+            new DecisionEventBus.Subscriber() {
+                @Override
+                public void onDecisions(final List<DecisionBatch> batches) {
+                    mMainThread.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            for(DecisionBatch batch : batches) { showDecisions(batch); }
+                        }
+                    });
+                }
+            };
+
+    /**
+     * Shows a batch of decisions for an app, permission and purpose. The notification for them
+     * is built once and kept, and later batches only update its count of accesses, unless the
+     * decision or where it was made has changed.
+     * */
+    private void showDecisions(DecisionBatch batch) {
+        if(mManager == null || batch.purpose == null) { return; }
+
+        String key = batch.packageName + "/" + batch.permission.androidPermission + "/" +
+                     batch.purpose.systemPurpose;
+
+        CachedNotification cached = mNotifications.get(key);
+
+        if(cached == null ||
+           cached.allowed != batch.latestWasAllowed() ||
+           !cached.source.equals(batch.getLatestSource())) {
+            Notification.Builder builder = PolicyNotification.create(mServiceContext)
+                                                             .forPackage(batch.packageName)
+                                                             .withPermission(batch.permission)
+                                                             .from(batch.getLatestSource())
+                                                             .setPurpose(batch.purpose)
+                                                             .isPermitted(batch.latestWasAllowed())
+                                                             .createAndroidNotificationBuilder()
+                                                             .setOnlyAlertOnce(true);
+
+            if(cached == null && mNotifications.size() >= MAX_CACHED_NOTIFICATIONS) {
+                mNotifications.clear();
+            }
 
-            String allowedOrDenied = intent.getStringExtra(KEY_POLICY_RESULT);
+            int notificationId = cached == null ? mNextNotificationId++ : cached.id;
 
-            boolean permitted = allowedOrDenied.equalsIgnoreCase(POLICY_ALLOWED);
+            cached = new CachedNotification(notificationId,
+                                            builder,
+                                            batch.getLatestSource(),
+                                            batch.latestWasAllowed());
+            mNotifications.put(key, cached);
+        }
 
-            PolicyNotification notification = PolicyNotification.create(context)
-                                                                .forPackage(packageName)
-                                                                .withPermission(permission)
-                                                                .from(policySource)
-                                                                .setPurpose(purpose)
-                                                                .isPermitted(permitted);
+        cached.accessCount += batch.getCount();
 
-            if (mManager != null) {
-                Random r = new Random();
-                int notificationId = r.nextInt() + 1;
-                String idKey = permission.androidPermission.toString() + purpose;
+        cached.builder.setSubText(getResources().getQuantityString(
+                              R.plurals.notification_access_count,
+                              cached.accessCount,
+                              cached.accessCount))
+                      .setWhen(batch.getLatestMillis());
 
-                if(mNotificationIDs.containsKey(idKey)) {
-                    notificationId = mNotificationIDs.get(idKey);
-                } else {
-                    mNotificationIDs.put(idKey, notificationId);
-                }
+        mManager.notify(cached.id, cached.builder.build());
+    }
 
-                Notification androidNotification = notification.buildAndroidNotification();
-                mManager.notify(notificationId, androidNotification);
-            }
+    private static final class CachedNotification {
+        private final int id;
+        private final Notification.Builder builder;
+        private final String source;
+        private final boolean allowed;
+        private int accessCount;
+
+        private CachedNotification(int id,
+                                   Notification.Builder builder,
+                                   String source,
+                                   boolean allowed) {
+            this.id = id;
+            this.builder = builder;
+            this.source = source;
+            this.allowed = allowed;
         }
-    };
+    }
 
     private PendingIntent createHomescreenPendingIntent() {
         Intent activityIntent = new Intent(mServiceContext, MainActivity.class);
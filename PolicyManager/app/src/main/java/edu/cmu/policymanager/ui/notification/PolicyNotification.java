@@ -124,6 +124,17 @@ public class PolicyNotification {
      * @return Android notification
      * */
     public Notification buildAndroidNotification() {
+        return createAndroidNotificationBuilder().build();
+    }
+
+    /**
+     * Creates a builder for the Android notification, set up from the values specified while
+     * building the PolicyNotification. Keep the builder to update the notification later
+     * without setting it up again.
+     *
+     * @return Android notification builder
+     * */
+    public Notification.Builder createAndroidNotificationBuilder() {
         Precondition.checkEmptyCharSequence(mPackageName);
         Precondition.checkState(mPurpose != null, "Must set a purpose");
         Precondition.checkState(mPermission != null, "Must set permission");
@@ -193,7 +204,7 @@ public class PolicyNotification {
             builder.setContentIntent(activityToNavTo);
         }
 
-        return builder.build();
+        return builder;
     }
 
     private PendingIntent createGlobalSettingPendingIntent(String packageName,
@@ -14,8 +14,6 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import org.json.JSONException;
-
 import java.util.function.Consumer;
 
 import edu.cmu.policymanager.DataRepository.DataRepository;
@@ -35,7 +33,6 @@ import edu.cmu.policymanager.R;
 import edu.cmu.policymanager.application.PolicyManagerApplication;
 import edu.cmu.policymanager.peandroid.PEAndroid;
 import edu.cmu.policymanager.ui.common.UIPlugin;
-import edu.cmu.policymanager.util.PolicyManagerDebug;
 
 /**
  * Prompts the user for a policy decision if the policy setting is ASK. The prompt presents
@@ -57,6 +54,7 @@ public class RuntimeUI extends Activity implements UIPlugin {
     private UserPolicy mRuntimePolicy;
     private PermissionRequest mRequest;
     private String mPackageName, mAppName;
+    private boolean mAnswered = false;
 
     private AlertDialog mDialog;
     private TextView mShowMoreView,
@@ -99,7 +97,7 @@ public class RuntimeUI extends Activity implements UIPlugin {
                                     .setPurpose(mPurpose.name)
                                     .setLibrary(request.thirdPartyLibrary)
                                     .setPalRequestDescription(request.palRequestDescription)
-                                    .setResultReceiver(request.recv)
+                                    .setResponder(request.responder)
                                     .build();
 
         int layoutId = R.layout.component_runtime_prompt;
@@ -150,34 +148,31 @@ public class RuntimeUI extends Activity implements UIPlugin {
                 library.category.equalsIgnoreCase(ThirdPartyLibraries.APP_INTERNAL_USE));
     }
 
-    private Consumer<String> addPolicyDescriptionTo(final TextView display) {
-        return new Consumer<String>() {
+    private Consumer<OffDevicePolicy> addPolicyDescriptionTo(final TextView display) {
+        return new Consumer<OffDevicePolicy>() {
             @Override
-            public void accept(final String odpString) {
+            public void accept(final OffDevicePolicy odp) {
+                if(odp == null) { return; }
+
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        try {
-                            OffDevicePolicy odp = new OffDevicePolicy(odpString);
-                            CharSequence permissionName = mRequest.permission.androidPermission,
-                                         purposeName = Purposes.RUNNING_OTHER_FEATURES.name;
-
-                            if(mRequest.purpose != null) {
-                                purposeName = mRequest.purpose.name.toString();
-                            }
-
-                            CharSequence comment = odp.getPolicyComment(permissionName, purposeName);
-
-                            if(comment != null) {
-                                display.setText(comment);
-                            } else if(mRequest.palRequestDescription != null &&
-                                      mRequest.palRequestDescription.length() > 0){
-                                display.setText(mRequest.palRequestDescription);
-                            } else {
-                                display.setText(mRequest.purpose.description);
-                            }
-                        } catch(JSONException jse) {
-                            PolicyManagerDebug.logException(jse);
+                        CharSequence permissionName = mRequest.permission.androidPermission,
+                                     purposeName = Purposes.RUNNING_OTHER_FEATURES.name;
+
+                        if(mRequest.purpose != null) {
+                            purposeName = mRequest.purpose.name.toString();
+                        }
+
+                        CharSequence comment = odp.getPolicyComment(permissionName, purposeName);
+
+                        if(comment != null) {
+                            display.setText(comment);
+                        } else if(mRequest.palRequestDescription != null &&
+                                  mRequest.palRequestDescription.length() > 0){
+                            display.setText(mRequest.palRequestDescription);
+                        } else {
+                            display.setText(mRequest.purpose.description);
                         }
                     }
                 });
@@ -238,7 +233,7 @@ public class RuntimeUI extends Activity implements UIPlugin {
         super.onResume();
 
         DataRepository.fromDisk()
-                      .getODPForPackage(mPackageName)
+                      .getParsedODPForPackage(mPackageName)
                       .thenAccept(addPolicyDescriptionTo(mAppPolicyDisplay));
     }
 
@@ -249,6 +244,11 @@ public class RuntimeUI extends Activity implements UIPlugin {
     public void onDestroy() {
         super.onDestroy();
         mDialog.dismiss();
+
+        /* Never leave the app, or the prompts after this one, waiting on a closed prompt. */
+        if(!mAnswered && !isChangingConfigurations()) {
+            PolicyManagerApplication.ui.getPromptScheduler().answer(mRequest, false);
+        }
     }
 
     public void showMore(View v) {
@@ -274,8 +274,7 @@ public class RuntimeUI extends Activity implements UIPlugin {
                 mRequest
         );
 
-        PEAndroid.connectToReceiver(mRequest.recv).allowPermission();
-        dismissRuntime();
+        dismissRuntime(true);
     }
 
     /**
@@ -291,8 +290,7 @@ public class RuntimeUI extends Activity implements UIPlugin {
                 mRequest
         );
 
-        PEAndroid.connectToReceiver(mRequest.recv).allowPermission();
-        dismissRuntime();
+        dismissRuntime(true);
     }
 
     /**
@@ -308,11 +306,12 @@ public class RuntimeUI extends Activity implements UIPlugin {
                 mRequest
         );
 
-        PEAndroid.connectToReceiver(mRequest.recv).denyPermission();
-        dismissRuntime();
+        dismissRuntime(false);
     }
 
-    private void dismissRuntime() {
+    private void dismissRuntime(boolean allowed) {
+        mAnswered = true;
+        PolicyManagerApplication.ui.getPromptScheduler().answer(mRequest, allowed);
         PEAndroid.returnControl(mActivityContext);
         mDialog.dismiss();
         finishAndRemoveTask();
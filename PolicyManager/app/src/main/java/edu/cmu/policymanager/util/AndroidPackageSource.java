@@ -0,0 +1,81 @@
+package edu.cmu.policymanager.util;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads installed packages and permissions from the PackageManager. Each permission is
+ * looked up with a single getPermissionInfo call, for both its protection level and its
+ * description.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class AndroidPackageSource implements PackageSource {
+    private final PackageManager mPackageManager;
+
+    public AndroidPackageSource(Context context) {
+        mPackageManager = context.getPackageManager();
+    }
+
+    @Override
+    public List<String> getInstalledPackageNames() {
+        List<PackageInfo> packages = mPackageManager.getInstalledPackages(0);
+        List<String> names = new ArrayList<String>(packages.size());
+
+        for(PackageInfo info : packages) { names.add(info.packageName); }
+
+        return names;
+    }
+
+    @Override
+    public Map<String, PackageVersion> getInstalledVersions() {
+        List<PackageInfo> packages = mPackageManager.getInstalledPackages(0);
+        Map<String, PackageVersion> versions =
+                new LinkedHashMap<String, PackageVersion>(packages.size() * 2);
+
+        for(PackageInfo info : packages) {
+            versions.put(info.packageName,
+                         new PackageVersion(info.versionCode, info.lastUpdateTime));
+        }
+
+        return versions;
+    }
+
+    @Override
+    public InstalledPackage getPackage(String packageName) {
+        try {
+            PackageInfo info = mPackageManager.getPackageInfo(packageName,
+                                                              PackageManager.GET_PERMISSIONS);
+
+            return new InstalledPackage(info.packageName,
+                                        info.applicationInfo.loadLabel(mPackageManager).toString(),
+                                        info.versionName,
+                                        info.versionCode,
+                                        info.lastUpdateTime,
+                                        info.requestedPermissions);
+        } catch(PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public PermissionDetails getPermission(String permissionName) {
+        try {
+            PermissionInfo info = mPackageManager.getPermissionInfo(permissionName,
+                                                                    PackageManager.GET_META_DATA);
+            CharSequence description = info.loadDescription(mPackageManager);
+
+            return new PermissionDetails(info.protectionLevel,
+                                         description == null ? null : description.toString());
+        } catch(PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -15,16 +15,14 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import edu.cmu.policymanager.DataRepository.DataRepository;
+import edu.cmu.policymanager.DataRepository.RepositoryExecutors;
+import edu.cmu.policymanager.DataRepository.db.AppDatabase;
 import edu.cmu.policymanager.DataRepository.db.AppDatabaseSingleton;
 import edu.cmu.policymanager.DataRepository.db.model.AppInfo;
-import edu.cmu.policymanager.DataRepository.db.model.Metadata;
 import edu.cmu.policymanager.DataRepository.db.model.PermissionInfo;
 import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
 import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
@@ -50,94 +48,48 @@ public class FetchUtil {
 
     private static final String TAG = "FetchUtil";
 
+    /**
+     * Adds every installed app that requests a dangerous permission to the database, with
+     * its dangerous permissions and an ALLOW setting for each in the default profile. The
+     * packages are read in parallel and written PackageScanner.DEFAULT_BATCH_SIZE apps per
+     * transaction.
+     *
+     * @return the apps added, sorted by name
+     * */
     public static ArrayList<AppInfo> getInstalledApps(Context context, boolean getSysPackages) {
-        ArrayList<AppInfo> all = new ArrayList<AppInfo>();
-        List<PackageInfo> packs = context.getPackageManager().getInstalledPackages(0);
-        Set<String> uniquePermissions = new HashSet<String>();
-
-        for (int i = 0; i < packs.size(); i++) {
-            PackageInfo p = packs.get(i);
-            String appName = p.applicationInfo.loadLabel(context.getPackageManager()).toString();
-            String packageName = p.packageName;
-            String versionName = p.versionName;
-            int versionCode = p.versionCode;
-            int category = 0;
-
-            if(CriticalSystemApps.packageIsSystemApp(packageName)) {
-                continue;
-            }
-
-            AppInfo appInfoDb = new AppInfo();
-
-            appInfoDb.appName = appName;
-            appInfoDb.packageName = packageName;
-            appInfoDb.versionCode = versionCode;
-            appInfoDb.versionName = versionName;
-            appInfoDb.category = category;
-
-            /*
-            if (AppDatabaseSingleton.getDB().appInfoDao().hasAppWithVersion(appInfoDb.packageName,
-                                                                            appInfoDb.versionCode)){
-                //Mike - for now lets just exit if we see the db is already initialized
-                return null;
-            }*/
-
-            // check to see if there are any dangerous permissions ('sensitivity >= 2'). if not, don't add app to DB
-            boolean shouldAddHasDangerous = false;
-
-            ArrayList<PermissionInfo> permissionsOfThisApp = getGrantedPermissions(context, packageName);
-            List<PermissionInfo> permInfosDb = new LinkedList<>();
-            for (PermissionInfo info : permissionsOfThisApp){
-                PermissionInfo permInfo = new PermissionInfo();
-                permInfo.permissionName = info.permissionName;
-                permInfo.permissionDescription = info.permissionDescription;
-                permInfo.sensitivity = PermissionUtil.getPermissionSensitivity(info.permissionName);
-                if (permInfo.sensitivity.equals("2")) {
-                    Log.v(TAG, "inserting permission (sensitivity: " + permInfo.sensitivity +
-                                    "): " + info.permissionName + " for app: " +
-                                    appInfoDb.packageName);
-                    permInfosDb.add(permInfo);
-                    uniquePermissions.add(permInfo.permissionName);
-                    shouldAddHasDangerous = true;
-
-                    PolicyProfileSetting setting = new PolicyProfileSetting();
-                    setting.app = appInfoDb.packageName;
-                    setting.permission = permInfo.permissionName;
-                    setting.purpose = Purposes.RUNNING_OTHER_FEATURES.name.toString();
-                    setting.thirdPartyLibrary =
-                            ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE.category;
-                    setting.profileName = PolicyProfile.DEFAULT;
-                    setting.policyAction = UserPolicy.Policy.ALLOW.name();
-
-                    try {
-                        DangerousPermissions.from(setting.permission);
-
-                        AppDatabaseSingleton.getDB(DataRepository.StorageType.DISK)
-                                            .policyProfileSettingDAO()
-                                            .insert(setting);
-                    } catch(IllegalArgumentException ex) {
-                        /*
-                         * Do not actually need to do anything here, as the permission
-                         * is not dangerous. This logic is very old, but not enough time to
-                         * refactor all of this.
-                         * */
+        final AppDatabase db = AppDatabaseSingleton.getDB(DataRepository.StorageType.DISK);
+        PackageScanner scanner = new PackageScanner(new AndroidPackageSource(context),
+                                                    DEFAULT_SCAN_RULES,
+                                                    RepositoryExecutors.background(),
+                                                    PackageScanner.defaultWorkers(),
+                                                    PackageScanner.DEFAULT_BATCH_SIZE);
+
+        List<PackageScanner.ScannedApp> found = scanner.scan(new PackageScanner.Sink() {
+            @Override
+            public void commit(final List<PackageScanner.ScannedApp> batch) {
+                db.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for(PackageScanner.ScannedApp scanned : batch) {
+                            scanned.app.id = db.appInfoDao().insert(scanned.app);
+                            db.permissionInfoDao().insertPermissionsForApp(
+                                    scanned.app, scanned.permissions
+                            );
+                            db.policyProfileSettingDAO().insert(
+                                    scanned.settings.toArray(new PolicyProfileSetting[0])
+                            );
+                        }
                     }
-                }
-            }
-
-            if(!shouldAddHasDangerous) {
-                Log.i(TAG, "Not adding app: " + packageName +" because there aren't any dangerous permissions that it uses");
-                continue;
+                });
             }
+        });
 
-            long appId = AppDatabaseSingleton.getDB(DataRepository.StorageType.DISK)
-                                             .appInfoDao()
-                                             .insert(appInfoDb);
+        Log.i(TAG, "Added " + found.size() + " apps, reading " +
+                   scanner.getPermissionLookupCount() + " permissions");
 
-            appInfoDb.id = appId;
+        ArrayList<AppInfo> all = new ArrayList<AppInfo>(found.size());
+        for(PackageScanner.ScannedApp scanned : found) { all.add(scanned.app); }
 
-            AppDatabaseSingleton.getDB(DataRepository.StorageType.DISK).permissionInfoDao().insertPermissionsForApp(appInfoDb, permInfosDb);
-        }
         Collections.sort(all, new Comparator<AppInfo>() {
             @Override
             public int compare(AppInfo lhs, AppInfo rhs) {
@@ -145,21 +97,48 @@ public class FetchUtil {
             }
         });
 
-        Metadata[] metadataList = new Metadata[uniquePermissions.size()];
-        int i = 0;
+        return all;
+    }
 
-        for(String permission : uniquePermissions) {
-            String jsonString = "{ \"accessCount\" : \"0\" }";
-            Metadata metadata = new Metadata();
-            metadata.dataOwner = permission;
-            metadata.metadataJson = jsonString;
-            metadataList[i++] = metadata;
+    /**
+     * @return the rules getInstalledApps scans packages with, for other scans to share
+     * */
+    public static PackageScanner.Rules scanRules() { return DEFAULT_SCAN_RULES; }
+
+    /*
+     * Critical system apps are skipped; an app's permissions with sensitivity 2 are listed,
+     * and those that are dangerous permissions are allowed in the default profile.
+     */
+    private static final PackageScanner.Rules DEFAULT_SCAN_RULES = new PackageScanner.Rules() {
+        @Override
+        public boolean isSystemApp(String packageName) {
+            return CriticalSystemApps.packageIsSystemApp(packageName);
         }
 
-        AppDatabaseSingleton.getDB(DataRepository.StorageType.DISK).metadataDao().insert(metadataList);
+        @Override
+        public boolean isSensitive(String permissionName) {
+            return PermissionUtil.getPermissionSensitivity(permissionName).equals("2");
+        }
 
-        return all;
-    }
+        @Override
+        public PolicyProfileSetting defaultSetting(String packageName, String permissionName) {
+            try {
+                DangerousPermissions.from(permissionName);
+            } catch(IllegalArgumentException ex) {
+                return null;
+            }
+
+            PolicyProfileSetting setting = new PolicyProfileSetting();
+            setting.app = packageName;
+            setting.permission = permissionName;
+            setting.purpose = Purposes.RUNNING_OTHER_FEATURES.name.toString();
+            setting.thirdPartyLibrary = ThirdPartyLibraries.CATEGORY_APP_INTERNAL_USE.category;
+            setting.profileName = PolicyProfile.DEFAULT;
+            setting.policyAction = UserPolicy.Policy.ALLOW.name();
+
+            return setting;
+        }
+    };
 
     public static ArrayList<PermissionInfo> getGrantedPermissions(Context context, String appPackage) {
         ArrayList<PermissionInfo> granted = new ArrayList<PermissionInfo>();
@@ -218,39 +197,9 @@ public class FetchUtil {
 
     public static long insertAppIntoDB(Context context, String packageNameArg) {
         if(!DataRepository.getInstance().isAppInstalled(packageNameArg)) {
-            PackageManager pm = context.getPackageManager();
-
-            PackageInfo p = null;
-            try {
-                p = pm.getPackageInfo(packageNameArg, 0);
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, e.getMessage());
-            }
-
-            if( p == null) {
-                Log.d(TAG, "PackageInfo is null");
-            }
-
-            if(p != null) {
-                String appName = p.applicationInfo.loadLabel(pm).toString();
-                String packageName = p.packageName;
-                int versionCode = p.versionCode;
-                long firstInstallTime = p.firstInstallTime;
-                long lastUpdatetime = p.lastUpdateTime;
-
-                AppInfo appInfoDb = new AppInfo();
-
-                appInfoDb.appName = appName;
-                appInfoDb.packageName = packageName;
-                appInfoDb.versionCode = versionCode;
-                appInfoDb.firstInstallTime = firstInstallTime;
-                appInfoDb.lastUpdateTime = lastUpdatetime;
-                appInfoDb.category = 0;
-
-                if(packageName.contains("com.android")) {
-                    appInfoDb.category = PolicyManagerApplication.CATEGORY_NATIVE;
-                }
+            AppInfo appInfoDb = loadAppInfo(context, packageNameArg);
 
+            if(appInfoDb != null) {
                 if (AppDatabaseSingleton.getDB(DataRepository.StorageType.DISK).appInfoDao().hasAppWithVersion(appInfoDb.packageName,
                         appInfoDb.versionCode)) {
                     Log.d(TAG, "App already in database: " + appInfoDb.packageName);
@@ -263,4 +212,47 @@ public class FetchUtil {
 
         return -1;
     }
+
+    /**
+     * Reads the app info of an installed package from the PackageManager, without touching
+     * the database.
+     *
+     * @return the app info, or null if the package is not installed
+     * */
+    public static AppInfo loadAppInfo(Context context, String packageNameArg) {
+        PackageManager pm = context.getPackageManager();
+
+        PackageInfo p = null;
+        try {
+            p = pm.getPackageInfo(packageNameArg, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, e.getMessage());
+        }
+
+        if( p == null) {
+            Log.d(TAG, "PackageInfo is null");
+            return null;
+        }
+
+        String appName = p.applicationInfo.loadLabel(pm).toString();
+        String packageName = p.packageName;
+        int versionCode = p.versionCode;
+        long firstInstallTime = p.firstInstallTime;
+        long lastUpdatetime = p.lastUpdateTime;
+
+        AppInfo appInfoDb = new AppInfo();
+
+        appInfoDb.appName = appName;
+        appInfoDb.packageName = packageName;
+        appInfoDb.versionCode = versionCode;
+        appInfoDb.firstInstallTime = firstInstallTime;
+        appInfoDb.lastUpdateTime = lastUpdatetime;
+        appInfoDb.category = 0;
+
+        if(packageName.contains("com.android")) {
+            appInfoDb.category = PolicyManagerApplication.CATEGORY_NATIVE;
+        }
+
+        return appInfoDb;
+    }
 }
\ No newline at end of file
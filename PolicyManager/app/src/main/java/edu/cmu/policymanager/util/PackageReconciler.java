@@ -0,0 +1,248 @@
+package edu.cmu.policymanager.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import edu.cmu.policymanager.DataRepository.db.model.AppInfo;
+
+/**
+ * Brings the apps in the database up to date with the installed packages, touching only the
+ * packages that changed. Packages are told apart by their PackageVersion: a package whose
+ * version code and last update time match its row is left alone, so after an OTA or a bulk
+ * restore only the new and updated packages are scanned, and apps that are gone are removed.
+ *
+ * Packages the scan skips, because they request no sensitive permission, have no row to
+ * compare against; the Store remembers their versions so they are not scanned every time.
+ *
+ * Packages are scanned on the calling thread and the given Executor. All the changes are then
+ * handed to the Store at once, to be written in one transaction.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class PackageReconciler {
+    public interface Store {
+        /**
+         * @return the apps in the database
+         * */
+        List<AppInfo> getApps();
+
+        /**
+         * @return the versions of the packages the last scan skipped, by package name
+         * */
+        Map<String, PackageSource.PackageVersion> getSkippedPackages();
+
+        /**
+         * Write the changes, in one transaction.
+         * */
+        void apply(Changes changes);
+    }
+
+    public static final class Changes {
+        /* New apps, and apps that changed, with the rows to write for them. Updated apps
+         * keep the id, category and first install time of their row. */
+        public final List<PackageScanner.ScannedApp> added, updated;
+
+        /* Apps that changed but no longer request a sensitive permission; only their
+         * versions are updated, so their policies are kept. */
+        public final Map<String, PackageSource.PackageVersion> restamped;
+
+        /* Apps that were uninstalled, or became critical system apps. */
+        public final List<String> removed;
+
+        /* Every skipped package, if that changed; otherwise null. */
+        public final Map<String, PackageSource.PackageVersion> skipped;
+
+        private Changes(List<PackageScanner.ScannedApp> added,
+                        List<PackageScanner.ScannedApp> updated,
+                        Map<String, PackageSource.PackageVersion> restamped,
+                        List<String> removed,
+                        Map<String, PackageSource.PackageVersion> skipped) {
+            this.added = Collections.unmodifiableList(added);
+            this.updated = Collections.unmodifiableList(updated);
+            this.restamped = Collections.unmodifiableMap(restamped);
+            this.removed = Collections.unmodifiableList(removed);
+            this.skipped = skipped == null ? null : Collections.unmodifiableMap(skipped);
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && restamped.isEmpty() &&
+                   removed.isEmpty() && skipped == null;
+        }
+    }
+
+    /**
+     * What a reconcile did, and how long it took.
+     * */
+    public static final class Summary {
+        public final int installed, unchanged, added, updated, removed, skipped;
+        public final long scanNanos, applyNanos;
+
+        private Summary(int installed,
+                        int unchanged,
+                        Changes changes,
+                        int newlySkipped,
+                        long scanNanos,
+                        long applyNanos) {
+            this.installed = installed;
+            this.unchanged = unchanged;
+            this.added = changes.added.size();
+            this.updated = changes.updated.size() + changes.restamped.size();
+            this.removed = changes.removed.size();
+            this.skipped = newlySkipped;
+            this.scanNanos = scanNanos;
+            this.applyNanos = applyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                                 "%d packages: %d added, %d updated, %d removed, " +
+                                 "%d skipped, %d unchanged (scan %.1f ms, write %.1f ms)",
+                                 installed, added, updated, removed, skipped, unchanged,
+                                 scanNanos / 1000000.0, applyNanos / 1000000.0);
+        }
+    }
+
+    private static final PackageScanner.Sink IGNORE_BATCHES = new PackageScanner.Sink() {
+        @Override
+        public void commit(List<PackageScanner.ScannedApp> batch) {}
+    };
+
+    private final PackageSource mSource;
+    private final PackageScanner.Rules mRules;
+    private final PackageScanner mScanner;
+
+    /**
+     * @param source where to read the installed packages from
+     * @param rules which packages and permissions to keep
+     * @param executor where packages are scanned, besides the calling thread
+     * @param workers how many packages to scan at once
+     * */
+    public PackageReconciler(PackageSource source,
+                             PackageScanner.Rules rules,
+                             Executor executor,
+                             int workers) {
+        mSource = source;
+        mRules = rules;
+        mScanner = new PackageScanner(source,
+                                      rules,
+                                      executor,
+                                      workers,
+                                      PackageScanner.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Compare the installed packages with the store, scan the packages that differ, and
+     * hand the changes to the store.
+     *
+     * @param store the apps in the database
+     * @return what was done
+     * */
+    public Summary reconcile(Store store) {
+        if(store == null) { throw new IllegalArgumentException("Store is null"); }
+
+        long start = System.nanoTime();
+
+        Map<String, PackageSource.PackageVersion> installed = mSource.getInstalledVersions();
+        Map<String, PackageSource.PackageVersion> skipped = store.getSkippedPackages();
+        Map<String, AppInfo> tracked = new HashMap<String, AppInfo>();
+
+        for(AppInfo app : store.getApps()) {
+            if(!tracked.containsKey(app.packageName)) { tracked.put(app.packageName, app); }
+        }
+
+        Map<String, PackageSource.PackageVersion> stillSkipped =
+                new LinkedHashMap<String, PackageSource.PackageVersion>();
+        List<String> toScan = new ArrayList<String>();
+        int unchanged = 0;
+
+        for(Map.Entry<String, PackageSource.PackageVersion> entry : installed.entrySet()) {
+            String packageName = entry.getKey();
+            PackageSource.PackageVersion version = entry.getValue();
+
+            if(mRules.isSystemApp(packageName)) { continue; }
+
+            AppInfo app = tracked.get(packageName);
+
+            if(app != null) {
+                if(app.versionCode == version.versionCode &&
+                   app.lastUpdateTime == version.lastUpdateTime) {
+                    unchanged++;
+                } else {
+                    toScan.add(packageName);
+                }
+            } else if(version.equals(skipped.get(packageName))) {
+                stillSkipped.put(packageName, version);
+                unchanged++;
+            } else {
+                toScan.add(packageName);
+            }
+        }
+
+        List<String> removed = new ArrayList<String>();
+
+        for(String packageName : tracked.keySet()) {
+            if(!installed.containsKey(packageName) || mRules.isSystemApp(packageName)) {
+                removed.add(packageName);
+            }
+        }
+
+        List<PackageScanner.ScannedApp> added = new ArrayList<PackageScanner.ScannedApp>(),
+                                        updated = new ArrayList<PackageScanner.ScannedApp>();
+        Set<String> found = new HashSet<String>();
+
+        for(PackageScanner.ScannedApp scanned : mScanner.scan(toScan, IGNORE_BATCHES)) {
+            AppInfo row = tracked.get(scanned.app.packageName);
+            found.add(scanned.app.packageName);
+
+            if(row == null) {
+                added.add(scanned);
+            } else {
+                scanned.app.id = row.id;
+                scanned.app.category = row.category;
+                scanned.app.firstInstallTime = row.firstInstallTime;
+                updated.add(scanned);
+            }
+        }
+
+        Map<String, PackageSource.PackageVersion> restamped =
+                new HashMap<String, PackageSource.PackageVersion>();
+        int newlySkipped = 0;
+
+        for(String packageName : toScan) {
+            if(found.contains(packageName)) { continue; }
+
+            if(tracked.containsKey(packageName)) {
+                restamped.put(packageName, installed.get(packageName));
+            } else {
+                stillSkipped.put(packageName, installed.get(packageName));
+                newlySkipped++;
+            }
+        }
+
+        Changes changes = new Changes(added,
+                                      updated,
+                                      restamped,
+                                      removed,
+                                      stillSkipped.equals(skipped) ? null : stillSkipped);
+
+        long scanned = System.nanoTime();
+
+        if(!changes.isEmpty()) { store.apply(changes); }
+
+        return new Summary(installed.size(),
+                           unchanged,
+                           changes,
+                           newlySkipped,
+                           scanned - start,
+                           System.nanoTime() - scanned);
+    }
+}
@@ -0,0 +1,277 @@
+package edu.cmu.policymanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import edu.cmu.policymanager.DataRepository.db.model.AppInfo;
+import edu.cmu.policymanager.DataRepository.db.model.PermissionInfo;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+/**
+ * Scans the installed packages for the apps the policy manager should know about: apps that
+ * are not critical system apps and request at least one sensitive permission.
+ *
+ * Packages are read from the PackageSource by a few workers, and each permission's metadata
+ * is read once per scan, however many packages request it. The calling thread is one of the
+ * workers and the others run on the given Executor, which the scanner does not own; since
+ * the caller takes packages too, a scan finishes even when the executor is busy. The rows
+ * of the apps found are handed to a Sink in batches, in the order the source listed the
+ * packages, so each batch can be written in one transaction.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public class PackageScanner {
+    public interface Rules {
+        /**
+         * @return true if the package should not be scanned at all
+         * */
+        boolean isSystemApp(String packageName);
+
+        /**
+         * @return true if the permission is sensitive enough to list for the app
+         * */
+        boolean isSensitive(String permissionName);
+
+        /**
+         * @return the default setting for an app's sensitive permission, or null if the
+         * permission has no setting
+         * */
+        PolicyProfileSetting defaultSetting(String packageName, String permissionName);
+    }
+
+    public interface Sink {
+        /**
+         * @param batch the next apps found, at most the batch size
+         * */
+        void commit(List<ScannedApp> batch);
+    }
+
+    /**
+     * An app found by the scan, with the rows to write for it. The permissions' app IDs are
+     * set once the app is inserted.
+     * */
+    public static final class ScannedApp {
+        public final AppInfo app;
+        public final List<PermissionInfo> permissions;
+        public final List<PolicyProfileSetting> settings;
+
+        private ScannedApp(AppInfo app,
+                           List<PermissionInfo> permissions,
+                           List<PolicyProfileSetting> settings) {
+            this.app = app;
+            this.permissions = permissions;
+            this.settings = settings;
+        }
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final PackageSource.PermissionDetails UNKNOWN_PERMISSION =
+            new PackageSource.PermissionDetails(0, null);
+
+    private final PackageSource mSource;
+    private final Rules mRules;
+    private final Executor mExecutor;
+    private final int mWorkers, mBatchSize;
+
+    private final ConcurrentHashMap<String, PackageSource.PermissionDetails> mPermissions =
+            new ConcurrentHashMap<String, PackageSource.PermissionDetails>();
+
+    /**
+     * @param source where to read packages and permissions from
+     * @param rules which packages and permissions to keep
+     * @param executor where the workers other than the calling thread run
+     * @param workers how many packages to read at once, counting the calling thread
+     * @param batchSize how many apps to hand to the sink at a time
+     * */
+    public PackageScanner(PackageSource source,
+                          Rules rules,
+                          Executor executor,
+                          int workers,
+                          int batchSize) {
+        if(source == null || rules == null || executor == null) {
+            throw new IllegalArgumentException("Package source, rules or executor are null");
+        }
+
+        if(workers < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Workers and batch size must be positive");
+        }
+
+        mSource = source;
+        mRules = rules;
+        mExecutor = executor;
+        mWorkers = workers;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * @return a worker count suited to this device: one per core, at most four
+     * */
+    public static int defaultWorkers() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Scan every installed package, and hand the apps found to the sink.
+     *
+     * @param sink takes each batch of apps found, on the calling thread
+     * @return the apps found, in the order the source listed them
+     * @throws IllegalStateException if reading a package failed, or the caller was
+     * interrupted while waiting for the workers
+     * */
+    public List<ScannedApp> scan(Sink sink) {
+        return scan(mSource.getInstalledPackageNames(), sink);
+    }
+
+    /**
+     * Scan some of the installed packages, and hand the apps found to the sink.
+     *
+     * @param packageNames the packages to scan
+     * @param sink takes each batch of apps found, on the calling thread
+     * @return the apps found, in the order of packageNames
+     * @throws IllegalStateException if reading a package failed, or the caller was
+     * interrupted while waiting for the workers
+     * */
+    public List<ScannedApp> scan(final List<String> packageNames, Sink sink) {
+        if(packageNames == null || sink == null) {
+            throw new IllegalArgumentException("Package names or sink are null");
+        }
+
+        final ScannedApp[] scanned = new ScannedApp[packageNames.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        final CountDownLatch done = new CountDownLatch(scanned.length);
+        int helpers = Math.min(mWorkers, scanned.length) - 1;
+
+        /*
+         * Each worker takes the next package until none are left, and counts every package it
+         * takes down once it is done with it. The caller works too, so every package is taken
+         * even if no helper starts, and the caller only waits for packages other workers took.
+         * Helpers that start after the last package was taken return at once.
+         */
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                for(int index = next.getAndIncrement();
+                    index < scanned.length;
+                    index = next.getAndIncrement()) {
+                    try {
+                        if(failure.get() == null) {
+                            scanned[index] = scanPackage(packageNames.get(index));
+                        }
+                    } catch(RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        for(int i = 0; i < helpers; i++) { mExecutor.execute(worker); }
+
+        worker.run();
+
+        try {
+            done.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning packages");
+        }
+
+        if(failure.get() != null) {
+            throw new IllegalStateException("Could not scan packages", failure.get());
+        }
+
+        List<ScannedApp> found = new ArrayList<ScannedApp>();
+        List<ScannedApp> batch = new ArrayList<ScannedApp>(mBatchSize);
+
+        for(ScannedApp app : scanned) {
+            if(app == null) { continue; }
+
+            found.add(app);
+            batch.add(app);
+
+            if(batch.size() == mBatchSize) {
+                sink.commit(batch);
+                batch = new ArrayList<ScannedApp>(mBatchSize);
+            }
+        }
+
+        if(!batch.isEmpty()) { sink.commit(batch); }
+
+        return found;
+    }
+
+    /**
+     * @return the number of distinct permissions whose metadata has been read
+     * */
+    public int getPermissionLookupCount() { return mPermissions.size(); }
+
+    private ScannedApp scanPackage(String packageName) {
+        if(mRules.isSystemApp(packageName)) { return null; }
+
+        PackageSource.InstalledPackage installed = mSource.getPackage(packageName);
+
+        if(installed == null) { return null; }
+
+        String[] requested = installed.requestedPermissions.clone();
+        Arrays.sort(requested);
+
+        List<PermissionInfo> permissions = new ArrayList<PermissionInfo>();
+        List<PolicyProfileSetting> settings = new ArrayList<PolicyProfileSetting>();
+
+        for(String permissionName : requested) {
+            if(permissionName == null || !mRules.isSensitive(permissionName)) { continue; }
+
+            PackageSource.PermissionDetails details = permission(permissionName);
+
+            PermissionInfo permission = new PermissionInfo();
+            permission.permissionName = permissionName;
+            permission.protectionLevel = details.protectionLevel;
+            permission.permissionDescription = details.description == null ?
+                    "No description available for: " + permissionName :
+                    details.description;
+            permission.sensitivity = "2";
+            permissions.add(permission);
+
+            PolicyProfileSetting setting = mRules.defaultSetting(installed.packageName,
+                                                                 permissionName);
+            if(setting != null) { settings.add(setting); }
+        }
+
+        if(permissions.isEmpty()) { return null; }
+
+        AppInfo app = new AppInfo();
+        app.packageName = installed.packageName;
+        app.appName = installed.label;
+        app.versionName = installed.versionName;
+        app.versionCode = installed.versionCode;
+        app.lastUpdateTime = installed.lastUpdateTime;
+        app.category = 0;
+
+        return new ScannedApp(app,
+                              Collections.unmodifiableList(permissions),
+                              Collections.unmodifiableList(settings));
+    }
+
+    /* Other workers asking for the same permission wait for the first lookup. */
+    private PackageSource.PermissionDetails permission(String permissionName) {
+        return mPermissions.computeIfAbsent(permissionName,
+                new Function<String, PackageSource.PermissionDetails>() {
+            @Override
+            public PackageSource.PermissionDetails apply(String name) {
+                PackageSource.PermissionDetails details = mSource.getPermission(name);
+                return details == null ? UNKNOWN_PERMISSION : details;
+            }
+        });
+    }
+}
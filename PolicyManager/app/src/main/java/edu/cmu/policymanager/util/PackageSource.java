@@ -0,0 +1,120 @@
+package edu.cmu.policymanager.util;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the PackageScanner reads installed packages and permissions from. On a device this
+ * is the PackageManager (AndroidPackageSource); a fake can stand in for it on the JVM.
+ * Implementations must be safe to call from several threads at once.
+ *
+ * Created by Mike Czapik (Carnegie Mellon University).
+ * */
+public interface PackageSource {
+    /**
+     * @return the package names of every installed package
+     * */
+    List<String> getInstalledPackageNames();
+
+    /**
+     * @return the version of every installed package, by package name, in the order the
+     * system lists them
+     * */
+    Map<String, PackageVersion> getInstalledVersions();
+
+    /**
+     * @param packageName an installed package
+     * @return the package, with its label and requested permissions, or null if it is no
+     * longer installed
+     * */
+    InstalledPackage getPackage(String packageName);
+
+    /**
+     * @param permissionName a permission requested by some package
+     * @return the permission's protection level and description, or null if the system does
+     * not know the permission
+     * */
+    PermissionDetails getPermission(String permissionName);
+
+    final class InstalledPackage {
+        public final String packageName, label, versionName;
+        public final int versionCode;
+        public final long lastUpdateTime;
+        public final String[] requestedPermissions;
+
+        public InstalledPackage(String packageName,
+                                String label,
+                                String versionName,
+                                int versionCode,
+                                long lastUpdateTime,
+                                String[] requestedPermissions) {
+            this.packageName = packageName;
+            this.label = label;
+            this.versionName = versionName;
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+            this.requestedPermissions = requestedPermissions == null ?
+                                        new String[0] : requestedPermissions;
+        }
+    }
+
+    final class PermissionDetails {
+        public final int protectionLevel;
+        public final String description;
+
+        public PermissionDetails(int protectionLevel, String description) {
+            this.protectionLevel = protectionLevel;
+            this.description = description;
+        }
+    }
+
+    /**
+     * What tells one install of a package from another: an update changes the version code,
+     * a reinstall or restore of the same version changes the last update time.
+     * */
+    final class PackageVersion {
+        public final int versionCode;
+        public final long lastUpdateTime;
+
+        public PackageVersion(int versionCode, long lastUpdateTime) {
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) { return true; }
+            if(!(o instanceof PackageVersion)) { return false; }
+
+            PackageVersion that = (PackageVersion)o;
+
+            return versionCode == that.versionCode && lastUpdateTime == that.lastUpdateTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * versionCode + (int)(lastUpdateTime ^ (lastUpdateTime >>> 32));
+        }
+
+        @Override
+        public String toString() { return versionCode + ":" + lastUpdateTime; }
+
+        /**
+         * @param version a version as written by toString
+         * @return the version, or null if it cannot be read
+         * */
+        public static PackageVersion parse(String version) {
+            if(version == null) { return null; }
+
+            int separator = version.indexOf(':');
+            if(separator < 0) { return null; }
+
+            try {
+                return new PackageVersion(Integer.parseInt(version.substring(0, separator)),
+                                          Long.parseLong(version.substring(separator + 1)));
+            } catch(NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
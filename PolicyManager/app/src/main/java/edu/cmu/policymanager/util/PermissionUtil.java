@@ -2,9 +2,6 @@ package edu.cmu.policymanager.util;
 
 import android.util.Log;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import edu.cmu.policymanager.DataRepository.DataRepository;
 import edu.cmu.policymanager.application.PolicyManagerApplication;
 
@@ -26,23 +23,6 @@ public class PermissionUtil {
         return modifiedPermissionName;
     }
 
-    public static void incrementDataAccessCount(final String permission) {
-        (new Thread() {
-            public void run() {
-                try {
-                    Map<String, String> metadata = DataRepository.getInstance().getMetadataByOwner(permission);
-                    String accessCount = ("" + (Integer.parseInt(metadata.get("accessCount")) + 1));
-                    metadata.put("accessCount", accessCount);
-                    DataRepository.getInstance().updateMetadata(permission, metadata);
-                }
-                catch(NullPointerException e) {
-                    Log.d("Error", "No config for " + permission);
-                    Log.d("Error", e.getMessage());
-                }
-            }
-        }).start();
-    }
-
     public static String getDisplayPermission(String permission) {
         if(permission.contains(PolicyManagerApplication.SYMBOL_ALL)) { return "All Permissions"; }
 
@@ -0,0 +1,140 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.db.model.DataAccessCount;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that AccessCounter loses no accesses: counts include both stored and pending
+ * accesses, a flush only takes what was counted since the last one, and a flush that is
+ * never committed is taken again.
+ */
+public class AccessCounterTest {
+    private static final String YELP = "com.android.yelp",
+                                FACEBOOK = "com.facebook.katana",
+                                LOCATION = "android.permission.ACCESS_FINE_LOCATION",
+                                CAMERA = "android.permission.CAMERA",
+                                NEARBY = "Search Nearby Places";
+
+    private AccessCounter counter;
+
+    @Before
+    public void setup() {
+        counter = new AccessCounter();
+    }
+
+    @Test
+    public void testAccessCounter_countsIncludeStoredAndPending() {
+        List<DataAccessCount> stored = new ArrayList<DataAccessCount>();
+        stored.add(row(YELP, LOCATION, NEARBY, 10));
+        counter.load(stored);
+
+        counter.increment(YELP, LOCATION, NEARBY);
+        counter.increment(YELP, LOCATION, NEARBY);
+        counter.increment(YELP, CAMERA, null);
+
+        assertEquals(12, counter.getCount(YELP, LOCATION, NEARBY));
+        assertEquals(1, counter.getCount(YELP, CAMERA, null));
+        assertEquals(0, counter.getCount(FACEBOOK, LOCATION, NEARBY));
+        assertEquals(2, counter.getCountsForApp(YELP).size());
+        assertEquals(1, counter.getCountsForPermission(CAMERA).size());
+    }
+
+    @Test
+    public void testAccessCounter_flushTakesOnlyNewAccesses() {
+        counter.increment(YELP, LOCATION, NEARBY);
+        counter.increment(YELP, LOCATION, NEARBY);
+
+        AccessCounter.Flush flush = counter.takePending();
+        assertEquals(1, flush.rows.size());
+        assertEquals(2, flush.rows.get(0).count);
+        flush.commit();
+
+        assertTrue(counter.takePending().isEmpty());
+        assertEquals(2, counter.getCount(YELP, LOCATION, NEARBY));
+
+        counter.increment(YELP, LOCATION, NEARBY);
+
+        flush = counter.takePending();
+        assertEquals(1, flush.rows.get(0).count);
+        flush.commit();
+
+        assertEquals(3, counter.getCount(YELP, LOCATION, NEARBY));
+    }
+
+    @Test
+    public void testAccessCounter_uncommittedFlushIsTakenAgain() {
+        counter.increment(FACEBOOK, CAMERA, NEARBY);
+        counter.takePending();
+
+        counter.increment(FACEBOOK, CAMERA, NEARBY);
+
+        AccessCounter.Flush flush = counter.takePending();
+        assertEquals(2, flush.rows.get(0).count);
+        assertEquals(2, counter.getCount(FACEBOOK, CAMERA, NEARBY));
+    }
+
+    @Test
+    public void testAccessCounter_concurrentIncrementsAreNotLost() throws InterruptedException {
+        final int threads = 8, accessesPerThread = 20000;
+        Thread[] workers = new Thread[threads];
+
+        for(int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    for(int j = 0; j < accessesPerThread; j++) {
+                        counter.increment(YELP, LOCATION, NEARBY);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        long flushed = 0;
+
+        for(int i = 0; i < 10; i++) {
+            AccessCounter.Flush flush = counter.takePending();
+
+            if(!flush.isEmpty()) {
+                flushed += flush.rows.get(0).count;
+                flush.commit();
+            }
+        }
+
+        for(Thread worker : workers) { worker.join(); }
+
+        AccessCounter.Flush flush = counter.takePending();
+        if(!flush.isEmpty()) { flushed += flush.rows.get(0).count; }
+
+        assertEquals(threads * accessesPerThread, flushed);
+        assertEquals(threads * accessesPerThread, counter.getCount(YELP, LOCATION, NEARBY));
+    }
+
+    @Test
+    public void testAccessCounter_removeAppForgetsItsCounts() {
+        counter.increment(YELP, LOCATION, NEARBY);
+        counter.increment(FACEBOOK, LOCATION, NEARBY);
+
+        counter.removeApp(YELP);
+
+        assertEquals(0, counter.getCount(YELP, LOCATION, NEARBY));
+        assertEquals(1, counter.getCountsForPermission(LOCATION).size());
+    }
+
+    private static DataAccessCount row(String app, String permission, String purpose, long count) {
+        DataAccessCount row = new DataAccessCount();
+        row.app = app;
+        row.permission = permission;
+        row.purpose = purpose;
+        row.count = count;
+
+        return row;
+    }
+}
@@ -0,0 +1,120 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.db.model.AskPolicySetting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that AskDecisionStore answers the same way
+ * AskPolicySettingDAO.getLastUserDecisionInTimeframe does: the most recent answer for the
+ * library or its category, set no longer than the timeframe ago.
+ */
+public class AskDecisionStoreTest {
+    private static final String APP = "com.android.yelp",
+                                PERMISSION = "android.permission.ACCESS_FINE_LOCATION",
+                                PURPOSE = "android.purpose.SECURING_DEVICE",
+                                LIBRARY = "com.flurry",
+                                CATEGORY = "Analytics";
+
+    private static final long TIMEFRAME = 60000;
+
+    private AskDecisionStore store;
+    private long now;
+
+    @Before
+    public void setup() {
+        store = new AskDecisionStore();
+        store.setTimeframe(TIMEFRAME);
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void testAskStore_answerIsValidForTheTimeframe() {
+        store.put(answer(LIBRARY, "DENY", now));
+
+        assertEquals("DENY", lookup(now).policy);
+        assertEquals("DENY", lookup(now + TIMEFRAME).policy);
+        assertNull(lookup(now + TIMEFRAME + 1));
+    }
+
+    @Test
+    public void testAskStore_mostRecentOfLibraryAndCategoryWins() {
+        store.put(answer(LIBRARY, "DENY", now - 10));
+        store.put(answer(CATEGORY, "ALLOW", now - 5));
+
+        assertEquals("ALLOW", lookup(now).policy);
+
+        store.put(answer(LIBRARY, "DENY", now));
+
+        assertEquals("DENY", lookup(now).policy);
+        assertNull(store.get(APP, PERMISSION, PURPOSE, "com.mopub", null, now));
+    }
+
+    @Test
+    public void testAskStore_expiredAnswersAreDropped() {
+        store.put(answer(LIBRARY, "DENY", now - 2 * TIMEFRAME));
+
+        assertEquals(0, store.size());
+        assertNull(lookup(now));
+    }
+
+    @Test
+    public void testAskStore_changingTimeframeMovesExpiry() {
+        store.put(answer(LIBRARY, "ALLOW", now - TIMEFRAME / 2));
+        store.setTimeframe(TIMEFRAME / 4);
+
+        assertNull(lookup(now));
+        assertEquals(0, store.size());
+
+        store.put(answer(LIBRARY, "ALLOW", now - TIMEFRAME / 8));
+        store.setTimeframe(TIMEFRAME);
+
+        assertEquals("ALLOW", lookup(now + TIMEFRAME / 2).policy);
+    }
+
+    @Test
+    public void testAskStore_loadKeepsNewerAnswers() {
+        store.put(answer(LIBRARY, "ALLOW", now));
+
+        List<AskPolicySetting> rows = new ArrayList<AskPolicySetting>();
+        rows.add(answer(LIBRARY, "DENY", now - 100));
+        rows.add(answer(CATEGORY, "DENY", now - 200));
+        rows.add(answer("com.mopub", "DENY", now - 2 * TIMEFRAME));
+        store.load(rows);
+
+        assertEquals("ALLOW", lookup(now).policy);
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void testAskStore_storesACopy() {
+        AskPolicySetting setting = answer(LIBRARY, "ALLOW", now);
+        store.put(setting);
+        setting.policy = "DENY";
+
+        assertEquals("ALLOW", lookup(now).policy);
+    }
+
+    private AskPolicySetting lookup(long time) {
+        return store.get(APP, PERMISSION, PURPOSE, LIBRARY, CATEGORY, time);
+    }
+
+    private static AskPolicySetting answer(String library, String policy, long setAt) {
+        AskPolicySetting setting = new AskPolicySetting();
+        setting.app = APP;
+        setting.permission = PERMISSION;
+        setting.purpose = PURPOSE;
+        setting.library = library;
+        setting.policy = policy;
+        setting.timeThisPolicyWasSet = setAt;
+
+        return setting;
+    }
+}
@@ -0,0 +1,530 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that CompiledPolicyTable resolves policies the same way the SQL in
+ * PolicyProfileSettingDAO.getSettingByCategoryOrLibrary does. The reference below is a
+ * direct translation of that query: filter on the WHERE clause, then ORDER BY last_updated
+ * DESC LIMIT 1 over the rows in id (scan) order. The organizational profile is active, so
+ * its snapshot has to follow every change and resolve the same way too.
+ *
+ * Stacks of profiles are checked against resolving each layer on its own and combining the
+ * results by hand.
+ */
+public class CompiledPolicyTableTest {
+    private static final String[] PROFILES = { "Default User Profile", "Organizational Profile" },
+                                  APPS = { "com.android.yelp", "com.facebook.katana", "*" },
+                                  PERMISSIONS = { "android.permission.CAMERA",
+                                                  "android.permission.RECORD_AUDIO", "*" },
+                                  PURPOSES = { "Displaying Advertisement",
+                                               "Running Other Features", "*" },
+                                  LIBRARIES = { "com.mopub", "Third Party Use",
+                                                "App Internal Usage", "*" },
+                                  ACTIONS = { "ALLOW", "DENY", "ASK" },
+                                  LAYERS = { "Device Owner Profile", "Department Profile",
+                                             "Organizational Profile" };
+
+    private static final long[] TIMESTAMPS = { -1L, -1L, 10L, 20L, 30L };
+
+    private Random random;
+    private List<PolicyProfileSetting> rows;
+    private CompiledPolicyTable table;
+    private long nextId;
+
+    @Before
+    public void setup() {
+        random = new Random(42);
+        rows = new ArrayList<PolicyProfileSetting>();
+        table = new CompiledPolicyTable();
+        table.activate(PROFILES[1]);
+        nextId = 1;
+    }
+
+    @Test
+    public void testCompiledTable_emptyTableResolvesNothing() {
+        assertNull(table.resolve(PROFILES[0], APPS[0], PERMISSIONS[0], PURPOSES[0],
+                                 LIBRARIES[0], LIBRARIES[1]));
+    }
+
+    @Test
+    public void testCompiledTable_equalTimestampsResolveToLowestId() {
+        PolicyProfileSetting global = insert(PROFILES[0], "*", PERMISSIONS[0], "*", "*",
+                                             "DENY", -1L),
+                             app = insert(PROFILES[0], APPS[0], PERMISSIONS[0], PURPOSES[0],
+                                          LIBRARIES[0], "ALLOW", -1L);
+
+        table.rebuild(rows);
+
+        PolicyProfileSetting resolved = table.resolve(PROFILES[0], APPS[0], PERMISSIONS[0],
+                                                      PURPOSES[0], LIBRARIES[0], LIBRARIES[1]);
+
+        assertEquals(global.id, resolved.id);
+
+        app.lastUpdated = 5L;
+        table.update(PROFILES[0], APPS[0], PERMISSIONS[0], PURPOSES[0], LIBRARIES[0],
+                     "ALLOW", 5L);
+
+        resolved = table.resolve(PROFILES[0], APPS[0], PERMISSIONS[0], PURPOSES[0],
+                                 LIBRARIES[0], LIBRARIES[1]);
+
+        assertEquals(app.id, resolved.id);
+    }
+
+    @Test
+    public void testCompiledTable_activatingAnUnchangedProfileReusesItsSnapshot() {
+        table.put(insert(PROFILES[1], "*", PERMISSIONS[0], "*", "*", "DENY", -1L));
+
+        ProfileSnapshot organizational = table.getActiveProfile();
+        ProfileSnapshot user = table.activate(PROFILES[0]);
+
+        assertTrue(user.isDefault());
+        assertEquals(0, user.size());
+        assertSame(user, table.getActiveProfile());
+        assertSame(organizational, table.activate(PROFILES[1]));
+    }
+
+    @Test
+    public void testCompiledTable_snapshotsAreCopiedOnWrite() {
+        table.put(insert(PROFILES[1], "*", PERMISSIONS[0], "*", "*", "DENY", -1L));
+
+        ProfileSnapshot before = table.getActiveProfile();
+
+        table.put(insert(PROFILES[0], APPS[0], PERMISSIONS[1], "*", "*", "ALLOW", 10L));
+        assertSame(before, table.getActiveProfile());
+
+        table.put(insert(PROFILES[1], APPS[0], PERMISSIONS[1], "*", "*", "ALLOW", 10L));
+        ProfileSnapshot after = table.getActiveProfile();
+
+        assertNotSame(before, after);
+        assertEquals(1, before.size());
+        assertEquals(2, after.size());
+        assertNull(before.resolve(APPS[0], PERMISSIONS[1], PURPOSES[0], LIBRARIES[0], null));
+        assertEquals("ALLOW", after.resolve(APPS[0], PERMISSIONS[1], PURPOSES[0],
+                                            LIBRARIES[0], null).policyAction);
+    }
+
+    @Test
+    public void testCompiledTable_snapshotKnowsWhichPermissionsItDenies() {
+        table.put(insert(PROFILES[1], "*", PERMISSIONS[0], "*", "*", "DENY", -1L));
+        table.put(insert(PROFILES[1], "*", PERMISSIONS[1], "*", "*", "ALLOW", -1L));
+
+        assertTrue(table.getActiveProfile().mayDeny(PERMISSIONS[0]));
+        assertFalse(table.getActiveProfile().mayDeny(PERMISSIONS[1]));
+
+        table.put(insert(PROFILES[1], APPS[0], "*", "*", "*", "DENY", -1L));
+
+        assertTrue(table.getActiveProfile().mayDeny(PERMISSIONS[1]));
+    }
+
+    @Test
+    public void testCompiledTable_rebuildFromStaleSettingsIsRefused() {
+        List<PolicyProfileSetting> read = new ArrayList<PolicyProfileSetting>(rows);
+        long generation = table.getGeneration();
+
+        table.put(insert(PROFILES[1], "*", PERMISSIONS[0], "*", "*", "DENY", -1L));
+
+        assertFalse(table.rebuild(read, generation));
+        assertTrue(table.getActiveProfile().mayDeny(PERMISSIONS[0]));
+
+        generation = table.getGeneration();
+
+        assertTrue(table.rebuild(new ArrayList<PolicyProfileSetting>(rows), generation));
+        assertTrue(table.getActiveProfile().mayDeny(PERMISSIONS[0]));
+        assertTrue(generation < table.getGeneration());
+    }
+
+    @Test
+    public void testCompiledTable_rebuiltTableMatchesQuery() {
+        for(int i = 0; i < 300; i++) { insertRandom(); }
+
+        table.rebuild(rows);
+        assertAllLookupsMatch();
+    }
+
+    @Test
+    public void testCompiledTable_incrementalUpdatesMatchQuery() {
+        for(int i = 0; i < 100; i++) {
+            table.put(insertRandom());
+        }
+
+        for(int i = 0; i < 500; i++) {
+            int operation = random.nextInt(10);
+
+            if(operation < 5) {
+                table.put(insertRandom());
+            } else if(operation < 8) {
+                updateRandom();
+            } else if(operation < 9) {
+                removeRandom();
+            } else {
+                removeRandomApp();
+            }
+
+            if(i % 50 == 0) { assertAllLookupsMatch(); }
+        }
+
+        assertAllLookupsMatch();
+    }
+
+    @Test
+    public void testProfileStack_firstApplicableLayerDecides() {
+        table.put(insert(LAYERS[0], APPS[0], PERMISSIONS[0], "*", "*", "ALLOW", -1L));
+        table.put(insert(LAYERS[1], APPS[0], PERMISSIONS[0], PURPOSES[0], "*", "DENY", 50L));
+        table.put(insert(LAYERS[1], "*", PERMISSIONS[1], "*", "*", "ASK", -1L));
+
+        ProfileSnapshot stack = table.activate(ProfileStack.layered(
+                ProfileStack.CombiningRule.FIRST_APPLICABLE, LAYERS[0], LAYERS[1]));
+
+        assertEquals(LAYERS[0], stack.name);
+        assertEquals("ALLOW", stack.resolve(APPS[0], PERMISSIONS[0], PURPOSES[0],
+                                            LIBRARIES[0], LIBRARIES[1]).policyAction);
+        assertEquals("ASK", stack.resolve(APPS[0], PERMISSIONS[1], PURPOSES[0],
+                                          LIBRARIES[0], LIBRARIES[1]).policyAction);
+        assertNull(stack.resolve(APPS[0], PERMISSIONS[2], PURPOSES[0], LIBRARIES[0], null));
+    }
+
+    @Test
+    public void testProfileStack_denyOverridesEveryLayer() {
+        table.put(insert(LAYERS[0], APPS[0], PERMISSIONS[0], "*", "*", "ALLOW", 50L));
+        table.put(insert(LAYERS[1], "*", PERMISSIONS[0], "*", "*", "DENY", -1L));
+
+        ProfileSnapshot stack = table.activate(ProfileStack.layered(
+                ProfileStack.CombiningRule.DENY_OVERRIDES, LAYERS[0], LAYERS[1]));
+
+        PolicyProfileSetting resolved = stack.resolve(APPS[0], PERMISSIONS[0], PURPOSES[0],
+                                                      LIBRARIES[0], LIBRARIES[1]);
+
+        assertEquals("DENY", resolved.policyAction);
+        assertEquals(LAYERS[1], resolved.profileName);
+        assertTrue(stack.mayDeny(PERMISSIONS[0]));
+        assertFalse(stack.mayDeny(PERMISSIONS[1]));
+    }
+
+    @Test
+    public void testProfileStack_switchingALayerBackReusesItsSnapshot() {
+        table.put(insert(LAYERS[0], APPS[0], PERMISSIONS[0], "*", "*", "ALLOW", -1L));
+        table.put(insert(LAYERS[1], APPS[0], PERMISSIONS[0], "*", "*", "DENY", -1L));
+
+        ProfileSnapshot both = table.activate(ProfileStack.layered(
+                ProfileStack.CombiningRule.FIRST_APPLICABLE, LAYERS[0], LAYERS[1]));
+        ProfileSnapshot department = table.setLayerEnabled(LAYERS[0], false);
+
+        assertEquals(LAYERS[1], department.name);
+        assertEquals(department.name, department.key);
+        assertEquals("DENY", department.resolve(APPS[0], PERMISSIONS[0], PURPOSES[0],
+                                                LIBRARIES[0], null).policyAction);
+        assertSame(both, table.setLayerEnabled(LAYERS[0], true));
+
+        table.put(insert(LAYERS[1], APPS[1], PERMISSIONS[0], "*", "*", "DENY", -1L));
+
+        assertNotSame(both, table.getActiveProfile());
+        assertEquals("DENY", table.getActiveProfile().resolve(APPS[1], PERMISSIONS[0],
+                                                              PURPOSES[0], LIBRARIES[0],
+                                                              null).policyAction);
+
+        table.setLayerEnabled(LAYERS[1], false);
+        table.setLayerEnabled(LAYERS[0], false);
+
+        assertTrue(table.getActiveProfile().isDefault());
+        assertEquals(2, table.getProfileStack().getLayers().size());
+    }
+
+    @Test
+    public void testProfileStack_combinedLookupsMatchEachLayer() {
+        for(int i = 0; i < 300; i++) {
+            insert(pick(LAYERS), pick(APPS), pick(PERMISSIONS), pick(PURPOSES),
+                   pick(LIBRARIES), pick(ACTIONS), TIMESTAMPS[random.nextInt(TIMESTAMPS.length)]);
+        }
+
+        table.rebuild(rows);
+
+        for(ProfileStack.CombiningRule rule : ProfileStack.CombiningRule.values()) {
+            ProfileStack stack = ProfileStack.layered(rule, LAYERS);
+
+            assertStackMatches(table.activate(stack));
+            assertStackMatches(table.activate(stack.withLayer(LAYERS[1], false)));
+
+            for(int i = 0; i < 50; i++) {
+                table.put(insert(pick(LAYERS), pick(APPS), pick(PERMISSIONS), pick(PURPOSES),
+                                 pick(LIBRARIES), pick(ACTIONS), 100L + i));
+                updateRandom();
+            }
+
+            assertStackMatches(table.getActiveProfile());
+        }
+    }
+
+    private void assertStackMatches(ProfileSnapshot stack) {
+        for(String app : APPS) {
+            for(String permission : PERMISSIONS) {
+                for(String purpose : PURPOSES) {
+                    assertStackLookupMatches(stack, app, permission, purpose,
+                                             "com.mopub", "Third Party Use");
+                    assertStackLookupMatches(stack, app, permission, purpose,
+                                             "com.unknown", null);
+                }
+            }
+        }
+    }
+
+    /*
+     * First applicable: the first layer the query finds a row in. Deny overrides: the first
+     * layer with a matching DENY, if any. Rows that share a key within a profile are merged
+     * first, the way the table merges them.
+     */
+    private void assertStackLookupMatches(ProfileSnapshot stack,
+                                          String app,
+                                          String permission,
+                                          String purpose,
+                                          String library,
+                                          String category) {
+        PolicyProfileSetting expected = null;
+
+        if(stack.rule == ProfileStack.CombiningRule.DENY_OVERRIDES) {
+            for(String profile : stack.getProfiles()) {
+                expected = queryDenies(profile, app, permission, purpose, library, category);
+                if(expected != null) { break; }
+            }
+        }
+
+        for(String profile : stack.getProfiles()) {
+            if(expected != null) { break; }
+            expected = query(profile, app, permission, purpose, library, category);
+        }
+
+        String lookup = stack.key + " " + app + " " + permission + " " + purpose + " " + library;
+
+        assertEquals(lookup, describe(expected),
+                     describe(stack.resolve(app, permission, purpose, library, category)));
+    }
+
+    private PolicyProfileSetting queryDenies(String profile,
+                                             String app,
+                                             String permission,
+                                             String purpose,
+                                             String library,
+                                             String category) {
+        PolicyProfileSetting result = null;
+
+        for(PolicyProfileSetting row : rows) {
+            if(!row.profileName.equals(profile) || !"DENY".equals(row.policyAction)) { continue; }
+
+            boolean matches =
+                    mergedInto(row) == row &&
+                    (row.app.equals(app) || row.app.equals("*")) &&
+                    (row.permission.equals(permission) || row.permission.equals("*")) &&
+                    (row.purpose.equals(purpose) || row.purpose.equals("*")) &&
+                    (row.thirdPartyLibrary.equals(library) ||
+                     row.thirdPartyLibrary.equals(category) ||
+                     row.thirdPartyLibrary.equals("*"));
+
+            if(matches && (result == null || row.lastUpdated > result.lastUpdated)) {
+                result = row;
+            }
+        }
+
+        return result;
+    }
+
+    /* The row that the table keeps of all rows with the same profile and key as this one. */
+    private PolicyProfileSetting mergedInto(PolicyProfileSetting setting) {
+        PolicyProfileSetting result = null;
+
+        for(PolicyProfileSetting row : rows) {
+            boolean sameKey = row.profileName.equals(setting.profileName) &&
+                              row.app.equals(setting.app) &&
+                              row.permission.equals(setting.permission) &&
+                              row.purpose.equals(setting.purpose) &&
+                              row.thirdPartyLibrary.equals(setting.thirdPartyLibrary);
+
+            if(sameKey && (result == null || row.lastUpdated > result.lastUpdated)) {
+                result = row;
+            }
+        }
+
+        return result;
+    }
+
+    private void assertAllLookupsMatch() {
+        for(String profile : PROFILES) {
+            for(String app : APPS) {
+                for(String permission : PERMISSIONS) {
+                    for(String purpose : PURPOSES) {
+                        assertLookupMatches(profile, app, permission, purpose,
+                                            "com.mopub", "Third Party Use");
+                        assertLookupMatches(profile, app, permission, purpose,
+                                            "App Internal Usage", "App Internal Usage");
+                        assertLookupMatches(profile, app, permission, purpose,
+                                            "com.unknown", null);
+                    }
+                }
+            }
+        }
+    }
+
+    private void assertLookupMatches(String profile,
+                                     String app,
+                                     String permission,
+                                     String purpose,
+                                     String library,
+                                     String category) {
+        PolicyProfileSetting expected = query(profile, app, permission, purpose,
+                                              library, category),
+                             actual = table.resolve(profile, app, permission, purpose,
+                                                    library, category);
+
+        String lookup = profile + " " + app + " " + permission + " " + purpose + " " + library;
+
+        if(profile.equals(table.getActiveProfile().name)) {
+            PolicyProfileSetting snapshot = table.getActiveProfile().resolve(app,
+                                                                             permission,
+                                                                             purpose,
+                                                                             library,
+                                                                             category);
+
+            assertEquals(lookup, describe(actual), describe(snapshot));
+        }
+
+        if(expected == null) {
+            assertNull(lookup, actual);
+            return;
+        }
+
+        assertEquals(lookup, describe(expected), describe(actual));
+    }
+
+    /*
+     * SELECT ... WHERE profile_name=:profile AND (app=:packageName OR app='*') AND
+     * (permission=:permissionName OR permission='*') AND (purpose=:purpose OR purpose='*')
+     * AND (third_party_library=:library OR third_party_library=:libraryCategory OR
+     * third_party_library='*') ORDER BY last_updated DESC LIMIT 1
+     */
+    private PolicyProfileSetting query(String profile,
+                                       String app,
+                                       String permission,
+                                       String purpose,
+                                       String library,
+                                       String category) {
+        PolicyProfileSetting result = null;
+
+        for(PolicyProfileSetting row : rows) {
+            boolean matches =
+                    row.profileName.equals(profile) &&
+                    (row.app.equals(app) || row.app.equals("*")) &&
+                    (row.permission.equals(permission) || row.permission.equals("*")) &&
+                    (row.purpose.equals(purpose) || row.purpose.equals("*")) &&
+                    (row.thirdPartyLibrary.equals(library) ||
+                     row.thirdPartyLibrary.equals(category) ||
+                     row.thirdPartyLibrary.equals("*"));
+
+            if(matches && (result == null || row.lastUpdated > result.lastUpdated)) {
+                result = row;
+            }
+        }
+
+        return result;
+    }
+
+    private PolicyProfileSetting insertRandom() {
+        return insert(pick(PROFILES), pick(APPS), pick(PERMISSIONS), pick(PURPOSES),
+                      pick(LIBRARIES), pick(ACTIONS),
+                      TIMESTAMPS[random.nextInt(TIMESTAMPS.length)]);
+    }
+
+    private PolicyProfileSetting insert(String profile,
+                                        String app,
+                                        String permission,
+                                        String purpose,
+                                        String library,
+                                        String action,
+                                        long lastUpdated) {
+        PolicyProfileSetting setting = new PolicyProfileSetting();
+        setting.id = nextId++;
+        setting.profileName = profile;
+        setting.app = app;
+        setting.permission = permission;
+        setting.purpose = purpose;
+        setting.thirdPartyLibrary = library;
+        setting.policyAction = action;
+        setting.lastUpdated = lastUpdated;
+
+        rows.add(setting);
+
+        return setting;
+    }
+
+    private void updateRandom() {
+        String profile = pick(PROFILES), app = pick(APPS), permission = pick(PERMISSIONS),
+               purpose = pick(PURPOSES), library = pick(LIBRARIES), action = pick(ACTIONS);
+        long lastUpdated = 100L + random.nextInt(1000);
+
+        for(PolicyProfileSetting row : rows) {
+            if(row.profileName.equals(profile) && row.app.equals(app) &&
+               row.permission.equals(permission) && row.purpose.equals(purpose) &&
+               row.thirdPartyLibrary.equals(library)) {
+                row.policyAction = action;
+                row.lastUpdated = lastUpdated;
+            }
+        }
+
+        table.update(profile, app, permission, purpose, library, action, lastUpdated);
+    }
+
+    private void removeRandom() {
+        String app = pick(APPS), permission = pick(PERMISSIONS),
+               purpose = pick(PURPOSES), library = pick(LIBRARIES);
+
+        Iterator<PolicyProfileSetting> iter = rows.iterator();
+
+        while(iter.hasNext()) {
+            PolicyProfileSetting row = iter.next();
+
+            if(row.app.equals(app) && row.permission.equals(permission) &&
+               row.purpose.equals(purpose) && row.thirdPartyLibrary.equals(library)) {
+                iter.remove();
+            }
+        }
+
+        table.remove(app, permission, purpose, library);
+    }
+
+    private void removeRandomApp() {
+        String profile = pick(PROFILES), app = pick(APPS);
+        Iterator<PolicyProfileSetting> iter = rows.iterator();
+
+        while(iter.hasNext()) {
+            PolicyProfileSetting row = iter.next();
+
+            if(row.profileName.equals(profile) && row.app.equals(app)) { iter.remove(); }
+        }
+
+        table.removeApp(profile, app);
+    }
+
+    private String pick(String[] values) { return values[random.nextInt(values.length)]; }
+
+    /* Duplicate rows updated together are indistinguishable apart from their id. */
+    private static String describe(PolicyProfileSetting setting) {
+        if(setting == null) { return "none"; }
+
+        return setting.profileName + "|" + setting.app + "|" + setting.permission + "|" +
+               setting.purpose + "|" + setting.thirdPartyLibrary + "|" +
+               setting.policyAction + "|" + setting.lastUpdated;
+    }
+}
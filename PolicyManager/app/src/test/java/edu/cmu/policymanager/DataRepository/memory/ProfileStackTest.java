@@ -0,0 +1,67 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that switching layers of a ProfileStack keeps their order, and that stacks that
+ * resolve requests the same way have the same key.
+ */
+public class ProfileStackTest {
+    private static final String OWNER = "Device Owner Profile",
+                                DEPARTMENT = "Department Profile",
+                                ORGANIZATIONAL = "Organizational Profile";
+
+    @Test
+    public void testProfileStack_layersKeepTheirPlaceWhenSwitched() {
+        ProfileStack stack = ProfileStack.layered(ProfileStack.CombiningRule.DENY_OVERRIDES,
+                                                  OWNER, DEPARTMENT, PolicyProfile.DEFAULT);
+
+        assertEquals(Arrays.asList(OWNER, DEPARTMENT), stack.getEnabledProfiles());
+
+        ProfileStack off = stack.withLayer(OWNER, false);
+
+        assertFalse(off.isEnabled(OWNER));
+        assertEquals(DEPARTMENT, off.getTopProfile());
+        assertEquals(2, off.getLayers().size());
+        assertEquals(stack, off.withLayer(OWNER, true));
+        assertSame(off, off.withLayer(OWNER, false));
+        assertSame(off, off.withLayer(PolicyProfile.DEFAULT, true));
+
+        ProfileStack pushed = off.withLayer(ORGANIZATIONAL, true);
+
+        assertEquals(Arrays.asList(ORGANIZATIONAL, DEPARTMENT), pushed.getEnabledProfiles());
+        assertEquals(ProfileStack.CombiningRule.DENY_OVERRIDES, pushed.getRule());
+    }
+
+    @Test
+    public void testProfileStack_keyOnlyDependsOnWhatIsEnabled() {
+        ProfileStack single = ProfileStack.of(ORGANIZATIONAL),
+                     stacked = ProfileStack.layered(ProfileStack.CombiningRule.FIRST_APPLICABLE,
+                                                    ORGANIZATIONAL, DEPARTMENT);
+
+        assertEquals(ORGANIZATIONAL, single.key());
+        assertEquals(single.key(), stacked.withLayer(DEPARTMENT, false).key());
+        assertFalse(single.key().equals(stacked.key()));
+        assertFalse(stacked.key().equals(
+                stacked.withRule(ProfileStack.CombiningRule.DENY_OVERRIDES).key()));
+
+        assertEquals(PolicyProfile.DEFAULT, ProfileStack.empty().key());
+        assertEquals(PolicyProfile.DEFAULT, ProfileStack.of(PolicyProfile.DEFAULT).key());
+        assertEquals(PolicyProfile.DEFAULT, ProfileStack.empty().getTopProfile());
+        assertEquals(Collections.<String>emptyList(),
+                     stacked.withLayer(ORGANIZATIONAL, false)
+                            .withLayer(DEPARTMENT, false)
+                            .getEnabledProfiles());
+        assertTrue(stacked.isEnabled(DEPARTMENT));
+    }
+}
@@ -0,0 +1,104 @@
+package edu.cmu.policymanager.DataRepository.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that TimerWheel expires every item after its deadline and no later than one tick
+ * after it, for deadlines on every level of the wheel and past the top level.
+ */
+public class TimerWheelTest {
+    private static final long TICK = 10, START = 1000003;
+
+    private List<Long> expired;
+    private Map<Long, Long> expiredAt;
+    private long now;
+    private TimerWheel<Long> wheel;
+
+    @Before
+    public void setup() {
+        expired = new ArrayList<Long>();
+        expiredAt = new HashMap<Long, Long>();
+        now = START;
+
+        wheel = new TimerWheel<Long>(TICK, START, new TimerWheel.ExpiryListener<Long>() {
+            @Override
+            public void expired(Long deadline) {
+                expired.add(deadline);
+                expiredAt.put(deadline, now);
+            }
+        });
+    }
+
+    @Test
+    public void testTimerWheel_dueItemsExpireRightAway() {
+        wheel.schedule(START - 2 * TICK, START - 2 * TICK);
+
+        assertEquals(1, expired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testTimerWheel_itemsExpireAfterTheirDeadline() {
+        wheel.schedule(START + 25, START + 25);
+
+        advanceTo(START + 25);
+        assertTrue(expired.isEmpty());
+
+        advanceTo(START + 25 + TICK);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void testTimerWheel_randomDeadlinesOnEveryLevel() {
+        Random random = new Random(7);
+        long[] ranges = { 64 * TICK, 4096 * TICK, 262144 * TICK, 40000000L * TICK };
+        List<Long> deadlines = new ArrayList<Long>();
+
+        for(int i = 0; i < 2000; i++) {
+            long range = ranges[i % ranges.length],
+                 deadline = START + 1 + (long)(random.nextDouble() * range);
+
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+
+        long end = START + 40000001L * TICK;
+
+        while(now < end) {
+            /* Mostly single ticks, with the occasional long pause. */
+            long step = random.nextInt(20) == 0 ? random.nextInt(5000000) * TICK :
+                                                  1 + random.nextInt((int)TICK * 2);
+
+            advanceTo(Math.min(end, now + step));
+
+            for(Long deadline : deadlines) {
+                if(deadline < now - TICK) {
+                    assertTrue("Missed " + deadline + " at " + now,
+                               expiredAt.containsKey(deadline));
+                }
+            }
+        }
+
+        assertEquals(deadlines.size(), expired.size());
+        assertEquals(0, wheel.size());
+
+        for(Long deadline : deadlines) {
+            assertTrue("Expired " + deadline + " early", expiredAt.get(deadline) > deadline);
+        }
+    }
+
+    private void advanceTo(long time) {
+        now = time;
+        wheel.advance(time);
+    }
+}
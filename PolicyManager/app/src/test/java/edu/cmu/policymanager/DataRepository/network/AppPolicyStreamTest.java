@@ -0,0 +1,131 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.db.model.OffDevicePolicyDBModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that AppPolicyStream reads the same policies a JSON tree of the file holds, in
+ * batches of at most the batch size, whatever order the keys of an app come in.
+ */
+public class AppPolicyStreamTest {
+    private static final File BUNDLED_POLICIES =
+            new File("src/main/res/raw/play_store_app_policies");
+
+    @Test
+    public void testAppPolicyStream_batchesRows() throws IOException {
+        StringBuilder apps = new StringBuilder("[");
+
+        for(int i = 0; i < 7; i++) {
+            if(i > 0) { apps.append(','); }
+            apps.append("{\"policies\": [{\"uses\": \"android.permission.CAMERA\"}], ")
+                .append("\"package\": \"com.example.app").append(i).append("\"}");
+        }
+
+        apps.append(']');
+
+        List<List<OffDevicePolicyDBModel>> batches = read(apps.toString(), 3);
+
+        assertEquals(3, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals(3, batches.get(1).size());
+        assertEquals(1, batches.get(2).size());
+        assertEquals("com.example.app6", batches.get(2).get(0).packageName);
+    }
+
+    @Test
+    public void testAppPolicyStream_keysInAnyOrder() throws IOException {
+        String apps = "[{\"category\": \"Tools\", \"package\": \"com.example\", " +
+                      "\"policies\": [{\"uses\": \"android.permission.CAMERA\", \"n\": 2, " +
+                      "\"nested\": {\"a\": [true, null]}}]}]";
+
+        OffDevicePolicyDBModel row = read(apps, 10).get(0).get(0);
+
+        assertEquals("com.example", row.packageName);
+        assertEquals(new JsonParser().parse(apps).getAsJsonArray().get(0)
+                                     .getAsJsonObject().get("policies"),
+                     new JsonParser().parse(row.odp));
+    }
+
+    @Test
+    public void testAppPolicyStream_skipsAppsWithoutPackageOrPolicies() throws IOException {
+        String apps = "[{\"policies\": []}, {\"package\": \"com.example\"}, " +
+                      "{\"package\": \"com.example.ok\", \"policies\": []}]";
+
+        List<List<OffDevicePolicyDBModel>> batches = read(apps, 10);
+
+        assertEquals(1, batches.get(0).size());
+        assertEquals("com.example.ok", batches.get(0).get(0).packageName);
+        assertEquals("[]", batches.get(0).get(0).odp);
+    }
+
+    @Test
+    public void testAppPolicyStream_readsBundledPolicies() throws IOException {
+        JsonArray expected;
+
+        try(Reader reader = bundledPolicies()) {
+            expected = new JsonParser().parse(reader).getAsJsonArray();
+        }
+
+        final List<OffDevicePolicyDBModel> rows = new ArrayList<OffDevicePolicyDBModel>();
+        int read;
+
+        try(Reader reader = bundledPolicies()) {
+            read = AppPolicyStream.read(reader, 16, new AppPolicyStream.BatchConsumer() {
+                @Override
+                public void accept(List<OffDevicePolicyDBModel> batch) {
+                    assertTrue(batch.size() <= 16);
+                    rows.addAll(batch);
+                }
+            });
+        }
+
+        assertEquals(expected.size(), read);
+        assertEquals(expected.size(), rows.size());
+
+        for(int i = 0; i < rows.size(); i++) {
+            JsonObject app = expected.get(i).getAsJsonObject();
+            JsonElement policies = new JsonParser().parse(rows.get(i).odp);
+
+            assertEquals(app.get("package").getAsString(), rows.get(i).packageName);
+            assertEquals(app.get("policies"), policies);
+        }
+    }
+
+    private static Reader bundledPolicies() throws IOException {
+        return new InputStreamReader(new FileInputStream(BUNDLED_POLICIES),
+                                     StandardCharsets.UTF_8);
+    }
+
+    private static List<List<OffDevicePolicyDBModel>> read(String apps, int batchSize)
+            throws IOException {
+        final List<List<OffDevicePolicyDBModel>> batches =
+                new ArrayList<List<OffDevicePolicyDBModel>>();
+
+        AppPolicyStream.read(new StringReader(apps), batchSize,
+                             new AppPolicyStream.BatchConsumer() {
+            @Override
+            public void accept(List<OffDevicePolicyDBModel> batch) { batches.add(batch); }
+        });
+
+        return batches;
+    }
+}
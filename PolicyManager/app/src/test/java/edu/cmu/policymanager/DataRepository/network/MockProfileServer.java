@@ -0,0 +1,169 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A profile server on the loopback interface for tests of the ProfileClient. It keeps every
+ * version of each profile it is given, and answers the way a real one would: 304 when the
+ * client has the current version, 226 with a delta when the client asks for one and has a
+ * version the server still knows, and 200 with the whole profile otherwise. It gzips its
+ * answers when asked to.
+ */
+public final class MockProfileServer implements AutoCloseable {
+    private final HttpServer mServer;
+
+    /* The versions of each profile, oldest first. */
+    private final Map<String, List<ProfileStream.Document>> mVersions =
+            new HashMap<String, List<ProfileStream.Document>>();
+
+    private final AtomicInteger mRequests = new AtomicInteger(),
+                                mNotModified = new AtomicInteger(),
+                                mDeltas = new AtomicInteger(),
+                                mFull = new AtomicInteger();
+
+    private volatile int mLastResponseBytes;
+
+    public MockProfileServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/profiles/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    /**
+     * Make a full profile the current version of that profile.
+     * */
+    public synchronized void publish(ProfileStream.Document profile) {
+        List<ProfileStream.Document> versions = mVersions.get(profile.profile);
+
+        if(versions == null) {
+            versions = new ArrayList<ProfileStream.Document>();
+            mVersions.put(profile.profile, versions);
+        }
+
+        versions.add(profile);
+    }
+
+    /**
+     * Forget every version of a profile but the current one, as a server that only keeps
+     * recent versions would.
+     * */
+    public synchronized void forgetOldVersions(String profile) {
+        List<ProfileStream.Document> versions = mVersions.get(profile);
+        ProfileStream.Document current = versions.get(versions.size() - 1);
+
+        versions.clear();
+        versions.add(current);
+    }
+
+    public URL getUrl() throws IOException {
+        return new URL("http", "127.0.0.1", mServer.getAddress().getPort(), "/");
+    }
+
+    public int getRequestCount() { return mRequests.get(); }
+
+    public int getNotModifiedCount() { return mNotModified.get(); }
+
+    public int getDeltaCount() { return mDeltas.get(); }
+
+    public int getFullCount() { return mFull.get(); }
+
+    /**
+     * @return the size of the last profile or delta sent, as sent
+     * */
+    public int getLastResponseBytes() { return mLastResponseBytes; }
+
+    @Override
+    public void close() { mServer.stop(0); }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+
+        String path = exchange.getRequestURI().getRawPath();
+        String profile = URLDecoder.decode(path.substring("/profiles/".length()), "UTF-8");
+        ProfileStream.Document current, known = null;
+        String tag = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+        synchronized(this) {
+            List<ProfileStream.Document> versions = mVersions.get(profile);
+
+            if(versions == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            current = versions.get(versions.size() - 1);
+
+            for(ProfileStream.Document version : versions) {
+                if(etagOf(version).equals(tag)) { known = version; }
+            }
+        }
+
+        exchange.getResponseHeaders().set("ETag", etagOf(current));
+
+        if(known == current) {
+            mNotModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        String manipulations = exchange.getRequestHeaders().getFirst("A-IM");
+        boolean delta = known != null && manipulations != null &&
+                        manipulations.contains(ProfileClient.DELTA_ENCODING);
+        ProfileStream.Document body = delta ? ProfileStream.diff(known, current) : current;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        String encodings = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = encodings != null && encodings.contains("gzip");
+        OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes;
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+        ProfileStream.write(body, writer);
+        writer.close();
+
+        if(gzip) { exchange.getResponseHeaders().set("Content-Encoding", "gzip"); }
+
+        if(delta) {
+            exchange.getResponseHeaders().set("IM", ProfileClient.DELTA_ENCODING);
+            mDeltas.incrementAndGet();
+        } else {
+            mFull.incrementAndGet();
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", ProfileClient.CONTENT_TYPE);
+        exchange.sendResponseHeaders(delta ? ProfileClient.HTTP_IM_USED : 200, bytes.size());
+        exchange.getResponseBody().write(bytes.toByteArray());
+        mLastResponseBytes = bytes.size();
+    }
+
+    private static String etagOf(ProfileStream.Document version) {
+        return "\"" + version.version + "\"";
+    }
+}
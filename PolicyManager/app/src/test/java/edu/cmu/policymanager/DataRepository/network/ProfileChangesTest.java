@@ -0,0 +1,181 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+import edu.cmu.policymanager.DataRepository.memory.CompiledPolicyTable;
+import edu.cmu.policymanager.DataRepository.memory.ProfileSnapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a new version of a profile only touches the rules that changed, and that the
+ * compiled policy table ends up as if it had been rebuilt from the new rows.
+ */
+public class ProfileChangesTest {
+    private static final int RULES = 2000, CHANGES = 60;
+
+    @Test
+    public void testProfileChanges_onlyChangedRulesAreTouched() {
+        ProfileStream.Document profile = ProfileFixtures.profile("1", RULES, 11L),
+                               next = ProfileFixtures.nextVersion(profile, "2", CHANGES, 12L);
+        Map<Long, PolicyProfileSetting> rows = installed(profile);
+
+        assertEquals(RULES, rows.size());
+
+        ProfileChanges changes = ProfileChanges.between(rowsOf(rows), next);
+
+        assertTrue(changes.size() <= CHANGES);
+        assertTrue(!changes.updated.isEmpty() && !changes.removed.isEmpty());
+
+        for(PolicyProfileSetting setting : changes.updated) {
+            assertNotNull(rows.get(setting.id));
+            assertEquals(ProfileStream.keyOf(rows.get(setting.id)), ProfileStream.keyOf(setting));
+        }
+
+        for(PolicyProfileSetting setting : changes.removed) {
+            assertNotNull(rows.get(setting.id));
+        }
+
+        for(PolicyProfileSetting setting : changes.inserted) { assertEquals(0, setting.id); }
+
+        ProfileStream.Document delta = ProfileStream.diff(profile, next);
+
+        assertEquals(changes.toString(), ProfileChanges.between(rowsOf(rows), delta).toString());
+        assertTrue(ProfileChanges.between(rowsOf(rows), profile).isEmpty());
+    }
+
+    @Test
+    public void testProfileChanges_duplicatesKeepTheEnforcedRule() {
+        PolicyProfileSetting older = ProfileFixtures.rule(3, "DENY"),
+                             newer = ProfileFixtures.rule(3, "ALLOW");
+        older.id = 1;
+        older.lastUpdated = 10L;
+        newer.id = 2;
+        newer.lastUpdated = 20L;
+
+        List<PolicyProfileSetting> installed = new ArrayList<PolicyProfileSetting>();
+        installed.add(older);
+        installed.add(newer);
+
+        List<PolicyProfileSetting> rules = new ArrayList<PolicyProfileSetting>();
+        rules.add(ProfileFixtures.rule(3, "ALLOW"));
+
+        ProfileChanges changes = ProfileChanges.between(
+                installed, ProfileStream.Document.full(ProfileFixtures.PROFILE, "2", rules)
+        );
+
+        assertEquals(0, changes.inserted.size());
+        assertEquals(0, changes.updated.size());
+        assertEquals(1, changes.removed.size());
+        assertEquals(1, changes.removed.get(0).id);
+    }
+
+    @Test
+    public void testProfileChanges_tableMatchesARebuiltTable() {
+        ProfileStream.Document profile = ProfileFixtures.profile("1", RULES, 21L),
+                               next = ProfileFixtures.nextVersion(profile, "2", CHANGES, 22L),
+                               delta = ProfileStream.diff(profile, next);
+        Map<Long, PolicyProfileSetting> rows = installed(profile);
+        CompiledPolicyTable table = new CompiledPolicyTable();
+
+        table.rebuild(rowsOf(rows));
+        table.activate(ProfileFixtures.PROFILE);
+
+        ProfileSnapshot before = table.getActiveProfile();
+        ProfileChanges changes = ProfileChanges.between(rowsOf(rows), delta);
+
+        install(rows, changes);
+        table.applyProfileChanges(ProfileFixtures.PROFILE,
+                                  changes.inserted,
+                                  changes.updated,
+                                  changes.removed);
+
+        CompiledPolicyTable rebuilt = new CompiledPolicyTable();
+        rebuilt.rebuild(rowsOf(rows));
+        rebuilt.activate(ProfileFixtures.PROFILE);
+
+        assertTrue(before != table.getActiveProfile());
+        assertEquals(rebuilt.getActiveProfile().size(), table.getActiveProfile().size());
+
+        List<PolicyProfileSetting> everyRule = new ArrayList<PolicyProfileSetting>(profile.put);
+        everyRule.addAll(next.put);
+
+        for(PolicyProfileSetting rule : everyRule) {
+            PolicyProfileSetting expected = resolve(rebuilt.getActiveProfile(), rule),
+                                 actual = resolve(table.getActiveProfile(), rule);
+
+            if(expected == null) {
+                assertNull(actual);
+                continue;
+            }
+
+            assertNotNull(actual);
+            assertEquals(expected.id, actual.id);
+            assertEquals(expected.policyAction, actual.policyAction);
+        }
+    }
+
+    private static Map<Long, PolicyProfileSetting> installed(ProfileStream.Document profile) {
+        return install(new LinkedHashMap<Long, PolicyProfileSetting>(),
+                       ProfileChanges.between(new ArrayList<PolicyProfileSetting>(), profile));
+    }
+
+    private static List<PolicyProfileSetting> rowsOf(Map<Long, PolicyProfileSetting> rows) {
+        return new ArrayList<PolicyProfileSetting>(rows.values());
+    }
+
+    /*
+     * Applies the changes to rows keyed by id, as the database would, assigning ids to the
+     * inserted rows.
+     */
+    private static Map<Long, PolicyProfileSetting> install(Map<Long, PolicyProfileSetting> rows,
+                                                           ProfileChanges changes) {
+        long id = rows.size() + changes.removed.size() + 1000;
+
+        for(PolicyProfileSetting setting : changes.removed) { rows.remove(setting.id); }
+
+        for(PolicyProfileSetting setting : changes.updated) {
+            rows.get(setting.id).policyAction = setting.policyAction;
+        }
+
+        for(PolicyProfileSetting setting : changes.inserted) {
+            while(rows.containsKey(id)) { id++; }
+
+            setting.id = id;
+            rows.put(id, copy(setting));
+        }
+
+        return rows;
+    }
+
+    private static PolicyProfileSetting resolve(ProfileSnapshot snapshot,
+                                                PolicyProfileSetting rule) {
+        return snapshot.resolve(rule.app,
+                                rule.permission,
+                                rule.purpose,
+                                rule.thirdPartyLibrary,
+                                null);
+    }
+
+    private static PolicyProfileSetting copy(PolicyProfileSetting setting) {
+        PolicyProfileSetting copy = ProfileFixtures.rule(0, setting.policyAction);
+        copy.id = setting.id;
+        copy.profileName = setting.profileName;
+        copy.app = setting.app;
+        copy.permission = setting.permission;
+        copy.purpose = setting.purpose;
+        copy.thirdPartyLibrary = setting.thirdPartyLibrary;
+        copy.lastUpdated = setting.lastUpdated;
+
+        return copy;
+    }
+}
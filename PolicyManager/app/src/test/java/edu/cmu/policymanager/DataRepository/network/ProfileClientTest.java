@@ -0,0 +1,104 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the ProfileClient against the mock profile server: an installed version that is
+ * current costs a 304, a newer version comes as a delta of just the rules that changed, and
+ * a version the server no longer knows gets the whole profile.
+ */
+public class ProfileClientTest {
+    private static final int RULES = 1000, CHANGES = 10;
+
+    private MockProfileServer mServer;
+    private ProfileClient mClient;
+
+    @Before
+    public void setup() throws IOException {
+        mServer = new MockProfileServer();
+        mClient = new ProfileClient(mServer.getUrl(), 2000, 2000);
+    }
+
+    @After
+    public void teardown() { mServer.close(); }
+
+    @Test
+    public void testProfileClient_unchangedProfileIsNotSentAgain() throws IOException {
+        mServer.publish(ProfileFixtures.profile("1", RULES, 1L));
+
+        ProfileSource.Fetch first = mClient.fetch(ProfileFixtures.PROFILE, null);
+
+        assertEquals(ProfileSource.Fetch.Status.FULL, first.status);
+        assertEquals("\"1\"", first.etag);
+        assertEquals(RULES, first.document.put.size());
+
+        ProfileSource.Fetch second = mClient.fetch(ProfileFixtures.PROFILE, first.etag);
+
+        assertEquals(ProfileSource.Fetch.Status.NOT_MODIFIED, second.status);
+        assertEquals(first.etag, second.etag);
+        assertNull(second.document);
+        assertEquals(1, mServer.getNotModifiedCount());
+    }
+
+    @Test
+    public void testProfileClient_newVersionComesAsADelta() throws IOException {
+        ProfileStream.Document profile = ProfileFixtures.profile("1", RULES, 1L),
+                               next = ProfileFixtures.nextVersion(profile, "2", CHANGES, 2L);
+
+        mServer.publish(profile);
+
+        ProfileSource.Fetch first = mClient.fetch(ProfileFixtures.PROFILE, null);
+        int fullBytes = mServer.getLastResponseBytes();
+
+        mServer.publish(next);
+
+        ProfileSource.Fetch second = mClient.fetch(ProfileFixtures.PROFILE, first.etag);
+
+        assertEquals(ProfileSource.Fetch.Status.DELTA, second.status);
+        assertEquals("\"2\"", second.etag);
+        assertEquals("1", second.document.base);
+        assertTrue(second.document.put.size() + second.document.remove.size() <= CHANGES);
+        assertTrue(mServer.getLastResponseBytes() * 5 < fullBytes);
+
+        ProfileChanges applied = ProfileChanges.between(first.document.put, second.document),
+                       expected = ProfileChanges.between(first.document.put, next);
+
+        assertEquals(expected.toString(), applied.toString());
+    }
+
+    @Test
+    public void testProfileClient_unknownVersionGetsTheWholeProfile() throws IOException {
+        ProfileStream.Document profile = ProfileFixtures.profile("1", RULES, 1L),
+                               next = ProfileFixtures.nextVersion(profile, "2", CHANGES, 2L);
+
+        mServer.publish(profile);
+        mServer.publish(next);
+        mServer.forgetOldVersions(ProfileFixtures.PROFILE);
+
+        ProfileSource.Fetch fetch = mClient.fetch(ProfileFixtures.PROFILE, "\"1\"");
+
+        assertEquals(ProfileSource.Fetch.Status.FULL, fetch.status);
+        assertEquals(next.put.size(), fetch.document.put.size());
+        assertEquals(1, mServer.getFullCount());
+        assertEquals(0, mServer.getDeltaCount());
+    }
+
+    @Test
+    public void testProfileClient_unknownProfileFails() {
+        try {
+            mClient.fetch("Unknown Profile", null);
+            fail("Fetched a profile the server does not have");
+        } catch(IOException expected) {
+            assertEquals(1, mServer.getRequestCount());
+        }
+    }
+}
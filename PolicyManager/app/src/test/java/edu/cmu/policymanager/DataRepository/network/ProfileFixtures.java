@@ -0,0 +1,105 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+/**
+ * Generated versions of a profile for exercising ProfileStream, ProfileChanges and the
+ * ProfileClient. Every rule of a version is for a different app, permission, purpose and
+ * library, as a profile server would send them.
+ */
+public class ProfileFixtures {
+    public static final String PROFILE = "Organizational Profile";
+
+    private static final String[] PERMISSIONS = {
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.ACCESS_COARSE_LOCATION",
+            "android.permission.RECORD_AUDIO",
+            "android.permission.CAMERA"
+    };
+
+    private static final String[] PURPOSES = {
+            "Displaying Advertisement",
+            "Running Other Features",
+            "Analyzing User Info",
+            "Backup to Cloud Service"
+    };
+
+    private static final String[] ACTIONS = { "ALLOW", "DENY", "ASK" };
+
+    /* Rules added by a new version start here, so they never share a key with another. */
+    private static final int NEW_RULES = 1 << 24;
+
+    /**
+     * @return a full profile of the given number of rules
+     * */
+    public static ProfileStream.Document profile(String version, int rules, long seed) {
+        Random random = new Random(seed);
+        List<PolicyProfileSetting> settings = new ArrayList<PolicyProfileSetting>(rules);
+
+        for(int i = 0; i < rules; i++) {
+            settings.add(rule(i, ACTIONS[random.nextInt(ACTIONS.length)]));
+        }
+
+        return ProfileStream.Document.full(PROFILE, version, settings);
+    }
+
+    /**
+     * The next version of a profile, with the given number of rules changed: about a third
+     * get another action, a third are removed and a third are added.
+     * */
+    public static ProfileStream.Document nextVersion(ProfileStream.Document profile,
+                                                     String version,
+                                                     int changes,
+                                                     long seed) {
+        Random random = new Random(seed);
+        List<PolicyProfileSetting> settings = new ArrayList<PolicyProfileSetting>(profile.put);
+
+        for(int i = 0; i < changes; i++) {
+            int index = random.nextInt(settings.size());
+
+            switch(i % 3) {
+                case 0:
+                    PolicyProfileSetting changed = copy(settings.get(index));
+                    changed.policyAction = "DENY".equals(changed.policyAction) ? "ALLOW" : "DENY";
+                    settings.set(index, changed);
+                    break;
+                case 1:
+                    settings.remove(index);
+                    break;
+                default:
+                    settings.add(rule(NEW_RULES + i, "DENY"));
+            }
+        }
+
+        return ProfileStream.Document.full(PROFILE, version, settings);
+    }
+
+    /**
+     * @return the i-th rule; every i gives a different app, permission, purpose and library
+     * */
+    public static PolicyProfileSetting rule(int i, String action) {
+        PolicyProfileSetting setting = new PolicyProfileSetting();
+        setting.profileName = PROFILE;
+        setting.app = "com.example.app" + (i / 32);
+        setting.permission = PERMISSIONS[i % PERMISSIONS.length];
+        setting.purpose = PURPOSES[(i / PERMISSIONS.length) % PURPOSES.length];
+        setting.thirdPartyLibrary = (i / 16) % 2 == 0 ? "Third Party Use" : "com.mopub";
+        setting.policyAction = action;
+
+        return setting;
+    }
+
+    private static PolicyProfileSetting copy(PolicyProfileSetting setting) {
+        PolicyProfileSetting copy = rule(0, setting.policyAction);
+        copy.app = setting.app;
+        copy.permission = setting.permission;
+        copy.purpose = setting.purpose;
+        copy.thirdPartyLibrary = setting.thirdPartyLibrary;
+
+        return copy;
+    }
+}
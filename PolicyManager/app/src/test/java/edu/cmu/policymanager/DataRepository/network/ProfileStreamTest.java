@@ -0,0 +1,147 @@
+package edu.cmu.policymanager.DataRepository.network;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that profiles and deltas read back as they were written, that repeated strings are
+ * only written once, and that a delta applied to its base gives the new version.
+ */
+public class ProfileStreamTest {
+    private static final File BUNDLED_PROFILE =
+            new File("src/main/res/raw/organizational_profile");
+
+    @Test
+    public void testProfileStream_roundTrip() throws IOException {
+        ProfileStream.Document profile = ProfileFixtures.profile("1", 500, 3L),
+                               next = ProfileFixtures.nextVersion(profile, "2", 30, 4L),
+                               delta = ProfileStream.diff(profile, next);
+
+        ProfileStream.Document read = roundTrip(profile);
+
+        assertEquals(profile.profile, read.profile);
+        assertEquals("1", read.version);
+        assertFalse(read.isDelta());
+        assertRulesEqual(profile.put, read.put, true);
+
+        read = roundTrip(delta);
+
+        assertTrue(read.isDelta());
+        assertEquals("1", read.base);
+        assertEquals("2", read.version);
+        assertRulesEqual(delta.put, read.put, true);
+        assertRulesEqual(delta.remove, read.remove, false);
+
+        for(PolicyProfileSetting setting : read.remove) {
+            assertEquals(ProfileFixtures.PROFILE, setting.profileName);
+        }
+    }
+
+    @Test
+    public void testProfileStream_repeatedStringsAreWrittenOnce() throws IOException {
+        ProfileStream.Document profile = ProfileFixtures.profile("1", 1000, 3L);
+        String written = write(profile);
+
+        assertEquals(written.indexOf("android.permission.CAMERA"),
+                     written.lastIndexOf("android.permission.CAMERA"));
+        assertTrue(written.length() < profile.put.size() * 40);
+    }
+
+    @Test
+    public void testProfileStream_deltaAppliedToBaseGivesNextVersion() {
+        ProfileStream.Document profile = ProfileFixtures.profile("1", 300, 7L),
+                               next = ProfileFixtures.nextVersion(profile, "2", 30, 8L),
+                               delta = ProfileStream.diff(profile, next);
+
+        ProfileChanges full = ProfileChanges.between(profile.put, next),
+                       partial = ProfileChanges.between(profile.put, delta);
+
+        assertTrue(delta.put.size() + delta.remove.size() <= 30);
+        assertEquals(full.toString(), partial.toString());
+        assertEquals(0, ProfileStream.diff(next, next).put.size());
+    }
+
+    @Test
+    public void testProfileStream_malformedDocumentsAreRejected() {
+        String[] malformed = {
+                "{\"version\": \"1\", \"put\": []}",
+                "{\"profile\": \"p\", \"version\": \"1\", \"put\": [[0, 1, 2, 3, 4]]}",
+                "{\"profile\": \"p\", \"version\": \"1\", \"put\": [[\"a\", \"b\", \"c\"]]}",
+                "{\"profile\": \"p\", \"version\": \"1\", \"remove\": [[\"a\", 0, 0, 0]]}",
+                "[]"
+        };
+
+        for(String document : malformed) {
+            try {
+                ProfileStream.read(new StringReader(document));
+                fail("Read " + document);
+            } catch(IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testProfileStream_bundledProfileIsAFullProfile() throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(BUNDLED_PROFILE),
+                                              StandardCharsets.UTF_8);
+        ProfileStream.Document profile;
+
+        try {
+            profile = ProfileStream.read(reader);
+        } finally {
+            reader.close();
+        }
+
+        assertEquals("Organizational Profile", profile.profile);
+        assertFalse(profile.isDelta());
+        assertEquals(2, profile.put.size());
+        assertEquals(profile.put.get(0).purpose, profile.put.get(1).purpose);
+        assertEquals("DENY", profile.put.get(1).policyAction);
+    }
+
+    private static ProfileStream.Document roundTrip(ProfileStream.Document document)
+            throws IOException {
+        return ProfileStream.read(new StringReader(write(document)));
+    }
+
+    private static String write(ProfileStream.Document document) throws IOException {
+        StringWriter writer = new StringWriter();
+        ProfileStream.write(document, writer);
+
+        return writer.toString();
+    }
+
+    /*
+     * Removed rules are written without their action.
+     */
+    private static void assertRulesEqual(List<PolicyProfileSetting> expected,
+                                         List<PolicyProfileSetting> actual,
+                                         boolean withAction) {
+        assertEquals(expected.size(), actual.size());
+
+        for(int i = 0; i < expected.size(); i++) {
+            assertEquals(ProfileStream.keyOf(expected.get(i)), ProfileStream.keyOf(actual.get(i)));
+
+            if(withAction) {
+                assertEquals(expected.get(i).policyAction, actual.get(i).policyAction);
+            }
+        }
+    }
+}
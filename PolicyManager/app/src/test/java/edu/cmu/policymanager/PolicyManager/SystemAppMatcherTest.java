@@ -0,0 +1,99 @@
+package edu.cmu.policymanager.PolicyManager;
+
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks each kind of SystemAppMatcher pattern, and that the shipped list of critical system
+ * apps compiles and classifies common packages.
+ */
+public class SystemAppMatcherTest {
+    /* Unit tests run from the app module. */
+    private static final String SHIPPED_LIST = "src/main/res/raw/critical_system_apps.txt";
+
+    private static SystemAppMatcher compile(String... patterns) {
+        return SystemAppMatcher.compile(Arrays.asList(patterns));
+    }
+
+    @Test
+    public void testSystemAppMatcher_prefixMatchesWholeSegments() {
+        SystemAppMatcher matcher = compile("com.android.phone", "com.android.providers");
+
+        assertTrue(matcher.matches("com.android.phone"));
+        assertTrue(matcher.matches("com.android.phone.overlay"));
+        assertTrue(matcher.matches("com.android.providers.contacts"));
+        assertFalse(matcher.matches("com.android.phonebook"));
+        assertFalse(matcher.matches("com.android"));
+        assertFalse(matcher.matches("org.example.com.android.phone"));
+    }
+
+    @Test
+    public void testSystemAppMatcher_segmentPrefixMatchesStartOfSegment() {
+        SystemAppMatcher matcher = compile("com.android.launcher*", "twosix*");
+
+        assertTrue(matcher.matches("com.android.launcher"));
+        assertTrue(matcher.matches("com.android.launcher3"));
+        assertTrue(matcher.matches("com.android.launcher3.quickstep"));
+        assertTrue(matcher.matches("twosixlabs.app"));
+        assertFalse(matcher.matches("com.android.launch"));
+        assertFalse(matcher.matches("com.android.mylauncher"));
+        assertFalse(matcher.matches("com.twosix"));
+    }
+
+    @Test
+    public void testSystemAppMatcher_exactAndContains() {
+        SystemAppMatcher matcher = compile("=android", "*auto_generated_rro_*");
+
+        assertTrue(matcher.matches("android"));
+        assertFalse(matcher.matches("android.ext"));
+        assertTrue(matcher.matches("com.android.systemui.auto_generated_rro_vendor__"));
+        assertFalse(matcher.matches("com.example.rro"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testSystemAppMatcher_rejectsMalformedPatterns() {
+        for(String pattern : new String[] { "", "*", "**", "*text", "com.*.app", "=" }) {
+            try {
+                compile(pattern);
+                fail("Compiled malformed pattern '" + pattern + "'");
+            } catch(IllegalArgumentException expected) {
+                /* expected */
+            }
+        }
+    }
+
+    @Test
+    public void testSystemAppMatcher_shippedList() throws IOException {
+        SystemAppMatcher matcher;
+
+        try(Reader reader = new InputStreamReader(new FileInputStream(SHIPPED_LIST),
+                                                  StandardCharsets.UTF_8)) {
+            matcher = SystemAppMatcher.parse(reader);
+        }
+
+        assertTrue(matcher.size() > 100);
+        assertTrue(matcher.matches("android"));
+        assertTrue(matcher.matches("com.android.vending"));
+        assertTrue(matcher.matches("com.google.android.gms"));
+        assertTrue(matcher.matches("com.google.android.gms.policy_sidecar_aps"));
+        assertTrue(matcher.matches("com.android.providers.media"));
+        assertTrue(matcher.matches("com.android.launcher3"));
+        assertTrue(matcher.matches("org.chromium.webview_shell"));
+        assertTrue(matcher.matches("android.auto_generated_rro__"));
+        assertFalse(matcher.matches("com.yelp.android"));
+        assertFalse(matcher.matches("com.facebook.katana"));
+        assertFalse(matcher.matches("com.android.chrome"));
+        assertFalse(matcher.matches("edu.cmu.policymanager"));
+    }
+}
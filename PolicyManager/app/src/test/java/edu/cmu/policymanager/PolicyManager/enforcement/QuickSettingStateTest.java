@@ -0,0 +1,76 @@
+package edu.cmu.policymanager.PolicyManager.enforcement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that QuickSettingState snapshots never change once made, and that each switch makes
+ * a snapshot with the next version.
+ */
+public class QuickSettingStateTest {
+    private static final int CAMERA = 3, LOCATION = 5, MICROPHONE = 63, CONTACTS = 7;
+
+    @Test
+    public void testQuickSettingState_startsEnabled() {
+        QuickSettingState state = QuickSettingState.enabled(CAMERA, LOCATION, MICROPHONE);
+
+        assertEquals(0, state.version);
+        assertTrue(state.isControlled(CAMERA));
+        assertTrue(state.isControlled(MICROPHONE));
+        assertFalse(state.isDisabled(CAMERA));
+        assertFalse(state.isDisabled(MICROPHONE));
+        assertFalse(state.isControlled(CONTACTS));
+    }
+
+    @Test
+    public void testQuickSettingState_switchMakesNextVersion() {
+        QuickSettingState first = QuickSettingState.enabled(CAMERA, LOCATION),
+                          second = first.with(false, LOCATION),
+                          third = second.with(true, LOCATION);
+
+        assertEquals(1, second.version);
+        assertEquals(2, third.version);
+        assertFalse(first.isDisabled(LOCATION));
+        assertTrue(second.isDisabled(LOCATION));
+        assertFalse(second.isDisabled(CAMERA));
+        assertFalse(third.isDisabled(LOCATION));
+    }
+
+    @Test
+    public void testQuickSettingState_switchesSeveralAtOnce() {
+        QuickSettingState state = QuickSettingState.enabled(CAMERA, LOCATION, MICROPHONE)
+                                                   .with(false, CAMERA, MICROPHONE);
+
+        assertEquals(1, state.version);
+        assertTrue(state.isDisabled(CAMERA));
+        assertTrue(state.isDisabled(MICROPHONE));
+        assertFalse(state.isDisabled(LOCATION));
+    }
+
+    @Test
+    public void testQuickSettingState_uncontrolledPermissionIsNeverDisabled() {
+        QuickSettingState state = QuickSettingState.enabled(CAMERA);
+
+        assertFalse(state.isDisabled(CONTACTS));
+        assertFalse(state.isDisabled(-1));
+        assertFalse(state.isControlled(-1));
+        assertFalse(state.isControlled(QuickSettingState.CAPACITY));
+    }
+
+    @Test
+    public void testQuickSettingState_rejectsOrdinalOutOfRange() {
+        try {
+            QuickSettingState.enabled(QuickSettingState.CAPACITY);
+            fail("Expected an IllegalArgumentException");
+        } catch(IllegalArgumentException expected) { }
+
+        try {
+            QuickSettingState.enabled(CAMERA).with(false, -1);
+            fail("Expected an IllegalArgumentException");
+        } catch(IllegalArgumentException expected) { }
+    }
+}
@@ -0,0 +1,121 @@
+package edu.cmu.policymanager.PolicyManager.libraries;
+
+import java.util.Random;
+
+/**
+ * Signatures and stacktraces for exercising LibrarySignatureMatcher. The registry mirrors
+ * ThirdPartyLibraries.AS_LIST; larger sets are padded with generated SDK package names.
+ */
+public class LibrarySignatureFixtures {
+    public static final String[] REGISTRY = {
+            "com.google.android.gms.ads",
+            "com.adcolony",
+            "com.chartboost",
+            "com.mopub",
+            "com.vungle",
+            "com.millennialmedia",
+            "com.inmobi.monetization",
+            "com.amazon.device.ads",
+            "com.startapp",
+            "com.fyber",
+            "org.nexage.sourcekit",
+            "com.taboola.android",
+            "com.appnext.sdk",
+            "com.appsflyer",
+            "com.flurry.android"
+    };
+
+    private static final String[] TLDS = { "com", "io", "net", "org" },
+                                  WORDS = { "ads", "analytics", "sdk", "track", "mobile",
+                                            "media", "metrics", "push", "social", "core" };
+
+    /**
+     * The registry followed by generated signatures, count signatures in total.
+     * */
+    public static String[] signatures(int count, long seed) {
+        Random random = new Random(seed);
+        String[] signatures = new String[count];
+
+        for(int i = 0; i < count; i++) {
+            if(i < REGISTRY.length) {
+                signatures[i] = REGISTRY[i];
+            } else {
+                signatures[i] = TLDS[random.nextInt(TLDS.length)] + ".vendor" + i + "." +
+                                WORDS[random.nextInt(WORDS.length)];
+            }
+        }
+
+        return signatures;
+    }
+
+    /**
+     * A location request made by MoPub, 19 frames deep.
+     * */
+    public static StackTraceElement[] advertisingStacktrace() {
+        return new StackTraceElement[] {
+                frame("android.location.LocationManager", "getLastKnownLocation"),
+                frame("com.mopub.common.LocationService", "getLocationFromProvider"),
+                frame("com.mopub.common.LocationService", "getLastKnownLocation"),
+                frame("com.mopub.common.AdUrlGenerator", "setLocation"),
+                frame("com.mopub.common.AdUrlGenerator", "addBaseParams"),
+                frame("com.mopub.mobileads.WebViewAdUrlGenerator", "generateUrlString"),
+                frame("com.mopub.mobileads.AdViewController", "generateAdUrl"),
+                frame("com.mopub.mobileads.AdViewController", "internalLoadAd"),
+                frame("com.mopub.mobileads.AdViewController", "loadAd"),
+                frame("com.mopub.mobileads.MoPubView", "loadAd"),
+                frame("edu.cmu.chimpslab.stacktracetest.MainActivity$2", "onInitializationFinished"),
+                frame("com.mopub.common.MoPub$1", "run"),
+                frame("android.os.Handler", "handleCallback"),
+                frame("android.os.Handler", "dispatchMessage"),
+                frame("android.os.Looper", "loop"),
+                frame("android.app.ActivityThread", "main"),
+                frame("java.lang.reflect.Method", "invoke"),
+                frame("com.android.internal.os.RuntimeInit$MethodAndArgsCaller", "run"),
+                frame("com.android.internal.os.ZygoteInit", "main")
+        };
+    }
+
+    /**
+     * A request made by the app itself, where no frame belongs to a library. This is the
+     * worst case for matching, since every frame has to be searched.
+     * */
+    public static StackTraceElement[] internalStacktrace() {
+        return new StackTraceElement[] {
+                frame("java.lang.Object", "wait"),
+                frame("java.lang.Thread", "parkFor$"),
+                frame("sun.misc.Unsafe", "park"),
+                frame("java.util.concurrent.locks.LockSupport", "parkNanos"),
+                frame("java.util.concurrent.SynchronousQueue$TransferStack", "awaitFulfill"),
+                frame("java.util.concurrent.SynchronousQueue$TransferStack", "transfer"),
+                frame("java.util.concurrent.SynchronousQueue", "poll"),
+                frame("java.util.concurrent.ThreadPoolExecutor", "getTask"),
+                frame("java.util.concurrent.ThreadPoolExecutor", "runWorker"),
+                frame("java.util.concurrent.ThreadPoolExecutor$Worker", "run"),
+                frame("edu.cmu.chimpslab.stacktracetest.MainActivity", "onCreate"),
+                frame("android.os.Handler", "dispatchMessage"),
+                frame("android.os.Looper", "loop"),
+                frame("android.app.ActivityThread", "main"),
+                frame("java.lang.reflect.Method", "invoke"),
+                frame("com.android.internal.os.RuntimeInit$MethodAndArgsCaller", "run"),
+                frame("com.android.internal.os.ZygoteInit", "main"),
+                frame("java.lang.Thread", "run")
+        };
+    }
+
+    /**
+     * The nested loop that StackTraceAnalysis used before LibrarySignatureMatcher.
+     * */
+    public static int loopMatch(String[] signatures, StackTraceElement[] frames) {
+        for(StackTraceElement frame : frames) {
+            for(int i = 0; i < signatures.length; i++) {
+                if(frame.getClassName().contains(signatures[i])) { return i; }
+            }
+        }
+
+        return LibrarySignatureMatcher.NO_MATCH;
+    }
+
+    private static StackTraceElement frame(String className, String method) {
+        return new StackTraceElement(className, method, "", 1);
+    }
+}
@@ -0,0 +1,81 @@
+package edu.cmu.policymanager.PolicyManager.libraries;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LibrarySignatureMatcherTest {
+    @Test
+    public void testMatcher_findsLibraryInStacktrace() {
+        LibrarySignatureMatcher matcher =
+                new LibrarySignatureMatcher(LibrarySignatureFixtures.REGISTRY);
+
+        assertEquals(3, matcher.firstMatchIn(LibrarySignatureFixtures.advertisingStacktrace()));
+        assertEquals(LibrarySignatureMatcher.NO_MATCH,
+                     matcher.firstMatchIn(LibrarySignatureFixtures.internalStacktrace()));
+    }
+
+    @Test
+    public void testMatcher_earlierSignatureWinsWhenSeveralMatch() {
+        LibrarySignatureMatcher matcher = new LibrarySignatureMatcher(
+                new String[] { "mopub.mobileads", "com.mopub", "ads" }
+        );
+
+        assertEquals(0, matcher.firstMatchIn("com.mopub.mobileads.MoPubView"));
+        assertEquals(1, matcher.firstMatchIn("com.mopub.common.MoPub"));
+        assertEquals(2, matcher.firstMatchIn("com.google.android.gms.ads.AdActivity"));
+        assertEquals(LibrarySignatureMatcher.NO_MATCH, matcher.firstMatchIn("android.os.Handler"));
+    }
+
+    @Test
+    public void testMatcher_matchesSubstringsLikeContains() {
+        Random random = new Random(7);
+        String alphabet = "abc.";
+
+        for(int round = 0; round < 200; round++) {
+            String[] signatures = new String[1 + random.nextInt(20)];
+
+            for(int i = 0; i < signatures.length; i++) {
+                signatures[i] = randomString(random, alphabet, 1 + random.nextInt(4));
+            }
+
+            LibrarySignatureMatcher matcher = new LibrarySignatureMatcher(signatures);
+            StackTraceElement[] frames = new StackTraceElement[1 + random.nextInt(5)];
+
+            for(int i = 0; i < frames.length; i++) {
+                frames[i] = new StackTraceElement(
+                        randomString(random, alphabet, random.nextInt(12)), "run", "", 1
+                );
+            }
+
+            assertEquals(LibrarySignatureFixtures.loopMatch(signatures, frames),
+                         matcher.firstMatchIn(frames));
+        }
+    }
+
+    @Test
+    public void testMatcher_largeSignatureSetsMatchLikeContains() {
+        String[] signatures = LibrarySignatureFixtures.signatures(5000, 1L);
+        LibrarySignatureMatcher matcher = new LibrarySignatureMatcher(signatures);
+
+        StackTraceElement[] advertising = LibrarySignatureFixtures.advertisingStacktrace(),
+                            internal = LibrarySignatureFixtures.internalStacktrace();
+
+        assertEquals(LibrarySignatureFixtures.loopMatch(signatures, advertising),
+                     matcher.firstMatchIn(advertising));
+        assertEquals(LibrarySignatureFixtures.loopMatch(signatures, internal),
+                     matcher.firstMatchIn(internal));
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+
+        for(int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+
+        return builder.toString();
+    }
+}
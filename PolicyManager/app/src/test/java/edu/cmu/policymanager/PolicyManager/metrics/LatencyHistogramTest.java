@@ -0,0 +1,99 @@
+package edu.cmu.policymanager.PolicyManager.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that LatencyHistogram reports percentiles within its precision of the exact ones,
+ * and that its buckets cover every value without gaps.
+ */
+public class LatencyHistogramTest {
+    private LatencyHistogram histogram;
+
+    @Before
+    public void setup() { histogram = new LatencyHistogram(); }
+
+    @Test
+    public void testLatencyHistogram_emptyReportsZero() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    public void testLatencyHistogram_smallValuesAreExact() {
+        for(long value = 1; value <= 10; value++) { histogram.record(value); }
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+        assertEquals(10, histogram.getMax());
+        assertEquals(5, histogram.getMean());
+    }
+
+    @Test
+    public void testLatencyHistogram_bucketsAreContiguous() {
+        long previous = -1;
+
+        for(int bucket = 0; bucket < 1152; bucket++) {
+            long highest = LatencyHistogram.highestValueIn(bucket);
+
+            assertEquals(bucket, LatencyHistogram.bucketOf(previous + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            previous = highest;
+        }
+
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_NANOS, previous);
+    }
+
+    @Test
+    public void testLatencyHistogram_percentilesAreWithinPrecision() {
+        Random random = new Random(11);
+        long[] values = new long[100000];
+
+        for(int i = 0; i < values.length; i++) {
+            /* Log-normal-ish: mostly tens of microseconds, with a long tail. */
+            values[i] = (long)Math.exp(10 + random.nextGaussian() * 1.5);
+            histogram.record(values[i]);
+        }
+
+        Arrays.sort(values);
+
+        for(double percentile : new double[] { 50, 90, 99, 99.9 }) {
+            long exact = values[(int)Math.ceil(percentile / 100 * values.length) - 1],
+                 reported = histogram.getValueAtPercentile(percentile);
+
+            assertTrue("p" + percentile + " " + reported + " < " + exact, reported >= exact);
+            assertTrue("p" + percentile + " " + reported + " vs " + exact,
+                       reported <= exact + exact / 32 + 1);
+        }
+
+        assertEquals(values[values.length - 1], histogram.getMax());
+    }
+
+    @Test
+    public void testLatencyHistogram_clampsOutOfRangeValues() {
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_NANOS, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testLatencyHistogram_resetDropsEverything() {
+        histogram.record(1000);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+}
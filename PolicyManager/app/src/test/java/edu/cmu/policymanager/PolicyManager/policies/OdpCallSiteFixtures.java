@@ -0,0 +1,149 @@
+package edu.cmu.policymanager.PolicyManager.policies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Call sites and stacktraces for exercising OdpCallSiteMatcher. The location call sites
+ * mirror the stacktrace test app's off-device policy.
+ */
+public class OdpCallSiteFixtures {
+    public static final List<String> LOCATION_CLASSES = Arrays.asList(
+            "edu.cmu.chimpslab.stacktracetest.MainActivity",
+            "com.mopub.mobileads.MoPubView",
+            "edu.cmu.chimpslab.stacktracetest.MainActivity",
+            "edu.cmu.chimpslab.stacktracetest.PELocationService"
+    );
+
+    public static final List<String> LOCATION_METHODS = Arrays.asList(
+            "getLocation",
+            "loadAd",
+            "run",
+            "onStartCommand"
+    );
+
+    /**
+     * The location call sites padded with count generated ones declared before them, so the
+     * real call sites are found last by a linear search.
+     * */
+    public static List<String> paddedClasses(int count) {
+        List<String> classes = new ArrayList<String>();
+
+        for(int i = 0; i < count; i++) {
+            classes.add("edu.cmu.chimpslab.stacktracetest.feature" + i + ".FeatureActivity");
+        }
+
+        classes.addAll(LOCATION_CLASSES);
+        return classes;
+    }
+
+    public static List<String> paddedMethods(int count) {
+        List<String> methods = new ArrayList<String>();
+
+        for(int i = 0; i < count; i++) { methods.add("onFeature" + i); }
+
+        methods.addAll(LOCATION_METHODS);
+        return methods;
+    }
+
+    /**
+     * A location request made by MoPub on behalf of the app, 19 frames deep.
+     * */
+    public static StackTraceElement[] advertisingStacktrace() {
+        return new StackTraceElement[] {
+                frame("android.location.LocationManager", "getLastKnownLocation"),
+                frame("com.mopub.common.LocationService", "getLocationFromProvider"),
+                frame("com.mopub.common.LocationService", "getLastKnownLocation"),
+                frame("com.mopub.common.AdUrlGenerator", "setLocation"),
+                frame("com.mopub.common.AdUrlGenerator", "addBaseParams"),
+                frame("com.mopub.mobileads.WebViewAdUrlGenerator", "generateUrlString"),
+                frame("com.mopub.mobileads.AdViewController", "generateAdUrl"),
+                frame("com.mopub.mobileads.AdViewController", "internalLoadAd"),
+                frame("com.mopub.mobileads.AdViewController", "loadAd"),
+                frame("com.mopub.mobileads.MoPubView", "loadAd"),
+                frame("edu.cmu.chimpslab.stacktracetest.MainActivity$2", "onInitializationFinished"),
+                frame("com.mopub.common.MoPub$1", "run"),
+                frame("android.os.Handler", "handleCallback"),
+                frame("android.os.Handler", "dispatchMessage"),
+                frame("android.os.Looper", "loop"),
+                frame("android.app.ActivityThread", "main"),
+                frame("java.lang.reflect.Method", "invoke"),
+                frame("com.android.internal.os.RuntimeInit$MethodAndArgsCaller", "run"),
+                frame("com.android.internal.os.ZygoteInit", "main")
+        };
+    }
+
+    /**
+     * A location request from a thread the app started, matched through a nested class.
+     * */
+    public static StackTraceElement[] threadStacktrace() {
+        return new StackTraceElement[] {
+                frame("android.location.LocationManager", "getLastKnownLocation"),
+                frame("edu.cmu.chimpslab.stacktracetest.MainActivity$1", "run"),
+                frame("java.lang.Thread", "run")
+        };
+    }
+
+    /**
+     * A request that matches no call site, so every frame has to be searched.
+     * */
+    public static StackTraceElement[] unmatchedStacktrace() {
+        return new StackTraceElement[] {
+                frame("java.lang.Object", "wait"),
+                frame("java.lang.Thread", "parkFor$"),
+                frame("sun.misc.Unsafe", "park"),
+                frame("java.util.concurrent.locks.LockSupport", "parkNanos"),
+                frame("java.util.concurrent.SynchronousQueue$TransferStack", "awaitFulfill"),
+                frame("java.util.concurrent.SynchronousQueue$TransferStack", "transfer"),
+                frame("java.util.concurrent.SynchronousQueue", "poll"),
+                frame("java.util.concurrent.ThreadPoolExecutor", "getTask"),
+                frame("java.util.concurrent.ThreadPoolExecutor", "runWorker"),
+                frame("java.util.concurrent.ThreadPoolExecutor$Worker", "run"),
+                frame("android.os.Handler", "dispatchMessage"),
+                frame("android.os.Looper", "loop"),
+                frame("android.app.ActivityThread", "main"),
+                frame("java.lang.reflect.Method", "invoke"),
+                frame("com.android.internal.os.RuntimeInit$MethodAndArgsCaller", "run"),
+                frame("com.android.internal.os.ZygoteInit", "main"),
+                frame("java.lang.Thread", "run")
+        };
+    }
+
+    /**
+     * The search StackTraceAnalysis used before OdpCallSiteMatcher: every frame is turned
+     * into a string, which has to contain the class and method of a call site, and then the
+     * call sites are searched again for ones that * contains.
+     * */
+    public static int containsMatch(List<String> classes,
+                                    List<String> methods,
+                                    StackTraceElement[] frames) {
+        for(StackTraceElement frame : frames) {
+            int site = containsSearch(classes, methods, frame.toString());
+
+            if(site == OdpCallSiteMatcher.NO_MATCH) {
+                site = containsSearch(classes, methods, "*");
+            }
+
+            if(site != OdpCallSiteMatcher.NO_MATCH) { return site; }
+        }
+
+        return OdpCallSiteMatcher.NO_MATCH;
+    }
+
+    private static int containsSearch(List<String> classes,
+                                      List<String> methods,
+                                      String searchElement) {
+        for(int i = 0; i < classes.size(); i++) {
+            if(searchElement.contains(classes.get(i)) && searchElement.contains(methods.get(i))) {
+                return i;
+            }
+        }
+
+        return OdpCallSiteMatcher.NO_MATCH;
+    }
+
+    private static StackTraceElement frame(String className, String method) {
+        return new StackTraceElement(className, method, "", 1);
+    }
+}
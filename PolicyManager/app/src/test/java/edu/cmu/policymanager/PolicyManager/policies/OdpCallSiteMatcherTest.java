@@ -0,0 +1,142 @@
+package edu.cmu.policymanager.PolicyManager.policies;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static edu.cmu.policymanager.PolicyManager.policies.OdpCallSiteFixtures.LOCATION_CLASSES;
+import static edu.cmu.policymanager.PolicyManager.policies.OdpCallSiteFixtures.LOCATION_METHODS;
+import static org.junit.Assert.assertEquals;
+
+public class OdpCallSiteMatcherTest {
+    private static final int NO_MATCH = OdpCallSiteMatcher.NO_MATCH;
+
+    @Test
+    public void testMatcher_findsCallSitesLikeContainsSearch() {
+        OdpCallSiteMatcher matcher = new OdpCallSiteMatcher(LOCATION_CLASSES, LOCATION_METHODS);
+
+        assertSameAsContainsSearch(matcher, LOCATION_CLASSES, LOCATION_METHODS,
+                                   OdpCallSiteFixtures.advertisingStacktrace());
+        assertSameAsContainsSearch(matcher, LOCATION_CLASSES, LOCATION_METHODS,
+                                   OdpCallSiteFixtures.threadStacktrace());
+        assertSameAsContainsSearch(matcher, LOCATION_CLASSES, LOCATION_METHODS,
+                                   OdpCallSiteFixtures.unmatchedStacktrace());
+
+        assertEquals(1, matcher.match(OdpCallSiteFixtures.advertisingStacktrace()));
+        assertEquals(2, matcher.match(OdpCallSiteFixtures.threadStacktrace()));
+        assertEquals(NO_MATCH, matcher.match(OdpCallSiteFixtures.unmatchedStacktrace()));
+    }
+
+    @Test
+    public void testMatcher_paddedPolicyMatchesLikeContainsSearch() {
+        List<String> classes = OdpCallSiteFixtures.paddedClasses(200),
+                     methods = OdpCallSiteFixtures.paddedMethods(200);
+        OdpCallSiteMatcher matcher = new OdpCallSiteMatcher(classes, methods);
+
+        assertSameAsContainsSearch(matcher, classes, methods,
+                                   OdpCallSiteFixtures.advertisingStacktrace());
+        assertSameAsContainsSearch(matcher, classes, methods,
+                                   OdpCallSiteFixtures.threadStacktrace());
+        assertSameAsContainsSearch(matcher, classes, methods,
+                                   OdpCallSiteFixtures.unmatchedStacktrace());
+    }
+
+    @Test
+    public void testMatcher_partialCallSitesMatchLikeContainsSearch() {
+        List<String> classes = Arrays.asList("com.mopub",
+                                             "stacktracetest.MainActivity",
+                                             "edu.cmu.chimpslab.stacktracetest.MainActivity"),
+                     methods = Arrays.asList("Ad", "run", "getLocation");
+        OdpCallSiteMatcher matcher = new OdpCallSiteMatcher(classes, methods);
+
+        assertSameAsContainsSearch(matcher, classes, methods,
+                                   OdpCallSiteFixtures.advertisingStacktrace());
+        assertSameAsContainsSearch(matcher, classes, methods,
+                                   OdpCallSiteFixtures.threadStacktrace());
+        assertSameAsContainsSearch(matcher, classes, methods,
+                                   OdpCallSiteFixtures.unmatchedStacktrace());
+
+        assertEquals(0, matcher.match(OdpCallSiteFixtures.advertisingStacktrace()));
+        assertEquals(1, matcher.match(OdpCallSiteFixtures.threadStacktrace()));
+    }
+
+    @Test
+    public void testMatcher_partialCallSiteIsSearchedBeforeManifestFallback() {
+        List<String> classes = Arrays.asList("*", "android.location"),
+                     methods = Arrays.asList("*", "getLastKnown");
+        OdpCallSiteMatcher matcher = new OdpCallSiteMatcher(classes, methods);
+
+        assertEquals(1, matcher.match(OdpCallSiteFixtures.threadStacktrace()));
+        assertEquals(0, matcher.match(OdpCallSiteFixtures.unmatchedStacktrace()));
+        assertEquals(NO_MATCH, matcher.match(new StackTraceElement[0]));
+        assertSameAsContainsSearch(matcher, classes, methods,
+                                   OdpCallSiteFixtures.threadStacktrace());
+        assertSameAsContainsSearch(matcher, classes, methods,
+                                   OdpCallSiteFixtures.unmatchedStacktrace());
+    }
+
+    @Test
+    public void testMatcher_manifestCallSiteIsFallbackForTopFrame() {
+        List<String> classes = Arrays.asList("com.domain.MainActivity", "*", "*"),
+                     methods = Arrays.asList("onCreate", "*", "*");
+        OdpCallSiteMatcher matcher = new OdpCallSiteMatcher(classes, methods);
+
+        StackTraceElement[] deepMatch = {
+                new StackTraceElement("android.media.MediaRecorder", "start", "", 1),
+                new StackTraceElement("com.domain.MainActivity", "onCreate", "", 1)
+        };
+
+        assertEquals(1, matcher.getFallback());
+        assertEquals(1, matcher.match(deepMatch));
+        assertSameAsContainsSearch(matcher, classes, methods, deepMatch);
+        assertEquals(0, matcher.match("com.domain.MainActivity", "onCreate"));
+    }
+
+    @Test
+    public void testMatcher_earliestDeclaredCallSiteWins() {
+        List<String> classes = Arrays.asList("com.domain.MainActivity$Inner",
+                                             "com.domain.MainActivity",
+                                             "com.domain.MainActivity$Inner"),
+                     methods = Arrays.asList("onPause", "*", "run");
+        OdpCallSiteMatcher matcher = new OdpCallSiteMatcher(classes, methods);
+
+        assertEquals(1, matcher.match("com.domain.MainActivity$Inner", "run"));
+        assertEquals(0, matcher.match("com.domain.MainActivity$Inner$1", "onPause"));
+        assertEquals(NO_MATCH, matcher.match("com.domain.MainActivityHelper", "run"));
+    }
+
+    @Test
+    public void testMatcher_wildcardClassMatchesMethodAnywhere() {
+        OdpCallSiteMatcher matcher = new OdpCallSiteMatcher(
+                Arrays.asList("com.domain.MainActivity", "*"),
+                Arrays.asList("onCreate", "onLocationChanged")
+        );
+
+        assertEquals(1, matcher.match("com.domain.LocationListener", "onLocationChanged"));
+        assertEquals(0, matcher.match("com.domain.MainActivity", "onCreate"));
+        assertEquals(NO_MATCH, matcher.getFallback());
+    }
+
+    @Test
+    public void testMatcher_collidingClassNamesAreToldApart() {
+        /* "Aa" and "BB" have the same String.hashCode. */
+        OdpCallSiteMatcher matcher = new OdpCallSiteMatcher(
+                Arrays.asList("p.Aa", "p.BB"),
+                Arrays.asList("run", "run")
+        );
+
+        assertEquals(0, matcher.match("p.Aa", "run"));
+        assertEquals(1, matcher.match("p.BB", "run"));
+        assertEquals(1, matcher.match("p.BB$1", "run"));
+        assertEquals(NO_MATCH, matcher.match("p.Ab", "run"));
+    }
+
+    private static void assertSameAsContainsSearch(OdpCallSiteMatcher matcher,
+                                                   List<String> classes,
+                                                   List<String> methods,
+                                                   StackTraceElement[] frames) {
+        assertEquals(OdpCallSiteFixtures.containsMatch(classes, methods, frames),
+                     matcher.match(frames));
+    }
+}
@@ -0,0 +1,161 @@
+package edu.cmu.policymanager.PolicyManager.replay;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that requests written by RequestLogWriter are read back unchanged by
+ * RequestLogReader, with their decisions, and that a log cut off mid-record can still be read.
+ */
+public class RequestLogTest {
+    private static final StackTraceElement[] MAIN_THREAD = {
+            new StackTraceElement("android.location.LocationManager",
+                                  "requestLocationUpdates", "LocationManager.java", 911),
+            new StackTraceElement("com.yelp.android.nearby.NearbyFragment",
+                                  "onResume", "NearbyFragment.java", 120),
+            new StackTraceElement("android.os.Looper", "loop", null, -2)
+    };
+
+    private static RecordedRequest dangerousRequest(long sequence, long timestampMillis) {
+        return RecordedRequest.builder(RecordedRequest.Kind.DANGEROUS_PERMISSION)
+                              .setSequence(sequence)
+                              .setTimestampMillis(timestampMillis)
+                              .setPackageName("com.yelp.android")
+                              .setPermission("android.permission.ACCESS_FINE_LOCATION")
+                              .setStacktraces(Collections.singletonList(MAIN_THREAD))
+                              .setFlags(0x80000004)
+                              .setTopActivity("com.yelp.android/.ui.MainActivity")
+                              .build();
+    }
+
+    private static RecordedRequest privateDataRequest(long sequence, long timestampMillis) {
+        return RecordedRequest.builder(RecordedRequest.Kind.PRIVATE_DATA)
+                              .setSequence(sequence)
+                              .setTimestampMillis(timestampMillis)
+                              .setPackageName("com.example.pal")
+                              .setPermission("android.permission.READ_CONTACTS")
+                              .setPurpose("microPAL.Backup")
+                              .setPalModule("contacts_backup")
+                              .setPalDescription("Backs up contacts")
+                              .build();
+    }
+
+    private static byte[] write(List<RecordedRequest> requests) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try(RequestLogWriter writer = new RequestLogWriter(bytes)) {
+            for(RecordedRequest request : requests) { writer.writeRequest(request); }
+
+            writer.writeDecision(1, true);
+            writer.writeDecision(2, false);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static List<RecordedRequest> read(byte[] log) throws IOException {
+        try(RequestLogReader reader = new RequestLogReader(new ByteArrayInputStream(log))) {
+            return reader.readAll();
+        }
+    }
+
+    @Test
+    public void testRequestLog_roundTrip() throws IOException {
+        List<RecordedRequest> requests = read(write(Arrays.asList(
+                dangerousRequest(1, 1000000L),
+                privateDataRequest(2, 1000250L),
+                dangerousRequest(3, 1000100L)
+        )));
+
+        assertEquals(3, requests.size());
+
+        RecordedRequest first = requests.get(0);
+
+        assertEquals(RecordedRequest.Kind.DANGEROUS_PERMISSION, first.kind);
+        assertEquals(1000000L, first.timestampMillis);
+        assertEquals("com.yelp.android", first.packageName);
+        assertEquals("android.permission.ACCESS_FINE_LOCATION", first.permission);
+        assertNull(first.purpose);
+        assertEquals(0x80000004, first.flags);
+        assertEquals("com.yelp.android/.ui.MainActivity", first.topActivity);
+        assertEquals(1, first.stacktraces.size());
+        assertArrayEquals(MAIN_THREAD, first.stacktraces.get(0));
+        assertEquals(RecordedRequest.Decision.ALLOWED, first.decision);
+
+        RecordedRequest second = requests.get(1);
+
+        assertEquals(RecordedRequest.Kind.PRIVATE_DATA, second.kind);
+        assertEquals(1000250L, second.timestampMillis);
+        assertEquals("microPAL.Backup", second.purpose);
+        assertEquals("contacts_backup", second.palModule);
+        assertEquals("Backs up contacts", second.palDescription);
+        assertTrue(second.stacktraces.isEmpty());
+        assertEquals(RecordedRequest.Decision.DENIED, second.decision);
+
+        RecordedRequest third = requests.get(2);
+
+        assertEquals(1000100L, third.timestampMillis);
+        assertEquals(RecordedRequest.Decision.NONE, third.decision);
+    }
+
+    @Test
+    public void testRequestLog_requestsAreSortedBySequence() throws IOException {
+        List<RecordedRequest> requests = read(write(Arrays.asList(
+                dangerousRequest(2, 2000L),
+                dangerousRequest(1, 1000L)
+        )));
+
+        assertEquals(1, requests.get(0).sequence);
+        assertEquals(1000L, requests.get(0).timestampMillis);
+        assertEquals(2, requests.get(1).sequence);
+    }
+
+    @Test
+    public void testRequestLog_repeatedStringsAreWrittenOnce() throws IOException {
+        int single = write(Collections.singletonList(dangerousRequest(1, 0L))).length;
+        int repeated = write(Arrays.asList(dangerousRequest(1, 0L),
+                                           dangerousRequest(2, 5L))).length;
+
+        /* The second request is only ids and numbers. */
+        assertTrue("second request took " + (repeated - single) + " bytes",
+                   repeated - single < 32);
+    }
+
+    @Test
+    public void testRequestLog_cutOffLogReadsCompleteRecords() throws IOException {
+        byte[] log = write(Arrays.asList(dangerousRequest(1, 1000L),
+                                         dangerousRequest(2, 2000L)));
+
+        for(int length = 5; length < log.length; length++) {
+            List<RecordedRequest> requests = read(Arrays.copyOf(log, length));
+
+            assertTrue(requests.size() <= 2);
+
+            for(RecordedRequest request : requests) {
+                assertArrayEquals(MAIN_THREAD, request.stacktraces.get(0));
+            }
+        }
+    }
+
+    @Test
+    public void testRequestLog_rejectsOtherFiles() {
+        try {
+            read("not a request log".getBytes());
+            fail("Read a file that is not a request log");
+        } catch(IOException expected) {
+            /* expected */
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package edu.cmu.policymanager.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.policymanager.DataRepository.db.model.AppInfo;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that PackageReconciler scans only the packages whose version code or last update
+ * time changed, keeps the rows of updated apps, removes apps that are gone, and remembers
+ * the packages it skipped.
+ */
+public class PackageReconcilerTest {
+    private static final String CAMERA = "android.permission.CAMERA",
+                                INTERNET = "android.permission.INTERNET";
+
+    private FakePackageSource source;
+    private FakeStore store;
+    private PackageReconciler reconciler;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        source = new FakePackageSource();
+        store = new FakeStore();
+        executor = Executors.newFixedThreadPool(3);
+        reconciler = new PackageReconciler(source, new FakeRules(), executor, 4);
+
+        for(int i = 0; i < 20; i++) {
+            source.install("com.example.app" + i, 1, 1000L, i % 4 == 0 ? INTERNET : CAMERA);
+        }
+
+        source.install("android.system", 1, 1000L, CAMERA);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPackageReconciler_firstRunScansEverything() {
+        PackageReconciler.Summary summary = reconciler.reconcile(store);
+
+        assertEquals(21, summary.installed);
+        assertEquals(15, summary.added);
+        assertEquals(5, summary.skipped);
+        assertEquals(0, summary.unchanged);
+        assertEquals(15, store.apps.size());
+        assertEquals(5, store.skipped.size());
+        assertEquals(20, source.packageReads.get());
+    }
+
+    @Test
+    public void testPackageReconciler_nothingChangedNothingScanned() {
+        reconciler.reconcile(store);
+        source.packageReads.set(0);
+        store.applied = 0;
+
+        PackageReconciler.Summary summary = reconciler.reconcile(store);
+
+        assertEquals(20, summary.unchanged);
+        assertEquals(0, summary.added + summary.updated + summary.removed + summary.skipped);
+        assertEquals(0, source.packageReads.get());
+        assertEquals(0, store.applied);
+    }
+
+    @Test
+    public void testPackageReconciler_onlyChangedPackagesAreScanned() {
+        reconciler.reconcile(store);
+        long updatedId = store.apps.get("com.example.app1").id;
+        source.packageReads.set(0);
+        store.applied = 0;
+
+        source.install("com.example.app1", 2, 2000L, CAMERA);      /* updated */
+        source.install("com.example.app2", 1, 3000L, CAMERA);      /* restored */
+        source.uninstall("com.example.app3");
+        source.install("com.example.new", 1, 4000L, CAMERA);
+        source.install("com.example.app4", 2, 5000L, CAMERA);      /* skipped, now sensitive */
+
+        PackageReconciler.Summary summary = reconciler.reconcile(store);
+
+        assertEquals(4, source.packageReads.get());
+        assertEquals(2, summary.added);
+        assertEquals(2, summary.updated);
+        assertEquals(1, summary.removed);
+        assertEquals(1, store.applied);
+
+        AppInfo updated = store.apps.get("com.example.app1");
+        assertEquals(updatedId, updated.id);
+        assertEquals(2, updated.versionCode);
+        assertEquals(2000L, updated.lastUpdateTime);
+        assertFalse(store.apps.containsKey("com.example.app3"));
+        assertTrue(store.apps.containsKey("com.example.new"));
+        assertTrue(store.apps.containsKey("com.example.app4"));
+        assertFalse(store.skipped.containsKey("com.example.app4"));
+    }
+
+    @Test
+    public void testPackageReconciler_appThatDropsSensitivePermissionsIsRestamped() {
+        reconciler.reconcile(store);
+        source.install("com.example.app1", 2, 2000L, INTERNET);
+
+        PackageReconciler.Summary summary = reconciler.reconcile(store);
+
+        assertEquals(1, summary.updated);
+        assertEquals(1, store.restamped);
+        assertEquals(2, store.apps.get("com.example.app1").versionCode);
+        assertNull(store.skipped.get("com.example.app1"));
+    }
+
+    private static final class FakePackageSource implements PackageSource {
+        private final Map<String, InstalledPackage> mPackages =
+                new LinkedHashMap<String, InstalledPackage>();
+        private final AtomicInteger packageReads = new AtomicInteger();
+
+        private void install(String packageName, int versionCode, long lastUpdateTime,
+                             String permission) {
+            mPackages.put(packageName, new InstalledPackage(packageName,
+                                                            packageName,
+                                                            String.valueOf(versionCode),
+                                                            versionCode,
+                                                            lastUpdateTime,
+                                                            new String[] { permission }));
+        }
+
+        private void uninstall(String packageName) { mPackages.remove(packageName); }
+
+        @Override
+        public List<String> getInstalledPackageNames() {
+            return new ArrayList<String>(mPackages.keySet());
+        }
+
+        @Override
+        public Map<String, PackageVersion> getInstalledVersions() {
+            Map<String, PackageVersion> versions = new LinkedHashMap<String, PackageVersion>();
+
+            for(InstalledPackage installed : mPackages.values()) {
+                versions.put(installed.packageName,
+                             new PackageVersion(installed.versionCode,
+                                                installed.lastUpdateTime));
+            }
+
+            return versions;
+        }
+
+        @Override
+        public InstalledPackage getPackage(String packageName) {
+            packageReads.incrementAndGet();
+            return mPackages.get(packageName);
+        }
+
+        @Override
+        public PermissionDetails getPermission(String permissionName) {
+            return new PermissionDetails(1, permissionName);
+        }
+    }
+
+    private static final class FakeRules implements PackageScanner.Rules {
+        @Override
+        public boolean isSystemApp(String packageName) {
+            return packageName.startsWith("android.");
+        }
+
+        @Override
+        public boolean isSensitive(String permissionName) {
+            return permissionName.equals(CAMERA);
+        }
+
+        @Override
+        public PolicyProfileSetting defaultSetting(String packageName, String permissionName) {
+            PolicyProfileSetting setting = new PolicyProfileSetting();
+            setting.app = packageName;
+            setting.permission = permissionName;
+
+            return setting;
+        }
+    }
+
+    private static final class FakeStore implements PackageReconciler.Store {
+        private final Map<String, AppInfo> apps = new ConcurrentHashMap<String, AppInfo>();
+        private Map<String, PackageSource.PackageVersion> skipped =
+                new HashMap<String, PackageSource.PackageVersion>();
+        private long nextId = 1;
+        private int applied, restamped;
+
+        @Override
+        public List<AppInfo> getApps() { return new ArrayList<AppInfo>(apps.values()); }
+
+        @Override
+        public Map<String, PackageSource.PackageVersion> getSkippedPackages() {
+            return new HashMap<String, PackageSource.PackageVersion>(skipped);
+        }
+
+        @Override
+        public void apply(PackageReconciler.Changes changes) {
+            applied++;
+
+            for(String packageName : changes.removed) { apps.remove(packageName); }
+
+            for(PackageScanner.ScannedApp scanned : changes.added) {
+                scanned.app.id = nextId++;
+                apps.put(scanned.app.packageName, scanned.app);
+            }
+
+            for(PackageScanner.ScannedApp scanned : changes.updated) {
+                apps.put(scanned.app.packageName, scanned.app);
+            }
+
+            for(Map.Entry<String, PackageSource.PackageVersion> entry :
+                    changes.restamped.entrySet()) {
+                AppInfo app = apps.get(entry.getKey());
+                app.versionCode = entry.getValue().versionCode;
+                app.lastUpdateTime = entry.getValue().lastUpdateTime;
+                restamped++;
+            }
+
+            if(changes.skipped != null) {
+                skipped = new HashMap<String, PackageSource.PackageVersion>(changes.skipped);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package edu.cmu.policymanager.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that PackageScanner finds the same apps in the same order whatever the number of
+ * workers, reads each permission once per scan, hands the apps over in batches, and finishes
+ * on the calling thread when the executor runs none of its workers.
+ */
+public class PackageScannerTest {
+    private static final int PACKAGES = 1000;
+    private static final String[] PERMISSIONS = {
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.CAMERA",
+            "android.permission.INTERNET",
+            "android.permission.READ_CONTACTS",
+            "android.permission.RECORD_AUDIO",
+            "com.example.permission.UNKNOWN"
+    };
+
+    private FakePackageSource source;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        source = new FakePackageSource();
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPackageScanner_sameAppsForAnyWorkerCount() {
+        List<PackageScanner.ScannedApp> serial =
+                new PackageScanner(source, new FakeRules(), executor, 1, 50)
+                        .scan(new CountingSink());
+        List<PackageScanner.ScannedApp> parallel =
+                new PackageScanner(source, new FakeRules(), executor, 4, 50)
+                        .scan(new CountingSink());
+
+        assertEquals(serial.size(), parallel.size());
+
+        for(int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).app.packageName, parallel.get(i).app.packageName);
+            assertEquals(serial.get(i).permissions.size(), parallel.get(i).permissions.size());
+            assertEquals(serial.get(i).settings.size(), parallel.get(i).settings.size());
+        }
+    }
+
+    @Test
+    public void testPackageScanner_skipsSystemAppsAndAppsWithoutSensitivePermissions() {
+        List<PackageScanner.ScannedApp> found =
+                new PackageScanner(source, new FakeRules(), executor, 4, 50)
+                        .scan(new CountingSink());
+
+        for(PackageScanner.ScannedApp scanned : found) {
+            assertTrue(!scanned.app.packageName.startsWith("android."));
+            assertTrue(!scanned.permissions.isEmpty());
+
+            for(int i = 1; i < scanned.permissions.size(); i++) {
+                assertTrue(scanned.permissions.get(i - 1).permissionName.compareTo(
+                        scanned.permissions.get(i).permissionName) < 0);
+            }
+        }
+
+        /* Every tenth package is a system app; every seventh requests only INTERNET. */
+        int expected = 0;
+        for(int i = 0; i < PACKAGES; i++) { if(i % 10 != 0 && i % 7 != 0) { expected++; } }
+
+        assertEquals(expected, found.size());
+    }
+
+    @Test
+    public void testPackageScanner_readsEachPermissionOnce() {
+        PackageScanner scanner = new PackageScanner(source, new FakeRules(), executor, 8, 50);
+        scanner.scan(new CountingSink());
+
+        for(String permission : PERMISSIONS) {
+            AtomicInteger lookups = source.permissionLookups.get(permission);
+
+            if(new FakeRules().isSensitive(permission)) {
+                assertEquals(permission, 1, lookups.get());
+            } else {
+                assertNull(permission, lookups);
+            }
+        }
+
+        assertEquals(PERMISSIONS.length - 1, scanner.getPermissionLookupCount());
+    }
+
+    @Test
+    public void testPackageScanner_unknownPermissionGetsDefaultDescription() {
+        List<PackageScanner.ScannedApp> found =
+                new PackageScanner(source, new FakeRules(), executor, 2, 50)
+                        .scan(new CountingSink());
+
+        boolean sawUnknown = false;
+
+        for(PackageScanner.ScannedApp scanned : found) {
+            for(edu.cmu.policymanager.DataRepository.db.model.PermissionInfo permission :
+                    scanned.permissions) {
+                if(permission.permissionName.equals(PERMISSIONS[5])) {
+                    sawUnknown = true;
+                    assertEquals(0, permission.protectionLevel);
+                    assertEquals("No description available for: " + PERMISSIONS[5],
+                                 permission.permissionDescription);
+                }
+            }
+        }
+
+        assertTrue(sawUnknown);
+    }
+
+    @Test
+    public void testPackageScanner_finishesWhenExecutorIsBusy() {
+        Executor neverRuns = new Executor() {
+            @Override
+            public void execute(Runnable task) {}
+        };
+
+        List<PackageScanner.ScannedApp> serial =
+                new PackageScanner(source, new FakeRules(), executor, 1, 50)
+                        .scan(new CountingSink());
+        List<PackageScanner.ScannedApp> busy =
+                new PackageScanner(source, new FakeRules(), neverRuns, 4, 50)
+                        .scan(new CountingSink());
+
+        assertEquals(serial.size(), busy.size());
+
+        for(int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).app.packageName, busy.get(i).app.packageName);
+        }
+    }
+
+    @Test
+    public void testPackageScanner_commitsInBatches() {
+        CountingSink sink = new CountingSink();
+        List<PackageScanner.ScannedApp> found =
+                new PackageScanner(source, new FakeRules(), executor, 4, 64).scan(sink);
+
+        assertEquals((found.size() + 63) / 64, sink.batches.size());
+        assertEquals(found.size(), sink.apps);
+
+        for(int i = 0; i < sink.batches.size() - 1; i++) {
+            assertEquals(64, (int)sink.batches.get(i));
+        }
+    }
+
+    private static final class FakePackageSource implements PackageSource {
+        private final ConcurrentHashMap<String, AtomicInteger> permissionLookups =
+                new ConcurrentHashMap<String, AtomicInteger>();
+
+        @Override
+        public List<String> getInstalledPackageNames() {
+            List<String> names = new ArrayList<String>(PACKAGES);
+
+            for(int i = 0; i < PACKAGES; i++) {
+                names.add((i % 10 == 0 ? "android.system" : "com.example.app") + i);
+            }
+
+            return names;
+        }
+
+        @Override
+        public Map<String, PackageVersion> getInstalledVersions() {
+            Map<String, PackageVersion> versions = new LinkedHashMap<String, PackageVersion>();
+
+            for(String name : getInstalledPackageNames()) {
+                versions.put(name, new PackageVersion(1, 0));
+            }
+
+            return versions;
+        }
+
+        @Override
+        public InstalledPackage getPackage(String packageName) {
+            int i = Integer.parseInt(packageName.replaceAll("\\D", ""));
+            String[] requested;
+
+            if(i % 7 == 0) {
+                requested = new String[] { PERMISSIONS[2] };
+            } else {
+                /* A few permissions per app, in no particular order. */
+                requested = new String[] { PERMISSIONS[(i + 3) % 6],
+                                           PERMISSIONS[2],
+                                           PERMISSIONS[i % 6] };
+                if(requested[0].equals(requested[2])) { requested[2] = PERMISSIONS[1]; }
+            }
+
+            return new InstalledPackage(packageName, "App " + i, "1.0", i, 0, requested);
+        }
+
+        @Override
+        public PermissionDetails getPermission(String permissionName) {
+            AtomicInteger lookups = permissionLookups.get(permissionName);
+
+            if(lookups == null) {
+                permissionLookups.putIfAbsent(permissionName, new AtomicInteger());
+                lookups = permissionLookups.get(permissionName);
+            }
+
+            lookups.incrementAndGet();
+
+            if(permissionName.startsWith("com.example")) { return null; }
+
+            return new PermissionDetails(1, "Lets the app use " + permissionName);
+        }
+    }
+
+    private static final class FakeRules implements PackageScanner.Rules {
+        @Override
+        public boolean isSystemApp(String packageName) {
+            return packageName.startsWith("android.");
+        }
+
+        @Override
+        public boolean isSensitive(String permissionName) {
+            return !permissionName.equals(PERMISSIONS[2]);
+        }
+
+        @Override
+        public PolicyProfileSetting defaultSetting(String packageName, String permissionName) {
+            if(permissionName.startsWith("com.example")) { return null; }
+
+            PolicyProfileSetting setting = new PolicyProfileSetting();
+            setting.app = packageName;
+            setting.permission = permissionName;
+
+            return setting;
+        }
+    }
+
+    private static final class CountingSink implements PackageScanner.Sink {
+        private final List<Integer> batches = new ArrayList<Integer>();
+        private int apps;
+
+        @Override
+        public void commit(List<PackageScanner.ScannedApp> batch) {
+            batches.add(batch.size());
+            apps += batch.size();
+        }
+    }
+}
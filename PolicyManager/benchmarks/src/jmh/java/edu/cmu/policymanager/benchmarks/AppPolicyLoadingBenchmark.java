@@ -0,0 +1,130 @@
+package edu.cmu.policymanager.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import edu.cmu.policymanager.DataRepository.db.model.OffDevicePolicyDBModel;
+import edu.cmu.policymanager.DataRepository.network.AppPolicyStream;
+
+/**
+ * Decoding the bundled app policies of the emulated Play store, and a synthetic corpus 100
+ * times its size, where every app is repeated under a new package name.
+ *
+ * buildJsonObjects does what GooglePlayStore.installAppPolicies used to: build a Gson
+ * JsonObject for each app and turn its policies back into a string. streamIntoRows is
+ * AppPolicyStream, which copies the policies straight into the row. Inserting the rows
+ * needs Room and so is only timed on a device, in the INSTALL_APP_POLICIES startup stage.
+ * */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AppPolicyLoadingBenchmark {
+    @Param({ "1", "100" })
+    public int scale;
+
+    private String mCorpus;
+
+    @Setup
+    public void setup() throws IOException {
+        String bundled = new String(
+                Files.readAllBytes(Paths.get(System.getProperty("policymanager.appPolicies"))),
+                StandardCharsets.UTF_8
+        ).trim();
+
+        if(scale == 1) {
+            mCorpus = bundled;
+            return;
+        }
+
+        /* Drop the brackets and repeat the apps, renaming each copy's package. */
+        String apps = bundled.substring(1, bundled.length() - 1).trim();
+        StringBuilder corpus = new StringBuilder(bundled.length() * scale).append('[');
+
+        for(int i = 0; i < scale; i++) {
+            if(i > 0) { corpus.append(','); }
+            corpus.append(apps.replace("\"package\": \"", "\"package\": \"copy" + i + "."));
+        }
+
+        mCorpus = corpus.append(']').toString();
+    }
+
+    @Benchmark
+    public int streamIntoRows() throws IOException {
+        final int[] rows = new int[1];
+
+        AppPolicyStream.read(new StringReader(mCorpus),
+                             AppPolicyStream.DEFAULT_BATCH_SIZE,
+                             new AppPolicyStream.BatchConsumer() {
+            @Override
+            public void accept(List<OffDevicePolicyDBModel> batch) { rows[0] += batch.size(); }
+        });
+
+        return rows[0];
+    }
+
+    @Benchmark
+    public int buildJsonObjects() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(mCorpus));
+        int length = 0;
+
+        reader.beginArray();
+
+        while(reader.hasNext()) {
+            JsonObject appPolicy = new JsonObject();
+            JsonArray policies = new JsonArray();
+
+            reader.beginObject();
+
+            while(reader.hasNext()) {
+                String key = reader.nextName();
+
+                if(key.equals("policies")) {
+                    reader.beginArray();
+
+                    while(reader.hasNext()) {
+                        JsonObject policy = new JsonObject();
+                        reader.beginObject();
+
+                        while(reader.hasNext()) {
+                            policy.addProperty(reader.nextName(), reader.nextString());
+                        }
+
+                        reader.endObject();
+                        policies.add(policy);
+                    }
+
+                    reader.endArray();
+                    appPolicy.add(key, policies);
+                } else {
+                    appPolicy.addProperty(key, reader.nextString());
+                }
+            }
+
+            reader.endObject();
+
+            OffDevicePolicyDBModel row = new OffDevicePolicyDBModel();
+            row.packageName = appPolicy.get("package").getAsString();
+            row.odp = appPolicy.get("policies").toString();
+            length += row.odp.length();
+        }
+
+        reader.endArray();
+
+        return length;
+    }
+}
@@ -0,0 +1,193 @@
+package edu.cmu.policymanager.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+
+/**
+ * Off-device policies and policy settings for the benchmarks. The policies are in the format
+ * of the instrumentation tests' ODPFactory; the settings look like what an install plus some
+ * user configuration leaves in the policyprofilesetting table.
+ * */
+public final class BenchmarkPolicies {
+    public static final String DEFAULT_PROFILE = "Default User Profile",
+                               ORGANIZATIONAL_PROFILE = "Organizational Profile",
+                               ALL = "*",
+                               APP_INTERNAL_USE = "App Internal Usage",
+                               THIRD_PARTY_USE = "Third Party Use";
+
+    public static final String[] PERMISSIONS = {
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.ACCESS_COARSE_LOCATION",
+            "android.permission.RECORD_AUDIO",
+            "android.permission.CAMERA",
+            "android.permission.READ_CONTACTS",
+            "android.permission.READ_CALENDAR",
+            "android.permission.READ_PHONE_STATE",
+            "android.permission.READ_EXTERNAL_STORAGE"
+    };
+
+    public static final String[] PURPOSES = {
+            "Running Other Features",
+            "Display Advertisement",
+            "Securing Device",
+            "Search Nearby Places",
+            "Connect with Other Users",
+            "Analytics"
+    };
+
+    public static final String[] LIBRARIES = {
+            "com.mopub",
+            "com.google.android.gms.ads",
+            "com.flurry.android",
+            "com.appsflyer",
+            APP_INTERNAL_USE,
+            THIRD_PARTY_USE
+    };
+
+    private static final String[] ACTIONS = { "ALLOW", "DENY", "ASK" };
+
+    private BenchmarkPolicies() {}
+
+    /**
+     * The policy of the stacktrace test app, as ODPFactory.createODPString has it.
+     * */
+    public static String testAppPolicy() {
+        return "[\n" +
+               subPolicy(PERMISSIONS[0], "Running Other Features", BenchmarkStacktraces.TEST_APP + ".MainActivity", "getLocation", "Testing the policy manager") + ",\n" +
+               subPolicy(PERMISSIONS[0], "Display Advertisement", "com.mopub.mobileads.MoPubView", "loadAd", "Generating revenue") + ",\n" +
+               subPolicy(PERMISSIONS[0], "Running Other Features", BenchmarkStacktraces.TEST_APP + ".MainActivity", "run", "Testing if we can catch this in a thread object") + ",\n" +
+               subPolicy(PERMISSIONS[0], "Securing Device", BenchmarkStacktraces.TEST_APP + ".PELocationService", "onStartCommand", "Testing if we can catch this in a service") + ",\n" +
+               subPolicy(PERMISSIONS[2], "Running Other Features", BenchmarkStacktraces.TEST_APP + ".MainActivity", "onCreate", "Testing the policy manager") + "\n" +
+               "]";
+    }
+
+    /**
+     * A policy with count location call sites, one per feature of a large app. Call site i
+     * is class feature{i}.FeatureActivity, method onFeatureUsed, which is what
+     * BenchmarkStacktraces.deep puts in its traces.
+     * */
+    public static String largePolicy(int count) {
+        StringBuilder policy = new StringBuilder("[\n");
+
+        for(int i = 0; i < count; i++) {
+            if(i > 0) { policy.append(",\n"); }
+
+            policy.append(subPolicy(PERMISSIONS[i % 2],
+                                    PURPOSES[i % PURPOSES.length],
+                                    BenchmarkStacktraces.TEST_APP + ".feature" + i + ".FeatureActivity",
+                                    "onFeatureUsed",
+                                    "Feature " + i));
+        }
+
+        return policy.append("\n]").toString();
+    }
+
+    /**
+     * Settings for apps installed with a policy for every permission and purpose they use,
+     * plus some global settings and an organizational profile.
+     *
+     * @param apps the number of apps
+     * @param seed seed for the random settings
+     * */
+    public static List<PolicyProfileSetting> settings(int apps, long seed) {
+        Random random = new Random(seed);
+        List<PolicyProfileSetting> settings = new ArrayList<PolicyProfileSetting>();
+        long id = 1;
+
+        for(String permission : PERMISSIONS) {
+            settings.add(setting(id++, DEFAULT_PROFILE, ALL, permission, ALL, ALL, "ASK", -1L));
+            settings.add(setting(id++, ORGANIZATIONAL_PROFILE, ALL, permission, ALL, ALL, "DENY", -1L));
+        }
+
+        for(int app = 0; app < apps; app++) {
+            for(int i = 0; i < 6; i++) {
+                settings.add(setting(id++,
+                                     DEFAULT_PROFILE,
+                                     appName(app),
+                                     PERMISSIONS[random.nextInt(PERMISSIONS.length)],
+                                     PURPOSES[random.nextInt(PURPOSES.length)],
+                                     LIBRARIES[random.nextInt(LIBRARIES.length)],
+                                     ACTIONS[random.nextInt(ACTIONS.length)],
+                                     random.nextBoolean() ? -1L : random.nextInt(1000000)));
+            }
+        }
+
+        return settings;
+    }
+
+    /**
+     * Settings for a stack of profiles: each layer denies or asks for one permission for
+     * every app, and has settings of its own for a share of the apps.
+     *
+     * @param layers the number of profiles
+     * @param apps the number of apps
+     * @param seed seed for the random settings
+     * */
+    public static List<PolicyProfileSetting> layeredSettings(int layers, int apps, long seed) {
+        Random random = new Random(seed);
+        List<PolicyProfileSetting> settings = new ArrayList<PolicyProfileSetting>();
+        long id = 1;
+
+        for(int layer = 0; layer < layers; layer++) {
+            String profile = layerName(layer);
+
+            settings.add(setting(id++, profile, ALL, PERMISSIONS[layer % PERMISSIONS.length],
+                                 ALL, ALL, layer % 2 == 0 ? "DENY" : "ASK", -1L));
+
+            for(int app = layer; app < apps; app += 4) {
+                settings.add(setting(id++,
+                                     profile,
+                                     appName(app),
+                                     PERMISSIONS[random.nextInt(PERMISSIONS.length)],
+                                     PURPOSES[random.nextInt(PURPOSES.length)],
+                                     LIBRARIES[random.nextInt(LIBRARIES.length)],
+                                     ACTIONS[random.nextInt(ACTIONS.length)],
+                                     random.nextInt(1000000)));
+            }
+        }
+
+        return settings;
+    }
+
+    public static String appName(int app) { return "com.example.app" + app; }
+
+    public static String layerName(int layer) { return "Layer Profile " + layer; }
+
+    private static PolicyProfileSetting setting(long id,
+                                                String profile,
+                                                String app,
+                                                String permission,
+                                                String purpose,
+                                                String library,
+                                                String action,
+                                                long lastUpdated) {
+        PolicyProfileSetting setting = new PolicyProfileSetting();
+        setting.id = id;
+        setting.profileName = profile;
+        setting.app = app;
+        setting.permission = permission;
+        setting.purpose = purpose;
+        setting.thirdPartyLibrary = library;
+        setting.policyAction = action;
+        setting.lastUpdated = lastUpdated;
+
+        return setting;
+    }
+
+    private static String subPolicy(String permission,
+                                    String purpose,
+                                    String className,
+                                    String method,
+                                    String comment) {
+        return "\t{\n" +
+               "\t\t\"uses\": \"" + permission + "\",\n" +
+               "\t\t\"purpose\": \"" + purpose + "\",\n" +
+               "\t\t\"class\": \"" + className + "\",\n" +
+               "\t\t\"method\": \"" + method + "\",\n" +
+               "\t\t\"for\": \"" + comment + "\"\n" +
+               "\t}";
+    }
+}
@@ -0,0 +1,116 @@
+package edu.cmu.policymanager.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Stacktraces for the benchmarks, in the style of the instrumentation tests'
+ * StackTraceFactory. The first three are the traces collected from the stacktrace test app;
+ * the deep ones are generated, to look like requests that come out of a large app with a few
+ * SDKs and a lot of framework frames.
+ * */
+public final class BenchmarkStacktraces {
+    public static final String TEST_APP = "edu.cmu.chimpslab.stacktracetest";
+
+    private static final String[] FRAMEWORK_CLASSES = {
+            "android.os.Handler",
+            "android.os.Looper",
+            "android.app.ActivityThread",
+            "android.view.View",
+            "android.view.ViewGroup",
+            "java.util.concurrent.ThreadPoolExecutor",
+            "java.util.concurrent.FutureTask",
+            "java.lang.reflect.Method",
+            "com.android.internal.os.RuntimeInit$MethodAndArgsCaller",
+            "com.android.internal.os.ZygoteInit"
+    };
+
+    private static final String[] FRAMEWORK_METHODS = {
+            "dispatchMessage", "loop", "main", "performClick", "dispatchTouchEvent",
+            "runWorker", "run", "invoke", "handleCallback", "call"
+    };
+
+    private BenchmarkStacktraces() {}
+
+    public static StackTraceElement[] advertising() {
+        return new StackTraceElement[] {
+                new StackTraceElement("android.location.LocationManager", "getLastKnownLocation", "LocationManager.java", 1414),
+                new StackTraceElement("com.mopub.common.LocationService", "getLocationFromProvider", "LocationService.java", 218),
+                new StackTraceElement("com.mopub.common.LocationService", "getLastKnownLocation", "LocationService.java", 181),
+                new StackTraceElement("com.mopub.common.AdUrlGenerator", "setLocation", "AdUrlGenerator.java", 207),
+                new StackTraceElement("com.mopub.common.AdUrlGenerator", "addBaseParams", "AdUrlGenerator.java", 336),
+                new StackTraceElement("com.mopub.mobileads.WebViewAdUrlGenerator", "generateUrlString", "WebViewAdUrlGenerator.java", 30),
+                new StackTraceElement("com.mopub.mobileads.AdViewController", "generateAdUrl", "AdViewController.java", 582),
+                new StackTraceElement("com.mopub.mobileads.AdViewController", "internalLoadAd", "AdViewController.java", 262),
+                new StackTraceElement("com.mopub.mobileads.AdViewController", "loadAd", "AdViewController.java", 244),
+                new StackTraceElement("com.mopub.mobileads.MoPubView", "loadAd", "MoPubView.java", 213),
+                new StackTraceElement(TEST_APP + ".MainActivity$2", "onInitializationFinished", "MainActivity.java", 89),
+                new StackTraceElement("com.mopub.common.MoPub$1", "run", "MoPub.java", 377),
+                new StackTraceElement("android.os.Handler", "handleCallback", "Handler.java", 873),
+                new StackTraceElement("android.os.Handler", "dispatchMessage", "Handler.java", 99),
+                new StackTraceElement("android.os.Looper", "loop", "Looper.java", 193),
+                new StackTraceElement("android.app.ActivityThread", "main", "ActivityThread.java", 6718),
+                new StackTraceElement("java.lang.reflect.Method", "invoke", "", 1),
+                new StackTraceElement("com.android.internal.os.RuntimeInit$MethodAndArgsCaller", "run", "RuntimeInit.java", 493),
+                new StackTraceElement("com.android.internal.os.ZygoteInit", "main", "ZygoteInit.java", 858)
+        };
+    }
+
+    public static StackTraceElement[] internalMicrophone() {
+        return new StackTraceElement[] {
+                new StackTraceElement("android.media.MediaRecorder", "start", "", 1),
+                new StackTraceElement(TEST_APP + ".MainActivity", "onCreate", "MainActivity.java", 1),
+                new StackTraceElement("android.os.Handler", "dispatchMessage", "Handler.java", 106),
+                new StackTraceElement("android.os.Looper", "loop", "Looper.java", 164),
+                new StackTraceElement("android.app.ActivityThread", "main", "ActivityThread.java", 6494),
+                new StackTraceElement("java.lang.reflect.Method", "invoke", "", 1),
+                new StackTraceElement("com.android.internal.os.RuntimeInit$MethodAndArgsCaller", "run", "RuntimeInit.java", 438),
+                new StackTraceElement("com.android.internal.os.ZygoteInit", "main", "ZygoteInit.java", 807)
+        };
+    }
+
+    public static StackTraceElement[] noPurpose() {
+        return new StackTraceElement[] {
+                new StackTraceElement("java.lang.Object", "wait", "", 1),
+                new StackTraceElement("java.lang.Thread", "parkFor$", "Thread.java", 2142),
+                new StackTraceElement("sun.misc.Unsafe", "park", "Unsafe.java", 358),
+                new StackTraceElement("java.util.concurrent.locks.LockSupport", "parkNanos", "LockSupport.java", 230),
+                new StackTraceElement("java.util.concurrent.SynchronousQueue$TransferStack", "awaitFulfill", "SynchronousQueue.java", 461),
+                new StackTraceElement("java.util.concurrent.SynchronousQueue$TransferStack", "transfer", "SynchronousQueue.java", 362),
+                new StackTraceElement("java.util.concurrent.SynchronousQueue", "poll", "SynchronousQueue.java", 937),
+                new StackTraceElement("java.util.concurrent.ThreadPoolExecutor", "getTask", "ThreadPoolExecutor.java", 1086),
+                new StackTraceElement("java.util.concurrent.ThreadPoolExecutor", "runWorker", "ThreadPoolExecutor.java", 1147),
+                new StackTraceElement("java.util.concurrent.ThreadPoolExecutor$Worker", "run", "ThreadPoolExecutor.java", 636),
+                new StackTraceElement("X.0Y7", "run", "", 88624),
+                new StackTraceElement("java.lang.Thread", "run", "Thread.java", 766)
+        };
+    }
+
+    /**
+     * A trace of depth frames: the permission call on top, then a mix of app and framework
+     * frames, with the app's call site (class feature{site}.FeatureActivity, method
+     * onFeatureUsed) about halfway down.
+     *
+     * @param depth the number of frames, at least 4
+     * @param site the index of the call site the trace should match
+     * @param seed seed for the random frames
+     * */
+    public static StackTraceElement[] deep(int depth, int site, long seed) {
+        Random random = new Random(seed);
+        StackTraceElement[] frames = new StackTraceElement[depth];
+
+        frames[0] = new StackTraceElement("android.location.LocationManager", "requestLocationUpdates", "LocationManager.java", 1);
+
+        for(int i = 1; i < depth; i++) {
+            if(i == depth / 2) {
+                frames[i] = new StackTraceElement(TEST_APP + ".feature" + site + ".FeatureActivity", "onFeatureUsed", "FeatureActivity.java", i);
+            } else if(random.nextInt(4) == 0) {
+                frames[i] = new StackTraceElement(TEST_APP + ".util.Helper" + random.nextInt(50), "call" + random.nextInt(10), "Helper.java", i);
+            } else {
+                int framework = random.nextInt(FRAMEWORK_CLASSES.length);
+                frames[i] = new StackTraceElement(FRAMEWORK_CLASSES[framework], FRAMEWORK_METHODS[framework], "", i);
+            }
+        }
+
+        return frames;
+    }
+}
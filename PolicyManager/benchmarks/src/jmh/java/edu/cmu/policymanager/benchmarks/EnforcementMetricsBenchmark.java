@@ -0,0 +1,24 @@
+package edu.cmu.policymanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import edu.cmu.policymanager.PolicyManager.metrics.LatencyHistogram;
+
+/**
+ * The cost the enforcement metrics add to every stage of a request: one histogram record,
+ * from a single thread and from several threads recording into the same histogram.
+ * */
+@State(Scope.Benchmark)
+public class EnforcementMetricsBenchmark {
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+    @Benchmark
+    public void recordLatency() { mHistogram.record(System.nanoTime() & 0xFFFFF); }
+
+    @Benchmark
+    @Threads(4)
+    public void recordLatencyContended() { mHistogram.record(System.nanoTime() & 0xFFFFF); }
+}
@@ -0,0 +1,103 @@
+package edu.cmu.policymanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import edu.cmu.policymanager.PolicyManager.libraries.LibrarySignatureMatcher;
+
+/**
+ * Finding the third party library in a stacktrace, as ThirdPartyLibraries.getLibraryInStacktrace
+ * does, with the current library registry and with registries padded to 500 and 5,000
+ * signatures. The loop benchmarks run the nested String.contains loop StackTraceAnalysis used
+ * before LibrarySignatureMatcher, for comparison.
+ * */
+@State(Scope.Benchmark)
+public class LibraryMatchingBenchmark {
+    /**
+     * The signatures of ThirdPartyLibraries.AS_LIST, in order.
+     * */
+    public static final String[] REGISTRY = {
+            "com.google.android.gms.ads",
+            "com.adcolony",
+            "com.chartboost",
+            "com.mopub",
+            "com.vungle",
+            "com.millennialmedia",
+            "com.inmobi.monetization",
+            "com.amazon.device.ads",
+            "com.startapp",
+            "com.fyber",
+            "org.nexage.sourcekit",
+            "com.taboola.android",
+            "com.appnext.sdk",
+            "com.appsflyer",
+            "com.flurry.android"
+    };
+
+    private static final String[] TLDS = { "com", "io", "net", "org" },
+                                  WORDS = { "ads", "analytics", "sdk", "track", "mobile",
+                                            "media", "metrics", "push", "social", "core" };
+
+    @Param({ "15", "500", "5000" })
+    public int signatures;
+
+    private String[] mSignatures;
+    private LibrarySignatureMatcher mMatcher;
+    private StackTraceElement[] mAdvertising, mInternal, mDeep;
+
+    @Setup
+    public void setup() {
+        mSignatures = signatures(signatures, 1L);
+        mMatcher = new LibrarySignatureMatcher(mSignatures);
+        mAdvertising = BenchmarkStacktraces.advertising();
+        mInternal = BenchmarkStacktraces.internalMicrophone();
+        mDeep = BenchmarkStacktraces.deep(80, 3, 7L);
+    }
+
+    @Benchmark
+    public int advertisingTrace() { return mMatcher.firstMatchIn(mAdvertising); }
+
+    @Benchmark
+    public int internalTrace() { return mMatcher.firstMatchIn(mInternal); }
+
+    @Benchmark
+    public int deepTraceWithoutLibrary() { return mMatcher.firstMatchIn(mDeep); }
+
+    @Benchmark
+    public int loopAdvertisingTrace() { return loopMatch(mSignatures, mAdvertising); }
+
+    @Benchmark
+    public int loopInternalTrace() { return loopMatch(mSignatures, mInternal); }
+
+    private static int loopMatch(String[] signatures, StackTraceElement[] frames) {
+        for(StackTraceElement frame : frames) {
+            for(int i = 0; i < signatures.length; i++) {
+                if(frame.getClassName().contains(signatures[i])) { return i; }
+            }
+        }
+
+        return LibrarySignatureMatcher.NO_MATCH;
+    }
+
+    /**
+     * The registry followed by generated SDK package names, count signatures in total.
+     * */
+    static String[] signatures(int count, long seed) {
+        Random random = new Random(seed);
+        String[] signatures = new String[count];
+
+        for(int i = 0; i < count; i++) {
+            signatures[i] = i < REGISTRY.length ?
+                            REGISTRY[i] :
+                            TLDS[random.nextInt(TLDS.length)] + ".vendor" + i + "." +
+                            WORDS[random.nextInt(WORDS.length)];
+        }
+
+        return signatures;
+    }
+}
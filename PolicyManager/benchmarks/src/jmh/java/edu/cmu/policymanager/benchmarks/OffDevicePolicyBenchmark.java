@@ -0,0 +1,146 @@
+package edu.cmu.policymanager.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.cmu.policymanager.PolicyManager.policies.OdpCallSiteMatcher;
+
+/**
+ * Parsing an off-device policy and finding the call site of a request in it.
+ *
+ * OffDevicePolicy itself reads app manifests through the PackageManager, so it cannot be
+ * loaded off a device. parse does what its constructor does: read the JSON array with
+ * org.json, group the call sites by permission (ignoring case), and compile an
+ * OdpCallSiteMatcher for each permission. The matching benchmarks use the same matcher
+ * OffDevicePolicy.findCallSite does. The contains benchmarks run the search stack trace
+ * analysis used before OdpCallSiteMatcher, turning every frame into a string and searching it
+ * for the class and method of each call site, for comparison.
+ * */
+@State(Scope.Benchmark)
+public class OffDevicePolicyBenchmark {
+    private static final String LOCATION = BenchmarkPolicies.PERMISSIONS[0];
+
+    @Param({ "5", "100", "1000" })
+    public int callSites;
+
+    private String mPolicy;
+    private OdpCallSiteMatcher mLocationSites;
+    private List<String> mLocationClasses, mLocationMethods;
+    private StackTraceElement[] mFirstSite, mLastSite, mNoSite;
+
+    @Setup
+    public void setup() throws JSONException {
+        mPolicy = callSites == 5 ? BenchmarkPolicies.testAppPolicy() :
+                                   BenchmarkPolicies.largePolicy(callSites);
+        mLocationSites = parse(mPolicy).get(LOCATION.toLowerCase(Locale.US));
+        mLocationClasses = new ArrayList<String>();
+        mLocationMethods = new ArrayList<String>();
+
+        JSONArray policyList = new JSONArray(mPolicy);
+
+        for(int i = 0; i < policyList.length(); i++) {
+            JSONObject subPolicy = policyList.getJSONObject(i);
+
+            if(LOCATION.equalsIgnoreCase(subPolicy.getString("uses"))) {
+                mLocationClasses.add(subPolicy.getString("class"));
+                mLocationMethods.add(subPolicy.getString("method"));
+            }
+        }
+
+        /* The large policies alternate fine and coarse location, so even sites are fine. */
+        int lastFineSite = (callSites - 1) / 2 * 2;
+
+        mFirstSite = BenchmarkStacktraces.deep(40, 0, 11L);
+        mLastSite = BenchmarkStacktraces.deep(40, lastFineSite, 11L);
+        mNoSite = BenchmarkStacktraces.noPurpose();
+    }
+
+    @Benchmark
+    public Map<String, OdpCallSiteMatcher> parse() throws JSONException { return parse(mPolicy); }
+
+    @Benchmark
+    public int matchFirstCallSite() { return mLocationSites.match(mFirstSite); }
+
+    @Benchmark
+    public int matchLastCallSite() { return mLocationSites.match(mLastSite); }
+
+    @Benchmark
+    public int matchNoCallSite() { return mLocationSites.match(mNoSite); }
+
+    @Benchmark
+    public int containsFirstCallSite() { return containsMatch(mFirstSite); }
+
+    @Benchmark
+    public int containsLastCallSite() { return containsMatch(mLastSite); }
+
+    @Benchmark
+    public int containsNoCallSite() { return containsMatch(mNoSite); }
+
+    private int containsMatch(StackTraceElement[] frames) {
+        for(StackTraceElement frame : frames) {
+            int site = containsSearch(frame.toString());
+
+            if(site == OdpCallSiteMatcher.NO_MATCH) { site = containsSearch("*"); }
+            if(site != OdpCallSiteMatcher.NO_MATCH) { return site; }
+        }
+
+        return OdpCallSiteMatcher.NO_MATCH;
+    }
+
+    private int containsSearch(String searchElement) {
+        for(int i = 0; i < mLocationClasses.size(); i++) {
+            if(searchElement.contains(mLocationClasses.get(i)) &&
+               searchElement.contains(mLocationMethods.get(i))) {
+                return i;
+            }
+        }
+
+        return OdpCallSiteMatcher.NO_MATCH;
+    }
+
+    static Map<String, OdpCallSiteMatcher> parse(String policy) throws JSONException {
+        JSONArray policyList = new JSONArray(policy);
+        Map<String, List<JSONObject>> byPermission = new HashMap<String, List<JSONObject>>();
+
+        for(int i = 0; i < policyList.length(); i++) {
+            JSONObject subPolicy = policyList.getJSONObject(i);
+            String permission = subPolicy.getString("uses").toLowerCase(Locale.US);
+            List<JSONObject> subPolicies = byPermission.get(permission);
+
+            if(subPolicies == null) {
+                subPolicies = new ArrayList<JSONObject>();
+                byPermission.put(permission, subPolicies);
+            }
+
+            subPolicies.add(subPolicy);
+        }
+
+        Map<String, OdpCallSiteMatcher> matchers = new HashMap<String, OdpCallSiteMatcher>();
+
+        for(Map.Entry<String, List<JSONObject>> entry : byPermission.entrySet()) {
+            List<String> classNames = new ArrayList<String>(),
+                         methods = new ArrayList<String>();
+
+            for(JSONObject subPolicy : entry.getValue()) {
+                classNames.add(subPolicy.getString("class"));
+                methods.add(subPolicy.getString("method"));
+            }
+
+            matchers.put(entry.getKey(), new OdpCallSiteMatcher(classNames, methods));
+        }
+
+        return matchers;
+    }
+}
@@ -0,0 +1,155 @@
+package edu.cmu.policymanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+import edu.cmu.policymanager.util.PackageScanner;
+import edu.cmu.policymanager.util.PackageSource;
+
+/**
+ * Scanning 1,000 installed packages against a fake PackageManager whose calls block for
+ * about as long as the binder calls they stand in for: 200 us to read a package and its
+ * label, 50 us to read a permission. Each package requests 8 of 40 permissions.
+ *
+ * serialUnmemoized does what FetchUtil.getInstalledApps used to: read the packages one at
+ * a time, and look each requested permission up twice, once for its protection level and
+ * once for its description. scan is the PackageScanner with the given number of workers:
+ * the calling thread, and the rest on a thread pool standing in for the background pool.
+ * */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PackageScannerBenchmark {
+    private static final int PACKAGES = 1000, PERMISSIONS = 40, PERMISSIONS_PER_PACKAGE = 8;
+    private static final long PACKAGE_NANOS = 200000, PERMISSION_NANOS = 50000;
+
+    @Param({ "1", "4" })
+    public int workers;
+
+    private FakePackageSource mSource;
+    private PackageScanner.Rules mRules;
+    private ExecutorService mExecutor;
+
+    @Setup
+    public void setup() {
+        mSource = new FakePackageSource();
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, workers - 1));
+        mRules = new PackageScanner.Rules() {
+            @Override
+            public boolean isSystemApp(String packageName) { return false; }
+
+            @Override
+            public boolean isSensitive(String permissionName) {
+                return permissionName.hashCode() % 2 == 0;
+            }
+
+            @Override
+            public PolicyProfileSetting defaultSetting(String packageName,
+                                                       String permissionName) {
+                PolicyProfileSetting setting = new PolicyProfileSetting();
+                setting.app = packageName;
+                setting.permission = permissionName;
+
+                return setting;
+            }
+        };
+    }
+
+    @TearDown
+    public void teardown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public int scan() {
+        return new PackageScanner(mSource,
+                                  mRules,
+                                  mExecutor,
+                                  workers,
+                                  PackageScanner.DEFAULT_BATCH_SIZE)
+                .scan(new PackageScanner.Sink() {
+                    @Override
+                    public void commit(List<PackageScanner.ScannedApp> batch) {}
+                }).size();
+    }
+
+    @Benchmark
+    public int serialUnmemoized() {
+        int found = 0;
+
+        for(String packageName : mSource.getInstalledPackageNames()) {
+            PackageSource.InstalledPackage installed = mSource.getPackage(packageName);
+            String[] requested = installed.requestedPermissions.clone();
+            boolean sensitive = false;
+
+            for(String permission : requested) {
+                mSource.getPermission(permission);
+                mSource.getPermission(permission);
+
+                if(mRules.isSensitive(permission)) {
+                    mRules.defaultSetting(packageName, permission);
+                    sensitive = true;
+                }
+            }
+
+            Arrays.sort(requested);
+            if(sensitive) { found++; }
+        }
+
+        return found;
+    }
+
+    private static final class FakePackageSource implements PackageSource {
+        private final List<String> mNames = new ArrayList<String>(PACKAGES);
+
+        private FakePackageSource() {
+            for(int i = 0; i < PACKAGES; i++) { mNames.add("com.example.app" + i); }
+        }
+
+        @Override
+        public List<String> getInstalledPackageNames() { return mNames; }
+
+        @Override
+        public Map<String, PackageVersion> getInstalledVersions() {
+            Map<String, PackageVersion> versions = new LinkedHashMap<String, PackageVersion>();
+            for(String name : mNames) { versions.put(name, new PackageVersion(1, 0)); }
+
+            return versions;
+        }
+
+        @Override
+        public InstalledPackage getPackage(String packageName) {
+            LockSupport.parkNanos(PACKAGE_NANOS);
+
+            int app = Integer.parseInt(packageName.substring("com.example.app".length()));
+            String[] requested = new String[PERMISSIONS_PER_PACKAGE];
+
+            for(int i = 0; i < requested.length; i++) {
+                requested[i] = "android.permission.P" + (app * 7 + i * 5) % PERMISSIONS;
+            }
+
+            return new InstalledPackage(packageName, "App " + app, "1.0", app, 0, requested);
+        }
+
+        @Override
+        public PermissionDetails getPermission(String permissionName) {
+            LockSupport.parkNanos(PERMISSION_NANOS);
+            return new PermissionDetails(1, "Lets the app use " + permissionName);
+        }
+    }
+}
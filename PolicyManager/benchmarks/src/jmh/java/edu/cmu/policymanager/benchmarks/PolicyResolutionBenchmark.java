@@ -0,0 +1,154 @@
+package edu.cmu.policymanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.db.model.AskPolicySetting;
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+import edu.cmu.policymanager.DataRepository.memory.AskDecisionStore;
+import edu.cmu.policymanager.DataRepository.memory.CompiledPolicyTable;
+import edu.cmu.policymanager.DataRepository.memory.PolicyDecisionCache;
+import edu.cmu.policymanager.DataRepository.memory.ProfileSnapshot;
+import edu.cmu.policymanager.PolicyManager.enforcement.QuickSettingState;
+
+/**
+ * Resolving the policy for a request against the in-memory stores the DataRepository keeps
+ * next to the database: the compiled policy table, the decision cache in front of it, the
+ * store of recent ASK answers, and the quick settings. The active profile benchmarks resolve
+ * through the organizational profile's snapshot first, as enforcement does when it is active.
+ * */
+@State(Scope.Benchmark)
+public class PolicyResolutionBenchmark {
+    @Param({ "50", "500" })
+    public int apps;
+
+    private CompiledPolicyTable mTable;
+    private PolicyDecisionCache mCache;
+    private AskDecisionStore mAskDecisions;
+    private QuickSettingState mQuickSettings;
+    private PolicyProfileSetting mAppSetting;
+    private String mUnconfiguredApp;
+    private long mNow;
+    private boolean mActivateOrganizational;
+
+    @Setup
+    public void setup() {
+        List<PolicyProfileSetting> settings = BenchmarkPolicies.settings(apps, 3L);
+
+        mTable = new CompiledPolicyTable();
+        mTable.rebuild(settings);
+        mTable.activate(BenchmarkPolicies.ORGANIZATIONAL_PROFILE);
+
+        mAppSetting = settings.get(settings.size() / 2);
+        mUnconfiguredApp = BenchmarkPolicies.appName(apps + 1);
+
+        mCache = new PolicyDecisionCache();
+        mCache.put(mCache.generation(),
+                   BenchmarkPolicies.DEFAULT_PROFILE,
+                   mAppSetting.app,
+                   mAppSetting.permission,
+                   mAppSetting.purpose,
+                   mAppSetting.thirdPartyLibrary,
+                   mAppSetting);
+
+        mNow = System.currentTimeMillis();
+        mAskDecisions = new AskDecisionStore();
+
+        for(int app = 0; app < apps; app++) {
+            AskPolicySetting answer = new AskPolicySetting();
+            answer.app = BenchmarkPolicies.appName(app);
+            answer.permission = mAppSetting.permission;
+            answer.purpose = mAppSetting.purpose;
+            answer.library = mAppSetting.thirdPartyLibrary;
+            answer.policy = "ALLOW";
+            answer.timeThisPolicyWasSet = mNow;
+
+            mAskDecisions.put(answer);
+        }
+
+        mQuickSettings = QuickSettingState.enabled(0, 1, 2, 3).with(false, 2);
+    }
+
+    @Benchmark
+    public PolicyProfileSetting resolveAppSetting() {
+        return mTable.resolve(BenchmarkPolicies.DEFAULT_PROFILE,
+                              mAppSetting.app,
+                              mAppSetting.permission,
+                              mAppSetting.purpose,
+                              mAppSetting.thirdPartyLibrary,
+                              BenchmarkPolicies.THIRD_PARTY_USE);
+    }
+
+    @Benchmark
+    public PolicyProfileSetting resolveGlobalSetting() {
+        return mTable.resolve(BenchmarkPolicies.DEFAULT_PROFILE,
+                              mUnconfiguredApp,
+                              mAppSetting.permission,
+                              mAppSetting.purpose,
+                              mAppSetting.thirdPartyLibrary,
+                              BenchmarkPolicies.THIRD_PARTY_USE);
+    }
+
+    @Benchmark
+    public PolicyProfileSetting resolveThroughActiveProfile() {
+        ProfileSnapshot profile = mTable.getActiveProfile();
+        PolicyProfileSetting result = profile.resolve(mUnconfiguredApp,
+                                                      mAppSetting.permission,
+                                                      mAppSetting.purpose,
+                                                      mAppSetting.thirdPartyLibrary,
+                                                      BenchmarkPolicies.THIRD_PARTY_USE);
+
+        if(result != null) { return result; }
+
+        return mTable.resolve(BenchmarkPolicies.DEFAULT_PROFILE,
+                              mUnconfiguredApp,
+                              mAppSetting.permission,
+                              mAppSetting.purpose,
+                              mAppSetting.thirdPartyLibrary,
+                              BenchmarkPolicies.THIRD_PARTY_USE);
+    }
+
+    @Benchmark
+    public ProfileSnapshot activateProfile() {
+        mActivateOrganizational = !mActivateOrganizational;
+
+        return mTable.activate(mActivateOrganizational ? BenchmarkPolicies.ORGANIZATIONAL_PROFILE :
+                                                         BenchmarkPolicies.DEFAULT_PROFILE);
+    }
+
+    @Benchmark
+    public PolicyProfileSetting findExactSetting() {
+        return mTable.findExact(BenchmarkPolicies.DEFAULT_PROFILE,
+                                mAppSetting.app,
+                                mAppSetting.permission,
+                                mAppSetting.purpose,
+                                mAppSetting.thirdPartyLibrary);
+    }
+
+    @Benchmark
+    public PolicyProfileSetting cachedDecision() {
+        return mCache.get(BenchmarkPolicies.DEFAULT_PROFILE,
+                          mAppSetting.app,
+                          mAppSetting.permission,
+                          mAppSetting.purpose,
+                          mAppSetting.thirdPartyLibrary);
+    }
+
+    @Benchmark
+    public AskPolicySetting recentAskAnswer() {
+        return mAskDecisions.get(mAppSetting.app,
+                                 mAppSetting.permission,
+                                 mAppSetting.purpose,
+                                 mAppSetting.thirdPartyLibrary,
+                                 BenchmarkPolicies.THIRD_PARTY_USE,
+                                 mNow);
+    }
+
+    @Benchmark
+    public boolean quickSettingDenies() { return mQuickSettings.isDisabled(2); }
+}
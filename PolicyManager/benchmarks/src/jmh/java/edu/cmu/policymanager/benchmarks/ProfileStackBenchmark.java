@@ -0,0 +1,71 @@
+package edu.cmu.policymanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+import edu.cmu.policymanager.DataRepository.memory.CompiledPolicyTable;
+import edu.cmu.policymanager.DataRepository.memory.ProfileSnapshot;
+import edu.cmu.policymanager.DataRepository.memory.ProfileStack;
+
+/**
+ * Resolving a request through a stack of profiles. The layers are compiled into one
+ * snapshot, so resolving should take about as long with sixteen layers as with one.
+ * Switching a layer off and on again swaps between two snapshots that are compiled already.
+ * */
+@State(Scope.Benchmark)
+public class ProfileStackBenchmark {
+    @Param({ "1", "4", "16" })
+    public int layers;
+
+    @Param({ "FIRST_APPLICABLE", "DENY_OVERRIDES" })
+    public ProfileStack.CombiningRule rule;
+
+    private static final int APPS = 200;
+
+    private CompiledPolicyTable mTable;
+    private String mApp, mMiddleLayer;
+    private boolean mMiddleLayerEnabled = true;
+
+    @Setup
+    public void setup() {
+        List<PolicyProfileSetting> settings = BenchmarkPolicies.layeredSettings(layers, APPS, 5L);
+        String[] profiles = new String[layers];
+
+        for(int layer = 0; layer < layers; layer++) {
+            profiles[layer] = BenchmarkPolicies.layerName(layer);
+        }
+
+        mTable = new CompiledPolicyTable();
+        mTable.rebuild(settings);
+        mTable.activate(ProfileStack.layered(rule, profiles));
+
+        mApp = BenchmarkPolicies.appName(APPS / 2);
+        mMiddleLayer = profiles[layers / 2];
+    }
+
+    @Benchmark
+    public PolicyProfileSetting resolveThroughStack() {
+        return mTable.getActiveProfile().resolve(mApp,
+                                                 BenchmarkPolicies.PERMISSIONS[0],
+                                                 BenchmarkPolicies.PURPOSES[1],
+                                                 BenchmarkPolicies.LIBRARIES[0],
+                                                 BenchmarkPolicies.THIRD_PARTY_USE);
+    }
+
+    @Benchmark
+    public boolean stackMayDeny() {
+        return mTable.getActiveProfile().mayDeny(BenchmarkPolicies.PERMISSIONS[3]);
+    }
+
+    @Benchmark
+    public ProfileSnapshot switchLayer() {
+        mMiddleLayerEnabled = !mMiddleLayerEnabled;
+        return mTable.setLayerEnabled(mMiddleLayer, mMiddleLayerEnabled);
+    }
+}
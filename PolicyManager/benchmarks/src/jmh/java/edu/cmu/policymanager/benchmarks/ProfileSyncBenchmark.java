@@ -0,0 +1,174 @@
+package edu.cmu.policymanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.cmu.policymanager.DataRepository.db.model.PolicyProfileSetting;
+import edu.cmu.policymanager.DataRepository.memory.CompiledPolicyTable;
+import edu.cmu.policymanager.DataRepository.network.ProfileChanges;
+import edu.cmu.policymanager.DataRepository.network.ProfileStream;
+
+/**
+ * Installing a 10,000 rule profile, and then a new version of it in which 1% of the rules
+ * changed. Each benchmark reads the document the server would send, works out which rows
+ * change and applies them to the compiled policy table, which is what a sync does apart
+ * from the database writes. The delta should cost a small fraction of the full profile.
+ *
+ * The delta benchmark goes back and forth between the two versions, so every invocation
+ * applies a 1% delta to the table as it was left by the one before.
+ * */
+@State(Scope.Benchmark)
+public class ProfileSyncBenchmark {
+    private static final String PROFILE = BenchmarkPolicies.ORGANIZATIONAL_PROFILE;
+    private static final String[] ACTIONS = { "ALLOW", "DENY", "ASK" };
+    private static final int RULES = 10000, CHANGES = RULES / 100;
+
+    private String mFullProfile;
+    private String[] mDeltas = new String[2];
+    private List<PolicyProfileSetting>[] mInstalled;
+    private Map<String, Long> mIds;
+    private CompiledPolicyTable mTable;
+    private int mVersion;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        Random random = new Random(25L);
+        List<PolicyProfileSetting> rules = new ArrayList<PolicyProfileSetting>(RULES);
+
+        for(int i = 0; i < RULES; i++) { rules.add(rule(i, random)); }
+
+        List<PolicyProfileSetting> nextRules = new ArrayList<PolicyProfileSetting>(rules);
+
+        for(int i = 0; i < CHANGES / 4; i++) {
+            nextRules.remove(random.nextInt(nextRules.size()));
+            nextRules.add(rule(RULES + i, random));
+        }
+
+        for(int i = 0; i < CHANGES / 2; i++) {
+            int index = random.nextInt(nextRules.size());
+            PolicyProfileSetting changed = copy(nextRules.get(index));
+            changed.policyAction = "DENY".equals(changed.policyAction) ? "ALLOW" : "DENY";
+            nextRules.set(index, changed);
+        }
+
+        ProfileStream.Document profile = ProfileStream.Document.full(PROFILE, "1", rules),
+                               next = ProfileStream.Document.full(PROFILE, "2", nextRules);
+
+        mFullProfile = write(profile);
+        mDeltas[0] = write(ProfileStream.diff(profile, next));
+        mDeltas[1] = write(ProfileStream.diff(next, profile));
+
+        mIds = new HashMap<String, Long>();
+        mInstalled = new List[] { installed(profile), installed(next) };
+        mTable = new CompiledPolicyTable();
+        mTable.rebuild(mInstalled[0]);
+        mTable.activate(PROFILE);
+    }
+
+    @Benchmark
+    public CompiledPolicyTable applyFullProfile() throws IOException {
+        ProfileStream.Document profile = ProfileStream.read(new StringReader(mFullProfile));
+        ProfileChanges changes = ProfileChanges.between(
+                new ArrayList<PolicyProfileSetting>(), profile
+        );
+        CompiledPolicyTable table = new CompiledPolicyTable();
+        long id = 1;
+
+        for(PolicyProfileSetting setting : changes.inserted) { setting.id = id++; }
+
+        table.applyProfileChanges(PROFILE, changes.inserted, changes.updated, changes.removed);
+        table.activate(PROFILE);
+
+        return table;
+    }
+
+    @Benchmark
+    public ProfileChanges applyDelta() throws IOException {
+        ProfileStream.Document delta = ProfileStream.read(new StringReader(mDeltas[mVersion]));
+        ProfileChanges changes = ProfileChanges.between(mInstalled[mVersion], delta);
+
+        for(PolicyProfileSetting setting : changes.inserted) {
+            setting.id = mIds.get(ProfileStream.keyOf(setting));
+        }
+
+        mTable.applyProfileChanges(PROFILE, changes.inserted, changes.updated, changes.removed);
+        mVersion = 1 - mVersion;
+
+        return changes;
+    }
+
+    /*
+     * The rows the database would hold for a version of the profile. A rule keeps its id
+     * across both versions, as it does when a delta only updates its action.
+     */
+    private List<PolicyProfileSetting> installed(ProfileStream.Document profile) {
+        List<PolicyProfileSetting> rows = new ArrayList<PolicyProfileSetting>(profile.put.size());
+
+        for(PolicyProfileSetting rule : profile.put) {
+            String key = ProfileStream.keyOf(rule);
+            Long id = mIds.get(key);
+
+            if(id == null) {
+                id = (long) mIds.size() + 1;
+                mIds.put(key, id);
+            }
+
+            PolicyProfileSetting row = copy(rule);
+            row.id = id;
+            rows.add(row);
+        }
+
+        return rows;
+    }
+
+    private static PolicyProfileSetting rule(int i, Random random) {
+        PolicyProfileSetting setting = new PolicyProfileSetting();
+        int permissions = BenchmarkPolicies.PERMISSIONS.length;
+
+        setting.profileName = PROFILE;
+        setting.app = BenchmarkPolicies.appName(i / permissions);
+        setting.permission = BenchmarkPolicies.PERMISSIONS[i % permissions];
+        setting.purpose = BenchmarkPolicies.PURPOSES[random.nextInt(
+                BenchmarkPolicies.PURPOSES.length
+        )];
+        setting.thirdPartyLibrary = BenchmarkPolicies.LIBRARIES[random.nextInt(
+                BenchmarkPolicies.LIBRARIES.length
+        )];
+        setting.policyAction = ACTIONS[random.nextInt(ACTIONS.length)];
+        setting.lastUpdated = -1L;
+
+        return setting;
+    }
+
+    private static PolicyProfileSetting copy(PolicyProfileSetting setting) {
+        PolicyProfileSetting copy = new PolicyProfileSetting();
+        copy.profileName = setting.profileName;
+        copy.app = setting.app;
+        copy.permission = setting.permission;
+        copy.purpose = setting.purpose;
+        copy.thirdPartyLibrary = setting.thirdPartyLibrary;
+        copy.policyAction = setting.policyAction;
+        copy.lastUpdated = setting.lastUpdated;
+
+        return copy;
+    }
+
+    private static String write(ProfileStream.Document document) throws IOException {
+        StringWriter writer = new StringWriter();
+        ProfileStream.write(document, writer);
+
+        return writer.toString();
+    }
+}